@@ -0,0 +1,64 @@
+package fr.neatmonster.ibmpc;
+
+/**
+ * Measures the cost of tracking the dirty pages of the memory: words are
+ * written to random addresses over 640K of RAM, with a checkpoint every so
+ * many writes, and the best time of a few runs is printed per write.
+ *
+ * Benchmarks are kept out of the sources of the emulator, and out of its
+ * jar: they are compiled apart, against its classes.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class DirtyBenchmark {
+    /** The number of word writes of a run. */
+    private static final int WRITES = 100000000;
+    /** The number of runs, the best of which is kept. */
+    private static final int RUNS   = 10;
+
+    /**
+     * Entry point. Each argument is a number of writes between two
+     * checkpoints, 0 for none; by default 0, 1000000, 4096 and 256.
+     *
+     * @param args
+     *            the numbers of writes between two checkpoints
+     */
+    public static void main(final String[] args) {
+        final String[] intervals = args.length > 0 ? args : new String[] { "0", "1000000", "4096", "256" };
+        for (final String interval : intervals) {
+            final int every = Integer.parseInt(interval);
+            final double ns = run(every) / (double) WRITES;
+            if (every > 0)
+                System.out.printf("checkpoint every %d writes: %.2f ns/write%n", every, ns);
+            else
+                System.out.printf("no checkpoint: %.2f ns/write%n", ns);
+        }
+    }
+
+    /**
+     * Writes words to RAM, and returns the time of the best run.
+     *
+     * @param every
+     *            the number of writes between two checkpoints, 0 for none
+     * @return the time of the best run, in nanoseconds
+     */
+    private static long run(final int every) {
+        final Memory memory = new Memory();
+        memory.mapRAM(0x00000, 0xa0000);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; ++run) {
+            final long start = System.nanoTime();
+            int left = every;
+            for (int i = 0; i < WRITES; ++i) {
+                // Spreads the writes over the whole RAM, by Fibonacci hashing.
+                memory.setWord((i * 0x9e3779b1 >>> 12) % 0x9fffe, i);
+                if (--left == 0) {
+                    left = every;
+                    memory.checkpoint();
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
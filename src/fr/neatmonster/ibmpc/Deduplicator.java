@@ -0,0 +1,77 @@
+package fr.neatmonster.ibmpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+
+/**
+ * Page Deduplicator
+ *
+ * Machines parked at the same prompt hold the same bytes in most of their
+ * pages of RAM. The deduplicator goes through the memories of parked machines
+ * now and then, and merges the pages of the same content into one, shared
+ * until one of them is written to again.
+ *
+ * A machine must not run while parked: unparking it waits for the pass going
+ * on, if any, to end.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class Deduplicator extends TimerTask {
+
+    /** The memories of the parked machines. */
+    private final List<Memory> parked = new ArrayList<>();
+    /** The number of pages reclaimed by the last pass. */
+    private int                last;
+    /** The number of pages reclaimed by all passes. */
+    private long               total;
+
+    /**
+     * Returns the number of pages reclaimed by the last pass.
+     *
+     * @return the number of pages
+     */
+    public synchronized int getLastReclaimed() {
+        return last;
+    }
+
+    /**
+     * Returns the number of pages reclaimed by all passes, some of which may
+     * have been copied again since.
+     *
+     * @return the number of pages
+     */
+    public synchronized long getReclaimed() {
+        return total;
+    }
+
+    /**
+     * Parks a machine, whose memory is deduplicated from the next pass on.
+     *
+     * @param memory
+     *            the memory of the machine
+     */
+    public synchronized void park(final Memory memory) {
+        if (!parked.contains(memory))
+            parked.add(memory);
+    }
+
+    /**
+     * Deduplicates the memories of the parked machines.
+     */
+    @Override
+    public synchronized void run() {
+        last = Memory.deduplicate(parked);
+        total += last;
+    }
+
+    /**
+     * Unparks a machine, once the pass going on is over.
+     *
+     * @param memory
+     *            the memory of the machine
+     */
+    public synchronized void unpark(final Memory memory) {
+        parked.remove(memory);
+    }
+}
@@ -0,0 +1,338 @@
+package fr.neatmonster.ibmpc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Machine Hibernator
+ *
+ * Puts an upper bound on the machines resident in the JVM. Machines which
+ * have been idle for some time are hibernated to disk, the least recently
+ * used first, for as long as there are more resident machines, or more
+ * private RAM, than allowed. A machine is idle while it is halted, or while
+ * its guest writes neither to memory nor to ports but in the handlers of
+ * hardware interrupts: waiting for a key at a prompt, but not computing.
+ *
+ * The hibernator runs the machines, each on a thread of its own. Each
+ * machine is checked by a device scheduled on it, between two of its
+ * instructions. A machine to hibernate is stopped, and its thread writes its
+ * image then ends: nothing of the machine is left but its image file, and
+ * its handle. It is rebuilt from the image, on a new thread, when a key is
+ * typed on it: to its guest, no time went by. Machines are meant to run
+ * without a display, as the window of a machine would hold it.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class Hibernator {
+
+    /**
+     * A machine, resident or hibernated.
+     */
+    public class Machine {
+
+        /** Builds the machine, with its ROMs and peripherals, before it runs. */
+        private final Supplier<Intel8086> factory;
+        /** The keys typed while the machine is hibernated or resumed. */
+        private final ArrayDeque<Integer> keys     = new ArrayDeque<>();
+        /** The CPU of the machine, or null while hibernated. */
+        private Intel8086                 cpu;
+        /** The thread running the machine, or which ran it last. */
+        private Thread                    thread;
+        /** The image file of the machine, written before its thread ends. */
+        private Path                      image;
+        /** Is the machine being resumed, or fed the keys typed meanwhile? */
+        private boolean                   resuming;
+        /** The number of keys being typed on the machine. */
+        private int                       typing;
+        /** The number of writes of the guest when last checked. */
+        private long                      writes;
+        /** The number of bytes of private RAM when last checked. */
+        private volatile long             size;
+        /** The time it was last busy, in nanoseconds. */
+        private long                      used     = System.nanoTime();
+        /** Is the machine resident? */
+        private boolean                   resident = true;
+
+        /**
+         * Instantiates a machine.
+         *
+         * @param factory
+         *            builds the machine
+         */
+        private Machine(final Supplier<Intel8086> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * Returns the CPU of the machine.
+         *
+         * @return the CPU, or null while hibernated
+         */
+        public synchronized Intel8086 getCPU() {
+            return cpu;
+        }
+
+        /**
+         * Types a scan code on the machine, resuming it if hibernated. As
+         * Intel8255.keyTyped(), it may wait for the guest to catch up.
+         *
+         * @param scanCode
+         *            the scan code
+         */
+        public void keyTyped(final int scanCode) {
+            final Intel8255 keyboard;
+            synchronized (this) {
+                if (cpu == null || resuming) {
+                    keys.add(scanCode);
+                    if (!resuming) {
+                        resuming = true;
+                        final Thread hibernated = thread;
+                        new Thread(() -> resume(hibernated), "Resume").start();
+                    }
+                    return;
+                }
+                keyboard = cpu.getKeyboard();
+                ++typing;
+            }
+            try {
+                keyboard.keyTyped(scanCode);
+            } finally {
+                synchronized (this) {
+                    --typing;
+                }
+            }
+        }
+
+        /**
+         * Resumes the machine, once its last thread wrote its image, then
+         * feeds it the keys typed meanwhile, in order.
+         *
+         * @param hibernated
+         *            the thread which ran the machine last
+         */
+        private void resume(final Thread hibernated) {
+            final Intel8086 cpu = factory.get();
+            try {
+                hibernated.join();
+                cpu.resume(image);
+                Files.delete(image);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            start(cpu);
+            while (true) {
+                final int scanCode;
+                synchronized (this) {
+                    if (keys.isEmpty()) {
+                        resuming = false;
+                        return;
+                    }
+                    scanCode = keys.remove();
+                }
+                cpu.getKeyboard().keyTyped(scanCode);
+            }
+        }
+
+        /**
+         * Runs the machine, until it is halted for good or hibernated.
+         *
+         * @param cpu
+         *            the CPU of the machine
+         */
+        private void run(final Intel8086 cpu) {
+            cpu.run();
+            synchronized (this) {
+                // Halted for good.
+                if (this.cpu == cpu)
+                    return;
+            }
+            try {
+                image = Files.createTempFile(directory, "machine", ".img");
+                cpu.hibernate(image);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Starts running the machine on a new thread.
+         *
+         * @param cpu
+         *            the CPU of the machine
+         */
+        private void start(final Intel8086 cpu) {
+            writes = cpu.getWrites();
+            size = cpu.memory.getPrivateSize();
+            // Just used, it is not checked out before it runs.
+            touch(this, true);
+            cpu.schedule(now -> update(cpu, now));
+            final Thread thread = new Thread(() -> run(cpu), "Machine");
+            thread.setDaemon(true);
+            synchronized (this) {
+                this.cpu = cpu;
+                this.thread = thread;
+            }
+            thread.start();
+        }
+
+        /**
+         * Checks the machine, from its thread: it is stopped if it is to be
+         * hibernated.
+         *
+         * @param cpu
+         *            the CPU of the machine
+         * @param now
+         *            the clock cycles spent by the CPU
+         * @return the clock cycle of the next check
+         */
+        private long update(final Intel8086 cpu, final long now) {
+            size = cpu.memory.getPrivateSize();
+            if (!cpu.isHalted() && cpu.getWrites() != writes)
+                touch(this, true);
+            writes = cpu.getWrites();
+            if (evict(this)) {
+                synchronized (this) {
+                    // Keys being typed keep it resident.
+                    if (typing > 0 || resuming)
+                        return now + PERIOD;
+                    this.cpu = null;
+                }
+                cpu.stop();
+                touch(this, false);
+            }
+            return now + PERIOD;
+        }
+    }
+
+    /** The clock cycles between two checks of a machine, about 0.2s. */
+    private static final long   PERIOD = 1 << 20;
+
+    /** The directory of the image files. */
+    private final Path          directory;
+    /** The time after which a machine not busy is idle, in nanoseconds. */
+    private final long          idle;
+    /** The number of machines allowed to be resident. */
+    private final int           machines;
+    /** The number of bytes of private RAM allowed to be resident. */
+    private final long          bytes;
+    /** The machines. */
+    private final List<Machine> all    = new ArrayList<>();
+
+    /**
+     * Instantiates a hibernator.
+     *
+     * @param directory
+     *            the directory of the image files
+     * @param idle
+     *            the time after which a machine not busy is idle, in
+     *            milliseconds
+     * @param machines
+     *            the number of machines allowed to be resident
+     * @param bytes
+     *            the number of bytes of private RAM allowed to be resident
+     */
+    public Hibernator(final Path directory, final long idle, final int machines, final long bytes) {
+        this.directory = directory;
+        this.idle = idle * 1000000;
+        this.machines = machines;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Adds a machine, and starts running it. The factory builds the machine,
+     * with its ROMs and peripherals, and is called again to rebuild it
+     * whenever it is resumed.
+     *
+     * @param factory
+     *            builds the machine
+     * @return the machine
+     */
+    public Machine add(final Supplier<Intel8086> factory) {
+        final Machine machine = new Machine(factory);
+        synchronized (this) {
+            all.add(machine);
+        }
+        machine.start(factory.get());
+        return machine;
+    }
+
+    /**
+     * Should the specified machine be hibernated? Resident machines are
+     * hibernated from the least recently used, skipping those not idle, until
+     * both the number of machines and the private RAM are within bounds.
+     *
+     * @param machine
+     *            the machine
+     * @return true if the machine should be hibernated
+     */
+    private synchronized boolean evict(final Machine machine) {
+        final long now = System.nanoTime();
+        if (!machine.resident || now - machine.used < idle)
+            return false;
+        final List<Machine> resident = new ArrayList<>();
+        long size = 0;
+        for (final Machine other : all)
+            if (other.resident) {
+                resident.add(other);
+                size += other.size;
+            }
+        resident.sort((a, b) -> Long.compare(a.used, b.used));
+        int count = resident.size();
+        for (final Machine other : resident) {
+            if (count <= machines && size <= bytes)
+                return false;
+            if (now - other.used >= idle) {
+                if (other == machine)
+                    return true;
+                --count;
+                size -= other.size;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of machines hibernated.
+     *
+     * @return the number of machines
+     */
+    public synchronized int getHibernated() {
+        return all.size() - getResident();
+    }
+
+    /**
+     * Returns the number of machines resident.
+     *
+     * @return the number of machines
+     */
+    public synchronized int getResident() {
+        int count = 0;
+        for (final Machine machine : all)
+            if (machine.resident)
+                ++count;
+        return count;
+    }
+
+    /**
+     * Marks a machine as used or hibernated.
+     *
+     * @param machine
+     *            the machine
+     * @param resident
+     *            true if used, false if hibernated
+     */
+    private synchronized void touch(final Machine machine, final boolean resident) {
+        if (resident)
+            machine.used = System.nanoTime();
+        machine.resident = resident;
+    }
+}
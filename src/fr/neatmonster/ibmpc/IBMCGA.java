@@ -4,10 +4,13 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -161,6 +164,11 @@ public class IBMCGA extends JPanel implements KeyListener {
      * @see fr.neatmonster.ibmpc.Motorola6845
      */
     private final Motorola6845   crtc;
+    /**
+     * The scan codes of the keys pressed and released, fed to the 8255 by the
+     * keyboard thread: the event thread never waits for the 8255.
+     */
+    private final BlockingQueue<Integer> keys = new LinkedBlockingQueue<>();
 
     /**
      * Instantiates a new display.
@@ -186,6 +194,9 @@ public class IBMCGA extends JPanel implements KeyListener {
         }
         setBackground(Color.black);
         setForeground(Color.white);
+        // Without a display, e.g. on a server, the adapter has no window.
+        if (GraphicsEnvironment.isHeadless())
+            return;
         final JFrame frame = new JFrame();
         frame.add(this);
         frame.addKeyListener(this);
@@ -199,6 +210,16 @@ public class IBMCGA extends JPanel implements KeyListener {
                 repaint();
             }
         }, 0, 1000 / 60); // Refresh at a 60 FPS rate.
+        final Thread keyboard = new Thread(() -> {
+            try {
+                while (true)
+                    ppi.keyTyped(keys.take());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Keyboard");
+        keyboard.setDaemon(true);
+        keyboard.start();
     }
 
     /**
@@ -392,7 +413,7 @@ public class IBMCGA extends JPanel implements KeyListener {
     public void keyPressed(final KeyEvent e) {
         final int scanCode = getScanCode(e.getKeyCode(), e.getKeyLocation());
         if (scanCode > 0)
-            ppi.keyTyped(scanCode);
+            keys.offer(scanCode);
     }
 
     /**
@@ -404,7 +425,7 @@ public class IBMCGA extends JPanel implements KeyListener {
     public void keyReleased(final KeyEvent e) {
         final int scanCode = getScanCode(e.getKeyCode(), e.getKeyLocation());
         if (scanCode > 0)
-            ppi.keyTyped(0x80 | scanCode);
+            keys.offer(0x80 | scanCode);
     }
 
     /**
@@ -427,8 +448,8 @@ public class IBMCGA extends JPanel implements KeyListener {
         final int curLoc = crtc.getRegister(0xf) | crtc.getRegister(0xe) << 8;
         for (int y = 0; y < 25; ++y)
             for (int x = 0; x < 80; ++x) {
-                final int character = cpu.memory[0xb8000 + 2 * (x + y * 80)];
-                final int attribute = cpu.memory[0xb8000 + 2 * (x + y * 80) + 1];
+                final int character = cpu.memory.getByte(0xb8000 + 2 * (x + y * 80));
+                final int attribute = cpu.memory.getByte(0xb8000 + 2 * (x + y * 80) + 1);
                 // Draw background first.
                 g.setColor(colors[attribute >>> 4 & 0b111]);
                 g.fillRect(x * 7, y * 12, 7, 12);
@@ -0,0 +1,273 @@
+package fr.neatmonster.ibmpc;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Predecoded Instruction Cache
+ *
+ * Most of the time spent by the CPU on an instruction used to go into
+ * fetching it again: scanning the prefixes, filling the queue and decoding
+ * the second byte. Since the code of the BIOS and of BASIC mostly runs in
+ * loops, every instruction is decoded only once and kept in this cache,
+ * keyed by its physical address.
+ *
+ * The cache is divided into 4K pages. A write to a page holding cached code
+ * throws away all the instructions of that page, so that self-modifying code
+ * still behaves as if it was fetched from memory every time. The blocks of
+ * the recompiler are attached to the instructions they start at, and thrown
+ * away with them.
+ *
+ * The statistics of the cache are only counted by the thread of the CPU, but
+ * may be read by any other one: they are written opaquely, so that they are
+ * never read torn, and read as recent as the other thread can see them.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class InstructionCache {
+
+    /**
+     * A decoded instruction.
+     */
+    static final class Entry {
+        /** The instruction bytes following the prefixes, as in the queue. */
+        final int[] queue = new int[6];
+        /** Operation (Instruction) code */
+        int         op;
+        /** Number of prefix bytes. */
+        int         prefixes;
+        /** Overridden segment register, or -1 if none. */
+        int         segment = -1;
+        /** Repeat prefix (only kept for string instructions). */
+        int         rep;
+        /** Clock cycles charged before execution (prefixes, string setup). */
+        int         clocks;
+        /** Register mode/Memory mode with displacement length */
+        int         mod;
+        /** Register operand/Extension of opcode */
+        int         reg;
+        /** Register operand/Registers to use in EA calculation */
+        int         rm;
+        /** Displacement, or direct address, of the memory operand. */
+        int         disp;
+        /** Length of the second byte and of the displacement. */
+        int         length;
+        /** Number of bytes, from the physical address, the entry depends on. */
+        int         size;
+        /** Number of times the instruction was fetched from the cache. */
+        int         count;
+        /** Translated code starting at the instruction, if any. */
+        Recompiler.Block block;
+        /** Number of bytes the translated code was translated from. */
+        int         span;
+    }
+
+    /**
+     * The statistics of the cache at some point.
+     */
+    public static final class Statistics {
+        /** Number of lookups answered by the cache. */
+        public final long hits;
+        /** Number of lookups which required decoding. */
+        public final long misses;
+        /** Number of pages thrown away because of a write. */
+        public final long invalidations;
+
+        /**
+         * Instantiates statistics.
+         *
+         * @param hits
+         *            the number of hits
+         * @param misses
+         *            the number of misses
+         * @param invalidations
+         *            the number of invalidations
+         */
+        private Statistics(final long hits, final long misses, final long invalidations) {
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+        }
+    }
+
+    /** The number of bits of a page offset. */
+    static final int        PAGE_BITS = 12;
+    /** The number of pages in the address space. */
+    private static final int PAGES    = 0x100000 >>> PAGE_BITS;
+    /** The mask of a page offset. */
+    private static final int OFFSET   = (1 << PAGE_BITS) - 1;
+
+    /** Opaque view of the number of hits. */
+    private static final VarHandle HITS;
+    /** Opaque view of the number of misses. */
+    private static final VarHandle MISSES;
+    /** Opaque view of the number of invalidations. */
+    private static final VarHandle INVALIDATIONS;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HITS = lookup.findVarHandle(InstructionCache.class, "hits", long.class);
+            MISSES = lookup.findVarHandle(InstructionCache.class, "misses", long.class);
+            INVALIDATIONS = lookup.findVarHandle(InstructionCache.class, "invalidations", long.class);
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** The cached instructions of each page, allocated on first use. */
+    private final Entry[][] pages     = new Entry[PAGES][];
+    /** Does any cached instruction depend on each page? */
+    private final boolean[] code      = new boolean[PAGES];
+    /** Does any cached instruction of each page extend into the next one? */
+    private final boolean[] spans     = new boolean[PAGES];
+
+    /** Number of lookups answered by the cache. */
+    private long            hits;
+    /** Number of lookups which required decoding. */
+    private long            misses;
+    /** Number of pages thrown away because of a write. */
+    private long            invalidations;
+
+    /**
+     * Throws away all cached instructions.
+     */
+    public void clear() {
+        for (int page = 0; page < PAGES; ++page) {
+            pages[page] = null;
+            code[page] = false;
+            spans[page] = false;
+        }
+    }
+
+    /**
+     * Extends the instructions of a page to the specified bytes, so that
+     * writing to any of them throws away the page.
+     *
+     * @param addr
+     *            the physical address
+     * @param size
+     *            the number of bytes
+     */
+    void extend(final int addr, final int size) {
+        final int first = addr >>> PAGE_BITS;
+        final int last = addr + size - 1 >>> PAGE_BITS;
+        for (int page = first; page < last; ++page) {
+            code[page + 1] = true;
+            spans[page] = true;
+        }
+    }
+
+    /**
+     * Returns the decoded instruction at the specified address.
+     *
+     * @param addr
+     *            the physical address
+     * @return the instruction, or null if not cached
+     */
+    Entry get(final int addr) {
+        final Entry[] page = pages[addr >>> PAGE_BITS];
+        if (page != null) {
+            final Entry entry = page[addr & OFFSET];
+            if (entry != null) {
+                HITS.setOpaque(this, hits + 1);
+                return entry;
+            }
+        }
+        MISSES.setOpaque(this, misses + 1);
+        return null;
+    }
+
+    /**
+     * Returns the number of lookups answered by the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return (long) HITS.getOpaque(this);
+    }
+
+    /**
+     * Returns the number of pages thrown away because of a write.
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidations() {
+        return (long) INVALIDATIONS.getOpaque(this);
+    }
+
+    /**
+     * Returns the number of lookups which required decoding.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return (long) MISSES.getOpaque(this);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the cache, from any thread.
+     * Each of them is read at once, but not all of them together.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(getHits(), getMisses(), getInvalidations());
+    }
+
+    /**
+     * Throws away the instructions depending on the byte at the specified
+     * address.
+     *
+     * @param addr
+     *            the physical address written to
+     */
+    void invalidate(final int addr) {
+        final int page = addr >>> PAGE_BITS;
+        if (!code[page])
+            return;
+        pages[page] = null;
+        code[page] = false;
+        spans[page] = false;
+        // Instructions of the previous pages may extend into this one.
+        for (int prev = page - 1; prev >= 0 && spans[prev]; --prev) {
+            pages[prev] = null;
+            spans[prev] = false;
+        }
+        INVALIDATIONS.setOpaque(this, invalidations + 1);
+    }
+
+    /**
+     * Throws away the instructions depending on the specified bytes.
+     *
+     * @param addr
+     *            the physical address written to
+     * @param size
+     *            the number of bytes written
+     */
+    void invalidate(final int addr, final int size) {
+        for (int page = addr >>> PAGE_BITS; page <= addr + size - 1 >>> PAGE_BITS; ++page)
+            invalidate(page << PAGE_BITS);
+    }
+
+    /**
+     * Stores a decoded instruction at the specified address.
+     *
+     * @param addr
+     *            the physical address
+     * @param entry
+     *            the instruction
+     */
+    void put(final int addr, final Entry entry) {
+        final int first = addr >>> PAGE_BITS;
+        final int last = addr + entry.size - 1 >>> PAGE_BITS;
+        if (pages[first] == null)
+            pages[first] = new Entry[1 << PAGE_BITS];
+        pages[first][addr & OFFSET] = entry;
+        code[first] = true;
+        if (last != first) {
+            code[last] = true;
+            spans[first] = true;
+        }
+    }
+}
@@ -1,8 +1,24 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.sound.sampled.LineUnavailableException;
 
 /**
  * The 8086 CPU is characterized by:
@@ -48,6 +64,21 @@ import java.io.InputStream;
  * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
  */
 public class Intel8086 {
+    /**
+     * An instruction handler, called once the first byte of the instruction
+     * has been fetched. Each opcode (or family of opcodes sharing the same
+     * encoding) has its own handler so that the methods stay small enough to
+     * be compiled by the JIT.
+     */
+    @FunctionalInterface
+    private interface Instruction {
+
+        /**
+         * Executes the instruction.
+         */
+        void execute();
+    }
+
     /**
      * CF (carry flag)
      *
@@ -188,6 +219,24 @@ public class Intel8086 {
     /** Lookup table used for setting the overflow flag. */
     private static final int[] SIGN   = new int[] { 0x80, 0x8000 };
 
+    /** Flags affected by the arithmetic and logic operations. */
+    private static final int   STATUS = CF | PF | AF | ZF | SF | OF;
+    /** Last operation was an addition (or an increment). */
+    private static final int   ADD    = 0;
+    /** Last operation was an addition with a carry in. */
+    private static final int   ADC    = 1;
+    /** Last operation was a subtraction (or a decrement). */
+    private static final int   SUB    = 2;
+    /** Last operation was a subtraction with a borrow in. */
+    private static final int   SBB    = 3;
+    /** Last operation was a logical operation. */
+    private static final int   LOGIC  = 4;
+
+    /** The clock cycles of the CPU per second. */
+    static final long          FREQUENCY = 4772727;
+    /** The nanoseconds of a second. */
+    private static final long  SECOND    = 1000000000;
+
     /**
      * Entry point. For now it executes a little test program.
      */
@@ -198,9 +247,15 @@ public class Intel8086 {
         cpu.reset();
         try {
             // Try loading IBM ROM BIOS.
-            cpu.load(0xfe000, "bios.bin");
+            cpu.load(0xfe000, "bios.bin", 0x9b791d3eL);
             // Try loading IBM ROM BASIC.
-            cpu.load(0xf6000, "basic.bin");
+            cpu.load(0xf6000, "basic.bin", 0xebacb791L);
+            // Try opening an audio line for the speaker.
+            try {
+                cpu.schedule(new Speaker(cpu.pit, cpu.ppi, new Speaker.Line()));
+            } catch (final LineUnavailableException | IllegalArgumentException e) {
+                System.err.println("No audio line, the speaker is muted.");
+            }
             // Execute all instructions.
             cpu.run();
         } catch (final IOException e) {
@@ -441,6 +496,23 @@ public class Intel8086 {
      */
     private int                flags;
 
+    /**
+     * Lazy Flags
+     *
+     * Most of the flags posted by an operation are overwritten by the next
+     * one before anything reads them. So the ALU only records the last
+     * operation, its operands and its result, and a flag is worked out when
+     * it is read. The flags in this mask are given by the last operation; the
+     * others are in the flags register.
+     */
+    private int                lazy;
+    /** Last operation (ADD, ADC, SUB, SBB or LOGIC). */
+    private int                lazyOp;
+    /** Word/byte operation */
+    private int                lazyW;
+    /** Operands and result of the last operation. */
+    private int                lazyDst, lazySrc, lazyRes;
+
     /**
      * Queue
      *
@@ -470,8 +542,11 @@ public class Intel8086 {
      * whenever the EU requests a memory or I/O read or write (except that a
      * fetch already in progress is completed before executing the EU's bus
      * request).
+     *
+     * The queue holds the bytes of the instruction being executed, as they
+     * were stored in the instruction cache when first fetched.
      */
-    private final int[]        queue       = new int[6];
+    private int[]              queue       = new int[6];
 
     /**
      * Memory
@@ -596,7 +671,7 @@ public class Intel8086 {
      * should not use these areas for any other purpose. Doing so may make
      * these systems incompatible with future Intel products.
      */
-    protected final int[]      memory      = new int[0x100000];
+    protected final Memory     memory;
 
     /*
      * External Components
@@ -606,7 +681,7 @@ public class Intel8086 {
      *
      * @see fr.neatmonster.ibmpc.Intel8237
      */
-    private final Intel8237    dma         = new Intel8237();
+    private final Intel8237    dma         = new Intel8237(this);
 
     /**
      * Intel 8259 - Programmable Interrupt Controller
@@ -645,12 +720,34 @@ public class Intel8086 {
     private final IBMCGA       cga         = new IBMCGA(this, ppi, crtc);
 
     /**
-     * An array containing all peripherals.
+     * The page of the port map where no peripheral is connected.
+     */
+    private static final Peripheral[] UNMAPPED = new Peripheral[0x100];
+
+    /**
+     * A list containing all peripherals, in the order they were attached.
      *
      * The CGA, technically a peripheral, interacts directly with the CPU in
      * this implementation and by doing so does not use the I/O space.
      */
-    private final Peripheral[] peripherals = new Peripheral[] { dma, pic, pit, ppi, crtc };
+    private final List<Peripheral> peripherals = new ArrayList<>();
+
+    /**
+     * The peripheral connected to each port of the I/O space, in pages of 256
+     * ports. Pages where no peripheral is connected are all the same empty
+     * page. The map is rebuilt, never modified, when a peripheral is attached
+     * or detached, so that it can be done while the CPU is running.
+     */
+    private volatile Peripheral[][] ports;
+
+    /**
+     * Device Scheduler
+     *
+     * Catches up the devices when their next event comes.
+     *
+     * @see fr.neatmonster.ibmpc.Scheduler
+     */
+    private final Scheduler    scheduler   = new Scheduler();
 
     /*
      * Typical 8086 Machine Instruction Format
@@ -670,13 +767,239 @@ public class Intel8086 {
     private int                reg;
     /** Register operand/Registers to use in EA calculation */
     private int                rm;
+    /** Displacement, or direct address, of the memory operand */
+    private int                disp;
 
     /** Store Effective Address to void recalculating it. */
     private int                ea;
 
-    /** Count clock cycles for a more accurate emulation. */
+    /** Count clock cycles for a more accurate emulation, since power on. */
     private long               clocks;
 
+    /** Repeat prefix (1 for REP/REPE/REPZ, 2 for REPNE/REPNZ, 0 for none). */
+    private int                rep;
+
+    /** Set when a HLT instruction has been executed, until an interrupt. */
+    private boolean            halted;
+
+    /** Set by stop(), for run() to return between two instructions. */
+    private boolean            stopped;
+
+    /**
+     * The number of writes of the guest to memory or to ports, outside of
+     * the handlers of hardware interrupts: what it does by itself.
+     */
+    private long               writes;
+
+    /**
+     * Instruction Cache
+     *
+     * Instructions decoded so far, keyed by their physical address.
+     *
+     * @see fr.neatmonster.ibmpc.InstructionCache
+     */
+    private final InstructionCache cache = new InstructionCache();
+    /** The decoded instruction being executed. */
+    private InstructionCache.Entry entry;
+
+    /**
+     * Dynamic Recompiler
+     *
+     * Translates the code executed most often into JVM bytecode.
+     *
+     * @see fr.neatmonster.ibmpc.Recompiler
+     */
+    private final Recompiler       recompiler;
+
+    /**
+     * Instruction Table
+     *
+     * Handlers of all 256 opcodes, indexed by the first byte of the
+     * instruction.
+     */
+    private final Instruction[] instructions = new Instruction[0x100];
+
+    /**
+     * Instantiates a new CPU, with its RAM on the heap.
+     */
+    public Intel8086() {
+        this(new Memory());
+    }
+
+    /**
+     * Instantiates a new CPU with the specified memory, e.g. out of the heap
+     * or opened from a snapshot, and fills its instruction table.
+     *
+     * @param memory
+     *            the memory, where nothing is mapped yet
+     */
+    public Intel8086(final Memory memory) {
+        this(memory, true);
+    }
+
+    /**
+     * Instantiates a new CPU with the specified memory, and fills its
+     * instruction table.
+     *
+     * @param memory
+     *            the memory
+     * @param map
+     *            should RAM be mapped into the memory?
+     */
+    private Intel8086(final Memory memory, final boolean map) {
+        this.memory = memory;
+        recompiler = new Recompiler(MethodHandles.lookup(), memory, cache);
+
+        // 640K of RAM, and the memory of the CGA.
+        if (map) {
+            memory.mapRAM(0x00000, 0xa0000);
+            memory.mapRAM(0xb8000, 0x08000);
+        }
+
+        attach(dma, pic, pit, ppi, crtc);
+        scheduler.add(pit, clocks);
+        scheduler.add(ppi, clocks);
+
+        for (int op = 0; op < 0x100; ++op)
+            instructions[op] = this::unused;
+
+        // Data Transfer Instructions
+        setInstruction(this::movRM, 0x88, 0x89, 0x8a, 0x8b);
+        setInstruction(this::movRMImm, 0xc6, 0xc7);
+        setInstruction(this::movRegImm, 0xb0, 0xb1, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7);
+        setInstruction(this::movRegImm, 0xb8, 0xb9, 0xba, 0xbb, 0xbc, 0xbd, 0xbe, 0xbf);
+        setInstruction(this::movAccMem, 0xa0, 0xa1, 0xa2, 0xa3);
+        setInstruction(this::movSegReg, 0x8c, 0x8e);
+        setInstruction(this::pushReg, 0x50, 0x51, 0x52, 0x53, 0x54, 0x55, 0x56, 0x57);
+        setInstruction(this::pushSegReg, 0x06, 0x0e, 0x16, 0x1e);
+        setInstruction(this::popReg, 0x58, 0x59, 0x5a, 0x5b, 0x5c, 0x5d, 0x5e, 0x5f);
+        setInstruction(this::popSegReg, 0x07, 0x0f, 0x17, 0x1f);
+        setInstruction(this::xchgRM, 0x86, 0x87);
+        setInstruction(this::xchgAcc, 0x91, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97);
+        setInstruction(this::xlat, 0xd7);
+        setInstruction(this::inImm, 0xe4, 0xe5);
+        setInstruction(this::inDX, 0xec, 0xed);
+        setInstruction(this::outImm, 0xe6, 0xe7);
+        setInstruction(this::outDX, 0xee, 0xef);
+        setInstruction(this::lea, 0x8d);
+        setInstruction(this::lds, 0xc5);
+        setInstruction(this::les, 0xc4);
+        setInstruction(this::lahf, 0x9f);
+        setInstruction(this::sahf, 0x9e);
+        setInstruction(this::pushf, 0x9c);
+        setInstruction(this::popf, 0x9d);
+
+        // Arithmetic Instructions
+        setInstruction(this::addRM, 0x00, 0x01, 0x02, 0x03);
+        setInstruction(this::addAccImm, 0x04, 0x05);
+        setInstruction(this::adcRM, 0x10, 0x11, 0x12, 0x13);
+        setInstruction(this::adcAccImm, 0x14, 0x15);
+        setInstruction(this::incReg, 0x40, 0x41, 0x42, 0x43, 0x44, 0x45, 0x46, 0x47);
+        setInstruction(this::aaa, 0x37);
+        setInstruction(this::daa, 0x27);
+        setInstruction(this::subRM, 0x28, 0x29, 0x2a, 0x2b);
+        setInstruction(this::subAccImm, 0x2c, 0x2d);
+        setInstruction(this::sbbRM, 0x18, 0x19, 0x1a, 0x1b);
+        setInstruction(this::sbbAccImm, 0x1c, 0x1d);
+        setInstruction(this::decReg, 0x48, 0x49, 0x4a, 0x4b, 0x4c, 0x4d, 0x4e, 0x4f);
+        setInstruction(this::cmpRM, 0x38, 0x39, 0x3a, 0x3b);
+        setInstruction(this::cmpAccImm, 0x3c, 0x3d);
+        setInstruction(this::aas, 0x3f);
+        setInstruction(this::das, 0x2f);
+        setInstruction(this::aam, 0xd4);
+        setInstruction(this::aad, 0xd5);
+        setInstruction(this::cbw, 0x98);
+        setInstruction(this::cwd, 0x99);
+
+        // Bit Manipulation Instructions
+        setInstruction(this::andRM, 0x20, 0x21, 0x22, 0x23);
+        setInstruction(this::andAccImm, 0x24, 0x25);
+        setInstruction(this::orRM, 0x08, 0x09, 0x0a, 0x0b);
+        setInstruction(this::orAccImm, 0x0c, 0x0d);
+        setInstruction(this::xorRM, 0x30, 0x31, 0x32, 0x33);
+        setInstruction(this::xorAccImm, 0x34, 0x35);
+        setInstruction(this::testRM, 0x84, 0x85);
+        setInstruction(this::testAccImm, 0xa8, 0xa9);
+
+        // String Instructions
+        setInstruction(this::movs, 0xa4, 0xa5);
+        setInstruction(this::cmps, 0xa6, 0xa7);
+        setInstruction(this::scas, 0xae, 0xaf);
+        setInstruction(this::lods, 0xac, 0xad);
+        setInstruction(this::stos, 0xaa, 0xab);
+
+        // Program Transfer Instructions
+        setInstruction(this::callNear, 0xe8);
+        setInstruction(this::callFar, 0x9a);
+        setInstruction(this::retNear, 0xc3);
+        setInstruction(this::retNearImm, 0xc2);
+        setInstruction(this::retFar, 0xcb);
+        setInstruction(this::retFarImm, 0xca);
+        setInstruction(this::jmpNear, 0xe9);
+        setInstruction(this::jmpShort, 0xeb);
+        setInstruction(this::jmpFar, 0xea);
+        setInstruction(this::jo, 0x70);
+        setInstruction(this::jno, 0x71);
+        setInstruction(this::jb, 0x72);
+        setInstruction(this::jnb, 0x73);
+        setInstruction(this::je, 0x74);
+        setInstruction(this::jne, 0x75);
+        setInstruction(this::jbe, 0x76);
+        setInstruction(this::jnbe, 0x77);
+        setInstruction(this::js, 0x78);
+        setInstruction(this::jns, 0x79);
+        setInstruction(this::jp, 0x7a);
+        setInstruction(this::jnp, 0x7b);
+        setInstruction(this::jl, 0x7c);
+        setInstruction(this::jnl, 0x7d);
+        setInstruction(this::jle, 0x7e);
+        setInstruction(this::jnle, 0x7f);
+        setInstruction(this::loop, 0xe2);
+        setInstruction(this::loope, 0xe1);
+        setInstruction(this::loopne, 0xe0);
+        setInstruction(this::jcxz, 0xe3);
+        setInstruction(this::interrupt, 0xcc, 0xcd);
+        setInstruction(this::into, 0xce);
+        setInstruction(this::iret, 0xcf);
+
+        // Processor Control Instructions
+        setInstruction(this::clc, 0xf8);
+        setInstruction(this::cmc, 0xf5);
+        setInstruction(this::stc, 0xf9);
+        setInstruction(this::cld, 0xfc);
+        setInstruction(this::std, 0xfd);
+        setInstruction(this::cli, 0xfa);
+        setInstruction(this::sti, 0xfb);
+        setInstruction(this::hlt, 0xf4);
+        setInstruction(this::waitForTest, 0x9b);
+        setInstruction(this::esc, 0xd8, 0xd9, 0xda, 0xdb, 0xdc, 0xdd, 0xde, 0xdf);
+        setInstruction(this::lock, 0xf0);
+        setInstruction(this::nop, 0x90);
+
+        // Extensions
+        setInstruction(this::group1, 0x80, 0x81, 0x82, 0x83);
+        setInstruction(this::group1a, 0x8f);
+        setInstruction(this::group2, 0xd0, 0xd1, 0xd2, 0xd3);
+        setInstruction(this::group3, 0xf6, 0xf7);
+        setInstruction(this::group4, 0xfe);
+        setInstruction(this::group5, 0xff);
+    }
+
+    /**
+     * Attaches peripherals to the ports they are connected to. Ports already
+     * taken by another peripheral are left to it.
+     *
+     * @param peripherals
+     *            the peripherals
+     */
+    public synchronized void attach(final Peripheral... peripherals) {
+        for (final Peripheral peripheral : peripherals)
+            this.peripherals.add(peripheral);
+        map();
+        for (final Peripheral peripheral : peripherals)
+            peripheral.attached();
+    }
+
     /**
      * Performs addition with carry and sets flags accordingly.
      *
@@ -689,13 +1012,10 @@ public class Intel8086 {
      * @return the result
      */
     private int adc(final int w, final int dst, final int src) {
-        final int carry = (flags & CF) == CF ? 1 : 0;
+        final int carry = getFlag(CF) ? 1 : 0;
         final int res = dst + src + carry & MASK[w];
 
-        setFlag(CF, carry == 1 ? res <= dst : res < dst);
-        setFlag(AF, ((res ^ dst ^ src) & AF) > 0);
-        setFlag(OF, (shift((dst ^ src ^ -1) & (dst ^ res), 12 - BITS[w]) & OF) > 0);
-        setFlags(w, res);
+        setLazyFlags(carry == 1 ? ADC : ADD, w, dst, src, res, STATUS);
 
         return res;
     }
@@ -714,10 +1034,7 @@ public class Intel8086 {
     private int add(final int w, final int dst, final int src) {
         final int res = dst + src & MASK[w];
 
-        setFlag(CF, res < dst);
-        setFlag(AF, ((res ^ dst ^ src) & AF) > 0);
-        setFlag(OF, (shift((dst ^ src ^ -1) & (dst ^ res), 12 - BITS[w]) & OF) > 0);
-        setFlags(w, res);
+        setLazyFlags(ADD, w, dst, src, res, STATUS);
 
         return res;
     }
@@ -753,7 +1070,7 @@ public class Intel8086 {
                     final RandomAccessFile raf = new RandomAccessFile(new File("dos.bin"), "r");
                     raf.seek(srcAddr);
                     for (int addr = dstAddr; addr < dstAddr + length; ++addr)
-                        memory[addr] = raf.read() & 0xff;
+                        memory.setByte(addr, raf.read());
                     raf.close();
                     ah = 0;
                     setFlag(CF, false);
@@ -766,7 +1083,7 @@ public class Intel8086 {
             }
             return;
         }*/
-        push(flags);
+        push(getFlags());
         setFlag(IF, false);
         setFlag(TF, false);
         push(cs);
@@ -787,30 +1104,65 @@ public class Intel8086 {
     private int dec(final int w, final int dst) {
         final int res = dst - 1 & MASK[w];
 
-        setFlag(AF, ((res ^ dst ^ 1) & AF) > 0);
-        setFlag(OF, res == SIGN[w] - 1);
-        setFlags(w, res);
+        // Same flags as a subtraction of 1, except CF which is left unchanged.
+        setLazyFlags(SUB, w, dst, 1, res, STATUS & ~CF);
 
         return res;
     }
 
+    /**
+     * Detaches a peripheral from the ports it is connected to.
+     *
+     * @param peripheral
+     *            the peripheral
+     */
+    public synchronized void detach(final Peripheral peripheral) {
+        peripherals.remove(peripheral);
+        map();
+    }
+
     /**
      * Decodes the second byte of the instruction and increments IP accordingly.
+     *
+     * The second byte and the displacement were already decoded by
+     * predecode() when the instruction was first fetched.
      */
     private void decode() {
-        mod = queue[1] >>> 6 & 0b11;
-        reg = queue[1] >>> 3 & 0b111;
-        rm  = queue[1]       & 0b111;
+        mod  = entry.mod;
+        reg  = entry.reg;
+        rm   = entry.rm;
+        disp = entry.disp;
+        ip = ip + entry.length & 0xffff;
+    }
 
-        if (mod == 0b01)
-            // 8-bit displacement follows
-            ip = ip + 2 & 0xffff;
-        else if (mod == 0b00 && rm == 0b110 || mod == 0b10)
-            // 16-bit displacement follows
-            ip = ip + 3 & 0xffff;
-        else
-            // No displacement
-            ip = ip + 1 & 0xffff;
+    /**
+     * Forks the machine: the fork starts with the registers, the memory and
+     * the peripherals of this machine, as they are between two instructions.
+     * Pages of memory are shared until either machine writes to them.
+     * Expanded memory boards are forked, their logical pages being shared in
+     * the same way; other peripherals attached are not forked.
+     *
+     * Neither machine must be running while it is forked.
+     *
+     * @return the fork
+     */
+    public Intel8086 fork() {
+        final Intel8086 fork = new Intel8086(memory.fork(), false);
+        // The peripherals of the fork, in the order of those of the machine.
+        final List<Peripheral> forked = new ArrayList<>(List.of(dma, pic, pit, ppi, crtc));
+        for (final Peripheral peripheral : peripherals)
+            if (peripheral instanceof LIMEMS) {
+                forked.add(peripheral);
+                fork.attach(((LIMEMS) peripheral).fork(fork));
+            }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            save(new DataOutputStream(bytes), forked);
+            fork.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fork;
     }
 
     /**
@@ -962,16 +1314,9 @@ public class Intel8086 {
      * @return the effective address
      */
     private int getEA(final int mod, final int rm) {
-        int disp = 0;
-        if (mod == 0b01) {
-            // 8-bit displacement follows
+        if (mod == 0b01 || mod == 0b10)
+            // 8-bit or 16-bit displacement follows
             clocks += 4;
-            disp = queue[2];
-        } else if (mod == 0b10) {
-            // 16-bit displacement follows
-            clocks += 4;
-            disp = queue[3] << 8 | queue[2];
-        }
 
         int ea = 0;
         switch (rm) {
@@ -1003,7 +1348,7 @@ public class Intel8086 {
             if (mod == 0b00) {
                 // Direct address
                 clocks += 6;
-                ea = queue[3] << 8 | queue[2];
+                ea = disp;
             } else {
                 // EA = (BP) + DISP
                 clocks += 5;
@@ -1018,6 +1363,30 @@ public class Intel8086 {
         return (os << 4) + (ea & 0xffff);
     }
 
+    /**
+     * Gets the number of string elements, starting with the one at the
+     * specified offset, which can be reached without wrapping around the
+     * segment or the memory.
+     *
+     * @param seg
+     *            the segment
+     * @param off
+     *            the offset of the first element
+     * @param size
+     *            the size of an element
+     * @param down
+     *            is the string processed from high to low addresses?
+     * @return the number of elements
+     */
+    private int getElements(final int seg, final int off, final int size, final boolean down) {
+        final int addr = getAddr(seg, off);
+        if (off + size > 0x10000 || addr + size > Memory.SIZE)
+            return 0;
+        if (down)
+            return off / size + 1;
+        return Math.min(0x10000 - off, Memory.SIZE - addr) / size;
+    }
+
     /**
      * Gets the state of a flag.
      *
@@ -1026,9 +1395,112 @@ public class Intel8086 {
      * @return true if set, false if cleared
      */
     private boolean getFlag(final int flag) {
+        if ((lazy & flag) > 0)
+            return getLazyFlag(flag);
         return (flags & flag) > 0;
     }
 
+    /**
+     * Gets the flags register, working out the lazy flags.
+     *
+     * @return the value
+     */
+    private int getFlags() {
+        if (lazy > 0)
+            resolve(lazy);
+        return flags;
+    }
+
+    /**
+     * Returns the DMA controller, i.e. the 8237, for devices to transfer
+     * bytes through.
+     *
+     * @return the DMA controller
+     */
+    public Intel8237 getDMA() {
+        return dma;
+    }
+
+    /**
+     * Returns the instruction cache, and its statistics.
+     *
+     * @return the instruction cache
+     */
+    public InstructionCache getInstructionCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the keyboard interface, i.e. the 8255.
+     *
+     * @return the keyboard interface
+     */
+    public Intel8255 getKeyboard() {
+        return ppi;
+    }
+
+    /**
+     * Returns the programmable interval timer, i.e. the 8253.
+     *
+     * @return the timer
+     */
+    public Intel8253 getTimer() {
+        return pit;
+    }
+
+    /**
+     * Returns the number of writes of the guest to memory or to ports, outside
+     * of the handlers of hardware interrupts, e.g. to tell if it is busy.
+     *
+     * @return the number of writes
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Works out a flag from the last operation.
+     *
+     * @param flag
+     *            the flag, given by the last operation
+     * @return true if set, false if cleared
+     */
+    private boolean getLazyFlag(final int flag) {
+        switch (flag) {
+        case CF:
+            switch (lazyOp) {
+            case ADD:
+                return lazyRes < lazyDst;
+            case ADC:
+                return lazyRes <= lazyDst;
+            case SUB:
+                return lazyDst < lazySrc;
+            case SBB:
+                return lazyDst <= lazySrc;
+            }
+            return false;
+        case PF:
+            return PARITY[lazyRes & 0xff] > 0;
+        case AF:
+            return ((lazyRes ^ lazyDst ^ lazySrc) & AF) > 0;
+        case ZF:
+            return lazyRes == 0;
+        case SF:
+            return (shift(lazyRes, 8 - BITS[lazyW]) & SF) > 0;
+        case OF:
+            switch (lazyOp) {
+            case ADD:
+            case ADC:
+                return (shift((lazyDst ^ lazySrc ^ -1) & (lazyDst ^ lazyRes), 12 - BITS[lazyW]) & OF) > 0;
+            case SUB:
+            case SBB:
+                return (shift((lazyDst ^ lazySrc) & (lazyDst ^ lazyRes), 12 - BITS[lazyW]) & OF) > 0;
+            }
+            return false;
+        }
+        return false;
+    }
+
     /**
      * Gets the value pointed by the instruction pointer.
      *
@@ -1038,9 +1510,7 @@ public class Intel8086 {
      */
     private int getMem(final int w) {
         final int addr = getAddr(cs, ip);
-        int val = memory[addr];
-        if (w == W)
-            val |= memory[addr + 1] << 8;
+        final int val = w == W ? memory.getWord(addr) : memory.getByte(addr);
         ip = ip + 1 + w & 0xffff;
         return val;
     }
@@ -1055,13 +1525,21 @@ public class Intel8086 {
      * @return the value
      */
     private int getMem(final int w, final int addr) {
-        int val = memory[addr];
         if (w == W) {
             if ((addr & 0b1) == 0b1)
                 clocks += 4;
-            val |= memory[addr + 1] << 8;
+            return memory.getWord(addr);
         }
-        return val;
+        return memory.getByte(addr);
+    }
+
+    /**
+     * Returns the recompiler, and its statistics.
+     *
+     * @return the recompiler
+     */
+    public Recompiler getRecompiler() {
+        return recompiler;
     }
 
     /**
@@ -1173,6 +1651,79 @@ public class Intel8086 {
         return 0;
     }
 
+    /**
+     * Waits, in the halt state, for an external interrupt to resume execution.
+     *
+     * The thread parks until the next event of the devices is due in real
+     * time, or until a key is typed, whichever comes first. The time it was
+     * parked is then skipped ahead, so that the devices catch up, and it
+     * parks again until one of them calls an interrupt request.
+     *
+     * @return true if an interrupt is pending, false if execution can never
+     *         resume (interrupts disabled) or the thread was interrupted
+     */
+    private boolean idle() {
+        // Only a non-maskable interrupt would resume, and there is none.
+        if (!getFlag(IF))
+            return false;
+
+        while (!pic.hasInt()) {
+            final long typed = ppi.getTyped();
+            // Pulls a key typed meanwhile.
+            scheduler.update(ppi, clocks);
+            if (pic.hasInt())
+                break;
+            final long cycles = scheduler.getNext() - clocks;
+            final long start = System.nanoTime();
+            if (cycles > 0)
+                ppi.awaitKey(typed, cycles / FREQUENCY < Long.MAX_VALUE / SECOND
+                        ? cycles / FREQUENCY * SECOND + cycles % FREQUENCY * SECOND / FREQUENCY : Long.MAX_VALUE);
+            if (Thread.currentThread().isInterrupted())
+                return false;
+            final long nanos = System.nanoTime() - start;
+            clocks += nanos / SECOND * FREQUENCY + nanos % SECOND * FREQUENCY / SECOND;
+            synchronize();
+        }
+        return true;
+    }
+
+    /**
+     * Hibernates the machine: writes an image of its registers, peripherals,
+     * RAM and expanded memory, compressed, then frees its RAM and instruction cache. It must
+     * be done between two instructions, once run() returned, and the machine
+     * must not run anymore: it is rebuilt by resume().
+     *
+     * @param path
+     *            the image file
+     * @throws IOException
+     */
+    public void hibernate(final Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(path))))) {
+            final ByteArrayOutputStream state = new ByteArrayOutputStream();
+            save(new DataOutputStream(state));
+            out.writeInt(state.size());
+            state.writeTo(out);
+            memory.save(out);
+            for (final Peripheral peripheral : peripherals)
+                if (peripheral instanceof LIMEMS)
+                    ((LIMEMS) peripheral).savePages(out);
+        }
+        memory.clear();
+        cache.clear();
+    }
+
+    /**
+     * Holds the CPU off the bus for the specified clock cycles, e.g. while the
+     * DMA controller transfers bytes.
+     *
+     * @param n
+     *            the number of clock cycles
+     */
+    void hold(final int n) {
+        clocks += n;
+    }
+
     /**
      * Increments an operand and sets flags accordingly.
      *
@@ -1185,38 +1736,108 @@ public class Intel8086 {
     private int inc(final int w, final int dst) {
         final int res = dst + 1 & MASK[w];
 
-        setFlag(AF, ((res ^ dst ^ 1) & AF) > 0);
-        setFlag(OF, res == SIGN[w]);
-        setFlags(w, res);
+        // Same flags as an addition of 1, except CF which is left unchanged.
+        setLazyFlags(ADD, w, dst, 1, res, STATUS & ~CF);
 
         return res;
     }
 
     /**
-     * Loads a binary file into memory at the specified address.
+     * Is the CPU in the halt state, waiting for an interrupt?
+     *
+     * @return true if halted
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Is an external maskable interrupt waiting to be serviced?
+     *
+     * @return true if an interrupt is pending
+     */
+    private boolean interruptPending() {
+        return getFlag(IF) && pic.hasInt();
+    }
+
+    /**
+     * Is the specified range plain RAM, which a whole string can be moved
+     * from or stored to at once?
+     *
+     * @param addr
+     *            the physical address
+     * @param size
+     *            the number of bytes
+     * @return true if the range is neither ROM nor video memory
+     */
+    private boolean isRAM(final int addr, final int size) {
+        // The CGA memory is left to the element by element path.
+        return memory.isRAM(addr, size) && (addr + size <= 0xb8000 || addr >= 0xc0000);
+    }
+
+    /**
+     * Maps a ROM image read from a file to memory at the specified address.
+     * The image is only read the first time it is loaded by any machine.
      *
      * @param addr
      *            the address
-     * @param path
+     * @param file
      *            the file path
      * @throws IOException
      */
-    public void load(final int addr, final String path) throws IOException {
-        final InputStream is = getClass().getClassLoader().getResourceAsStream(path);
-        final byte[] bin = new byte[is.available()];
-        DataInputStream dis = null;
-        try {
-            dis = new DataInputStream(is);
-            dis.readFully(bin);
-        } catch (final IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (dis != null)
-                dis.close();
-            is.close();
-        }
-        for (int i = 0; i < bin.length; i++)
-            memory[addr + i] = bin[i] & 0xff;
+    public void load(final int addr, final Path file) throws IOException {
+        load(addr, file, -1);
+    }
+
+    /**
+     * Maps a ROM image read from a file to memory at the specified address,
+     * after checking its CRC-32. The image is only read the first time it is
+     * loaded by any machine.
+     *
+     * @param addr
+     *            the address
+     * @param file
+     *            the file path
+     * @param crc
+     *            the CRC-32 of the image, or -1 not to check it
+     * @throws IOException
+     */
+    public void load(final int addr, final Path file, final long crc) throws IOException {
+        memory.mapROM(ROM.load(addr, file, crc));
+        cache.clear();
+    }
+
+    /**
+     * Maps a ROM image read from the class path to memory at the specified
+     * address. The image is only read the first time it is loaded by any
+     * machine.
+     *
+     * @param addr
+     *            the address
+     * @param resource
+     *            the resource path
+     * @throws IOException
+     */
+    public void load(final int addr, final String resource) throws IOException {
+        load(addr, resource, -1);
+    }
+
+    /**
+     * Maps a ROM image read from the class path to memory at the specified
+     * address, after checking its CRC-32. The image is only read the first
+     * time it is loaded by any machine.
+     *
+     * @param addr
+     *            the address
+     * @param resource
+     *            the resource path
+     * @param crc
+     *            the CRC-32 of the image, or -1 not to check it
+     * @throws IOException
+     */
+    public void load(final int addr, final String resource, final long crc) throws IOException {
+        memory.mapROM(ROM.load(addr, resource, crc));
+        cache.clear();
     }
 
     /**
@@ -1228,9 +1849,28 @@ public class Intel8086 {
      *            the result
      */
     private void logic(final int w, final int res) {
-        setFlag(CF, false);
-        setFlag(OF, false);
-        setFlags(w, res);
+        // CF and OF are cleared, AF is left unchanged.
+        setLazyFlags(LOGIC, w, 0, 0, res, STATUS & ~AF);
+    }
+
+    /**
+     * Rebuilds the port map from the peripherals attached.
+     */
+    private void map() {
+        final Peripheral[] attached = peripherals.toArray(new Peripheral[0]);
+        final Peripheral[][] ports = new Peripheral[0x100][];
+        for (int page = 0; page < 0x100; ++page) {
+            ports[page] = UNMAPPED;
+            for (int port = page << 8; port < page + 1 << 8; ++port)
+                for (final Peripheral peripheral : attached)
+                    if (peripheral.isConnected(port)) {
+                        if (ports[page] == UNMAPPED)
+                            ports[page] = new Peripheral[0x100];
+                        ports[page][port & 0xff] = peripheral;
+                        break;
+                    }
+        }
+        this.ports = ports;
     }
 
     /**
@@ -1254,10 +1894,12 @@ public class Intel8086 {
      * @return the value
      */
     private int portIn(final int w, final int port) {
-        for (final Peripheral peripheral : peripherals)
-            if (peripheral.isConnected(port))
-                return peripheral.portIn(w, port);
-        return 0;
+        final Peripheral peripheral = ports[port >>> 8][port & 0xff];
+        // Nothing drives the data bus.
+        if (peripheral == null)
+            return MASK[w];
+        scheduler.update(peripheral, clocks);
+        return peripheral.portIn(w, port);
     }
 
     /**
@@ -1271,44 +1913,477 @@ public class Intel8086 {
      *            the value
      */
     private void portOut(final int w, final int port, final int val) {
-        for (final Peripheral peripheral : peripherals)
-            if (peripheral.isConnected(port)) {
-                peripheral.portOut(w, port, val);
-                return;
-            }
+        final Peripheral peripheral = ports[port >>> 8][port & 0xff];
+        if (!pic.isServicing())
+            ++writes;
+        if (peripheral == null)
+            return;
+        scheduler.update(peripheral, clocks);
+        peripheral.portOut(w, port, val);
+        // The next event may have been reprogrammed.
+        scheduler.update(peripheral, clocks);
     }
 
     /**
-     * Pushes a value to the top of the stack.
+     * Fetches and decodes the instruction at the specified address, then
+     * stores it in the instruction cache.
      *
-     * @param val
-     *            the value
+     * @param addr
+     *            the physical address of CS:IP
+     * @return the decoded instruction
      */
-    private void push(final int val) {
-        sp = sp - 2 & 0xffff;
-        setMem(W, getAddr(ss, sp), val);
-    }
+    private InstructionCache.Entry predecode(final int addr) {
+        final InstructionCache.Entry entry = new InstructionCache.Entry();
+        int off = ip;
+        prefixes: while (true) {
+            // Segment prefix check.
+            switch (getMem(B, getAddr(cs, off))) {
+            case 0x26: // ES: (segment override prefix)
+                entry.segment = 0b00;
+                entry.clocks += 2;
+                break;
+            case 0x2e: // CS: (segment override prefix)
+                entry.segment = 0b01;
+                entry.clocks += 2;
+                break;
+            case 0x36: // SS: (segment override prefix)
+                entry.segment = 0b10;
+                entry.clocks += 2;
+                break;
+            case 0x3e: // DS: (segment override prefix)
+                entry.segment = 0b11;
+                entry.clocks += 2;
+                break;
+            // Repeat prefix check.
+            case 0xf2: // REPNE/REPNZ
+                entry.rep = 2;
+                entry.clocks += 9;
+                break;
+            case 0xf3: // REP/REPE/REPZ
+                entry.rep = 1;
+                entry.clocks += 9;
+                break;
+            default:
+                break prefixes;
+            }
+            off = off + 1 & 0xffff;
+            ++entry.prefixes;
+        }
 
-    /**
+        // Fetch instruction from memory.
+        for (int i = 0; i < 6; ++i)
+            entry.queue[i] = getMem(B, getAddr(cs, off + i));
+        entry.op = entry.queue[0];
+
+        // Only repeat string instructions.
+        switch (entry.op) {
+        case 0xa4: // MOVS
+        case 0xa5:
+        case 0xaa: // STOS
+        case 0xab:
+            if (entry.rep == 0)
+                ++entry.clocks;
+            break;
+        case 0xa6: // CMPS
+        case 0xa7:
+        case 0xae: // SCAS
+        case 0xaf:
+            break;
+        case 0xac: // LODS
+        case 0xad:
+            if (entry.rep == 0)
+                --entry.clocks;
+            break;
+        default:
+            entry.rep = 0;
+            break;
+        }
+
+        // Decode second byte, whether the instruction uses it or not.
+        entry.mod = entry.queue[1] >>> 6 & 0b11;
+        entry.reg = entry.queue[1] >>> 3 & 0b111;
+        entry.rm  = entry.queue[1]       & 0b111;
+        if (entry.mod == 0b01) {
+            // 8-bit displacement follows
+            entry.disp = entry.queue[2];
+            entry.length = 2;
+        } else if (entry.mod == 0b00 && entry.rm == 0b110 || entry.mod == 0b10) {
+            // 16-bit displacement follows
+            entry.disp = entry.queue[3] << 8 | entry.queue[2];
+            entry.length = 3;
+        } else
+            // No displacement
+            entry.length = 1;
+        entry.size = entry.prefixes + 6;
+
+        // Instructions wrapping around the segment are never cached.
+        if (ip + entry.size <= 0x10000 && addr + entry.size <= 0x100000)
+            cache.put(addr, entry);
+        return entry;
+    }
+
+    /**
+     * Pushes a value to the top of the stack.
+     *
+     * @param val
+     *            the value
+     */
+    private void push(final int val) {
+        sp = sp - 2 & 0xffff;
+        setMem(W, getAddr(ss, sp), val);
+    }
+
+    /**
+     * Compares the remaining elements of a REPE/REPNE CMPS at once.
+     *
+     * Called instead of comparing the current element, whose count has
+     * already been taken from CX. The elements are compared directly in
+     * memory, up to the one ending the repetition, or as far as the strings
+     * go without wrapping around their segments; the element by element path
+     * takes over from there. The last element compared sets the flags, and
+     * CX, SI, DI and the clock cycles are left as that path would.
+     *
+     * @return true if any element was compared, false otherwise
+     */
+    private boolean repCmps() {
+        final int size = 1 + w;
+        final boolean down = getFlag(DF);
+        final int step = down ? -size : size;
+        final int count = Math.min(getReg(W, CX) + 1,
+                Math.min(getElements(os, si, size, down), getElements(es, di, size, down)));
+        if (count == 0)
+            return false;
+        final int src = getAddr(os, si);
+        final int dst = getAddr(es, di);
+
+        // Find the element ending the repetition, if any.
+        int n = count;
+        if (rep == 1 && !down) {
+            final int i = memory.mismatch(src, dst, count * size);
+            if (i >= 0)
+                n = i / size + 1;
+        } else
+            for (int i = 0; i < count; ++i) {
+                final int s = src + i * step;
+                final int d = dst + i * step;
+                final boolean equal = w == W ? memory.getWord(s) == memory.getWord(d)
+                        : memory.getByte(s) == memory.getByte(d);
+                if (equal != (rep == 1)) {
+                    n = i + 1;
+                    break;
+                }
+            }
+
+        final int last = (n - 1) * step;
+        sub(w, w == W ? memory.getWord(src + last) : memory.getByte(src + last),
+                w == W ? memory.getWord(dst + last) : memory.getByte(dst + last));
+        if (rep == 1 && !getFlag(ZF) || rep == 2 && getFlag(ZF))
+            rep = 0;
+
+        // Misaligned words cost the same for every element.
+        final int cost = 22 + (w == W ? 4 * (si & 0b1) + 4 * (di & 0b1) : 0);
+        clocks += (n - 1) * cost;
+        synchronize();
+        clocks += cost;
+
+        setReg(W, CX, getReg(W, CX) + 1 - n);
+        si = si + n * step & 0xffff;
+        di = di + n * step & 0xffff;
+        return true;
+    }
+
+    /**
+     * Moves the remaining elements of a REP MOVS at once.
+     *
+     * Called instead of moving the current element, whose count has already
+     * been taken from CX. The strings must not wrap around their segments,
+     * must lie in plain RAM and must not overlap in the direction of the
+     * move, in which case each element would read a previous one. CX, SI, DI
+     * and the clock cycles are left as the element by element path would.
+     *
+     * @return true if the string was moved, false otherwise
+     */
+    private boolean repMovs() {
+        final int size = 1 + w;
+        final int count = getReg(W, CX) + 1;
+        final int len = count * size;
+        final boolean down = getFlag(DF);
+        final int srcOff = down ? si + size - len : si;
+        final int dstOff = down ? di + size - len : di;
+        if (srcOff < 0 || srcOff + len > 0x10000 || dstOff < 0 || dstOff + len > 0x10000)
+            return false;
+        final int src = getAddr(os, srcOff);
+        final int dst = getAddr(es, dstOff);
+        if (!isRAM(src, len) || !isRAM(dst, len))
+            return false;
+        if (down ? dst < src && dst + len > src : dst > src && dst < src + len)
+            return false;
+
+        memory.copy(src, dst, len);
+        cache.invalidate(dst, len);
+        if (!pic.isServicing())
+            ++writes;
+
+        // Misaligned words cost the same for every element.
+        final int cost = 17 + (w == W ? 4 * (si & 0b1) + 4 * (di & 0b1) : 0);
+        clocks += (count - 1) * cost;
+        synchronize();
+        clocks += cost;
+
+        setReg(W, CX, 0);
+        si = si + (down ? -len : len) & 0xffff;
+        di = di + (down ? -len : len) & 0xffff;
+        return true;
+    }
+
+    /**
+     * Scans the remaining elements of a REPE/REPNE SCAS at once.
+     *
+     * Called instead of scanning the current element, whose count has
+     * already been taken from CX. The elements are compared directly in
+     * memory, up to the one ending the repetition, or as far as the string
+     * goes without wrapping around its segment; the element by element path
+     * takes over from there. The last element scanned sets the flags, and CX,
+     * DI and the clock cycles are left as that path would.
+     *
+     * @return true if any element was scanned, false otherwise
+     */
+    private boolean repScas() {
+        final int size = 1 + w;
+        final boolean down = getFlag(DF);
+        final int step = down ? -size : size;
+        final int count = Math.min(getReg(W, CX) + 1, getElements(es, di, size, down));
+        if (count == 0)
+            return false;
+        final int dst = getAddr(es, di);
+
+        // Find the element ending the repetition, if any.
+        final int acc = getReg(w, AX);
+        int n = count;
+        for (int i = 0; i < count; ++i) {
+            final int d = dst + i * step;
+            final boolean equal = (w == W ? memory.getWord(d) : memory.getByte(d)) == acc;
+            if (equal != (rep == 1)) {
+                n = i + 1;
+                break;
+            }
+        }
+
+        final int last = dst + (n - 1) * step;
+        sub(w, acc, w == W ? memory.getWord(last) : memory.getByte(last));
+        if (rep == 1 && !getFlag(ZF) || rep == 2 && getFlag(ZF))
+            rep = 0;
+
+        // Misaligned words cost the same for every element.
+        final int cost = 15 + (w == W ? 4 * (di & 0b1) : 0);
+        clocks += (n - 1) * cost;
+        synchronize();
+        clocks += cost;
+
+        setReg(W, CX, getReg(W, CX) + 1 - n);
+        di = di + n * step & 0xffff;
+        return true;
+    }
+
+    /**
+     * Stores the remaining elements of a REP STOS at once.
+     *
+     * Called instead of storing the current element, whose count has already
+     * been taken from CX. The string must not wrap around its segment and
+     * must lie in plain RAM. CX, DI and the clock cycles are left as the
+     * element by element path would.
+     *
+     * @return true if the string was stored, false otherwise
+     */
+    private boolean repStos() {
+        final int size = 1 + w;
+        final int count = getReg(W, CX) + 1;
+        final int len = count * size;
+        final boolean down = getFlag(DF);
+        final int dstOff = down ? di + size - len : di;
+        if (dstOff < 0 || dstOff + len > 0x10000)
+            return false;
+        final int dst = getAddr(es, dstOff);
+        if (!isRAM(dst, len))
+            return false;
+
+        if (w == B || al == ah)
+            memory.fill(dst, len, al);
+        else {
+            final int ax = getReg(W, AX);
+            for (int addr = dst; addr < dst + len; addr += 2)
+                memory.setWord(addr, ax);
+        }
+        cache.invalidate(dst, len);
+        if (!pic.isServicing())
+            ++writes;
+
+        // Misaligned words cost the same for every element.
+        final int cost = 10 + (w == W ? 4 * (di & 0b1) : 0);
+        clocks += (count - 1) * cost;
+        synchronize();
+        clocks += cost;
+
+        setReg(W, CX, 0);
+        di = di + (down ? -len : len) & 0xffff;
+        return true;
+    }
+
+    /**
+     * Resumes a hibernated machine into this one, freshly built the same way
+     * with its ROMs and peripherals: its registers, peripherals, RAM and
+     * expanded memory are restored from the image written by hibernate().
+     *
+     * @param path
+     *            the image file
+     * @throws IOException
+     */
+    public void resume(final Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new InflaterInputStream(Files.newInputStream(path))))) {
+            final byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            restore(new DataInputStream(new ByteArrayInputStream(state)));
+            memory.restore(in);
+            for (final Peripheral peripheral : peripherals)
+                if (peripheral instanceof LIMEMS)
+                    ((LIMEMS) peripheral).restorePages(in);
+        }
+        cache.clear();
+    }
+
+    /**
+     * Restores the registers of the CPU and the state of its peripherals, as
+     * written by save(). The same peripherals must be attached, in the same
+     * order. Memory is left as it is.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    public void restore(final DataInput in) throws IOException {
+        ah = in.readUnsignedByte();
+        al = in.readUnsignedByte();
+        ch = in.readUnsignedByte();
+        cl = in.readUnsignedByte();
+        dh = in.readUnsignedByte();
+        dl = in.readUnsignedByte();
+        bh = in.readUnsignedByte();
+        bl = in.readUnsignedByte();
+        sp = in.readUnsignedShort();
+        bp = in.readUnsignedShort();
+        si = in.readUnsignedShort();
+        di = in.readUnsignedShort();
+        cs = in.readUnsignedShort();
+        ds = in.readUnsignedShort();
+        ss = in.readUnsignedShort();
+        es = in.readUnsignedShort();
+        ip = in.readUnsignedShort();
+        flags = in.readUnsignedShort();
+        lazy = in.readUnsignedShort();
+        lazyOp = in.readUnsignedByte();
+        lazyW = in.readUnsignedByte();
+        lazyDst = in.readInt();
+        lazySrc = in.readInt();
+        lazyRes = in.readInt();
+        clocks = in.readLong();
+        halted = in.readBoolean();
+        for (final Peripheral peripheral : peripherals)
+            peripheral.restore(in);
+        scheduler.update(pit, clocks);
+    }
+
+    /**
      * Resets the CPU to its default state.
      */
     public void reset() {
         flags = 0;
+        lazy = 0;
         ip = 0x0000;
         cs = 0xffff;
         ds = 0x0000;
         ss = 0x0000;
         es = 0x0000;
-        for (int i = 0; i < 6; i++)
-            queue[i] = 0;
-        clocks = 0;
+        queue = new int[6];
+        halted = false;
+    }
+
+    /**
+     * Works out lazy flags into the flags register.
+     *
+     * @param mask
+     *            the flags, given by the last operation
+     */
+    private void resolve(final int mask) {
+        for (int rest = mask; rest > 0; rest &= rest - 1) {
+            final int flag = rest & -rest;
+            if (getLazyFlag(flag))
+                flags |= flag;
+            else
+                flags &= ~flag;
+        }
+        lazy &= ~mask;
     }
 
     /**
-     * Execute all instructions.
+     * Execute all instructions, until halted for good or stopped.
      */
     public void run() {
-        while (tick());
+        while (!stopped && tick());
+        stopped = false;
+    }
+
+    /**
+     * Writes the registers of the CPU and the state of its peripherals, to be
+     * restored later on. Memory is not written.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    public void save(final DataOutput out) throws IOException {
+        save(out, peripherals);
+    }
+
+    /**
+     * Writes the registers of the CPU and the state of the specified
+     * peripherals.
+     *
+     * @param out
+     *            the output to write the state to
+     * @param peripherals
+     *            the peripherals, in the order they are to be restored
+     * @throws IOException
+     */
+    private void save(final DataOutput out, final List<Peripheral> peripherals) throws IOException {
+        out.writeByte(ah);
+        out.writeByte(al);
+        out.writeByte(ch);
+        out.writeByte(cl);
+        out.writeByte(dh);
+        out.writeByte(dl);
+        out.writeByte(bh);
+        out.writeByte(bl);
+        out.writeShort(sp);
+        out.writeShort(bp);
+        out.writeShort(si);
+        out.writeShort(di);
+        out.writeShort(cs);
+        out.writeShort(ds);
+        out.writeShort(ss);
+        out.writeShort(es);
+        out.writeShort(ip);
+        out.writeShort(flags);
+        out.writeShort(lazy);
+        out.writeByte(lazyOp);
+        out.writeByte(lazyW);
+        out.writeInt(lazyDst);
+        out.writeInt(lazySrc);
+        out.writeInt(lazyRes);
+        out.writeLong(clocks);
+        out.writeBoolean(halted);
+        for (final Peripheral peripheral : peripherals)
+            peripheral.save(out);
     }
 
     /**
@@ -1323,17 +2398,26 @@ public class Intel8086 {
      * @return the result
      */
     private int sbb(final int w, final int dst, final int src) {
-        final int carry = (flags & CF) == CF ? 1 : 0;
+        final int carry = getFlag(CF) ? 1 : 0;
         final int res = dst - src - carry & MASK[w];
 
-        setFlag(CF, carry > 0 ? dst <= src : dst < src);
-        setFlag(AF, ((res ^ dst ^ src) & AF) > 0);
-        setFlag(OF, (shift((dst ^ src) & (dst ^ res), 12 - BITS[w]) & OF) > 0);
-        setFlags(w, res);
+        setLazyFlags(carry == 1 ? SBB : SUB, w, dst, src, res, STATUS);
 
         return res;
     }
 
+    /**
+     * Schedules a device besides the peripherals. It is updated between two
+     * instructions, so it must be scheduled before the machine runs, or by
+     * another scheduled device.
+     *
+     * @param device
+     *            the device
+     */
+    public void schedule(final Scheduler.Device device) {
+        scheduler.add(device, clocks);
+    }
+
     /**
      * Sets or clears a flag.
      *
@@ -1343,6 +2427,7 @@ public class Intel8086 {
      *            true to set, false to clear
      */
     private void setFlag(final int flag, final boolean set) {
+        lazy &= ~flag;
         if (set)
             flags |= flag;
         else
@@ -1363,6 +2448,48 @@ public class Intel8086 {
         setFlag(SF, (shift(res, 8 - BITS[w]) & SF) > 0);
     }
 
+    /**
+     * Sets the handler of the specified opcodes.
+     *
+     * @param instruction
+     *            the handler
+     * @param ops
+     *            the opcodes
+     */
+    private void setInstruction(final Instruction instruction, final int... ops) {
+        for (final int op : ops)
+            instructions[op] = instruction;
+    }
+
+    /**
+     * Records the last operation, whose flags are worked out when read.
+     *
+     * @param op
+     *            the operation (ADD, ADC, SUB, SBB or LOGIC)
+     * @param w
+     *            word/byte operation
+     * @param dst
+     *            the first operand
+     * @param src
+     *            the second operand
+     * @param res
+     *            the result
+     * @param mask
+     *            the flags affected by the operation
+     */
+    private void setLazyFlags(final int op, final int w, final int dst, final int src, final int res,
+            final int mask) {
+        // Flags still given by the previous operation, but not by this one.
+        if ((lazy & ~mask) > 0)
+            resolve(lazy & ~mask);
+        lazy    = mask;
+        lazyOp  = op;
+        lazyW   = w;
+        lazyDst = dst;
+        lazySrc = src;
+        lazyRes = res;
+    }
+
     /**
      * Sets the value at the specified address.
      *
@@ -1374,14 +2501,17 @@ public class Intel8086 {
      *            the new value
      */
     private void setMem(final int w, final int addr, final int val) {
-        // IBM BIOS and BASIC are ROM.
-        if (addr >= 0xf6000)
-            return;
-        memory[addr] = val & 0xff;
+        if (!pic.isServicing())
+            ++writes;
         if (w == W) {
             if ((addr & 0b1) == 0b1)
                 clocks += 4;
-            memory[addr + 1] = val >>> 8 & 0xff;
+            memory.setWord(addr, val);
+            cache.invalidate(addr);
+            cache.invalidate(addr + 1);
+        } else {
+            memory.setByte(addr, val);
+            cache.invalidate(addr);
         }
     }
 
@@ -1533,101 +2663,79 @@ public class Intel8086 {
     private int sub(final int w, final int dst, final int src) {
         final int res = dst - src & MASK[w];
 
-        setFlag(CF, dst < src);
-        setFlag(AF, ((res ^ dst ^ src) & AF) > 0);
-        setFlag(OF, (shift((dst ^ src) & (dst ^ res), 12 - BITS[w]) & OF) > 0);
-        setFlags(w, res);
+        setLazyFlags(SUB, w, dst, src, res, STATUS);
 
         return res;
     }
 
     /**
-     * Fetches and executes an instruction.
+     * Stops the machine: run() returns before the next instruction. It must be
+     * called from the thread running the machine, e.g. by a scheduled device.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Catches up the devices with the clock cycles spent by the CPU, if the
+     * next event of one of them has come.
+     */
+    private void synchronize() {
+        if (clocks >= scheduler.getNext())
+            scheduler.run(clocks);
+    }
+
+    /**
+     * Fetches and executes an instruction, or waits for an interrupt in the
+     * halt state.
      *
-     * @return true if instructions remain, false otherwise
+     * @return true if instructions remain, false if halted for good
      */
     private boolean tick() {
+        // Halt state.
+        if (halted && !idle())
+            return false;
+
         // Single-step mode.
         if (getFlag(TF)) {
             callInt(1);
             clocks += 50;
         }
 
+        // Scan codes typed on the keyboard thread, pulled on this one.
+        if (ppi.isTyping())
+            scheduler.update(ppi, clocks);
+
         // External maskable interrupts.
-        if (getFlag(IF) && pic.hasInt()) {
+        if (interruptPending()) {
             callInt(pic.nextInt());
             clocks += 61;
+            halted = false;
         }
 
-        os = ds;
-        int rep = 0;
-        prefixes: while (true) {
-            // Segment prefix check.
-            switch (getMem(B)) {
-            case 0x26: // ES: (segment override prefix)
-                os = es;
-                clocks += 2;
-                break;
-            case 0x2e: // CS: (segment override prefix)
-                os = cs;
-                clocks += 2;
-                break;
-            case 0x36: // SS: (segment override prefix)
-                os = ss;
-                clocks += 2;
-                break;
-            case 0x3e: // DS: (segment override prefix)
-                os = ds;
-                clocks += 2;
-                break;
-            // Repeat prefix check.
-            case 0xf2: // REPNE/REPNZ
-                rep = 2;
-                clocks += 9;
-                break;
-            case 0xf3: // REP/REPE/REPZ
-                rep = 1;
-                clocks += 9;
-                break;
-            default:
-                ip = ip - 1 & 0xffff;
-                break prefixes;
+        // Fetch instruction from the cache, or decode it.
+        final int addr = getAddr(cs, ip);
+        entry = cache.get(addr);
+        if (entry == null)
+            entry = predecode(addr);
+        else if (entry.block != null) {
+            // Run the translated code, unless it would wrap around the segment.
+            if (ip + entry.span <= 0x10000) {
+                recompiler.execute(this, entry.block);
+                return true;
             }
-        }
-
-        // Fetch instruction from memory.
-        for (int i = 0; i < 6; ++i)
-            queue[i] = getMem(B, getAddr(cs, ip + i));
+        } else if (++entry.count == Recompiler.THRESHOLD)
+            recompiler.translate(entry, addr, ip);
+        queue = entry.queue;
+        os = entry.segment < 0 ? ds : getSegReg(entry.segment);
+        rep = entry.rep;
+        clocks += entry.clocks;
 
         // Decode first byte.
-        op = queue[0];
+        op = entry.op;
         d  = op >>> 1 & 0b1;
         w  = op       & 0b1;
-        ip = ip + 1 & 0xffff; // Increment IP.
-
-        // Only repeat string instructions.
-        switch (op) {
-        case 0xa4: // MOVS
-        case 0xa5:
-        case 0xaa: // STOS
-        case 0xab:
-            if (rep == 0)
-                ++clocks;
-            break;
-        case 0xa6: // CMPS
-        case 0xa7:
-        case 0xae: // SCAS
-        case 0xaf:
-            break;
-        case 0xac: // LODS
-        case 0xad:
-            if (rep == 0)
-                --clocks;
-            break;
-        default:
-            rep = 0;
-            break;
-        }
+        ip = ip + entry.prefixes + 1 & 0xffff; // Increment IP.
 
         do {
             // Repeat prefix present.
@@ -1642,2863 +2750,3015 @@ public class Intel8086 {
                 setReg(W, CX, cx - 1);
             }
 
-            // Tick the Programmable Interval Timer.
-            while (clocks > 3) {
-                clocks -= 4;
-                pit.tick();
-            }
+            synchronize();
 
             ea = -1; // Reset stored EA.
-            int dst, src, res;
-            switch (op) {
-            /*
-             * Data Transfer Instructions
-             *
-             * The 14 data transfer instructions move single bytes and words
-             * between memory and registers as well as between registers AL or
-             * AX and I/O ports. The stack manipulation instructions are
-             * included in this group as are instructions for transferring flags
-             * contents and for loading segment registers.
-             */
-            /*
-             * General Purpose Data Transfers
-             */
-            /*
-             * MOV destination,source
-             *
-             * MOV transfers a byte or a word from the source operand to the
-             * destination operand.
-             */
-            // Register/Memory to/from Register
-            case 0x88: // MOV REG8/MEM8,REG8
-            case 0x89: // MOV REG16/MEM16,REG16
-            case 0x8a: // MOV REG8,REG8/MEM8
-            case 0x8b: // MOV REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    src = getReg(w, reg);
-                    setRM(w, mod, rm, src);
-                    clocks += mod == 0b11 ? 2 : 9;
-                } else {
-                    src = getRM(w, mod, rm);
-                    setReg(w, reg, src);
-                    clocks += mod == 0b11 ? 2 : 8;
-                }
-                break;
+            instructions[op].execute();
+        } while (rep > 0);
+        return true;
+    }
 
-            // Immediate to Register/Memory
-            case 0xc6: // MOV REG8/MEM8,IMMED8
-            case 0xc7: // MOV REG16/MEM16,IMMED16
-                decode();
-                switch (reg) {
-                case 0b000:
-                    src = getMem(w);
-                    setRM(w, mod, rm, src);
-                }
-                clocks += mod == 0b11 ? 4 : 10;
-                break;
+    /*
+     * Data Transfer Instructions
+     *
+     * The 14 data transfer instructions move single bytes and words
+     * between memory and registers as well as between registers AL or
+     * AX and I/O ports. The stack manipulation instructions are
+     * included in this group as are instructions for transferring flags
+     * contents and for loading segment registers.
+     */
 
-            // Immediate to Register
-            case 0xb0: // MOV AL,IMMED8
-            case 0xb1: // MOV CL,IMMED8
-            case 0xb2: // MOV DL,IMMED8
-            case 0xb3: // MOV BL,IMMED8
-            case 0xb4: // MOV AH,IMMED8
-            case 0xb5: // MOV CH,IMMED8
-            case 0xb6: // MOV DH,IMMED8
-            case 0xb7: // MOV BH,IMMED8
-            case 0xb8: // MOV AX,IMMED16
-            case 0xb9: // MOV CX,IMMED16
-            case 0xba: // MOV DX,IMMED16
-            case 0xbb: // MOV BX,IMMED16
-            case 0xbc: // MOV SP,IMMED16
-            case 0xbd: // MOV BP,IMMED16
-            case 0xbe: // MOV SI,IMMED16
-            case 0xbf: // MOV DI,IMMED16
-                w   = op >>> 3 & 0b1;
-                reg = op       & 0b111;
-                src = getMem(w);
-                setReg(w, reg, src);
-                clocks += 4;
-                break;
+    /*
+     * General Purpose Data Transfers
+     */
 
-            // Memory to/from Accumulator
-            case 0xa0: // MOV AL,MEM8
-            case 0xa1: // MOV AX,MEM16
-            case 0xa2: // MOV MEM8,AL
-            case 0xa3: // MOV MEM16,AX
-                dst = getMem(W);
-                if (d == 0b0) {
-                    src = getMem(w, getAddr(os, dst));
-                    setReg(w, AX, src);
-                } else {
-                    src = getReg(w, AX);
-                    setMem(w, getAddr(os, dst), src);
-                }
-                clocks += 10;
-                break;
+    /*
+     * MOV destination,source
+     *
+     * MOV transfers a byte or a word from the source operand to the
+     * destination operand.
+     */
 
-            // Register/Memory to/from Segment Register
-            case 0x8c: // MOV REG16/MEM16,SEGREG
-            case 0x8e: // MOV SEGREG,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    src = getSegReg(reg);
-                    setRM(W, mod, rm, src);
-                    clocks += mod == 0b11 ? 2 : 9;
-                } else {
-                    src = getRM(W, mod, rm);
-                    setSegReg(reg, src);
-                    clocks += mod == 0b11 ? 2 : 8;
-                }
-                break;
+    /**
+     * Register/Memory to/from Register
+     *
+     * MOV REG8/MEM8,REG8
+     * MOV REG16/MEM16,REG16
+     * MOV REG8,REG8/MEM8
+     * MOV REG16,REG16/MEM16
+     */
+    private void movRM() {
+        int src;
+        decode();
+        if (d == 0b0) {
+            src = getReg(w, reg);
+            setRM(w, mod, rm, src);
+            clocks += mod == 0b11 ? 2 : 9;
+        } else {
+            src = getRM(w, mod, rm);
+            setReg(w, reg, src);
+            clocks += mod == 0b11 ? 2 : 8;
+        }
+    }
 
-            /*
-             * PUSH source
-             *
-             * PUSH decrements SP (the stack pointer) by two and then transfers
-             * a word from the source operand to the top of the stack now
-             * pointed by SP. PUSH often is used to place parameters on the
-             * stack before calling a procedure; more generally, it is the basic
-             * means of storing temporary data on the stack.
-             */
-            // Register
-            case 0x50: // PUSH AX
-            case 0x51: // PUSH CX
-            case 0x52: // PUSH DX
-            case 0x53: // PUSH BX
-            case 0x54: // PUSH SP
-            case 0x55: // PUSH BP
-            case 0x56: // PUSH SI
-            case 0x57: // PUSH DI
-                reg = op & 0b111;
-                src = getReg(W, reg);
-                push(src);
-                clocks += 11;
-                break;
+    /**
+     * Immediate to Register/Memory
+     *
+     * MOV REG8/MEM8,IMMED8
+     * MOV REG16/MEM16,IMMED16
+     */
+    private void movRMImm() {
+        int src;
+        decode();
+        switch (reg) {
+        case 0b000:
+            src = getMem(w);
+            setRM(w, mod, rm, src);
+        }
+        clocks += mod == 0b11 ? 4 : 10;
+    }
 
-            // Segment Register
-            case 0x06: // PUSH ES
-            case 0x0e: // PUSH CS
-            case 0x16: // PUSH SS
-            case 0x1e: // PUSH DS
-                reg = op >>> 3 & 0b111;
-                src = getSegReg(reg);
-                push(src);
-                clocks += 10;
-                break;
+    /**
+     * Immediate to Register
+     *
+     * MOV AL,IMMED8
+     * MOV CL,IMMED8
+     * MOV DL,IMMED8
+     * MOV BL,IMMED8
+     * MOV AH,IMMED8
+     * MOV CH,IMMED8
+     * MOV DH,IMMED8
+     * MOV BH,IMMED8
+     * MOV AX,IMMED16
+     * MOV CX,IMMED16
+     * MOV DX,IMMED16
+     * MOV BX,IMMED16
+     * MOV SP,IMMED16
+     * MOV BP,IMMED16
+     * MOV SI,IMMED16
+     * MOV DI,IMMED16
+     */
+    private void movRegImm() {
+        w   = op >>> 3 & 0b1;
+        reg = op       & 0b111;
+        final int src = getMem(w);
+        setReg(w, reg, src);
+        clocks += 4;
+    }
 
-            /*
-             * POP destination
-             *
-             * POP transfers the word at the current top of the stack (pointed
-             * to by the SP) to the destination operand, and then increments SP
-             * by two to point to the new top of the stack. POP can be used to
-             * move temporary variables from the stack to registers or memory.
-             */
-            // Register
-            case 0x58: // POP AX
-            case 0x59: // POP CX
-            case 0x5a: // POP DX
-            case 0x5b: // POP BX
-            case 0x5c: // POP SP
-            case 0x5d: // POP BP
-            case 0x5e: // POP SI
-            case 0x5f: // POP DI
-                reg = op & 0b111;
-                src = pop();
-                setReg(W, reg, src);
-                clocks += 8;
-                break;
+    /**
+     * Memory to/from Accumulator
+     *
+     * MOV AL,MEM8
+     * MOV AX,MEM16
+     * MOV MEM8,AL
+     * MOV MEM16,AX
+     */
+    private void movAccMem() {
+        int src;
+        final int dst = getMem(W);
+        if (d == 0b0) {
+            src = getMem(w, getAddr(os, dst));
+            setReg(w, AX, src);
+        } else {
+            src = getReg(w, AX);
+            setMem(w, getAddr(os, dst), src);
+        }
+        clocks += 10;
+    }
 
-            // Segment Register
-            case 0x07: // POP ES
-            case 0x0f: // POP CS
-            case 0x17: // POP SS
-            case 0x1f: // POP DS
-                reg = op >>> 3 & 0b111;
-                src = pop();
-                setSegReg(reg, src);
-                clocks += 8;
-                break;
+    /**
+     * Register/Memory to/from Segment Register
+     *
+     * MOV REG16/MEM16,SEGREG
+     * MOV SEGREG,REG16/MEM16
+     */
+    private void movSegReg() {
+        int src;
+        decode();
+        if (d == 0b0) {
+            src = getSegReg(reg);
+            setRM(W, mod, rm, src);
+            clocks += mod == 0b11 ? 2 : 9;
+        } else {
+            src = getRM(W, mod, rm);
+            setSegReg(reg, src);
+            clocks += mod == 0b11 ? 2 : 8;
+        }
+    }
 
-            /*
-             * XCHG destination,source
-             *
-             * XCHG (exchange) switches the contents of the source and
-             * destination (byte or word) operands. When used in conjunction
-             * with the LOCK prefix, XCHG can test and set a semaphore that
-             * controls access to a resource shared by multiple processors.
-             */
-            // Register/Memory with Register
-            case 0x86: // XCHG REG8,REG8/MEM8
-            case 0x87: // XCHG REG16,REG16/MEM16
-                decode();
-                dst = getReg(w, reg);
-                src = getRM(w, mod, rm);
-                setReg(w, reg, src);
-                setRM(w, mod, rm, dst);
-                clocks += mod == 0b11 ? 3 : 17;
-                break;
+    /*
+     * PUSH source
+     *
+     * PUSH decrements SP (the stack pointer) by two and then transfers
+     * a word from the source operand to the top of the stack now
+     * pointed by SP. PUSH often is used to place parameters on the
+     * stack before calling a procedure; more generally, it is the basic
+     * means of storing temporary data on the stack.
+     */
 
-            // Register with Accumulator
-            case 0x91: // XCHG AX,CX
-            case 0x92: // XCHG AX,DX
-            case 0x93: // XCHG AX,BX
-            case 0x94: // XCHG AX,SP
-            case 0x95: // XCHG AX,BP
-            case 0x96: // XCHG AX,SI
-            case 0x97: // XCHG AX,DI
-                reg = op & 0b111;
-                dst = getReg(W, AX);
-                src = getReg(W, reg);
-                setReg(W, AX, src);
-                setReg(W, reg, dst);
-                clocks += 3;
-                break;
+    /**
+     * Register
+     *
+     * PUSH AX
+     * PUSH CX
+     * PUSH DX
+     * PUSH BX
+     * PUSH SP
+     * PUSH BP
+     * PUSH SI
+     * PUSH DI
+     */
+    private void pushReg() {
+        reg = op & 0b111;
+        final int src = getReg(W, reg);
+        push(src);
+        clocks += 11;
+    }
 
-            /*
-             * XLAT translate-table
-             *
-             * XLAT (translate) replaces a byte in the AL register with a byte
-             * from a 256-byte, user-coded translation table. Register BX is
-             * assumed to point to the beginning of the table. The byte in AL is
-             * used as an index into the table and is replaced by the byte at
-             * the offset in the table corresponding to AL's binary value. The
-             * first byte in the table has an offset of 0. For example, if AL
-             * contains 5H, and the sixth element of the translation table
-             * contains 33H, then AL will contain 33H following the instruction.
-             * XLAT is useful for translating characters from one code to
-             * another, the classic example being ASCII to EBCDIC or the
-             * reverse.
-             */
-            case 0xd7: // XLAT SOURCE-TABLE
-                al = getMem(B, getAddr(os, getReg(W, BX) + al));
-                clocks += 11;
-                break;
+    /**
+     * Segment Register
+     *
+     * PUSH ES
+     * PUSH CS
+     * PUSH SS
+     * PUSH DS
+     */
+    private void pushSegReg() {
+        reg = op >>> 3 & 0b111;
+        final int src = getSegReg(reg);
+        push(src);
+        clocks += 10;
+    }
 
-            /*
-             * IN accumulator,port
-             *
-             * IN transfers a byte or a word from an input port to the AL
-             * register or the AX register, respectively. The port number may be
-             * specified either with an immediate byte constant, allowing access
-             * to ports numbered 0 through 255, or with a number previously
-             * placed in the DX register, allowing variable access (by changing
-             * the value in DX) to ports numbered from 0 through 65,535.
-             */
-            // Variable Port
-            case 0xe4: // IN AL,IMMED8
-            case 0xe5: // IN AX,IMMED8
-                src = getMem(B);
-                setReg(w, AX, portIn(w, src));
-                clocks += 10;
-                if (w == W && (src & 0b1) == 0b1)
-                    clocks += 4;
-                break;
-            // Fixed Port
-            case 0xec: // IN AL,DX
-            case 0xed: // IN AX,DX
-                src = getReg(W, DX);
-                setReg(w, AX, portIn(w, src));
-                clocks += 8;
-                if (w == W && (src & 0b1) == 0b1)
-                    clocks += 4;
-                break;
+    /*
+     * POP destination
+     *
+     * POP transfers the word at the current top of the stack (pointed
+     * to by the SP) to the destination operand, and then increments SP
+     * by two to point to the new top of the stack. POP can be used to
+     * move temporary variables from the stack to registers or memory.
+     */
 
-            /*
-             * OUT port,accumulator
-             *
-             * OUT transfers a byte or a word from the AL register or the AX
-             * register, respectively, to an output port. The port number may be
-             * specified either with an immediate byte constant, allowing access
-             * to ports numbered 0 through 255, or with a number previously
-             * placed in register DX, allowing variable access (by changing the
-             * value in DX) to ports numbered from 0 through 65,535.
-             */
-            // Variable Port
-            case 0xe6: // OUT AL,IMMED8
-            case 0xe7: // OUT AX,IMMED8
-                src = getMem(B);
-                portOut(w, src, getReg(w, AX));
-                clocks += 10;
-                if (w == W && (src & 0b1) == 0b1)
-                    clocks += 4;
-                break;
-            // Fixed Port
-            case 0xee: // OUT AL,DX
-            case 0xef: // OUT AX,DX
-                src = getReg(W, DX);
-                portOut(w, src, getReg(w, AX));
-                clocks += 8;
-                if (w == W && (src & 0b1) == 0b1)
-                    clocks += 4;
-                break;
+    /**
+     * Register
+     *
+     * POP AX
+     * POP CX
+     * POP DX
+     * POP BX
+     * POP SP
+     * POP BP
+     * POP SI
+     * POP DI
+     */
+    private void popReg() {
+        reg = op & 0b111;
+        final int src = pop();
+        setReg(W, reg, src);
+        clocks += 8;
+    }
 
-            /*
-             * Address Object Transfers
-             *
-             * The instructions manipulate the addresses of the variables rather
-             * than the contents or values of variables. They are most useful
-             * for list processing, based variables, and string operations.
-             */
-            /*
-             * LEA destination,source
-             *
-             * LEA (load effective address) transfers the offset of the source
-             * operand (rather than its value) to the destination operand. The
-             * source must be a memory operand, and the destination operand must
-             * be a 16-bit general register. LEA does not affect any flags. The
-             * XLAT and string instructions assume that certain registers point
-             * to operands; LEA can be used to load these register (e.g.,
-             * loading BX with the address of the translate table used by the
-             * XLAT instruction).
-             */
-            case 0x8d: // LEA REG16,MEM16
-                decode();
-                src = getEA(mod, rm) - (os << 4);
-                setReg(w, reg, src);
-                clocks += 2;
-                break;
+    /**
+     * Segment Register
+     *
+     * POP ES
+     * POP CS
+     * POP SS
+     * POP DS
+     */
+    private void popSegReg() {
+        reg = op >>> 3 & 0b111;
+        final int src = pop();
+        setSegReg(reg, src);
+        clocks += 8;
+    }
 
-            /*
-             * LDS destination,source
-             *
-             * LDS (load pointer using DS) transfers a 32-bit pointer variable
-             * from the source operand, which must be a memory operand, to the
-             * destination operand and register DS. The offset word of the
-             * pointer is transferred to the destination operand, which may be
-             * any 16-bit general register. The segment word of the pointer is
-             * transferred to register DS. Specifying SI as the destination
-             * operand is a convenient way to prepare to process a source string
-             * that is not in the current data segment (string instructions
-             * assume that the source string is located in the current data
-             * segment and that SI contains the offset of the string).
-             */
-            case 0xc5: // LDS REG16,MEM32
-                decode();
-                src = getEA(mod, rm);
-                setReg(w, reg, getMem(W, src));
-                ds = getMem(W, src + 2);
-                clocks += 16;
-                break;
+    /*
+     * XCHG destination,source
+     *
+     * XCHG (exchange) switches the contents of the source and
+     * destination (byte or word) operands. When used in conjunction
+     * with the LOCK prefix, XCHG can test and set a semaphore that
+     * controls access to a resource shared by multiple processors.
+     */
 
-            /*
-             * LES destination,source
-             *
-             * LES (load pointer using ES) transfers a 32-bit pointer variable
-             * from the source operand, which must be a memory operand, to the
-             * destination operand and register ES. The offset word of the
-             * pointer is transferred to the destination operand, which may be
-             * any 16-bit general register. The segment word of the pointer is
-             * transferred to register ES. Specifying DI as the destination
-             * operand is a convenient way to prepare to process a destination
-             * string that is not in the current extra segment. (The destination
-             * string must be located in the extra segment, and DI must contain
-             * the offset of the string).
-             */
-            case 0xc4: // LES REG16,MEM32
-                decode();
-                src = getEA(mod, rm);
-                setReg(w, reg, getMem(W, src));
-                es = getMem(W, src + 2);
-                clocks += 16;
-                break;
+    /**
+     * Register/Memory with Register
+     *
+     * XCHG REG8,REG8/MEM8
+     * XCHG REG16,REG16/MEM16
+     */
+    private void xchgRM() {
+        decode();
+        final int dst = getReg(w, reg);
+        final int src = getRM(w, mod, rm);
+        setReg(w, reg, src);
+        setRM(w, mod, rm, dst);
+        clocks += mod == 0b11 ? 3 : 17;
+    }
 
-            /*
-             * Flag Transfers
-             */
-            /*
-             * LAHF
-             *
-             * LAHF (load register AH from flags) copies SF, ZF, AF, PF and CF
-             * into the bits 7, 6, 4, 2 and 0, respectively, of register AH. The
-             * content of bits 5, 3 and 1 is undefined; the flags themselves are
-             * not affected. LAHF is provided primarily for converting 8080/8085
-             * assembly language programs to run on an 8086.
-             */
-            case 0x9f: // LAHF
-                ah = flags & 0xff;
-                clocks += 4;
-                break;
+    /**
+     * Register with Accumulator
+     *
+     * XCHG AX,CX
+     * XCHG AX,DX
+     * XCHG AX,BX
+     * XCHG AX,SP
+     * XCHG AX,BP
+     * XCHG AX,SI
+     * XCHG AX,DI
+     */
+    private void xchgAcc() {
+        reg = op & 0b111;
+        final int dst = getReg(W, AX);
+        final int src = getReg(W, reg);
+        setReg(W, AX, src);
+        setReg(W, reg, dst);
+        clocks += 3;
+    }
 
-            /*
-             * SAHF
-             *
-             * SAHF (store register AH into flags) transfers bits 7, 6, 4, 2 and
-             * 0 from register AH into SF, ZF, AF, PF and CF, respectively,
-             * replacing whatever values these flags previously had. OF, DF, IF
-             * and TF are not affected. This instruction is provided from
-             * 8080/8085 compatibility.
-             */
-            case 0x9e: // SAHF
-                flags = flags & 0xff00 | ah;
-                clocks += 4;
-                break;
+    /**
+     * XLAT translate-table
+     *
+     * XLAT (translate) replaces a byte in the AL register with a byte
+     * from a 256-byte, user-coded translation table. Register BX is
+     * assumed to point to the beginning of the table. The byte in AL is
+     * used as an index into the table and is replaced by the byte at
+     * the offset in the table corresponding to AL's binary value. The
+     * first byte in the table has an offset of 0. For example, if AL
+     * contains 5H, and the sixth element of the translation table
+     * contains 33H, then AL will contain 33H following the instruction.
+     * XLAT is useful for translating characters from one code to
+     * another, the classic example being ASCII to EBCDIC or the
+     * reverse.
+     */
+    private void xlat() {
+        al = getMem(B, getAddr(os, getReg(W, BX) + al));
+        clocks += 11;
+    }
 
-            /*
-             * PUSHF
-             *
-             * PUSH decrements SP (the stack pointer) by two and then transfers
-             * all flags to the word at the top of stack pointed to by SP. The
-             * flags themselves are not affected.
-             */
-            case 0x9c: // PUSHF
-                push(flags);
-                clocks += 10;
-                break;
+    /*
+     * IN accumulator,port
+     *
+     * IN transfers a byte or a word from an input port to the AL
+     * register or the AX register, respectively. The port number may be
+     * specified either with an immediate byte constant, allowing access
+     * to ports numbered 0 through 255, or with a number previously
+     * placed in the DX register, allowing variable access (by changing
+     * the value in DX) to ports numbered from 0 through 65,535.
+     */
 
-            /*
-             * POPF
-             *
-             * POPF transfers specific bits from the word at the current top of
-             * stack (pointed to by register SP) into the 8086 flags, replacing
-             * whatever values the flags previously contained. SP is then
-             * incremented by two to point at the new top of stack. PUSHF and
-             * POPF allow a procedure to save and restore a calling program's
-             * flags. They also allow a program to change the setting of TF
-             * (there is no instruction for updating this flag directly). The
-             * change is accomplished by pushing the flags, altering bit 8 of
-             * the memory- image and then popping the flags.
-             */
-            case 0x9d: // POPF
-                flags = pop();
-                clocks += 8;
-                break;
+    /**
+     * Variable Port
+     *
+     * IN AL,IMMED8
+     * IN AX,IMMED8
+     */
+    private void inImm() {
+        final int src = getMem(B);
+        setReg(w, AX, portIn(w, src));
+        clocks += 10;
+        if (w == W && (src & 0b1) == 0b1)
+            clocks += 4;
+    }
 
-            /*
-             * Arithmetic Instructions
-             *
-             * Arithmetic Data Formats
-             *
-             * 8086 arithmetic operations may be performed on four types of
-             * numbers: unsigned binary, signed binary (integers), unsigned
-             * packed decimal and unsigned unpacked decimal. Binary numbers may
-             * be 8 or 16 bits long. Decimal numbers are stored in bytes, two
-             * digits per byte for packed decimals and one digit per byte for
-             * unpacked decimal. The processor always assumes that the operands
-             * specified in arithmetic instructions contain data that represents
-             * valid numbers for the type of instructions being performed.
-             * Invalid data may produce unpredictable results.
-             *
-             * Unsigned binary numbers may be either 8 or 16 bits long; all bits
-             * are considered in determining a number's magnitude. The value
-             * range of an 8-bit unsigned binary number is 0-255; 16 bits can
-             * represent values from 0 through 65,535. Addition, subtraction,
-             * multiplication and division operations are available for unsigned
-             * binary numbers.
-             *
-             * Signed binary numbers (integer) may be either 8 or 16 bits long.
-             * The high-order (leftmost) bit is interpreted as the number's
-             * sign: 0 = positive and 1 = negative. Negative numbers are
-             * represented in standard two's complement notation. Since the
-             * high-order is used for a sign, the range of an 8-bit integer is
-             * -128 through +127; 16-bit integer may range from -32,768 through
-             * +32,767. The value zero has a positive sign. Multiplication and
-             * division operations are provided for signed binary numbers.
-             * Addition and subtraction are performed with the unsigned binary
-             * instructions. Conditional jump instructions, as well as an
-             * "interrupt on overflow" instruction, can be used following an
-             * unsigned operation on an integer to detect overflow into the sign
-             * bit.
-             *
-             * Packed decimal numbers are stored as unsigned byte quantities.
-             * The byte is treated as having one decimal digit in each half-byte
-             * (nibble); the digit in the high-order half-byte is the most
-             * significant. Hexadecimal values 0-9 are valid in each half-byte,
-             * and the range of a packed decimal number is 0-99. Addition and
-             * subtraction are performed in two steps. First an unsigned binary
-             * instruction is used to produce an intermediate result in register
-             * AL. The an adjustment operation is performed which changes the
-             * intermediate value in AL to a final correct packed decimal
-             * result. Multiplication and division adjustments are not available
-             * for packed decimal numbers.
-             *
-             * Unpacked decimal numbers are stored as unsigned byte quantities.
-             * The magnitude of the number is determined from the low-order
-             * half-byte; hexadecimal values 0-9 are valid and are interpreted
-             * as decimal numbers. The high-order half-byte must be zero for
-             * multiplication and division; it may contain any value from
-             * addition and subtraction. Arithmetic on unpacked decimal numbers
-             * is performed in two steps. The unsigned binary addition,
-             * subtraction and multiplication operations are used to produce an
-             * intermediate result in register AL. An adjustment instruction
-             * then changes the value in AL to a final correct unpacked decimal
-             * number. Division is performed similarly, except that the
-             * adjustment is carried out on the numerator operand in register AL
-             * first, then a following unsigned binary division instruction
-             * produces a correct result.
-             *
-             * Unpacked decimal numbers are similar to the ASCII character
-             * representations of the digits 0-9. Note, however, that the high-
-             * order half-byte of an ASCII numeral is always 3H. Unpacked
-             * decimal arithmetic may be performed on ASCII number characters
-             * under the following conditions: - the high-order half-byte of an
-             * ASCII numeral must be set to 0H prior to multiplication or
-             * division. - unpacked decimal arithmetic leaves the high-order
-             * half-byte set to 0H; it must be set to 3H to produce a valid
-             * ASCII numeral.
-             *
-             * Arithmetic Instructions and Flags
-             *
-             * The 8086 arithmetic instructions post certain characteristics of
-             * the result of the operation to six flags. Most of these flags can
-             * be tested by following the arithmetic instruction with a
-             * conditional jump instruction; the INTO (interrupt on overflow)
-             * instruction may also be used. The various instructions affect the
-             * flags differently, as explained in the instruction descriptions.
-             */
-            /*
-             * Addition
-             */
-            /*
-             * ADD destination,source
-             *
-             * The sum of the two operands, which may be bytes or words,
-             * replaces the destination operand. Both operands may be signed or
-             * unsigned binary numbers. ADD updates AF, CF, OF, PF, SF and ZF.
-             */
-            // Reg./Memory and Register to Either
-            case 0x00: // ADD REG8/MEM8,REG8
-            case 0x01: // ADD REG16/MEM16,REG16
-            case 0x02: // ADD REG8,REG8/MEM8
-            case 0x03: // ADD REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = add(w, dst, src);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * Fixed Port
+     *
+     * IN AL,DX
+     * IN AX,DX
+     */
+    private void inDX() {
+        final int src = getReg(W, DX);
+        setReg(w, AX, portIn(w, src));
+        clocks += 8;
+        if (w == W && (src & 0b1) == 0b1)
+            clocks += 4;
+    }
 
-            // Immediate to Accumulator
-            case 0x04: // ADD AL,IMMED8
-            case 0x05: // ADD AX,IMMED16
-                dst = getReg(w, 0);
-                src = getMem(w);
-                res = add(w, dst, src);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /*
+     * OUT port,accumulator
+     *
+     * OUT transfers a byte or a word from the AL register or the AX
+     * register, respectively, to an output port. The port number may be
+     * specified either with an immediate byte constant, allowing access
+     * to ports numbered 0 through 255, or with a number previously
+     * placed in register DX, allowing variable access (by changing the
+     * value in DX) to ports numbered from 0 through 65,535.
+     */
 
-            /*
-             * ADC destination,source
-             *
-             * ADC (Add with Carry) sums the operands, which may be bytes or
-             * words, adds one if CF is set and replaces the destination operand
-             * with the result. Both operands may be signed or unsigned binary
-             * numbers. ADC updates AF, CF, OF, PF, SF and ZF. Since ADC
-             * incorporates a carry from a previous operation, it can be used to
-             * write routines to add numbers longer than 16 bits.
-             */
-            // Reg./Memory with Register to Either
-            case 0x10: // ADC REG8/MEM8,REG8
-            case 0x11: // ADC REG16/MEM16,REG16
-            case 0x12: // ADC REG8,REG8/MEM8
-            case 0x13: // ADC REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = adc(w, dst, src);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * Variable Port
+     *
+     * OUT AL,IMMED8
+     * OUT AX,IMMED8
+     */
+    private void outImm() {
+        final int src = getMem(B);
+        portOut(w, src, getReg(w, AX));
+        clocks += 10;
+        if (w == W && (src & 0b1) == 0b1)
+            clocks += 4;
+    }
 
-            // Immediate to Accumulator
-            case 0x14: // ADC AL,IMMED8
-            case 0X15: // ADC AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                res = adc(w, dst, src);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /**
+     * Fixed Port
+     *
+     * OUT AL,DX
+     * OUT AX,DX
+     */
+    private void outDX() {
+        final int src = getReg(W, DX);
+        portOut(w, src, getReg(w, AX));
+        clocks += 8;
+        if (w == W && (src & 0b1) == 0b1)
+            clocks += 4;
+    }
 
-            /*
-             * INC destination
-             *
-             * INC (Increment) adds one to the destination operand. The operand
-             * may be a byte or a word and is treated as an unsigned binary
-             * number. INC updates AF, OF, PF, SF and ZF; it does not affect CF.
-             */
-            // Register
-            case 0x40: // INC AX
-            case 0x41: // INC CX
-            case 0x42: // INC DX
-            case 0x43: // INC BX
-            case 0x44: // INC SP
-            case 0x45: // INC BP
-            case 0x46: // INC SI
-            case 0x47: // INC DI
-                reg = op & 0b111;
-                src = getReg(W, reg);
-                res = inc(W, src);
-                setReg(W, reg, res);
-                clocks += 2;
-                break;
+    /*
+     * Address Object Transfers
+     *
+     * The instructions manipulate the addresses of the variables rather
+     * than the contents or values of variables. They are most useful
+     * for list processing, based variables, and string operations.
+     */
 
-            /*
-             * AAA
-             *
-             * AAA (ASCII Adjust for Addition) changes the contents of register
-             * AL to a valid unpacked decimal number; the high-order half-byte
-             * is zeroed. AAA updates AF and CF; the content of OF, PF, SF and
-             * ZF is undefined following execution of AAA.
-             */
-            case 0x37: // AAA
-                if ((al & 0xf) > 9 || getFlag(AF)) {
-                    al += 6;
-                    ah = ah + 1 & 0xff;
-                    setFlag(CF, true);
-                    setFlag(AF, true);
-                } else {
-                    setFlag(CF, false);
-                    setFlag(AF, false);
-                }
-                al &= 0xf;
-                clocks += 4;
-                break;
+    /**
+     * LEA destination,source
+     *
+     * LEA (load effective address) transfers the offset of the source
+     * operand (rather than its value) to the destination operand. The
+     * source must be a memory operand, and the destination operand must
+     * be a 16-bit general register. LEA does not affect any flags. The
+     * XLAT and string instructions assume that certain registers point
+     * to operands; LEA can be used to load these register (e.g.,
+     * loading BX with the address of the translate table used by the
+     * XLAT instruction).
+     */
+    private void lea() {
+        decode();
+        final int src = getEA(mod, rm) - (os << 4);
+        setReg(w, reg, src);
+        clocks += 2;
+    }
 
-            /*
-             * DAA
-             *
-             * DAA (Decimal Adjust for Addition) corrects the result of
-             * previously adding two valid packed decimal operands (the
-             * destination operand must have been register AL). DAA changes the
-             * content of AL to a pair of valid packed decimal digits. It
-             * updates AF, CF, PF, SF and ZF; the content of OF is undefined
-             * following execution of DAA.
-             */
-            case 0x27: { // DAA
-                final int oldAL = al;
-                final boolean oldCF = getFlag(CF);
-                setFlag(CF, false);
-                if ((al & 0xf) > 9 || getFlag(AF)) {
-                    al += 6;
-                    setFlag(CF, oldCF || al < 0);
-                    al &= 0xff;
-                    setFlag(AF, true);
-                } else
-                    setFlag(AF, false);
-                if (oldAL > 0x99 || oldCF) {
-                    al = al + 0x60 & 0xff;
-                    setFlag(CF, true);
-                } else
-                    setFlag(CF, false);
-                setFlags(B, al);
-                clocks += 4;
-                break;
-            }
+    /**
+     * LDS destination,source
+     *
+     * LDS (load pointer using DS) transfers a 32-bit pointer variable
+     * from the source operand, which must be a memory operand, to the
+     * destination operand and register DS. The offset word of the
+     * pointer is transferred to the destination operand, which may be
+     * any 16-bit general register. The segment word of the pointer is
+     * transferred to register DS. Specifying SI as the destination
+     * operand is a convenient way to prepare to process a source string
+     * that is not in the current data segment (string instructions
+     * assume that the source string is located in the current data
+     * segment and that SI contains the offset of the string).
+     */
+    private void lds() {
+        decode();
+        final int src = getEA(mod, rm);
+        setReg(w, reg, getMem(W, src));
+        ds = getMem(W, src + 2);
+        clocks += 16;
+    }
 
-            /*
-             * Subtraction
-             */
-            /*
-             * SUB destination,source
-             *
-             * The source operand is subtracted from the destination operand,
-             * and the result replaces the destination operand. The operands may
-             * be bytes or words. Both operands may be signed or unsigned binary
-             * numbers. SUB updates AF, CF, OF, PF, SF and ZF.
-             */
-            // Reg./Memory and Register to Either
-            case 0x28: // SUB REG8/MEM8,REG8
-            case 0x29: // SUB REG16/MEM16,REG16
-            case 0x2a: // SUB REG8,REG8/MEM8
-            case 0x2b: // SUB REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = sub(w, dst, src);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * LES destination,source
+     *
+     * LES (load pointer using ES) transfers a 32-bit pointer variable
+     * from the source operand, which must be a memory operand, to the
+     * destination operand and register ES. The offset word of the
+     * pointer is transferred to the destination operand, which may be
+     * any 16-bit general register. The segment word of the pointer is
+     * transferred to register ES. Specifying DI as the destination
+     * operand is a convenient way to prepare to process a destination
+     * string that is not in the current extra segment. (The destination
+     * string must be located in the extra segment, and DI must contain
+     * the offset of the string).
+     */
+    private void les() {
+        decode();
+        final int src = getEA(mod, rm);
+        setReg(w, reg, getMem(W, src));
+        es = getMem(W, src + 2);
+        clocks += 16;
+    }
 
-            // Immediate from Accumulator
-            case 0x2c: // SUB AL,IMMED8
-            case 0x2d: // SUB AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                res = sub(w, dst, src);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /*
+     * Flag Transfers
+     */
 
-            /*
-             * SBB destination,source
-             *
-             * SBB (Subtract with Borrow) subtracts the source from the
-             * destination, subtracts one if CF is set, and returns the result
-             * to the destination operand. Both operands may be bytes or words.
-             * Both operands may be signed or unsigned binary numbers. SBB
-             * updates AF, CF, OF, PF, SF and ZF. Since it incorporates a borrow
-             * from a previous operation, SBB may be used to write routines that
-             * subtract numbers longer than 16 bits.
-             */
-            // Reg./Memory with Register to Either
-            case 0x18: // SBB REG8/MEM8,REG8
-            case 0x19: // SBB REG16/MEM16,REG16
-            case 0x1a: // SBB REG8,REG8/MEM8
-            case 0x1b: // SBB REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = sbb(w, dst, src);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * LAHF
+     *
+     * LAHF (load register AH from flags) copies SF, ZF, AF, PF and CF
+     * into the bits 7, 6, 4, 2 and 0, respectively, of register AH. The
+     * content of bits 5, 3 and 1 is undefined; the flags themselves are
+     * not affected. LAHF is provided primarily for converting 8080/8085
+     * assembly language programs to run on an 8086.
+     */
+    private void lahf() {
+        ah = getFlags() & 0xff;
+        clocks += 4;
+    }
 
-            // Immediate to Accumulator
-            case 0x1c: // SBB AL,IMMED8
-            case 0X1d: // SBB AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                res = sbb(w, dst, src);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /**
+     * SAHF
+     *
+     * SAHF (store register AH into flags) transfers bits 7, 6, 4, 2 and
+     * 0 from register AH into SF, ZF, AF, PF and CF, respectively,
+     * replacing whatever values these flags previously had. OF, DF, IF
+     * and TF are not affected. This instruction is provided from
+     * 8080/8085 compatibility.
+     */
+    private void sahf() {
+        flags = getFlags() & 0xff00 | ah;
+        clocks += 4;
+    }
 
-            /*
-             * DEC destination
-             *
-             * DEC (Decrement) subtracts one from the destination, which may be
-             * a byte or a word. DEC updates AF, OF, PF, SF, and ZF; it does not
-             * affect CF.
-             */
-            // Register
-            case 0x48: // DEC AX
-            case 0x49: // DEC CX
-            case 0x4a: // DEC DX
-            case 0x4b: // DEC BX
-            case 0x4c: // DEC SP
-            case 0x4d: // DEC BP
-            case 0x4e: // DEC SI
-            case 0x4f: // DEC DI
-                reg = op & 0b111;
-                dst = getReg(W, reg);
-                res = dec(W, dst);
-                setReg(W, reg, res);
-                clocks += 2;
-                break;
+    /**
+     * PUSHF
+     *
+     * PUSH decrements SP (the stack pointer) by two and then transfers
+     * all flags to the word at the top of stack pointed to by SP. The
+     * flags themselves are not affected.
+     */
+    private void pushf() {
+        push(getFlags());
+        clocks += 10;
+    }
 
-            /*
-             * NEG destination
-             *
-             * NEG (Negate) subtracts the destination operand, which may be a
-             * byte or a word, from 0 and returns the result to the destination.
-             * This forms the two's complement of the number, effectively
-             * reversing the sign of an integer. If the operand is zero, its
-             * sign is not changed. Attempting to negate a byte containing -128
-             * or a word containing -32,768 causes no change to the operand and
-             * sets OF. NEG updates AF, CF, OF, PF, SF and ZF. CF is always set
-             * except when the operand is zero, in which case it is cleared.
-             */
-
-            /*
-             * CMP destination,source
-             *
-             * CMP (Compare) subtracts the source from the destination, which
-             * may be bytes or words, but does not return the result. The
-             * operands are unchanged, but the flags are updated and can be
-             * tested by the subsequent conditional jump instructions. CMP
-             * updates AF, CF, OF, PF, SF and ZF. The comparison reflected in
-             * the flags is that of the destination to the source. If a CMP
-             * instruction is followed by a JG (jump if greater) instruction,
-             * for example, the jump is taken if the destination operand is
-             * greater than the source operand.
-             */
-            // Register/Memory and Register
-            case 0x38: // CMP REG8/MEM8,REG8
-            case 0x39: // CMP REG16/MEM16,REG16
-            case 0x3a: // CMP REG8,REG8/MEM8
-            case 0x3b: // CMP REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                sub(w, dst, src);
-                clocks += mod == 0b11 ? 3 : 9;
-                break;
+    /**
+     * POPF
+     *
+     * POPF transfers specific bits from the word at the current top of
+     * stack (pointed to by register SP) into the 8086 flags, replacing
+     * whatever values the flags previously contained. SP is then
+     * incremented by two to point at the new top of stack. PUSHF and
+     * POPF allow a procedure to save and restore a calling program's
+     * flags. They also allow a program to change the setting of TF
+     * (there is no instruction for updating this flag directly). The
+     * change is accomplished by pushing the flags, altering bit 8 of
+     * the memory- image and then popping the flags.
+     */
+    private void popf() {
+        flags = pop();
+        lazy = 0;
+        clocks += 8;
+    }
 
-            // Immediate with Accumulator
-            case 0x3c: // CMP AL,IMMED8
-            case 0x3d: // CMP AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                sub(w, dst, src);
-                clocks += 4;
-                break;
+    /*
+     * Arithmetic Instructions
+     *
+     * Arithmetic Data Formats
+     *
+     * 8086 arithmetic operations may be performed on four types of
+     * numbers: unsigned binary, signed binary (integers), unsigned
+     * packed decimal and unsigned unpacked decimal. Binary numbers may
+     * be 8 or 16 bits long. Decimal numbers are stored in bytes, two
+     * digits per byte for packed decimals and one digit per byte for
+     * unpacked decimal. The processor always assumes that the operands
+     * specified in arithmetic instructions contain data that represents
+     * valid numbers for the type of instructions being performed.
+     * Invalid data may produce unpredictable results.
+     *
+     * Unsigned binary numbers may be either 8 or 16 bits long; all bits
+     * are considered in determining a number's magnitude. The value
+     * range of an 8-bit unsigned binary number is 0-255; 16 bits can
+     * represent values from 0 through 65,535. Addition, subtraction,
+     * multiplication and division operations are available for unsigned
+     * binary numbers.
+     *
+     * Signed binary numbers (integer) may be either 8 or 16 bits long.
+     * The high-order (leftmost) bit is interpreted as the number's
+     * sign: 0 = positive and 1 = negative. Negative numbers are
+     * represented in standard two's complement notation. Since the
+     * high-order is used for a sign, the range of an 8-bit integer is
+     * -128 through +127; 16-bit integer may range from -32,768 through
+     * +32,767. The value zero has a positive sign. Multiplication and
+     * division operations are provided for signed binary numbers.
+     * Addition and subtraction are performed with the unsigned binary
+     * instructions. Conditional jump instructions, as well as an
+     * "interrupt on overflow" instruction, can be used following an
+     * unsigned operation on an integer to detect overflow into the sign
+     * bit.
+     *
+     * Packed decimal numbers are stored as unsigned byte quantities.
+     * The byte is treated as having one decimal digit in each half-byte
+     * (nibble); the digit in the high-order half-byte is the most
+     * significant. Hexadecimal values 0-9 are valid in each half-byte,
+     * and the range of a packed decimal number is 0-99. Addition and
+     * subtraction are performed in two steps. First an unsigned binary
+     * instruction is used to produce an intermediate result in register
+     * AL. The an adjustment operation is performed which changes the
+     * intermediate value in AL to a final correct packed decimal
+     * result. Multiplication and division adjustments are not available
+     * for packed decimal numbers.
+     *
+     * Unpacked decimal numbers are stored as unsigned byte quantities.
+     * The magnitude of the number is determined from the low-order
+     * half-byte; hexadecimal values 0-9 are valid and are interpreted
+     * as decimal numbers. The high-order half-byte must be zero for
+     * multiplication and division; it may contain any value from
+     * addition and subtraction. Arithmetic on unpacked decimal numbers
+     * is performed in two steps. The unsigned binary addition,
+     * subtraction and multiplication operations are used to produce an
+     * intermediate result in register AL. An adjustment instruction
+     * then changes the value in AL to a final correct unpacked decimal
+     * number. Division is performed similarly, except that the
+     * adjustment is carried out on the numerator operand in register AL
+     * first, then a following unsigned binary division instruction
+     * produces a correct result.
+     *
+     * Unpacked decimal numbers are similar to the ASCII character
+     * representations of the digits 0-9. Note, however, that the high-
+     * order half-byte of an ASCII numeral is always 3H. Unpacked
+     * decimal arithmetic may be performed on ASCII number characters
+     * under the following conditions: - the high-order half-byte of an
+     * ASCII numeral must be set to 0H prior to multiplication or
+     * division. - unpacked decimal arithmetic leaves the high-order
+     * half-byte set to 0H; it must be set to 3H to produce a valid
+     * ASCII numeral.
+     *
+     * Arithmetic Instructions and Flags
+     *
+     * The 8086 arithmetic instructions post certain characteristics of
+     * the result of the operation to six flags. Most of these flags can
+     * be tested by following the arithmetic instruction with a
+     * conditional jump instruction; the INTO (interrupt on overflow)
+     * instruction may also be used. The various instructions affect the
+     * flags differently, as explained in the instruction descriptions.
+     */
 
-            /*
-             * AAS
-             *
-             * AAS (ASCII Adjust for Subtraction) corrects the result of a
-             * previous subtraction of two valid unpacked decimal operands (the
-             * destination operand must have been specified as register AL). AAS
-             * changes the content of AL to a valid unpacked decimal number; the
-             * high-order half-byte is zeroed. AAS updates AF and CF; the
-             * content of OF, PF, SF and ZF is undefined following execution of
-             * AAS.
-             */
-            case 0x3f: // AAS
-                if ((al & 0xf) > 9 || getFlag(AF)) {
-                    al -= 6;
-                    ah = ah - 1 & 0xff;
-                    setFlag(CF, true);
-                    setFlag(AF, true);
-                } else {
-                    setFlag(CF, false);
-                    setFlag(AF, false);
-                }
-                al &= 0xf;
-                clocks += 4;
-                break;
+    /*
+     * Addition
+     */
 
-            /*
-             * DAS
-             *
-             * DAS (Decimal Adjust for Subtraction) corrects the result of a
-             * previous subtraction of two valid packed decimal operands (the
-             * destination operand must have been specified as register AL). DAS
-             * changes the content of AL to a pair of valid packed decimal
-             * digits. DAS updates AF, CF, PF, SF and ZF; the content of OF is
-             * undefined following the execution of DAS.
-             */
-            case 0x2f: // DAS
-            {
-                final int oldAL = al;
-                final boolean oldCF = getFlag(CF);
-                setFlag(CF, false);
-                if ((al & 0xf) > 9 || getFlag(AF)) {
-                    al -= 6;
-                    setFlag(CF, oldCF || (al & 0xff) > 0);
-                    al &= 0xff;
-                    setFlag(AF, true);
-                } else
-                    setFlag(AF, false);
-                if (oldAL > 0x99 || oldCF) {
-                    al = al - 0x60 & 0xff;
-                    setFlag(CF, true);
-                } else
-                    setFlag(CF, false);
-                setFlags(B, al);
-                clocks += 4;
-                break;
-            }
+    /*
+     * ADD destination,source
+     *
+     * The sum of the two operands, which may be bytes or words,
+     * replaces the destination operand. Both operands may be signed or
+     * unsigned binary numbers. ADD updates AF, CF, OF, PF, SF and ZF.
+     */
 
-            /*
-             * Multiplication
-             */
-            /*
-             * MUL source
-             *
-             * MUL (Multiply) performs an unsigned multiplication of the source
-             * operand and the accumulator. If the source is a byte, then it is
-             * multiplied by register AL, and the double-length result is
-             * returned in AH and AL. If the source operand is a word, then it
-             * is multiplied by register AX, and the double-length result is
-             * returned in registers DX and AX. The operands are treated as
-             * unsigned binary numbers. If the upper half of the result (AH for
-             * byte source, DX for word source) is nonzero, CF and OF are set;
-             * otherwise they are cleared. When CF and OF are set, they indicate
-             * that AH or DX contains significant digits of the result. The
-             * content of AF, PF, SF and ZF is undefined following execution of
-             * MUL.
-             */
-
-            /*
-             * IMUL source
-             *
-             * IMUL (Integer Multiply) performs a signed multiplication of the
-             * source operand and the accumulator. If the source is a byte, then
-             * it is multiplied by register AL, and the double-length result is
-             * returned in AH and AL. If the source is a word, then it is
-             * multiplied by register AX, and the double-length result is
-             * returned in registers DX and AX. If the upper half of the result
-             * (AH for byte source, DX for word source) is not the sign
-             * extension of the lower half of the result, CF and OF are set,
-             * they indicate that AH of DX contains significant digits of the
-             * result. The content of AF, PF, SF and ZF is undefined following
-             * execution of IMUL.
-             */
-
-            /*
-             * AAM
-             *
-             * AAM (ASCII Adjust for Multiply) corrects the result of a previous
-             * multiplication of two valid unpacked decimal operands. A valid 2-
-             * digit unpacked decimal number is derived from the content of AH
-             * and AL and is returned to AH and AL. The high-order half-bytes of
-             * the multiplied operands must have been 0H for AAM to produce a
-             * correct result. AAM updates PF, SF and ZF; the content of AF, CF
-             * and OF is undefined following execution of AAM.
-             */
-            case 0xd4: // AAM
-                src = getMem(B);
-                if (src == 0)
-                    callInt(0);
-                else {
-                    ah = al / src & 0xff;
-                    al = al % src & 0xff;
-                    setFlags(W, getReg(W, AX));
-                    clocks += 83;
-                }
-                break;
+    /**
+     * Reg./Memory and Register to Either
+     *
+     * ADD REG8/MEM8,REG8
+     * ADD REG16/MEM16,REG16
+     * ADD REG8,REG8/MEM8
+     * ADD REG16,REG16/MEM16
+     */
+    private void addRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = add(w, dst, src);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * Division
-             */
-            /*
-             * DIV source
-             *
-             * DIV (divide) performs an unsigned division of the accumulator
-             * (and its extension) by the source operand. If the source operand
-             * is a byte, it is divided into the double-length dividend assumed
-             * to be in register AL and AH. The single-length quotient is
-             * returned in AL, and the single-length remainder is returned in
-             * AH. If the source operand is a word, it is divided into the
-             * double-length dividend in register AX and DX. The single-length
-             * quotient is returned in AX, and the single-length remainder is
-             * returned in DX. If the quotient exceeds the capacity of its
-             * destination register (FFH for byte source, FFFFH for word
-             * source), as when division by zero is attempted, a type 0
-             * interrupt is generated, and the quotient and remainder are
-             * undefined. Nonintegral quotients are truncated to integers. The
-             * content of AF, CF, OF, PF, SF and ZF is undefined following
-             * execution of DIV.
-             */
-
-            /*
-             * IDIV source
-             *
-             * IDIV (Integer Divide) performs a signed division of the
-             * accumulator (and its extension) by the source operand. If the
-             * source operand is a byte, it is divided into the double-length
-             * dividend assumed to be in register AL and AH; the single-length
-             * quotient is returned in AL, and the single-length remainder is
-             * returned in AH. For byte integer division, the maximum position
-             * quotient is +127 (7FH) and the minimum negative quotient is -127
-             * (81H). If the source operand is a word, it is divided into the
-             * double-length dividend in register AX and DX; the single-length
-             * quotient is returned in AX, and the single-length remainder is
-             * returned in DX. For word integer division, the maximum positive
-             * quotient is +32,767 (7FFFH) and the minimum negative quotient is
-             * -32,767 (8001H). If the quotient is positive and exceeds the
-             * maximum, or is negative and is less than the minimum, the
-             * quotient and remainder are undefined, and a type 0 interrupt is
-             * generated. In particular, this occurs if division by 0 is
-             * attempted. Nonintegral quotients are truncated (toward 0) to
-             * integers, and the remainder has the same sign as the dividend.
-             * The content of AF, CF, OF, PF, SF and ZF is undefined following
-             * IDIV.
-             */
-
-            /*
-             * AAD
-             *
-             * AAD (ASCII Adjust for Division) modifies the numerator in AL
-             * before dividing two valid unpacked decimal operands so that the
-             * quotient produced by the division will be a valid unpacked
-             * decimal number. AH must be zero for the subsequent DIV to produce
-             * the correct result. The quotient is returned in AL, and the
-             * remainder is returned in AH; both high-order half-bytes are
-             * zeroed. AAD updates PF, SF and ZF; the content of AF, CF and OF
-             * is undefined following execution of AAD.
-             */
-            case 0xd5: // AAD
-                src = getMem(B);
-                al = ah * src + al & 0xff;
-                ah = 0;
-                setFlags(B, al);
-                clocks += 60;
-                break;
+    /**
+     * Immediate to Accumulator
+     *
+     * ADD AL,IMMED8
+     * ADD AX,IMMED16
+     */
+    private void addAccImm() {
+        final int dst = getReg(w, 0);
+        final int src = getMem(w);
+        final int res = add(w, dst, src);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            /*
-             * CBW
-             *
-             * CBW (Convert Byte to Word) extends the sign of the byte in
-             * register AL throughout register AH. CBW does not affect any
-             * flags. CBW can be used to produce a double-length (word) dividend
-             * from a byte prior to performing byte division.
-             */
-            case 0x98: // CBW
-                if ((al & 0x80) == 0x80)
-                    ah = 0xff;
-                else
-                    ah = 0x00;
-                clocks += 2;
-                break;
+    /*
+     * ADC destination,source
+     *
+     * ADC (Add with Carry) sums the operands, which may be bytes or
+     * words, adds one if CF is set and replaces the destination operand
+     * with the result. Both operands may be signed or unsigned binary
+     * numbers. ADC updates AF, CF, OF, PF, SF and ZF. Since ADC
+     * incorporates a carry from a previous operation, it can be used to
+     * write routines to add numbers longer than 16 bits.
+     */
 
-            /*
-             * CWD
-             *
-             * CWD (Convert Word to Doubleword) extends the sign of the word in
-             * register AX throughout register DX. CWD does not affect any
-             * flags. CWD can be used to produce a double-length (doubleword)
-             * dividend from a word prior to performing word division.
-             */
-            case 0x99: // CWD
-                if ((ah & 0x80) == 0x80)
-                    setReg(W, DX, 0xffff);
-                else
-                    setReg(W, DX, 0x0000);
-                clocks += 5;
-                break;
+    /**
+     * Reg./Memory with Register to Either
+     *
+     * ADC REG8/MEM8,REG8
+     * ADC REG16/MEM16,REG16
+     * ADC REG8,REG8/MEM8
+     * ADC REG16,REG16/MEM16
+     */
+    private void adcRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = adc(w, dst, src);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * Bit Manipulation Instructions
-             *
-             * The 8086 provides three groups of instructions for manipulating
-             * bits within both bytes and words: logical, shifts and rotates.
-             */
-            /*
-             * Logical
-             *
-             * The logical instructions include the boolean operators "not,"
-             * "and," "inclusive or," and "exclusive or," plus a TEST
-             * instruction that sets the flags, but does not alter either of its
-             * operands.
-             *
-             * AND, OR, XOR and TEST affect the flags as follows: the overflow
-             * (OF) and carry (CF) flags are always cleared by logical
-             * instructions, and the content of the auxiliary carry (AF) flag is
-             * always undefined following execution of a logical instruction.
-             * The sign (SF), zero (ZF) and parity (PF) flags are always posted
-             * to reflect the result of the operation and can be tested by
-             * conditional jump instructions. The interpretation of these flags
-             * is the same as for arithmetic instructions. SF is set if the
-             * result is negative (high-order bit is 1), and is cleared if the
-             * result is positive (high-order bit is 0). ZF is set if the result
-             * is zero, cleared otherwise. PF is set if the result contains an
-             * even number of 1-bits (has even parity) and is cleared if the
-             * number of 1-bits is odd (the result has odd parity). Note that
-             * NOT has no effect on the flags.
-             */
-            /*
-             * NOT destination
-             *
-             * NOT inverts the bits (forms the one's complement) of the byte or
-             * word operand.
-             */
-
-            /*
-             * AND destination,source
-             *
-             * AND performs the logical "and" of the two operands (byte or word)
-             * and returns the result to the destination operand. A bit in the
-             * result is set if both corresponding bits of the original operands
-             * are set; otherwise the bit is cleared.
-             */
-            // Register/Memory and Register
-            case 0x20: // AND REG8/MEM8,REG8
-            case 0x21: // AND REG16/MEM16,REG16
-            case 0x22: // AND REG8,REG8/MEM8
-            case 0x23: // AND REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = dst & src;
-                logic(w, res);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * Immediate to Accumulator
+     *
+     * ADC AL,IMMED8
+     * ADC AX,IMMED16
+     */
+    private void adcAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        final int res = adc(w, dst, src);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            // Immediate to Accumulator
-            case 0x24: // AND AL,IMMED8
-            case 0x25: // AND AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                res = dst & src;
-                logic(w, res);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /*
+     * INC destination
+     *
+     * INC (Increment) adds one to the destination operand. The operand
+     * may be a byte or a word and is treated as an unsigned binary
+     * number. INC updates AF, OF, PF, SF and ZF; it does not affect CF.
+     */
 
-            /*
-             * OR destination,source
-             *
-             * OR performs the logical "inclusive or" of the two operands (byte
-             * or word) and returns the result to the destination operand. A bit
-             * in the result is set if either or both corresponding bits of the
-             * original operands are set; otherwise the result bit is cleared.
-             */
-            // Register/Memory and Register
-            case 0x08: // OR REG8/MEM8,REG8
-            case 0x09: // OR REG16/MEM16,REG16
-            case 0x0a: // OR REG8,REG8/MEM8
-            case 0x0b: // OR REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = dst | src;
-                logic(w, res);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * Register
+     *
+     * INC AX
+     * INC CX
+     * INC DX
+     * INC BX
+     * INC SP
+     * INC BP
+     * INC SI
+     * INC DI
+     */
+    private void incReg() {
+        reg = op & 0b111;
+        final int src = getReg(W, reg);
+        final int res = inc(W, src);
+        setReg(W, reg, res);
+        clocks += 2;
+    }
 
-            // Immediate to Accumulator
-            case 0x0c: // OR AL,IMMED8
-            case 0x0d: // OR AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                res = dst | src;
-                logic(w, res);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /**
+     * AAA
+     *
+     * AAA (ASCII Adjust for Addition) changes the contents of register
+     * AL to a valid unpacked decimal number; the high-order half-byte
+     * is zeroed. AAA updates AF and CF; the content of OF, PF, SF and
+     * ZF is undefined following execution of AAA.
+     */
+    private void aaa() {
+        if ((al & 0xf) > 9 || getFlag(AF)) {
+            al += 6;
+            ah = ah + 1 & 0xff;
+            setFlag(CF, true);
+            setFlag(AF, true);
+        } else {
+            setFlag(CF, false);
+            setFlag(AF, false);
+        }
+        al &= 0xf;
+        clocks += 4;
+    }
 
-            /*
-             * XOR destination,source
-             *
-             * XOR (Exclusive Or) performs the logical "exclusive or" of the two
-             * operands and returns the result to the destination operand. A bit
-             * in the result if set if the corresponding bits of the original
-             * operands contain opposite values (one is set, the other is
-             * cleared); otherwise the result bit is cleared.
-             */
-            // Register/Memory and Register
-            case 0x30: // XOR REG8/MEM8,REG8
-            case 0x31: // XOR REG16/MEM16,REG16
-            case 0x32: // XOR REG8,REG8/MEM8
-            case 0x33: // XOR REG16,REG16/MEM16
-                decode();
-                if (d == 0b0) {
-                    dst = getRM(w, mod, rm);
-                    src = getReg(w, reg);
-                } else {
-                    dst = getReg(w, reg);
-                    src = getRM(w, mod, rm);
-                }
-                res = dst ^ src;
-                logic(w, res);
-                if (d == 0b0) {
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 16;
-                } else {
-                    setReg(w, reg, res);
-                    clocks += mod == 0b11 ? 3 : 9;
-                }
-                break;
+    /**
+     * DAA
+     *
+     * DAA (Decimal Adjust for Addition) corrects the result of
+     * previously adding two valid packed decimal operands (the
+     * destination operand must have been register AL). DAA changes the
+     * content of AL to a pair of valid packed decimal digits. It
+     * updates AF, CF, PF, SF and ZF; the content of OF is undefined
+     * following execution of DAA.
+     */
+    private void daa() {
+        final int oldAL = al;
+        final boolean oldCF = getFlag(CF);
+        setFlag(CF, false);
+        if ((al & 0xf) > 9 || getFlag(AF)) {
+            al += 6;
+            setFlag(CF, oldCF || al < 0);
+            al &= 0xff;
+            setFlag(AF, true);
+        } else
+            setFlag(AF, false);
+        if (oldAL > 0x99 || oldCF) {
+            al = al + 0x60 & 0xff;
+            setFlag(CF, true);
+        } else
+            setFlag(CF, false);
+        setFlags(B, al);
+        clocks += 4;
+    }
 
-            // Immediate to Accumulator
-            case 0x34: // XOR AL,IMMED8
-            case 0x35: // XOR AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                res = dst ^ src;
-                logic(w, res);
-                setReg(w, AX, res);
-                clocks += 4;
-                break;
+    /*
+     * Subtraction
+     */
 
-            /*
-             * TEST destination,source
-             *
-             * TEST performs the logical "and" of the two operands (byte or
-             * word), updates the flags, but does not return the result, i.e.,
-             * neither operand is changed. If a TEST instruction is followed by
-             * a JNZ (jump if not zero) instruction, the jump will be taken if
-             * there are any corresponding 1-bits in both operands.
-             */
-            // Register/Memory and Register
-            case 0x84: // TEST REG8/MEM8,REG8
-            case 0x85: // TEST REG16/MEM16,REG16
-                decode();
-                dst = getRM(w, mod, rm);
-                src = getReg(w, reg);
-                logic(w, dst & src);
-                clocks += mod == 0b11 ? 3 : 9;
-                break;
+    /*
+     * SUB destination,source
+     *
+     * The source operand is subtracted from the destination operand,
+     * and the result replaces the destination operand. The operands may
+     * be bytes or words. Both operands may be signed or unsigned binary
+     * numbers. SUB updates AF, CF, OF, PF, SF and ZF.
+     */
 
-            // Immediate and Accumulator
-            case 0xa8: // TEST AL,IMMED8
-            case 0xa9: // TEST AX,IMMED16
-                dst = getReg(w, AX);
-                src = getMem(w);
-                logic(w, dst & src);
-                clocks += 4;
-                break;
+    /**
+     * Reg./Memory and Register to Either
+     *
+     * SUB REG8/MEM8,REG8
+     * SUB REG16/MEM16,REG16
+     * SUB REG8,REG8/MEM8
+     * SUB REG16,REG16/MEM16
+     */
+    private void subRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = sub(w, dst, src);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * Shifts
-             *
-             * The bits in bytes and words may be shifted arithmetically or
-             * logically. Up to 255 shifts may be performed, according to the
-             * value of the count operand coded in the instruction. The count
-             * may be specified as the constant l, or as register CL, allowing
-             * the shift count to be a variable supplied at execution time.
-             * Arithmetic shifts may be used to multiply and divide binary
-             * numbers by powers of two. Logical shifts can be used to isolate
-             * bits in bytes or words.
-             *
-             * Shift instructions affect the flags as follows. AF is always
-             * undefined following a shift operation. PF, SF and ZF are updated
-             * normally, as in the logical instructions. CF always contains the
-             * value of the last bit shifted out of the destination operand. The
-             * content of OF is always undefined following a multibit shift. In
-             * a single-bit shift, OF is set if the value of the high-order
-             * (sign) bit was changed by the operation; if the sign bit retains
-             * its original value, OF is cleared.
-             */
-            /*
-             * SHL/SAL destination,count
-             *
-             * SHL and SAL (Shift Logical Left and Shift Arithmetic Left)
-             * perform the same operation and are physically the same
-             * instruction. The destination byte or word is shifted left by the
-             * number of bits specified in the count operand. Zeros are shifted
-             * in on the right. If the sign bit retains its original value, then
-             * OF is cleared.
-             */
-
-            /*
-             * SHR destination,source
-             *
-             * SHR (Shift Logical Right) shifts the bits in the destination
-             * operand (byte or word) to the right by the number of bits
-             * specified in the count operand. Zeros are shifted in on the left.
-             * If the sign bit retains its original value, then OF is cleared.
-             */
-
-            /*
-             * SAR destination,count
-             *
-             * SAR (Shift Arithmetic Right) shifts the bits in the destination
-             * operand (byte or word) to the right by the number of bits
-             * specified in the count operand. Bits equal to the original high-
-             * order (sign) bit are shifted in on the left, preserving the sign
-             * of the original value. Note that SAR does not produce the same
-             * result as the dividend of an "equivalent" IDIV instruction if the
-             * destination operand is negative and l-bits are shifted out. For
-             * example, shifting -5 right by one bit yields -3, while integer
-             * division of -5 by 2 yields -2. The difference in the instructions
-             * is that IDIV truncates all numbers toward zero, while SAR
-             * truncates positive numbers toward zero and negative numbers
-             * toward negative infinity.
-             */
-
-            /*
-             * Rotates
-             *
-             * Bits in bytes and words also may be rotated. Bits rotated out of
-             * an operand are not lost as in a shift, but are "circled" back
-             * into the other "end" of the operand. As in the shift
-             * instructions, the number of bits to be rotated is taken from the
-             * count operand, which may specify either a constant of l, or the
-             * CL register. The carry flag may act as an extension of the
-             * operand in two of the rotate instructions, allowing a bit to be
-             * isolated in CF and then tested by a JC (jump if carry) or JNC
-             * (jump if not carry) instruction.
-             *
-             * Rotates affect only the carry and overflow flags. CF always
-             * contains the value of the last bit rotated out. On multibit
-             * rotates, the value of OF is always undefined. In single-bit
-             * rotates, OF is set if the operation changes the high-order (sign)
-             * bit of the destination operand. If the sign bit retains its
-             * original value, OF is cleared.
-             */
-            /*
-             * ROL destination,count
-             *
-             * ROL (Rotate Left) rotates the destination byte or word left by
-             * the number of bits specified in the count operand.
-             */
-
-            /*
-             * ROR destination,count
-             *
-             * ROR (Rotate Right) operates similar to ROL except that the bits
-             * in the destination byte or word are rotated right instead of
-             * left.
-             */
-
-            /*
-             * RCL destination,count
-             *
-             * RCL (Rotate through Carry Left) rotates the bits in the byte or
-             * word destination operand to the left by the number of bits
-             * specified in the count operand. The carry flag (CF) is treated as
-             * "part of" the destination operand; that is, its value is rotated
-             * into the low-order bit of the destination, and itself is replaced
-             * by the high-order bit of the destination.
-             */
-
-            /*
-             * RCR destination,count
-             *
-             * RCR (Rotate through Carry Right) operates exactly like RCL except
-             * that the bits are rotated right instead of left.
-             */
-
-            /*
-             * String Instructions
-             *
-             * Five basic string operations, called primitives, allow strings of
-             * bytes or words to be operated on, one element (byte or word) at a
-             * time. Strings of up to 64k bytes may be manipulated with these
-             * instructions. Instructions are available to move, compare and
-             * scan for a value, as well as for moving string elements to and
-             * from the accumulator. These basic operations may be preceded by a
-             * special one-byte prefix that causes the instruction to be
-             * repeated by the hardware, allowing long strings to be processed
-             * much faster than would be possible with a software loop. The
-             * repetitions can be terminated by a variety of conditions, and a
-             * repeated operation may be interrupted and resumed.
-             *
-             * The string instructions operate quite similarly in many respects;
-             * the common characteristics are covered here rather than in the
-             * descriptions of the individual instructions. A string instruction
-             * may have a source operand, a destination operand, or both. The
-             * hardware assumes that a source string resides in the current data
-             * segment; a segment prefix byte may be used to override this
-             * assumption. A destination string must be in the current extra
-             * segment. The assembler checks the attributes of the operands to
-             * determine if the elements of the strings are bytes or words. The
-             * assembler does not, however, use the operand names to address the
-             * strings. Rather, the content of register SI (source index) is
-             * used as an offset to address the current element of the source
-             * string, and the content of register DI (destination index) is
-             * taken as the offset of the current destination string element.
-             * These registers must be initialized to point to the
-             * source/destination strings before executing the string
-             * instruction; the LDS, LES and LEA instructions are useful in this
-             * regard.
-             *
-             * The string instructions automatically update SI and/or DI in
-             * anticipation of processing the next string element. The setting
-             * of DF (the direction flag) determines whether the index registers
-             * are auto- incremented (DF = 0) or auto-decremented (DF = I). If
-             * byte strings are being processed, SI and/or DI is adjusted by 1;
-             * the adjustment is 2 for word strings.
-             *
-             * If a Repeat prefix has been coded, then register CX (count
-             * register) is decremented by 1 after each repetition of the string
-             * instruction; therefore, CX must be initialized to the number of
-             * repetitions desired before the string instruction is executed. If
-             * CX is 0, the string instruction is not executed, and control goes
-             * to the following instruction.
-             */
-            /*
-             * REP/REPE/REPZ/REPNE/REPNZ
-             *
-             * Repeat, Repeat While Equal, Repeat While Zero, Repeat While Not
-             * Equal and Repeat While Not Zero are five mnemonics for two forms
-             * of the prefix byte that controls repetition of a subsequent
-             * string instruction. The different mnemonics are provided to
-             * improve program clarity. The repeat prefixes do not affect the
-             * flags.
-             *
-             * REP is used in conjunction with the MOVS (Move String) and STOS
-             * (Store String) instructions and is interpreted as "repeat while
-             * not end-of-string" (CX not 0). REPE and REPZ operate identically
-             * and are physically the same prefix byte as REP. These
-             * instructions are used with the CMPS (Compare String) and SCAS
-             * (Scan String) instructions and require ZF (posted by these
-             * instructions) to be set before initiating the next repetition.
-             * REPNE and REPNZ. are two mnemonics for the same prefix byte.
-             * These instructions function the same as REPE and REPZ except that
-             * the zero flag must be cleared or the repetition is terminated.
-             * Note that ZF does not need to be initialized before executing the
-             * repeated string instruction.
-             *
-             * Repeated string sequences are interruptible; the processor will
-             * recognize the interrupt before processing the next string
-             * element. System interrupt processing is not affected in any way.
-             * Upon return from the interrupt, the repeated operation is resumed
-             * from the point of interruption. Note, however, that execution
-             * does not resume properly if a second or third prefix (i.e.,
-             * segment override or LOCK) has been specified in addition to any
-             * of the repeat prefixes. The processor "remembers" only one prefix
-             * in effect at the time of the interrupt, the prefix that
-             * immediately precedes the string instruction. After returning from
-             * the interrupt, processing resumes at this point, but any
-             * additional prefixes specified are not in effect. If more than one
-             * prefix must be used with a string instruction, interrupts may be
-             * disabled for the duration of the repeated execution. However,
-             * this will not prevent a non-maskable interrupt from being
-             * recognized. Also, the time that the system is unable to respond
-             * to interrupts may be unacceptable if long strings are being
-             * processed.
-             */
-
-            /*
-             * MOVS destination-string,source-string
-             *
-             * MOVS (Move String) transfers a byte or a word from the source
-             * string (addressed by SI) to the destination string (addressed by
-             * DI) and updates SI and DI to point to the next string element.
-             * When used in conjunction with REP, MOVS performs a memory-to-
-             * memory block transfer.
-             */
-            /*
-             * MOVSB/MOVSW
-             *
-             * These are alternate mnemonics for the move string instruction.
-             * These mnemonics are coded without operands; they explicitly tell
-             * the assembler that a byte string (MOVSB) or a word string (MOVSW)
-             * is to be moved (when MOVS is coded, the assembler determines the
-             * string type from the attributes of the operands). These mnemonics
-             * are useful when the assembler cannot determine the attributes of
-             * a string, e.g., a section of code is being moved.
-             */
-            case 0xa4: // MOVS DEST-STR8,SRC-STR8
-            case 0xa5: // MOVS DEST-STR16,SRC-STR16
-                src = getMem(w, getAddr(os, si));
-                setMem(w, getAddr(es, di), src);
-                si = si + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                clocks += 17;
-                break;
+    /**
+     * Immediate from Accumulator
+     *
+     * SUB AL,IMMED8
+     * SUB AX,IMMED16
+     */
+    private void subAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        final int res = sub(w, dst, src);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            /*
-             * CMPS destination-string,source-string
-             *
-             * CMPS (Compare String) subtracts the destination byte or word
-             * (addressed by DI) from the source byte or word (addressed by SI).
-             * CMPS affects the flags but does not alter either operand, updates
-             * SI and DI to point to the next string element and updates AF, CF,
-             * OF, PF, SF and ZF to reflect the relationship of the destination
-             * element to the source element. For example, if a JG (Jump if
-             * Greater) instruction follows CMPS, the jump is taken if the
-             * destination element is greater than the source element. If CMPS
-             * is prefixed with REPE or REPZ, the operation is interpreted as
-             * "compare while not end-of-string (CX not zero) and strings are
-             * equal (ZF = 1)." If CMPS is preceded by REPNE or REPNZ, the
-             * operation is interpreted as "compare while not end-of-string (CX
-             * not zero) and strings are not equal (ZF = 0)." Thus, CMPS can be
-             * used to find matching or differing string elements.
-             */
-            case 0xa6: // CMPS DEST-STR8,SRC-STR8
-            case 0xa7: // CMPS DEST-STR16,SRC-STR16
-                dst = getMem(w, getAddr(es, di));
-                src = getMem(w, getAddr(os, si));
-                sub(w, src, dst);
-                si = si + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                if (rep == 1 && !getFlag(ZF) || rep == 2 && getFlag(ZF))
-                    rep = 0;
-                clocks += 22;
-                break;
+    /*
+     * SBB destination,source
+     *
+     * SBB (Subtract with Borrow) subtracts the source from the
+     * destination, subtracts one if CF is set, and returns the result
+     * to the destination operand. Both operands may be bytes or words.
+     * Both operands may be signed or unsigned binary numbers. SBB
+     * updates AF, CF, OF, PF, SF and ZF. Since it incorporates a borrow
+     * from a previous operation, SBB may be used to write routines that
+     * subtract numbers longer than 16 bits.
+     */
 
-            /*
-             * SCAS destination-string
-             *
-             * SCAS (Scan String) subtracts the destination string element (byte
-             * or word) addressed by DI from the content of AL (byte string) or
-             * AX (word string) and updates the flags, but does not alter the
-             * destination string or the accumulator. SCAS also updates DI to
-             * point to the next string element and AF, CF, OF, PF, SF and ZF to
-             * reflect the relationship of the scan value in AL/AX to the string
-             * element. If SCAS is prefixed with REPE or REPZ, the operation is
-             * interpreted as "scan while not end-of-string (CX not 0) and
-             * string-element = scan-value (ZF = 1)." This form may be used to
-             * scan for departure from a given value. If SCAS is prefixed with
-             * REPNE or REPNZ, the operation is interpreted as "scan while not
-             * end-of-string (CX not 0) and string-element is not equal to
-             * scan-value (ZF = 0)." This form may be used to locate a value in
-             * a string.
-             */
-            case 0xae: // SCAS DEST-STR8
-            case 0xaf: // SCAS DEST-STR16
-                dst = getMem(w, getAddr(es, di));
-                src = getReg(w, AX);
-                sub(w, src, dst);
-                di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                if (rep == 1 && !getFlag(ZF) || rep == 2 && getFlag(ZF))
-                    rep = 0;
-                clocks += 15;
-                break;
+    /**
+     * Reg./Memory with Register to Either
+     *
+     * SBB REG8/MEM8,REG8
+     * SBB REG16/MEM16,REG16
+     * SBB REG8,REG8/MEM8
+     * SBB REG16,REG16/MEM16
+     */
+    private void sbbRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = sbb(w, dst, src);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * LODS source-string
-             *
-             * LODS (Load String) transfers the byte or word string element
-             * addressed by SI to register AL or AX, and updates SI to point to
-             * the next element in the string. This instruction is not
-             * ordinarily repeated since the accumulator would be overwritten by
-             * each repetition, and only the last element would be retained.
-             * However, LODS is very useful in software loops as part of a more
-             * complex string function built up from string primitives and other
-             * instructions.
-             */
-            case 0xac: // LODS SRC-STR8
-            case 0xad: // LODS SRC-STR16
-                src = getMem(w, getAddr(os, si));
-                setReg(w, AX, src);
-                si = si + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                clocks += 13;
-                break;
+    /**
+     * Immediate to Accumulator
+     *
+     * SBB AL,IMMED8
+     * SBB AX,IMMED16
+     */
+    private void sbbAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        final int res = sbb(w, dst, src);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            /*
-             * STOS destination-string
-             *
-             * STOS (Store String) transfers a byte or word from register AL or
-             * AX to the string element addressed by DI and updates DI to point
-             * to the next location in the string. As a repeated operation, STOS
-             * provides a convenient way to initialize a string to a constant
-             * value (e.g., to blank out a print line).
-             */
-            case 0xaa: // STOS DEST-STR8
-            case 0xab: // STOS DEST-STR16
-                src = getReg(w, AX);
-                setMem(w, getAddr(es, di), src);
-                di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
-                clocks += 10;
-                break;
+    /*
+     * DEC destination
+     *
+     * DEC (Decrement) subtracts one from the destination, which may be
+     * a byte or a word. DEC updates AF, OF, PF, SF, and ZF; it does not
+     * affect CF.
+     */
 
-            /*
-             * Program Transfer Instructions
-             *
-             * The sequence of execution of instructions in an 8086 program is
-             * determined by the content of the code segment register (CS) and
-             * the instruction pointer (IP). The CS register contains the base
-             * address of the current code segment, the 64k portion of memory
-             * from which instructions are presently being fetched. The IP is
-             * used as an offset from the beginning of the code segment; the
-             * combination of CS and IP points to the memory location from which
-             * the next instruction is to be fetched. (Recall that under most
-             * operating conditions, the next instruction to be executed has
-             * already been fetched from memory and is waiting in the CPU
-             * instruction queue.) The program transfer instructions operate on
-             * the instruction pointer and on the CS register; changing the
-             * content of these causes normal sequential execution to be
-             * altered. When a program transfer occurs, the queue no longer
-             * contains the correct instruction, and the BIU obtains the next
-             * instruction from memory using the new IP and CS values, passes
-             * the instruction directly to the EU, and then begins refilling the
-             * queue from the new location.
-             *
-             * Four groups of program transfers are available in the 8086:
-             * unconditional transfers, conditional transfers, iteration control
-             * instructions and interrupt-related instructions. Only the
-             * interrupt- related instruction affect any CPU flags. As will be
-             * seen, however, the execution of many of the program transfer
-             * instructions is affected by the states of the flags.
-             */
-            /*
-             * Unconditional Transfers
-             *
-             * The unconditional transfers instructions may transfer control to
-             * a target instruction within the current code segment
-             * (intrasegment transfer) or to a different code segment
-             * (intersegment transfer). (The ASM-86 assembler terms an
-             * intrasegment target NEAR and an intersegment target FAR.) The
-             * transfer is made unconditionally any time the instruction is
-             * executed.
-             */
-            /*
-             * CALL procedure-name
-             *
-             * CALL activated an out-of-line procedure, saving information on
-             * the stack to permit a RET (return) instruction in the procedure
-             * to transfer control back to the instruction following the CALL.
-             * The assembler generates a different type of CALL instruction
-             * depending on whether the programmer has defined the procedure
-             * name as NEAR or FAR. For control to return properly, the type of
-             * CALL instruction must match the type of RET instruction that
-             * exists from the procedure. (The potential for a mismatch exists
-             * if the procedure and the CALL are contained in separately
-             * assembled programs.) Different forms of the CALL instruction
-             * allow the address of the target procedure to be obtained from the
-             * instruction itself (direct CALL) or from a memory location or
-             * register referenced by the instruction (indirect CALL). In the
-             * following descriptions, bear in mind that the processor
-             * automatically adjusts IP to point to the next instruction to be
-             * executed before saving it on the stack.
-             *
-             * For an intrasegment direct CALL, SP (the stack pointer) is
-             * decremented by two and IP is pushed onto the stack. The relative
-             * displacement (up to ±32k) of the target procedure from the CALL
-             * instruction is then added to the instruction pointer. This form
-             * of the CALL instruction is "self-relative" and is appropriate for
-             * position independent (dynamically relocatable) routines in which
-             * the CALL and its target are in the same segment and are moved
-             * together.
-             *
-             * An intrasegment indirect CALL may be made through memory or
-             * through a register. SP is decremented by two and IP is pushed
-             * onto the stack. The offset of the target procedure is obtained
-             * from the memory word or 16-bit general register referenced in the
-             * instruction and replaces IP.
-             *
-             * For an intersegment direct CALL, SP is decremented by two, and CS
-             * is pushed onto the stack. CS is replaced by the segment word
-             * contained in the instruction. SP again is decremented by two. IP
-             * is pushed onto the stack and is replaced by the offset word
-             * contained in the instruction.
-             *
-             * For an intersegment indirect CALL (which only may be made through
-             * memory), SP is decremented by two, and CS is pushed onto the
-             * stack. CS is then replaced by the content of the second word of
-             * the doubleword memory pointer referenced by the instruction. SP
-             * again is decremented by two, and IP is pushed onto the stack and
-             * is replaced by the content of the first word of the doubleword
-             * pointer referenced by the instruction.
-             */
-            // Direct with Segment
-            case 0xe8: // CALL NEAR-PROC
-                dst = getMem(W);
-                dst = signconv(W, dst);
-                push(ip);
-                ip = ip + dst & 0xffff;
-                clocks += 19;
-                break;
+    /**
+     * Register
+     *
+     * DEC AX
+     * DEC CX
+     * DEC DX
+     * DEC BX
+     * DEC SP
+     * DEC BP
+     * DEC SI
+     * DEC DI
+     */
+    private void decReg() {
+        reg = op & 0b111;
+        final int dst = getReg(W, reg);
+        final int res = dec(W, dst);
+        setReg(W, reg, res);
+        clocks += 2;
+    }
 
-            // Direct Intersegment
-            case 0x9a: // CALL FAR-PROC
-                dst = getMem(W);
-                src = getMem(W);
-                push(cs);
-                push(ip);
-                ip = dst;
-                cs = src;
-                clocks += 28;
-                break;
+    /*
+     * NEG destination
+     *
+     * NEG (Negate) subtracts the destination operand, which may be a
+     * byte or a word, from 0 and returns the result to the destination.
+     * This forms the two's complement of the number, effectively
+     * reversing the sign of an integer. If the operand is zero, its
+     * sign is not changed. Attempting to negate a byte containing -128
+     * or a word containing -32,768 causes no change to the operand and
+     * sets OF. NEG updates AF, CF, OF, PF, SF and ZF. CF is always set
+     * except when the operand is zero, in which case it is cleared.
+     */
 
-            /*
-             * RET optional-pop-value
-             *
-             * RET (Return) transfers control from a procedure back to the
-             * instruction following the CALL that activated the procedure. The
-             * assembler generates an intrasegment RET if the programmer has
-             * defined the procedure NEAR, or an intersegment RET if the
-             * procedure has been defined as FAR. RET pops the word at the top
-             * of the stack (pointed to by the register SP) into the instruction
-             * pointer and increments SP by two. If RET is intersegment, the
-             * word at the top of the stack is popped into the CS register, and
-             * SP is again incremented by two. If an optional pop value has been
-             * specified, RET adds that value to SP. This feature may be used to
-             * discard parameters pushed onto the stack before the execution of
-             * the CALL instruction.
-             */
-            // Within Segment
-            case 0xc3: // RET (intrasegment)
-                ip = pop();
-                clocks += 8;
-                break;
+    /*
+     * CMP destination,source
+     *
+     * CMP (Compare) subtracts the source from the destination, which
+     * may be bytes or words, but does not return the result. The
+     * operands are unchanged, but the flags are updated and can be
+     * tested by the subsequent conditional jump instructions. CMP
+     * updates AF, CF, OF, PF, SF and ZF. The comparison reflected in
+     * the flags is that of the destination to the source. If a CMP
+     * instruction is followed by a JG (jump if greater) instruction,
+     * for example, the jump is taken if the destination operand is
+     * greater than the source operand.
+     */
 
-            // Within Seg Adding Immed to SP
-            case 0xc2: // RET IMMED16 (intraseg)
-                src = getMem(W);
-                ip = pop();
-                sp += src;
-                clocks += 12;
-                break;
+    /**
+     * Register/Memory and Register
+     *
+     * CMP REG8/MEM8,REG8
+     * CMP REG16/MEM16,REG16
+     * CMP REG8,REG8/MEM8
+     * CMP REG16,REG16/MEM16
+     */
+    private void cmpRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        sub(w, dst, src);
+        clocks += mod == 0b11 ? 3 : 9;
+    }
 
-            // Intersegment
-            case 0xcb: // RET (intersegment)
-                ip = pop();
-                cs = pop();
-                clocks += 18;
-                break;
+    /**
+     * Immediate with Accumulator
+     *
+     * CMP AL,IMMED8
+     * CMP AX,IMMED16
+     */
+    private void cmpAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        sub(w, dst, src);
+        clocks += 4;
+    }
 
-            // Intersegment Adding Immediate to SP
-            case 0xca: // RET IMMED16 (intersegment)
-                src = getMem(W);
-                ip = pop();
-                cs = pop();
-                sp += src;
-                clocks += 17;
-                break;
+    /**
+     * AAS
+     *
+     * AAS (ASCII Adjust for Subtraction) corrects the result of a
+     * previous subtraction of two valid unpacked decimal operands (the
+     * destination operand must have been specified as register AL). AAS
+     * changes the content of AL to a valid unpacked decimal number; the
+     * high-order half-byte is zeroed. AAS updates AF and CF; the
+     * content of OF, PF, SF and ZF is undefined following execution of
+     * AAS.
+     */
+    private void aas() {
+        if ((al & 0xf) > 9 || getFlag(AF)) {
+            al -= 6;
+            ah = ah - 1 & 0xff;
+            setFlag(CF, true);
+            setFlag(AF, true);
+        } else {
+            setFlag(CF, false);
+            setFlag(AF, false);
+        }
+        al &= 0xf;
+        clocks += 4;
+    }
 
-            /*
-             * JMP target
-             *
-             * JMP unconditionally transfers control to the target location.
-             * Unlike a CALL instruction, JMP does not save any information on
-             * the stack, and no return to the instruction following the JMP is
-             * expected. Like CALL, the address of the target operand may be
-             * obtained from the instruction itself (direct JMP) or from memory
-             * or a register referenced by the instruction (indirect JMP).
-             *
-             * An intrasegment direct JMP changes the instruction pointer by
-             * adding the relative displacement of the target from the JMP
-             * instruction. If the assembler can determine that the target is
-             * within 127 bytes of the JMP, it automatically generates a two-
-             * byte form of this instruction called a SHORT JMP; otherwise, it
-             * generates a NEAR JMP that can address a target within ±32k.
-             * Intrasegment direct JMPS are self-relative and are appropriate in
-             * position-independent (dynamically relocatable) routines in which
-             * the JMP and its target are in the same segment and are moved
-             * together.
-             *
-             * An intrasegment indirect JMP may be made either through memory or
-             * through a 16-bit general register. In the first case, the content
-             * of the word referenced by the instruction replaces the
-             * instruction pointer. In the second case, the new IP value is
-             * taken from the register named in the instruction.
-             *
-             * An intersegment direct JMP replaces IP and CS with values
-             * contained in the instruction.
-             *
-             * An intersegment indirect JMP may be made only through memory. The
-             * first word of the doubleword pointer referenced by the
-             * instruction replaces IP, and the second word replaces CS.
-             */
-            // Direct within Segment
-            case 0xe9: // JMP NEAR-LABEL
-                dst = getMem(W);
-                dst = signconv(W, dst);
-                ip = ip + dst & 0xffff;
-                clocks += 15;
-                break;
+    /**
+     * DAS
+     *
+     * DAS (Decimal Adjust for Subtraction) corrects the result of a
+     * previous subtraction of two valid packed decimal operands (the
+     * destination operand must have been specified as register AL). DAS
+     * changes the content of AL to a pair of valid packed decimal
+     * digits. DAS updates AF, CF, PF, SF and ZF; the content of OF is
+     * undefined following the execution of DAS.
+     */
+    private void das() {
+        final int oldAL = al;
+        final boolean oldCF = getFlag(CF);
+        setFlag(CF, false);
+        if ((al & 0xf) > 9 || getFlag(AF)) {
+            al -= 6;
+            setFlag(CF, oldCF || (al & 0xff) > 0);
+            al &= 0xff;
+            setFlag(AF, true);
+        } else
+            setFlag(AF, false);
+        if (oldAL > 0x99 || oldCF) {
+            al = al - 0x60 & 0xff;
+            setFlag(CF, true);
+        } else
+            setFlag(CF, false);
+        setFlags(B, al);
+        clocks += 4;
+    }
 
-            // Direct within Segment-Short
-            case 0xeb: // JMP SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                ip = ip + dst & 0xffff;
-                clocks += 15;
-                break;
+    /*
+     * Multiplication
+     */
 
-            // Direct Intersegment
-            case 0xea: // JMP FAR-LABEL
-                dst = getMem(W);
-                src = getMem(W);
-                ip = dst;
-                cs = src;
-                clocks += 15;
-                break;
+    /*
+     * MUL source
+     *
+     * MUL (Multiply) performs an unsigned multiplication of the source
+     * operand and the accumulator. If the source is a byte, then it is
+     * multiplied by register AL, and the double-length result is
+     * returned in AH and AL. If the source operand is a word, then it
+     * is multiplied by register AX, and the double-length result is
+     * returned in registers DX and AX. The operands are treated as
+     * unsigned binary numbers. If the upper half of the result (AH for
+     * byte source, DX for word source) is nonzero, CF and OF are set;
+     * otherwise they are cleared. When CF and OF are set, they indicate
+     * that AH or DX contains significant digits of the result. The
+     * content of AF, PF, SF and ZF is undefined following execution of
+     * MUL.
+     */
 
-            /*
-             * Conditional Transfers
-             *
-             * The conditional transfer instructions are jumps that may or may
-             * not transfer control depending on the state of the CPU flags at
-             * the time the instruction is executed. The 18 instructions each
-             * test a different combination of flags for a conditional. If the
-             * condition is "true," then control is transferred to the target
-             * specified in the instruction. If the condition is "false," then
-             * control passes to the instruction that follows the conditional
-             * jump. All conditional jumps are SHORT, that is, the target must
-             * be in the current code segment and within -128 to +127 bytes of
-             * the first byte of the next instruction (JMP 00H jumps to the
-             * first byte of the next instruction). Since the jump is made by
-             * adding the relative displacement of the target to the instruction
-             * pointer, all conditional jumps are self-relative and are
-             * appropriate for position-independent routines.
-             */
-            /*
-             * JO
-             *
-             * Jump if overflow - OF=1.
-             */
-            case 0x70: // JO SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(OF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * IMUL source
+     *
+     * IMUL (Integer Multiply) performs a signed multiplication of the
+     * source operand and the accumulator. If the source is a byte, then
+     * it is multiplied by register AL, and the double-length result is
+     * returned in AH and AL. If the source is a word, then it is
+     * multiplied by register AX, and the double-length result is
+     * returned in registers DX and AX. If the upper half of the result
+     * (AH for byte source, DX for word source) is not the sign
+     * extension of the lower half of the result, CF and OF are set,
+     * they indicate that AH of DX contains significant digits of the
+     * result. The content of AF, PF, SF and ZF is undefined following
+     * execution of IMUL.
+     */
 
-            /*
-             * JNO
-             *
-             * Jump if not overflow - OF=0.
-             */
-            case 0x71: // JNO SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!getFlag(OF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * AAM
+     *
+     * AAM (ASCII Adjust for Multiply) corrects the result of a previous
+     * multiplication of two valid unpacked decimal operands. A valid 2-
+     * digit unpacked decimal number is derived from the content of AH
+     * and AL and is returned to AH and AL. The high-order half-bytes of
+     * the multiplied operands must have been 0H for AAM to produce a
+     * correct result. AAM updates PF, SF and ZF; the content of AF, CF
+     * and OF is undefined following execution of AAM.
+     */
+    private void aam() {
+        final int src = getMem(B);
+        if (src == 0)
+            callInt(0);
+        else {
+            ah = al / src & 0xff;
+            al = al % src & 0xff;
+            setFlags(W, getReg(W, AX));
+            clocks += 83;
+        }
+    }
 
-            /*
-             * JB/JNAE/JC
-             *
-             * Jump if below/not above nor equal/carry - CF=1.
-             */
-            case 0x72: // JB/JNAE/JC SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(CF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * Division
+     */
 
-            /*
-             * JNE/JAE/JNC
-             *
-             * Jump if not below/above or equal/not carry - CF=0.
-             */
-            case 0x73: // JNB/JAE/JNC SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!getFlag(CF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * DIV source
+     *
+     * DIV (divide) performs an unsigned division of the accumulator
+     * (and its extension) by the source operand. If the source operand
+     * is a byte, it is divided into the double-length dividend assumed
+     * to be in register AL and AH. The single-length quotient is
+     * returned in AL, and the single-length remainder is returned in
+     * AH. If the source operand is a word, it is divided into the
+     * double-length dividend in register AX and DX. The single-length
+     * quotient is returned in AX, and the single-length remainder is
+     * returned in DX. If the quotient exceeds the capacity of its
+     * destination register (FFH for byte source, FFFFH for word
+     * source), as when division by zero is attempted, a type 0
+     * interrupt is generated, and the quotient and remainder are
+     * undefined. Nonintegral quotients are truncated to integers. The
+     * content of AF, CF, OF, PF, SF and ZF is undefined following
+     * execution of DIV.
+     */
 
-            /*
-             * JE/JZ
-             *
-             * Jump if equal/zero - ZF=1.
-             */
-            case 0x74: // JE/JZ SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(ZF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * IDIV source
+     *
+     * IDIV (Integer Divide) performs a signed division of the
+     * accumulator (and its extension) by the source operand. If the
+     * source operand is a byte, it is divided into the double-length
+     * dividend assumed to be in register AL and AH; the single-length
+     * quotient is returned in AL, and the single-length remainder is
+     * returned in AH. For byte integer division, the maximum position
+     * quotient is +127 (7FH) and the minimum negative quotient is -127
+     * (81H). If the source operand is a word, it is divided into the
+     * double-length dividend in register AX and DX; the single-length
+     * quotient is returned in AX, and the single-length remainder is
+     * returned in DX. For word integer division, the maximum positive
+     * quotient is +32,767 (7FFFH) and the minimum negative quotient is
+     * -32,767 (8001H). If the quotient is positive and exceeds the
+     * maximum, or is negative and is less than the minimum, the
+     * quotient and remainder are undefined, and a type 0 interrupt is
+     * generated. In particular, this occurs if division by 0 is
+     * attempted. Nonintegral quotients are truncated (toward 0) to
+     * integers, and the remainder has the same sign as the dividend.
+     * The content of AF, CF, OF, PF, SF and ZF is undefined following
+     * IDIV.
+     */
 
-            /*
-             * JNE/JNZ
-             *
-             * Jump if not equal/not zero - ZF=0.
-             */
-            case 0x75: // JNE/JNZ SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!getFlag(ZF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * AAD
+     *
+     * AAD (ASCII Adjust for Division) modifies the numerator in AL
+     * before dividing two valid unpacked decimal operands so that the
+     * quotient produced by the division will be a valid unpacked
+     * decimal number. AH must be zero for the subsequent DIV to produce
+     * the correct result. The quotient is returned in AL, and the
+     * remainder is returned in AH; both high-order half-bytes are
+     * zeroed. AAD updates PF, SF and ZF; the content of AF, CF and OF
+     * is undefined following execution of AAD.
+     */
+    private void aad() {
+        final int src = getMem(B);
+        al = ah * src + al & 0xff;
+        ah = 0;
+        setFlags(B, al);
+        clocks += 60;
+    }
 
-            /*
-             * JBE/JNA
-             *
-             * Jump if below or equal/not above - (CF or ZF)=1.
-             */
-            case 0x76: // JBE/JNA SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(CF) | getFlag(ZF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * CBW
+     *
+     * CBW (Convert Byte to Word) extends the sign of the byte in
+     * register AL throughout register AH. CBW does not affect any
+     * flags. CBW can be used to produce a double-length (word) dividend
+     * from a byte prior to performing byte division.
+     */
+    private void cbw() {
+        if ((al & 0x80) == 0x80)
+            ah = 0xff;
+        else
+            ah = 0x00;
+        clocks += 2;
+    }
 
-            /*
-             * JNBE/JA
-             *
-             * Jump if not below nor equal/above - (CF or ZF)=0.
-             */
-            case 0x77: // JNBE/JA SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!(getFlag(CF) | getFlag(ZF))) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * CWD
+     *
+     * CWD (Convert Word to Doubleword) extends the sign of the word in
+     * register AX throughout register DX. CWD does not affect any
+     * flags. CWD can be used to produce a double-length (doubleword)
+     * dividend from a word prior to performing word division.
+     */
+    private void cwd() {
+        if ((ah & 0x80) == 0x80)
+            setReg(W, DX, 0xffff);
+        else
+            setReg(W, DX, 0x0000);
+        clocks += 5;
+    }
 
-            /*
-             * JS
-             *
-             * Jump if sign - SF=1.
-             */
-            case 0x78: // JS SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(SF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * Bit Manipulation Instructions
+     *
+     * The 8086 provides three groups of instructions for manipulating
+     * bits within both bytes and words: logical, shifts and rotates.
+     */
 
-            /*
-             * JNS
-             *
-             * Jump if not sign - SF=0.
-             */
-            case 0x79: // JNS SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!getFlag(SF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * Logical
+     *
+     * The logical instructions include the boolean operators "not,"
+     * "and," "inclusive or," and "exclusive or," plus a TEST
+     * instruction that sets the flags, but does not alter either of its
+     * operands.
+     *
+     * AND, OR, XOR and TEST affect the flags as follows: the overflow
+     * (OF) and carry (CF) flags are always cleared by logical
+     * instructions, and the content of the auxiliary carry (AF) flag is
+     * always undefined following execution of a logical instruction.
+     * The sign (SF), zero (ZF) and parity (PF) flags are always posted
+     * to reflect the result of the operation and can be tested by
+     * conditional jump instructions. The interpretation of these flags
+     * is the same as for arithmetic instructions. SF is set if the
+     * result is negative (high-order bit is 1), and is cleared if the
+     * result is positive (high-order bit is 0). ZF is set if the result
+     * is zero, cleared otherwise. PF is set if the result contains an
+     * even number of 1-bits (has even parity) and is cleared if the
+     * number of 1-bits is odd (the result has odd parity). Note that
+     * NOT has no effect on the flags.
+     */
 
-            /*
-             * JP/JPE
-             *
-             * Jump if parity/parity equal - PF=1.
-             */
-            case 0x7a: // JP/JPE SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(PF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * NOT destination
+     *
+     * NOT inverts the bits (forms the one's complement) of the byte or
+     * word operand.
+     */
 
-            /*
-             * JNP/JPO
-             *
-             * Jump if not parity/parity odd - PF=0.
-             */
-            case 0x7b: // JNP/JPO SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!getFlag(PF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * AND destination,source
+     *
+     * AND performs the logical "and" of the two operands (byte or word)
+     * and returns the result to the destination operand. A bit in the
+     * result is set if both corresponding bits of the original operands
+     * are set; otherwise the bit is cleared.
+     */
 
-            /*
-             * JL/JNGE
-             *
-             * Jump if less/not greater nor equal - (SF xor OF)=1.
-             */
-            case 0x7c: // JL/JNGE SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(SF) ^ getFlag(OF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * Register/Memory and Register
+     *
+     * AND REG8/MEM8,REG8
+     * AND REG16/MEM16,REG16
+     * AND REG8,REG8/MEM8
+     * AND REG16,REG16/MEM16
+     */
+    private void andRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = dst & src;
+        logic(w, res);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * JNL/JGE
-             *
-             * Jump if not less/greater or equal - (SF xor OF)=0.
-             */
-            case 0x7d: // JNL/JGE SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!(getFlag(SF) ^ getFlag(OF))) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * Immediate to Accumulator
+     *
+     * AND AL,IMMED8
+     * AND AX,IMMED16
+     */
+    private void andAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        final int res = dst & src;
+        logic(w, res);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            /*
-             * JLE/JNG
-             *
-             * Jump if less or equal/not greater - ((SF xor OF) or ZF)=1.
-             */
-            case 0x7e: // JLE/JNG SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getFlag(SF) ^ getFlag(OF) | getFlag(ZF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /*
+     * OR destination,source
+     *
+     * OR performs the logical "inclusive or" of the two operands (byte
+     * or word) and returns the result to the destination operand. A bit
+     * in the result is set if either or both corresponding bits of the
+     * original operands are set; otherwise the result bit is cleared.
+     */
 
-            /*
-             * JNLE/JG
-             *
-             * Jump if not less nor equal/greater - ((SF xor OF) or ZF)=0.
-             */
-            case 0x7f: // JNLE/JG SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (!(getFlag(SF) ^ getFlag(OF) | getFlag(ZF))) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 16;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * Register/Memory and Register
+     *
+     * OR REG8/MEM8,REG8
+     * OR REG16/MEM16,REG16
+     * OR REG8,REG8/MEM8
+     * OR REG16,REG16/MEM16
+     */
+    private void orRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = dst | src;
+        logic(w, res);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * Iteration Control
-             *
-             * The iteration control instructions can be used to regulate the
-             * repetition of software loops. These instructions use the CX
-             * register as a counter. Like the conditional transfers, the
-             * iteration control instructions are self-relative and may only
-             * transfer to targets that are within -128 to +127 bytes of
-             * themselves, i.e., they are SHORT transfers.
-             */
-            /*
-             * LOOP short-label
-             *
-             * LOOP decrements CX by 1 and transfers control to the target
-             * operand if CX is not 0; otherwise the instruction following LOOP
-             * is executed.
-             */
-            case 0xe2: // LOOP SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                src = getReg(W, CX) - 1 & 0xffff;
-                setReg(W, CX, src);
-                if (src != 0) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 17;
-                } else
-                    clocks += 5;
-                break;
+    /**
+     * Immediate to Accumulator
+     *
+     * OR AL,IMMED8
+     * OR AX,IMMED16
+     */
+    private void orAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        final int res = dst | src;
+        logic(w, res);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            /*
-             * LOOPE/LOOPZ short-label
-             *
-             * LOOPE and LOOPZ (Loop While Equal and Loop While Zero) are
-             * different mnemonics for the same instruction (similar to the REPE
-             * and REPZ repeat prefixes). CX is decremented by 1, and control is
-             * transferred to the target operand if CX is not 0 and if ZF is
-             * set; otherwise the instruction following LOOPE/LOOPZ is executed.
-             */
-            case 0xe1: // LOOPE/LOOPZ SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                src = getReg(W, CX) - 1 & 0xffff;
-                setReg(W, CX, src);
-                if (src != 0 && getFlag(ZF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 18;
-                } else
-                    clocks += 6;
-                break;
+    /*
+     * XOR destination,source
+     *
+     * XOR (Exclusive Or) performs the logical "exclusive or" of the two
+     * operands and returns the result to the destination operand. A bit
+     * in the result if set if the corresponding bits of the original
+     * operands contain opposite values (one is set, the other is
+     * cleared); otherwise the result bit is cleared.
+     */
 
-            /*
-             * LOOPNE/LOOPNZ short-label
-             *
-             * LOOPNE and LOOPNZ (Loop While Not Equal and Loop While Not Zero)
-             * are also synonyms for the same instruction. CX is decremented by
-             * 1, and control is transferred to the target operand if CX is not
-             * 0 and if ZF is clear; otherwise the next sequential instruction
-             * is executed.
-             */
-            case 0xe0: // LOOPNE/LOOPNZ SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                src = getReg(W, CX) - 1 & 0xffff;
-                setReg(W, CX, src);
-                if (src != 0 && !getFlag(ZF)) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 19;
-                } else
-                    clocks += 5;
-                break;
+    /**
+     * Register/Memory and Register
+     *
+     * XOR REG8/MEM8,REG8
+     * XOR REG16/MEM16,REG16
+     * XOR REG8,REG8/MEM8
+     * XOR REG16,REG16/MEM16
+     */
+    private void xorRM() {
+        int dst, src;
+        decode();
+        if (d == 0b0) {
+            dst = getRM(w, mod, rm);
+            src = getReg(w, reg);
+        } else {
+            dst = getReg(w, reg);
+            src = getRM(w, mod, rm);
+        }
+        final int res = dst ^ src;
+        logic(w, res);
+        if (d == 0b0) {
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 16;
+        } else {
+            setReg(w, reg, res);
+            clocks += mod == 0b11 ? 3 : 9;
+        }
+    }
 
-            /*
-             * JCXZ short-label
-             *
-             * JCXZ (Jump If CX Zero) transfers control to the target operand if
-             * CX is O. This instruction is useful at the beginning of a loop;
-             * to bypass the loop if CX has a zero value, i.e., to execute the
-             * loop zero times.
-             */
-            case 0xe3: // JCXZ SHORT-LABEL
-                dst = getMem(B);
-                dst = signconv(B, dst);
-                if (getReg(W, CX) == 0) {
-                    ip = ip + dst & 0xffff;
-                    clocks += 18;
-                } else
-                    clocks += 6;
-                break;
+    /**
+     * Immediate to Accumulator
+     *
+     * XOR AL,IMMED8
+     * XOR AX,IMMED16
+     */
+    private void xorAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        final int res = dst ^ src;
+        logic(w, res);
+        setReg(w, AX, res);
+        clocks += 4;
+    }
 
-            /*
-             * Interrupt Instructions
-             *
-             * The interrupt instructions allow interrupt service routines to be
-             * activated by programs as well as by external hardware devices.
-             * The effect of software interrupts is similar to hardware-
-             * initiated interrupts. However, the processor does not execute an
-             * interrupt acknowledge bus cycle if the interrupt originates in
-             * software or with an NMI. The effect of the interrupt instructions
-             * on the flags is covered in the description of each instruction.
-             */
-            /*
-             * INT interrupt-type
-             *
-             * INT (Interrupt) activates the interrupt procedure specified by
-             * the interrupt-type operand. INT decrements the stack pointer by
-             * two, pushes the flags onto the stack, and clears the trap (TF)
-             * and interrupt-enable (IF) flags to disable single-step and
-             * maskable interrupts. The flags are stored in the format used by
-             * the PUSHF instruction. SP is decremented again by two, and the CS
-             * register is pushed onto the stack. The address of the interrupt
-             * pointer is calculated by multiplying interrupt-type by four; the
-             * second word of the interrupt pointer replaces CS. SP again is
-             * decremented by two, and IP is pushed onto the stack and is
-             * replaced by the first word of the interrupt pointer. If
-             * interrupt-type = 3, the assembler generates a short (1 byte) form
-             * of the instruction, known as the breakpoint interrupt.
-             *
-             * Software interrupts can be used as "supervisor calls," i.e.,
-             * requests for service from an operating system. A different
-             * interrupt-type can be used for each type of service that the
-             * operating system could supply for an application program.
-             * Software interrupts also may be used to check out interrupt
-             * service procedures written for hardware-initiated interrupts.
-             */
-            // Type 3
-            case 0xcc: // INT 3
-            // Type Specified
-            case 0xcd: // INT IMMED8
-                callInt(op == 0xcc ? 3 : getMem(B));
-                clocks += op == 0xcc ? 52 : 51;
-                break;
+    /*
+     * TEST destination,source
+     *
+     * TEST performs the logical "and" of the two operands (byte or
+     * word), updates the flags, but does not return the result, i.e.,
+     * neither operand is changed. If a TEST instruction is followed by
+     * a JNZ (jump if not zero) instruction, the jump will be taken if
+     * there are any corresponding 1-bits in both operands.
+     */
 
-            /*
-             * INTO
-             *
-             * INTO (Interrupt on Overflow) generates a software interrupt if
-             * the overflow flag (OF) is set; otherwise control proceeds to the
-             * following instruction without activating an interrupt procedure.
-             * INTO addresses the target interrupt procedure (its type is 4)
-             * through the interrupt pointer at location 1OH; it clears the TF
-             * and IF flags and otherwise operates like INT. INTO may be written
-             * following an arithmetic or logical operation to activate an
-             * interrupt procedure if overflow occurs.
-             */
-            case 0xce: // INTO
-                if (getFlag(OF)) {
-                    callInt(4);
-                    clocks += 53;
-                } else
-                    clocks += 4;
-                break;
+    /**
+     * Register/Memory and Register
+     *
+     * TEST REG8/MEM8,REG8
+     * TEST REG16/MEM16,REG16
+     */
+    private void testRM() {
+        decode();
+        final int dst = getRM(w, mod, rm);
+        final int src = getReg(w, reg);
+        logic(w, dst & src);
+        clocks += mod == 0b11 ? 3 : 9;
+    }
 
-            /*
-             * IRET
-             *
-             * IRET (Interrupt Return) transfers control back to the point of
-             * interruption by popping IP, CS and the flags from the stack. IRET
-             * thus affects all flags by restoring them to previously saved
-             * values. IRET is used to exit any interrupt procedure, whether
-             * activated by hardware or software.
-             */
-            case 0xcf: // IRET
-                ip = pop();
-                cs = pop();
-                flags = pop();
-                clocks += 24;
-                break;
+    /**
+     * Immediate and Accumulator
+     *
+     * TEST AL,IMMED8
+     * TEST AX,IMMED16
+     */
+    private void testAccImm() {
+        final int dst = getReg(w, AX);
+        final int src = getMem(w);
+        logic(w, dst & src);
+        clocks += 4;
+    }
 
-            /*
-             * Processor Control Instructions
-             *
-             * These instructions allow programs to control various CPU
-             * functions. One group of instructions updates flags, and another
-             * group is used primarily for synchronizing the 8086 with external
-             * events. A final instruction causes the CPU to do nothing. Except
-             * for the flag operations, none of the processor control
-             * instructions affect the flags.
-             */
-            /*
-             * Flag Operations
-             */
-            /*
-             * CLC
-             *
-             * CLC (Clear Carry flag) zeroes the carry flag (CF) and affects no
-             * other flags. It (and CMC and STC) is useful in conjunction with
-             * the RCL and RCR instructions.
-             */
-            case 0xf8: // CLC
-                setFlag(CF, false);
-                clocks += 2;
-                break;
+    /*
+     * Shifts
+     *
+     * The bits in bytes and words may be shifted arithmetically or
+     * logically. Up to 255 shifts may be performed, according to the
+     * value of the count operand coded in the instruction. The count
+     * may be specified as the constant l, or as register CL, allowing
+     * the shift count to be a variable supplied at execution time.
+     * Arithmetic shifts may be used to multiply and divide binary
+     * numbers by powers of two. Logical shifts can be used to isolate
+     * bits in bytes or words.
+     *
+     * Shift instructions affect the flags as follows. AF is always
+     * undefined following a shift operation. PF, SF and ZF are updated
+     * normally, as in the logical instructions. CF always contains the
+     * value of the last bit shifted out of the destination operand. The
+     * content of OF is always undefined following a multibit shift. In
+     * a single-bit shift, OF is set if the value of the high-order
+     * (sign) bit was changed by the operation; if the sign bit retains
+     * its original value, OF is cleared.
+     */
 
-            /*
-             * CMC
-             *
-             * CMC (Complement Carry flag) "toggles" CF to its opposite state
-             * and affects no other flags.
-             */
-            case 0xf5: // CMC
-                setFlag(CF, !getFlag(CF));
-                clocks += 2;
-                break;
+    /*
+     * SHL/SAL destination,count
+     *
+     * SHL and SAL (Shift Logical Left and Shift Arithmetic Left)
+     * perform the same operation and are physically the same
+     * instruction. The destination byte or word is shifted left by the
+     * number of bits specified in the count operand. Zeros are shifted
+     * in on the right. If the sign bit retains its original value, then
+     * OF is cleared.
+     */
 
-            /*
-             * STC
-             *
-             * STC (Set Carry flag) sets CF to 1 and affects no other flags.
-             */
-            case 0xf9: // STC
-                setFlag(CF, true);
-                clocks += 2;
-                break;
+    /*
+     * SHR destination,source
+     *
+     * SHR (Shift Logical Right) shifts the bits in the destination
+     * operand (byte or word) to the right by the number of bits
+     * specified in the count operand. Zeros are shifted in on the left.
+     * If the sign bit retains its original value, then OF is cleared.
+     */
 
-            /*
-             * CLD
-             *
-             * CLD (Clear Direction flag) zeroes DF causing the string
-             * instructions to auto-increment the SI and/or DI index registers.
-             * CLD does not affect any other flags.
-             */
-            case 0xfc: // CLD
-                setFlag(DF, false);
-                clocks += 2;
-                break;
+    /*
+     * SAR destination,count
+     *
+     * SAR (Shift Arithmetic Right) shifts the bits in the destination
+     * operand (byte or word) to the right by the number of bits
+     * specified in the count operand. Bits equal to the original high-
+     * order (sign) bit are shifted in on the left, preserving the sign
+     * of the original value. Note that SAR does not produce the same
+     * result as the dividend of an "equivalent" IDIV instruction if the
+     * destination operand is negative and l-bits are shifted out. For
+     * example, shifting -5 right by one bit yields -3, while integer
+     * division of -5 by 2 yields -2. The difference in the instructions
+     * is that IDIV truncates all numbers toward zero, while SAR
+     * truncates positive numbers toward zero and negative numbers
+     * toward negative infinity.
+     */
 
-            /*
-             * STD
-             *
-             * STD (Set Direction flag) sets DF to 1 causing the string
-             * instructions to auto-decrement the SI and/or DI index registers.
-             * STD does not affect any other flags.
-             */
-            case 0xfd: // STD
-                setFlag(DF, true);
-                clocks += 2;
-                break;
+    /*
+     * Rotates
+     *
+     * Bits in bytes and words also may be rotated. Bits rotated out of
+     * an operand are not lost as in a shift, but are "circled" back
+     * into the other "end" of the operand. As in the shift
+     * instructions, the number of bits to be rotated is taken from the
+     * count operand, which may specify either a constant of l, or the
+     * CL register. The carry flag may act as an extension of the
+     * operand in two of the rotate instructions, allowing a bit to be
+     * isolated in CF and then tested by a JC (jump if carry) or JNC
+     * (jump if not carry) instruction.
+     *
+     * Rotates affect only the carry and overflow flags. CF always
+     * contains the value of the last bit rotated out. On multibit
+     * rotates, the value of OF is always undefined. In single-bit
+     * rotates, OF is set if the operation changes the high-order (sign)
+     * bit of the destination operand. If the sign bit retains its
+     * original value, OF is cleared.
+     */
 
-            /*
-             * CLI
-             *
-             * CLI (Clear Interrupt-enable flag) zeroes IF. When the interrupt-
-             * enable flag is cleared, the 8086 and 8088 do not recognize an
-             * external interrupt request that appears on the INTR line; in
-             * other words maskable interrupts are disabled. A non-maskable
-             * interrupt appearing on the NMI line, however, is honored, as is a
-             * software interrupt. CLI does not affect any other flags.
-             */
-            case 0xfa: // CLI
-                setFlag(IF, false);
-                clocks += 2;
-                break;
+    /*
+     * ROL destination,count
+     *
+     * ROL (Rotate Left) rotates the destination byte or word left by
+     * the number of bits specified in the count operand.
+     */
 
-            /*
-             * STI
-             *
-             * STI (Set Interrupt-enable flag) sets IF to 1, enabling processor
-             * recognition of maskable interrupt requests appearing on the INTR
-             * line. Note however, that a pending interrupt will not actually be
-             * recognized until the instruction following STI has executed. STI
-             * does not affect any other flags.
-             */
-            case 0xfb: // STI
-                setFlag(IF, true);
-                clocks += 2;
-                break;
+    /*
+     * ROR destination,count
+     *
+     * ROR (Rotate Right) operates similar to ROL except that the bits
+     * in the destination byte or word are rotated right instead of
+     * left.
+     */
 
-            /*
-             * External Synchronization
-             */
-            /*
-             * HLT
-             *
-             * HLT (Halt) causes the 8086 to enter the halt state. The processor
-             * leaves the halt state upon activation of the RESET line, upon
-             * receipt of a non-maskable interrupt request on NMI, or, if
-             * interrupts are enabled, upon receipt of a maskable interrupt
-             * request on INTR. HLT does not affect any flags. It may be used as
-             * an alternative to an endless software loop in situations where a
-             * program must wait for an interrupt.
-             */
-            case 0xf4: // HLT
-                clocks += 2;
-                return false;
+    /*
+     * RCL destination,count
+     *
+     * RCL (Rotate through Carry Left) rotates the bits in the byte or
+     * word destination operand to the left by the number of bits
+     * specified in the count operand. The carry flag (CF) is treated as
+     * "part of" the destination operand; that is, its value is rotated
+     * into the low-order bit of the destination, and itself is replaced
+     * by the high-order bit of the destination.
+     */
 
-            /*
-             * WAIT
-             *
-             * WAIT causes the CPU to enter the wait state while its /TEST line
-             * is not active. WAIT does not affect any flags.
-             */
-            case 0x9b: // WAIT
-                clocks += 3;
-                break;
+    /*
+     * RCR destination,count
+     *
+     * RCR (Rotate through Carry Right) operates exactly like RCL except
+     * that the bits are rotated right instead of left.
+     */
+
+    /*
+     * String Instructions
+     *
+     * Five basic string operations, called primitives, allow strings of
+     * bytes or words to be operated on, one element (byte or word) at a
+     * time. Strings of up to 64k bytes may be manipulated with these
+     * instructions. Instructions are available to move, compare and
+     * scan for a value, as well as for moving string elements to and
+     * from the accumulator. These basic operations may be preceded by a
+     * special one-byte prefix that causes the instruction to be
+     * repeated by the hardware, allowing long strings to be processed
+     * much faster than would be possible with a software loop. The
+     * repetitions can be terminated by a variety of conditions, and a
+     * repeated operation may be interrupted and resumed.
+     *
+     * The string instructions operate quite similarly in many respects;
+     * the common characteristics are covered here rather than in the
+     * descriptions of the individual instructions. A string instruction
+     * may have a source operand, a destination operand, or both. The
+     * hardware assumes that a source string resides in the current data
+     * segment; a segment prefix byte may be used to override this
+     * assumption. A destination string must be in the current extra
+     * segment. The assembler checks the attributes of the operands to
+     * determine if the elements of the strings are bytes or words. The
+     * assembler does not, however, use the operand names to address the
+     * strings. Rather, the content of register SI (source index) is
+     * used as an offset to address the current element of the source
+     * string, and the content of register DI (destination index) is
+     * taken as the offset of the current destination string element.
+     * These registers must be initialized to point to the
+     * source/destination strings before executing the string
+     * instruction; the LDS, LES and LEA instructions are useful in this
+     * regard.
+     *
+     * The string instructions automatically update SI and/or DI in
+     * anticipation of processing the next string element. The setting
+     * of DF (the direction flag) determines whether the index registers
+     * are auto- incremented (DF = 0) or auto-decremented (DF = I). If
+     * byte strings are being processed, SI and/or DI is adjusted by 1;
+     * the adjustment is 2 for word strings.
+     *
+     * If a Repeat prefix has been coded, then register CX (count
+     * register) is decremented by 1 after each repetition of the string
+     * instruction; therefore, CX must be initialized to the number of
+     * repetitions desired before the string instruction is executed. If
+     * CX is 0, the string instruction is not executed, and control goes
+     * to the following instruction.
+     */
+
+    /*
+     * REP/REPE/REPZ/REPNE/REPNZ
+     *
+     * Repeat, Repeat While Equal, Repeat While Zero, Repeat While Not
+     * Equal and Repeat While Not Zero are five mnemonics for two forms
+     * of the prefix byte that controls repetition of a subsequent
+     * string instruction. The different mnemonics are provided to
+     * improve program clarity. The repeat prefixes do not affect the
+     * flags.
+     *
+     * REP is used in conjunction with the MOVS (Move String) and STOS
+     * (Store String) instructions and is interpreted as "repeat while
+     * not end-of-string" (CX not 0). REPE and REPZ operate identically
+     * and are physically the same prefix byte as REP. These
+     * instructions are used with the CMPS (Compare String) and SCAS
+     * (Scan String) instructions and require ZF (posted by these
+     * instructions) to be set before initiating the next repetition.
+     * REPNE and REPNZ. are two mnemonics for the same prefix byte.
+     * These instructions function the same as REPE and REPZ except that
+     * the zero flag must be cleared or the repetition is terminated.
+     * Note that ZF does not need to be initialized before executing the
+     * repeated string instruction.
+     *
+     * Repeated string sequences are interruptible; the processor will
+     * recognize the interrupt before processing the next string
+     * element. System interrupt processing is not affected in any way.
+     * Upon return from the interrupt, the repeated operation is resumed
+     * from the point of interruption. Note, however, that execution
+     * does not resume properly if a second or third prefix (i.e.,
+     * segment override or LOCK) has been specified in addition to any
+     * of the repeat prefixes. The processor "remembers" only one prefix
+     * in effect at the time of the interrupt, the prefix that
+     * immediately precedes the string instruction. After returning from
+     * the interrupt, processing resumes at this point, but any
+     * additional prefixes specified are not in effect. If more than one
+     * prefix must be used with a string instruction, interrupts may be
+     * disabled for the duration of the repeated execution. However,
+     * this will not prevent a non-maskable interrupt from being
+     * recognized. Also, the time that the system is unable to respond
+     * to interrupts may be unacceptable if long strings are being
+     * processed.
+     */
+
+    /*
+     * MOVS destination-string,source-string
+     *
+     * MOVS (Move String) transfers a byte or a word from the source
+     * string (addressed by SI) to the destination string (addressed by
+     * DI) and updates SI and DI to point to the next string element.
+     * When used in conjunction with REP, MOVS performs a memory-to-
+     * memory block transfer.
+     */
+
+    /**
+     * MOVSB/MOVSW
+     *
+     * These are alternate mnemonics for the move string instruction.
+     * These mnemonics are coded without operands; they explicitly tell
+     * the assembler that a byte string (MOVSB) or a word string (MOVSW)
+     * is to be moved (when MOVS is coded, the assembler determines the
+     * string type from the attributes of the operands). These mnemonics
+     * are useful when the assembler cannot determine the attributes of
+     * a string, e.g., a section of code is being moved.
+     */
+    private void movs() {
+        if (rep > 0 && repMovs())
+            return;
+        final int src = getMem(w, getAddr(os, si));
+        setMem(w, getAddr(es, di), src);
+        si = si + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        clocks += 17;
+    }
+
+    /**
+     * CMPS destination-string,source-string
+     *
+     * CMPS (Compare String) subtracts the destination byte or word
+     * (addressed by DI) from the source byte or word (addressed by SI).
+     * CMPS affects the flags but does not alter either operand, updates
+     * SI and DI to point to the next string element and updates AF, CF,
+     * OF, PF, SF and ZF to reflect the relationship of the destination
+     * element to the source element. For example, if a JG (Jump if
+     * Greater) instruction follows CMPS, the jump is taken if the
+     * destination element is greater than the source element. If CMPS
+     * is prefixed with REPE or REPZ, the operation is interpreted as
+     * "compare while not end-of-string (CX not zero) and strings are
+     * equal (ZF = 1)." If CMPS is preceded by REPNE or REPNZ, the
+     * operation is interpreted as "compare while not end-of-string (CX
+     * not zero) and strings are not equal (ZF = 0)." Thus, CMPS can be
+     * used to find matching or differing string elements.
+     */
+    private void cmps() {
+        if (rep > 0 && repCmps())
+            return;
+        final int dst = getMem(w, getAddr(es, di));
+        final int src = getMem(w, getAddr(os, si));
+        sub(w, src, dst);
+        si = si + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        if (rep == 1 && !getFlag(ZF) || rep == 2 && getFlag(ZF))
+            rep = 0;
+        clocks += 22;
+    }
+
+    /**
+     * SCAS destination-string
+     *
+     * SCAS (Scan String) subtracts the destination string element (byte
+     * or word) addressed by DI from the content of AL (byte string) or
+     * AX (word string) and updates the flags, but does not alter the
+     * destination string or the accumulator. SCAS also updates DI to
+     * point to the next string element and AF, CF, OF, PF, SF and ZF to
+     * reflect the relationship of the scan value in AL/AX to the string
+     * element. If SCAS is prefixed with REPE or REPZ, the operation is
+     * interpreted as "scan while not end-of-string (CX not 0) and
+     * string-element = scan-value (ZF = 1)." This form may be used to
+     * scan for departure from a given value. If SCAS is prefixed with
+     * REPNE or REPNZ, the operation is interpreted as "scan while not
+     * end-of-string (CX not 0) and string-element is not equal to
+     * scan-value (ZF = 0)." This form may be used to locate a value in
+     * a string.
+     */
+    private void scas() {
+        if (rep > 0 && repScas())
+            return;
+        final int dst = getMem(w, getAddr(es, di));
+        final int src = getReg(w, AX);
+        sub(w, src, dst);
+        di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        if (rep == 1 && !getFlag(ZF) || rep == 2 && getFlag(ZF))
+            rep = 0;
+        clocks += 15;
+    }
+
+    /**
+     * LODS source-string
+     *
+     * LODS (Load String) transfers the byte or word string element
+     * addressed by SI to register AL or AX, and updates SI to point to
+     * the next element in the string. This instruction is not
+     * ordinarily repeated since the accumulator would be overwritten by
+     * each repetition, and only the last element would be retained.
+     * However, LODS is very useful in software loops as part of a more
+     * complex string function built up from string primitives and other
+     * instructions.
+     */
+    private void lods() {
+        final int src = getMem(w, getAddr(os, si));
+        setReg(w, AX, src);
+        si = si + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        clocks += 13;
+    }
+
+    /**
+     * STOS destination-string
+     *
+     * STOS (Store String) transfers a byte or word from register AL or
+     * AX to the string element addressed by DI and updates DI to point
+     * to the next location in the string. As a repeated operation, STOS
+     * provides a convenient way to initialize a string to a constant
+     * value (e.g., to blank out a print line).
+     */
+    private void stos() {
+        if (rep > 0 && repStos())
+            return;
+        final int src = getReg(w, AX);
+        setMem(w, getAddr(es, di), src);
+        di = di + (getFlag(DF) ? -1 : 1) * (1 + w) & 0xffff;
+        clocks += 10;
+    }
+
+    /*
+     * Program Transfer Instructions
+     *
+     * The sequence of execution of instructions in an 8086 program is
+     * determined by the content of the code segment register (CS) and
+     * the instruction pointer (IP). The CS register contains the base
+     * address of the current code segment, the 64k portion of memory
+     * from which instructions are presently being fetched. The IP is
+     * used as an offset from the beginning of the code segment; the
+     * combination of CS and IP points to the memory location from which
+     * the next instruction is to be fetched. (Recall that under most
+     * operating conditions, the next instruction to be executed has
+     * already been fetched from memory and is waiting in the CPU
+     * instruction queue.) The program transfer instructions operate on
+     * the instruction pointer and on the CS register; changing the
+     * content of these causes normal sequential execution to be
+     * altered. When a program transfer occurs, the queue no longer
+     * contains the correct instruction, and the BIU obtains the next
+     * instruction from memory using the new IP and CS values, passes
+     * the instruction directly to the EU, and then begins refilling the
+     * queue from the new location.
+     *
+     * Four groups of program transfers are available in the 8086:
+     * unconditional transfers, conditional transfers, iteration control
+     * instructions and interrupt-related instructions. Only the
+     * interrupt- related instruction affect any CPU flags. As will be
+     * seen, however, the execution of many of the program transfer
+     * instructions is affected by the states of the flags.
+     */
+
+    /*
+     * Unconditional Transfers
+     *
+     * The unconditional transfers instructions may transfer control to
+     * a target instruction within the current code segment
+     * (intrasegment transfer) or to a different code segment
+     * (intersegment transfer). (The ASM-86 assembler terms an
+     * intrasegment target NEAR and an intersegment target FAR.) The
+     * transfer is made unconditionally any time the instruction is
+     * executed.
+     */
+
+    /*
+     * CALL procedure-name
+     *
+     * CALL activated an out-of-line procedure, saving information on
+     * the stack to permit a RET (return) instruction in the procedure
+     * to transfer control back to the instruction following the CALL.
+     * The assembler generates a different type of CALL instruction
+     * depending on whether the programmer has defined the procedure
+     * name as NEAR or FAR. For control to return properly, the type of
+     * CALL instruction must match the type of RET instruction that
+     * exists from the procedure. (The potential for a mismatch exists
+     * if the procedure and the CALL are contained in separately
+     * assembled programs.) Different forms of the CALL instruction
+     * allow the address of the target procedure to be obtained from the
+     * instruction itself (direct CALL) or from a memory location or
+     * register referenced by the instruction (indirect CALL). In the
+     * following descriptions, bear in mind that the processor
+     * automatically adjusts IP to point to the next instruction to be
+     * executed before saving it on the stack.
+     *
+     * For an intrasegment direct CALL, SP (the stack pointer) is
+     * decremented by two and IP is pushed onto the stack. The relative
+     * displacement (up to ±32k) of the target procedure from the CALL
+     * instruction is then added to the instruction pointer. This form
+     * of the CALL instruction is "self-relative" and is appropriate for
+     * position independent (dynamically relocatable) routines in which
+     * the CALL and its target are in the same segment and are moved
+     * together.
+     *
+     * An intrasegment indirect CALL may be made through memory or
+     * through a register. SP is decremented by two and IP is pushed
+     * onto the stack. The offset of the target procedure is obtained
+     * from the memory word or 16-bit general register referenced in the
+     * instruction and replaces IP.
+     *
+     * For an intersegment direct CALL, SP is decremented by two, and CS
+     * is pushed onto the stack. CS is replaced by the segment word
+     * contained in the instruction. SP again is decremented by two. IP
+     * is pushed onto the stack and is replaced by the offset word
+     * contained in the instruction.
+     *
+     * For an intersegment indirect CALL (which only may be made through
+     * memory), SP is decremented by two, and CS is pushed onto the
+     * stack. CS is then replaced by the content of the second word of
+     * the doubleword memory pointer referenced by the instruction. SP
+     * again is decremented by two, and IP is pushed onto the stack and
+     * is replaced by the content of the first word of the doubleword
+     * pointer referenced by the instruction.
+     */
+
+    /**
+     * Direct with Segment
+     *
+     * CALL NEAR-PROC
+     */
+    private void callNear() {
+        int dst = getMem(W);
+        dst = signconv(W, dst);
+        push(ip);
+        ip = ip + dst & 0xffff;
+        clocks += 19;
+    }
+
+    /**
+     * Direct Intersegment
+     *
+     * CALL FAR-PROC
+     */
+    private void callFar() {
+        final int dst = getMem(W);
+        final int src = getMem(W);
+        push(cs);
+        push(ip);
+        ip = dst;
+        cs = src;
+        clocks += 28;
+    }
+
+    /*
+     * RET optional-pop-value
+     *
+     * RET (Return) transfers control from a procedure back to the
+     * instruction following the CALL that activated the procedure. The
+     * assembler generates an intrasegment RET if the programmer has
+     * defined the procedure NEAR, or an intersegment RET if the
+     * procedure has been defined as FAR. RET pops the word at the top
+     * of the stack (pointed to by the register SP) into the instruction
+     * pointer and increments SP by two. If RET is intersegment, the
+     * word at the top of the stack is popped into the CS register, and
+     * SP is again incremented by two. If an optional pop value has been
+     * specified, RET adds that value to SP. This feature may be used to
+     * discard parameters pushed onto the stack before the execution of
+     * the CALL instruction.
+     */
+
+    /**
+     * Within Segment
+     *
+     * RET (intrasegment)
+     */
+    private void retNear() {
+        ip = pop();
+        clocks += 8;
+    }
+
+    /**
+     * Within Seg Adding Immed to SP
+     *
+     * RET IMMED16 (intraseg)
+     */
+    private void retNearImm() {
+        final int src = getMem(W);
+        ip = pop();
+        sp += src;
+        clocks += 12;
+    }
+
+    /**
+     * Intersegment
+     *
+     * RET (intersegment)
+     */
+    private void retFar() {
+        ip = pop();
+        cs = pop();
+        clocks += 18;
+    }
+
+    /**
+     * Intersegment Adding Immediate to SP
+     *
+     * RET IMMED16 (intersegment)
+     */
+    private void retFarImm() {
+        final int src = getMem(W);
+        ip = pop();
+        cs = pop();
+        sp += src;
+        clocks += 17;
+    }
+
+    /*
+     * JMP target
+     *
+     * JMP unconditionally transfers control to the target location.
+     * Unlike a CALL instruction, JMP does not save any information on
+     * the stack, and no return to the instruction following the JMP is
+     * expected. Like CALL, the address of the target operand may be
+     * obtained from the instruction itself (direct JMP) or from memory
+     * or a register referenced by the instruction (indirect JMP).
+     *
+     * An intrasegment direct JMP changes the instruction pointer by
+     * adding the relative displacement of the target from the JMP
+     * instruction. If the assembler can determine that the target is
+     * within 127 bytes of the JMP, it automatically generates a two-
+     * byte form of this instruction called a SHORT JMP; otherwise, it
+     * generates a NEAR JMP that can address a target within ±32k.
+     * Intrasegment direct JMPS are self-relative and are appropriate in
+     * position-independent (dynamically relocatable) routines in which
+     * the JMP and its target are in the same segment and are moved
+     * together.
+     *
+     * An intrasegment indirect JMP may be made either through memory or
+     * through a 16-bit general register. In the first case, the content
+     * of the word referenced by the instruction replaces the
+     * instruction pointer. In the second case, the new IP value is
+     * taken from the register named in the instruction.
+     *
+     * An intersegment direct JMP replaces IP and CS with values
+     * contained in the instruction.
+     *
+     * An intersegment indirect JMP may be made only through memory. The
+     * first word of the doubleword pointer referenced by the
+     * instruction replaces IP, and the second word replaces CS.
+     */
+
+    /**
+     * Direct within Segment
+     *
+     * JMP NEAR-LABEL
+     */
+    private void jmpNear() {
+        int dst = getMem(W);
+        dst = signconv(W, dst);
+        ip = ip + dst & 0xffff;
+        clocks += 15;
+    }
+
+    /**
+     * Direct within Segment-Short
+     *
+     * JMP SHORT-LABEL
+     */
+    private void jmpShort() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        ip = ip + dst & 0xffff;
+        clocks += 15;
+    }
+
+    /**
+     * Direct Intersegment
+     *
+     * JMP FAR-LABEL
+     */
+    private void jmpFar() {
+        final int dst = getMem(W);
+        final int src = getMem(W);
+        ip = dst;
+        cs = src;
+        clocks += 15;
+    }
+
+    /*
+     * Conditional Transfers
+     *
+     * The conditional transfer instructions are jumps that may or may
+     * not transfer control depending on the state of the CPU flags at
+     * the time the instruction is executed. The 18 instructions each
+     * test a different combination of flags for a conditional. If the
+     * condition is "true," then control is transferred to the target
+     * specified in the instruction. If the condition is "false," then
+     * control passes to the instruction that follows the conditional
+     * jump. All conditional jumps are SHORT, that is, the target must
+     * be in the current code segment and within -128 to +127 bytes of
+     * the first byte of the next instruction (JMP 00H jumps to the
+     * first byte of the next instruction). Since the jump is made by
+     * adding the relative displacement of the target to the instruction
+     * pointer, all conditional jumps are self-relative and are
+     * appropriate for position-independent routines.
+     */
+
+    /**
+     * JO
+     *
+     * Jump if overflow - OF=1.
+     */
+    private void jo() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(OF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNO
+     *
+     * Jump if not overflow - OF=0.
+     */
+    private void jno() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!getFlag(OF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JB/JNAE/JC
+     *
+     * Jump if below/not above nor equal/carry - CF=1.
+     */
+    private void jb() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(CF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNE/JAE/JNC
+     *
+     * Jump if not below/above or equal/not carry - CF=0.
+     */
+    private void jnb() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!getFlag(CF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JE/JZ
+     *
+     * Jump if equal/zero - ZF=1.
+     */
+    private void je() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(ZF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNE/JNZ
+     *
+     * Jump if not equal/not zero - ZF=0.
+     */
+    private void jne() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!getFlag(ZF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JBE/JNA
+     *
+     * Jump if below or equal/not above - (CF or ZF)=1.
+     */
+    private void jbe() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(CF) | getFlag(ZF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNBE/JA
+     *
+     * Jump if not below nor equal/above - (CF or ZF)=0.
+     */
+    private void jnbe() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!(getFlag(CF) | getFlag(ZF))) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JS
+     *
+     * Jump if sign - SF=1.
+     */
+    private void js() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(SF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNS
+     *
+     * Jump if not sign - SF=0.
+     */
+    private void jns() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!getFlag(SF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JP/JPE
+     *
+     * Jump if parity/parity equal - PF=1.
+     */
+    private void jp() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(PF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNP/JPO
+     *
+     * Jump if not parity/parity odd - PF=0.
+     */
+    private void jnp() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!getFlag(PF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JL/JNGE
+     *
+     * Jump if less/not greater nor equal - (SF xor OF)=1.
+     */
+    private void jl() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(SF) ^ getFlag(OF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNL/JGE
+     *
+     * Jump if not less/greater or equal - (SF xor OF)=0.
+     */
+    private void jnl() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!(getFlag(SF) ^ getFlag(OF))) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JLE/JNG
+     *
+     * Jump if less or equal/not greater - ((SF xor OF) or ZF)=1.
+     */
+    private void jle() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getFlag(SF) ^ getFlag(OF) | getFlag(ZF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * JNLE/JG
+     *
+     * Jump if not less nor equal/greater - ((SF xor OF) or ZF)=0.
+     */
+    private void jnle() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (!(getFlag(SF) ^ getFlag(OF) | getFlag(ZF))) {
+            ip = ip + dst & 0xffff;
+            clocks += 16;
+        } else
+            clocks += 4;
+    }
+
+    /*
+     * Iteration Control
+     *
+     * The iteration control instructions can be used to regulate the
+     * repetition of software loops. These instructions use the CX
+     * register as a counter. Like the conditional transfers, the
+     * iteration control instructions are self-relative and may only
+     * transfer to targets that are within -128 to +127 bytes of
+     * themselves, i.e., they are SHORT transfers.
+     */
+
+    /**
+     * LOOP short-label
+     *
+     * LOOP decrements CX by 1 and transfers control to the target
+     * operand if CX is not 0; otherwise the instruction following LOOP
+     * is executed.
+     */
+    private void loop() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        final int src = getReg(W, CX) - 1 & 0xffff;
+        setReg(W, CX, src);
+        if (src != 0) {
+            ip = ip + dst & 0xffff;
+            clocks += 17;
+        } else
+            clocks += 5;
+    }
+
+    /**
+     * LOOPE/LOOPZ short-label
+     *
+     * LOOPE and LOOPZ (Loop While Equal and Loop While Zero) are
+     * different mnemonics for the same instruction (similar to the REPE
+     * and REPZ repeat prefixes). CX is decremented by 1, and control is
+     * transferred to the target operand if CX is not 0 and if ZF is
+     * set; otherwise the instruction following LOOPE/LOOPZ is executed.
+     */
+    private void loope() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        final int src = getReg(W, CX) - 1 & 0xffff;
+        setReg(W, CX, src);
+        if (src != 0 && getFlag(ZF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 18;
+        } else
+            clocks += 6;
+    }
+
+    /**
+     * LOOPNE/LOOPNZ short-label
+     *
+     * LOOPNE and LOOPNZ (Loop While Not Equal and Loop While Not Zero)
+     * are also synonyms for the same instruction. CX is decremented by
+     * 1, and control is transferred to the target operand if CX is not
+     * 0 and if ZF is clear; otherwise the next sequential instruction
+     * is executed.
+     */
+    private void loopne() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        final int src = getReg(W, CX) - 1 & 0xffff;
+        setReg(W, CX, src);
+        if (src != 0 && !getFlag(ZF)) {
+            ip = ip + dst & 0xffff;
+            clocks += 19;
+        } else
+            clocks += 5;
+    }
+
+    /**
+     * JCXZ short-label
+     *
+     * JCXZ (Jump If CX Zero) transfers control to the target operand if
+     * CX is O. This instruction is useful at the beginning of a loop;
+     * to bypass the loop if CX has a zero value, i.e., to execute the
+     * loop zero times.
+     */
+    private void jcxz() {
+        int dst = getMem(B);
+        dst = signconv(B, dst);
+        if (getReg(W, CX) == 0) {
+            ip = ip + dst & 0xffff;
+            clocks += 18;
+        } else
+            clocks += 6;
+    }
+
+    /*
+     * Interrupt Instructions
+     *
+     * The interrupt instructions allow interrupt service routines to be
+     * activated by programs as well as by external hardware devices.
+     * The effect of software interrupts is similar to hardware-
+     * initiated interrupts. However, the processor does not execute an
+     * interrupt acknowledge bus cycle if the interrupt originates in
+     * software or with an NMI. The effect of the interrupt instructions
+     * on the flags is covered in the description of each instruction.
+     */
+
+    /*
+     * INT interrupt-type
+     *
+     * INT (Interrupt) activates the interrupt procedure specified by
+     * the interrupt-type operand. INT decrements the stack pointer by
+     * two, pushes the flags onto the stack, and clears the trap (TF)
+     * and interrupt-enable (IF) flags to disable single-step and
+     * maskable interrupts. The flags are stored in the format used by
+     * the PUSHF instruction. SP is decremented again by two, and the CS
+     * register is pushed onto the stack. The address of the interrupt
+     * pointer is calculated by multiplying interrupt-type by four; the
+     * second word of the interrupt pointer replaces CS. SP again is
+     * decremented by two, and IP is pushed onto the stack and is
+     * replaced by the first word of the interrupt pointer. If
+     * interrupt-type = 3, the assembler generates a short (1 byte) form
+     * of the instruction, known as the breakpoint interrupt.
+     *
+     * Software interrupts can be used as "supervisor calls," i.e.,
+     * requests for service from an operating system. A different
+     * interrupt-type can be used for each type of service that the
+     * operating system could supply for an application program.
+     * Software interrupts also may be used to check out interrupt
+     * service procedures written for hardware-initiated interrupts.
+     */
+
+    /**
+     * Type 3
+     *
+     * INT 3
+     * INT IMMED8
+     */
+    private void interrupt() {
+        callInt(op == 0xcc ? 3 : getMem(B));
+        clocks += op == 0xcc ? 52 : 51;
+    }
+
+    /**
+     * INTO
+     *
+     * INTO (Interrupt on Overflow) generates a software interrupt if
+     * the overflow flag (OF) is set; otherwise control proceeds to the
+     * following instruction without activating an interrupt procedure.
+     * INTO addresses the target interrupt procedure (its type is 4)
+     * through the interrupt pointer at location 1OH; it clears the TF
+     * and IF flags and otherwise operates like INT. INTO may be written
+     * following an arithmetic or logical operation to activate an
+     * interrupt procedure if overflow occurs.
+     */
+    private void into() {
+        if (getFlag(OF)) {
+            callInt(4);
+            clocks += 53;
+        } else
+            clocks += 4;
+    }
+
+    /**
+     * IRET
+     *
+     * IRET (Interrupt Return) transfers control back to the point of
+     * interruption by popping IP, CS and the flags from the stack. IRET
+     * thus affects all flags by restoring them to previously saved
+     * values. IRET is used to exit any interrupt procedure, whether
+     * activated by hardware or software.
+     */
+    private void iret() {
+        ip = pop();
+        cs = pop();
+        flags = pop();
+        lazy = 0;
+        clocks += 24;
+    }
 
-            /*
-             * ESC external-opcode,source
-             *
-             * ESC (Escape) provides a means for an external processor to obtain
-             * an opcode and possibly a memory operand from the 8086. The
-             * external opcode is a 6-bit immediate constant that the assembler
-             * encodes in the machine instruction it builds. An external
-             * processor may monitor the system bus and capture this opcode when
-             * the ESC is fetched. If the source operand is a register, the
-             * processor does nothing. If the source operand is a memory
-             * variable, the processor obtains the operand from memory and
-             * discards it. An external processor may capture the memory operand
-             * when the processor reads it from memory.
-             */
-            case 0xd8: // ESC 0,SOURCE
-            case 0xd9: // ESC 1,SOURCE
-            case 0xda: // ESC 2,SOURCE
-            case 0xdb: // ESC 3,SOURCE
-            case 0xdc: // ESC 4,SOURCE
-            case 0xdd: // ESC 5,SOURCE
-            case 0xde: // ESC 6,SOURCE
-            case 0xdf: // ESC 7,SOURCE
-                decode();
-                clocks += mod == 0b11 ? 2 : 8;
-                break;
+    /*
+     * Processor Control Instructions
+     *
+     * These instructions allow programs to control various CPU
+     * functions. One group of instructions updates flags, and another
+     * group is used primarily for synchronizing the 8086 with external
+     * events. A final instruction causes the CPU to do nothing. Except
+     * for the flag operations, none of the processor control
+     * instructions affect the flags.
+     */
 
-            /*
-             * LOCK
-             *
-             * LOCK is a one-byte prefix that causes the 8086 (configured in
-             * maximum mode) to assert its bus /LOCK signal while the following
-             * instruction executes. LOCK does not affect any flags.
-             */
-            case 0xf0: // LOCK
-                clocks += 2;
-                break;
+    /*
+     * Flag Operations
+     */
 
-            /*
-             * No Operation
-             */
-            /*
-             * NOP
-             *
-             * NOP (No Operation) causes the CPU to do nothing. NOP does not
-             * affect any flags.
-             */
-            case 0x90: // NOP
-                clocks += 3;
-                break;
+    /**
+     * CLC
+     *
+     * CLC (Clear Carry flag) zeroes the carry flag (CF) and affects no
+     * other flags. It (and CMC and STC) is useful in conjunction with
+     * the RCL and RCR instructions.
+     */
+    private void clc() {
+        setFlag(CF, false);
+        clocks += 2;
+    }
 
-            /*
-             * Extensions
-             */
-            /*
-             * GROUP 1
-             */
-            case 0x80:
-                // ADD REG8/MEM8,IMMED8
-                // OR REG8/MEM8,IMMED8
-                // ADC REG8/MEM8,IMMED8
-                // SBB REG8/MEM8,IMMED8
-                // AND REG8/MEM8,IMMED8
-                // SUB REG8/MEM8,IMMED8
-                // XOR REG8/MEM8,IMMED8
-                // CMP REG8/MEM8,IMMED8
-            case 0x81:
-                // ADD REG16/MEM16,IMMED16
-                // OR REG16/MEM16,IMMED16
-                // ADC REG16/MEM16,IMMED16
-                // SBB REG16/MEM16,IMMED16
-                // AND REG16/MEM16,IMMED16
-                // SUB REG16/MEM16,IMMED16
-                // XOR REG16/MEM16,IMMED16
-                // CMP REG16/MEM16,IMMED16
-            case 0x82:
-                // ADD REG8/MEM8,IMMED8
-                // ADC REG8/MEM8,IMMED8
-                // SBB REG8/MEM8,IMMED8
-                // SUB REG8/MEM8,IMMED8
-                // CMP REG8/MEM8,IMMED8
-            case 0x83:
-                // ADD REG16/MEM16,IMMED8
-                // ADC REG16/MEM16,IMMED8
-                // SBB REG16/MEM16,IMMED8
-                // SUB REG16/MEM16,IMMED8
-                // CMP REG16/MEM16,IMMED8
-                decode();
-                dst = getRM(w, mod, rm);
-                src = getMem(B);
-                if (op == 0x81)
-                    src |= getMem(B) << 8;
-                // Perform sign extension if needed.
-                else if (op == 0x83 && (src & SIGN[B]) > 0)
-                    src |= 0xff00;
-                switch (reg) {
-                case 0b000: // ADD
-                    res = add(w, dst, src);
-                    setRM(w, mod, rm, res);
-                    break;
-                case 0b001: // OR
-                    if (op == 0x80 || op == 0x81) {
-                        res = dst | src;
-                        logic(w, res);
-                        setRM(w, mod, rm, res);
-                        break;
-                    }
-                    break;
-                case 0b010: // ADC
-                    res = adc(w, dst, src);
-                    setRM(w, mod, rm, res);
-                    break;
-                case 0b011: // SBB
-                    res = sbb(w, dst, src);
-                    setRM(w, mod, rm, res);
-                    break;
-                case 0b100: // AND
-                    if (op == 0x80 || op == 0x81) {
-                        res = dst & src;
-                        logic(w, res);
-                        setRM(w, mod, rm, res);
-                    }
-                    break;
-                case 0b101: // SUB
-                    res = sub(w, dst, src);
-                    setRM(w, mod, rm, res);
-                    break;
-                case 0b110: // XOR
-                    if (op == 0x80 || op == 0x81) {
-                        res = dst ^ src;
-                        logic(w, res);
-                        setRM(w, mod, rm, res);
-                    }
-                    break;
-                case 0b111: // CMP
-                    sub(w, dst, src);
-                    if (mod == 0b11)
-                        clocks -= 7;
-                    break;
-                }
-                clocks += mod == 0b11 ? 4 : 17;
-                break;
+    /**
+     * CMC
+     *
+     * CMC (Complement Carry flag) "toggles" CF to its opposite state
+     * and affects no other flags.
+     */
+    private void cmc() {
+        setFlag(CF, !getFlag(CF));
+        clocks += 2;
+    }
 
-            /*
-             * GROUP 1A
-             */
-            case 0x8f:
-                // POP REG16/MEM16
-                decode();
-                switch (reg) {
-                case 0b000: // POP
-                    src = pop();
-                    setRM(w, mod, rm, src);
-                    break;
-                }
-                clocks += mod == 0b11 ? 8 : 17;
-                break;
+    /**
+     * STC
+     *
+     * STC (Set Carry flag) sets CF to 1 and affects no other flags.
+     */
+    private void stc() {
+        setFlag(CF, true);
+        clocks += 2;
+    }
 
-            /*
-             * GROUP 2
-             */
-            case 0xd0:
-                // ROL REG8/MEM8,1
-                // ROR REG8/MEM8,1
-                // RCL REG8/MEM8,1
-                // RCR REG8/MEM8,1
-                // SAL/SHL REG8/MEM8,1
-                // SHR REG8/MEM8,1
-                // SAR REG8/MEM8,1
-            case 0xd1:
-                // ROL REG16/MEM16,1
-                // ROR REG16/MEM16,1
-                // RCL REG16/MEM16,1
-                // RCR REG16/MEM16,1
-                // SAL/SHL REG16/MEM16,1
-                // SHR REG16/MEM16,1
-                // SAR REG16/MEM16,1
-            case 0xd2:
-                // ROL REG8/MEM8,CL
-                // ROR REG8/MEM8,CL
-                // RCL REG8/MEM8,CL
-                // RCR REG8/MEM8,CL
-                // SAL/SHL REG8/MEM8,CL
-                // SHR REG8/MEM8,CL
-                // SAR REG8/MEM8,CL
-            case 0xd3:
-                // ROL REG16/MEM16,CL
-                // ROR REG16/MEM16,CL
-                // RCL REG16/MEM16,CL
-                // RCR REG16/MEM16,CL
-                // SAL/SHL REG16/MEM16,CL
-                // SHR REG16/MEM16,CL
-                // SAR REG16/MEM16,CL
-            {
-                decode();
-                dst = getRM(w, mod, rm);
-                src = op == 0xd0 || op == 0xd1 ? 1 : cl;
-                boolean tempCF;
-                switch (reg) {
-                case 0b000: // ROL
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        tempCF = msb(w, dst);
-                        dst <<= 1;
-                        dst |= tempCF ? 0b1 : 0b0;
-                        dst &= MASK[w];
-                    }
-                    setFlag(CF, (dst & 0b1) == 0b1);
-                    if (src == 1)
-                        setFlag(OF, msb(w, dst) ^ getFlag(CF));
-                    break;
-                case 0b001: // ROR
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        tempCF = (dst & 0b1) == 0b1;
-                        dst >>>= 1;
-                        dst |= (tempCF ? 1 : 0) * SIGN[w];
-                        dst &= MASK[w];
-                    }
-                    setFlag(CF, msb(w, dst));
-                    if (src == 1)
-                        setFlag(OF, msb(w, dst) ^ msb(w, dst << 1));
-                    break;
-                case 0b010: // RCL
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        tempCF = msb(w, dst);
-                        dst <<= 1;
-                        dst |= getFlag(CF) ? 0b1 : 0b0;
-                        dst &= MASK[w];
-                        setFlag(CF, tempCF);
-                    }
-                    if (src == 1)
-                        setFlag(OF, msb(w, dst) ^ getFlag(CF));
-                    break;
-                case 0b011: // RCR
-                    if (src == 1)
-                        setFlag(OF, msb(w, dst) ^ getFlag(CF));
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        tempCF = (dst & 0b1) == 0b1;
-                        dst >>>= 1;
-                        dst |= (getFlag(CF) ? 1 : 0) * SIGN[w];
-                        dst &= MASK[w];
-                        setFlag(CF, tempCF);
-                    }
-                    break;
-                case 0b100: // SAL/SHL
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        setFlag(CF, (dst & SIGN[w]) == SIGN[w]);
-                        dst <<= 1;
-                        dst &= MASK[w];
-                    }
-                    // Determine overflow.
-                    if (src == 1)
-                        setFlag(OF, (dst & SIGN[w]) == SIGN[w] ^ getFlag(CF));
-                    if (src > 0)
-                        setFlags(w, dst);
-                    break;
-                case 0b101: // SHR
-                    // Determine overflow.
-                    if (src == 1)
-                        setFlag(OF, (dst & SIGN[w]) == SIGN[w]);
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        setFlag(CF, (dst & 0b1) == 0b1);
-                        dst >>>= 1;
-                        dst &= MASK[w];
-                    }
-                    if (src > 0)
-                        setFlags(w, dst);
-                    break;
-                case 0b111: // SAR
-                    // Determine overflow.
-                    if (src == 1)
-                        setFlag(OF, false);
-                    for (int cnt = 0; cnt < src; ++cnt) {
-                        setFlag(CF, (dst & 0b1) == 0b1);
-                        dst = signconv(w, dst);
-                        dst >>= 1;
-                        dst &= MASK[w];
-                    }
-                    if (src > 0)
-                        setFlags(w, dst);
-                    break;
-                }
-                setRM(w, mod, rm, dst);
-                if (op == 0xd0 || op == 0xd1)
-                    clocks += mod == 0b11 ? 2 : 15;
-                else
-                    clocks += mod == 0b11 ? 8 + 4 * src : 20 + 4 * src;
+    /**
+     * CLD
+     *
+     * CLD (Clear Direction flag) zeroes DF causing the string
+     * instructions to auto-increment the SI and/or DI index registers.
+     * CLD does not affect any other flags.
+     */
+    private void cld() {
+        setFlag(DF, false);
+        clocks += 2;
+    }
+
+    /**
+     * STD
+     *
+     * STD (Set Direction flag) sets DF to 1 causing the string
+     * instructions to auto-decrement the SI and/or DI index registers.
+     * STD does not affect any other flags.
+     */
+    private void std() {
+        setFlag(DF, true);
+        clocks += 2;
+    }
+
+    /**
+     * CLI
+     *
+     * CLI (Clear Interrupt-enable flag) zeroes IF. When the interrupt-
+     * enable flag is cleared, the 8086 and 8088 do not recognize an
+     * external interrupt request that appears on the INTR line; in
+     * other words maskable interrupts are disabled. A non-maskable
+     * interrupt appearing on the NMI line, however, is honored, as is a
+     * software interrupt. CLI does not affect any other flags.
+     */
+    private void cli() {
+        setFlag(IF, false);
+        clocks += 2;
+    }
+
+    /**
+     * STI
+     *
+     * STI (Set Interrupt-enable flag) sets IF to 1, enabling processor
+     * recognition of maskable interrupt requests appearing on the INTR
+     * line. Note however, that a pending interrupt will not actually be
+     * recognized until the instruction following STI has executed. STI
+     * does not affect any other flags.
+     */
+    private void sti() {
+        setFlag(IF, true);
+        clocks += 2;
+    }
+
+    /*
+     * External Synchronization
+     */
+
+    /**
+     * HLT
+     *
+     * HLT (Halt) causes the 8086 to enter the halt state. The processor
+     * leaves the halt state upon activation of the RESET line, upon
+     * receipt of a non-maskable interrupt request on NMI, or, if
+     * interrupts are enabled, upon receipt of a maskable interrupt
+     * request on INTR. HLT does not affect any flags. It may be used as
+     * an alternative to an endless software loop in situations where a
+     * program must wait for an interrupt.
+     */
+    private void hlt() {
+        clocks += 2;
+        halted = true;
+    }
+
+    /**
+     * WAIT
+     *
+     * WAIT causes the CPU to enter the wait state while its /TEST line
+     * is not active. WAIT does not affect any flags.
+     */
+    private void waitForTest() {
+        clocks += 3;
+    }
+
+    /**
+     * ESC external-opcode,source
+     *
+     * ESC (Escape) provides a means for an external processor to obtain
+     * an opcode and possibly a memory operand from the 8086. The
+     * external opcode is a 6-bit immediate constant that the assembler
+     * encodes in the machine instruction it builds. An external
+     * processor may monitor the system bus and capture this opcode when
+     * the ESC is fetched. If the source operand is a register, the
+     * processor does nothing. If the source operand is a memory
+     * variable, the processor obtains the operand from memory and
+     * discards it. An external processor may capture the memory operand
+     * when the processor reads it from memory.
+     */
+    private void esc() {
+        decode();
+        clocks += mod == 0b11 ? 2 : 8;
+    }
+
+    /**
+     * LOCK
+     *
+     * LOCK is a one-byte prefix that causes the 8086 (configured in
+     * maximum mode) to assert its bus /LOCK signal while the following
+     * instruction executes. LOCK does not affect any flags.
+     */
+    private void lock() {
+        clocks += 2;
+    }
+
+    /*
+     * No Operation
+     */
+
+    /**
+     * NOP
+     *
+     * NOP (No Operation) causes the CPU to do nothing. NOP does not
+     * affect any flags.
+     */
+    private void nop() {
+        clocks += 3;
+    }
+
+    /*
+     * Extensions
+     */
+
+    /**
+     * GROUP 1
+     */
+    private void group1() {
+        int res;
+        decode();
+        final int dst = getRM(w, mod, rm);
+        int src = getMem(B);
+        if (op == 0x81)
+            src |= getMem(B) << 8;
+        // Perform sign extension if needed.
+        else if (op == 0x83 && (src & SIGN[B]) > 0)
+            src |= 0xff00;
+        switch (reg) {
+        case 0b000: // ADD
+            res = add(w, dst, src);
+            setRM(w, mod, rm, res);
+            break;
+        case 0b001: // OR
+            if (op == 0x80 || op == 0x81) {
+                res = dst | src;
+                logic(w, res);
+                setRM(w, mod, rm, res);
                 break;
             }
+            break;
+        case 0b010: // ADC
+            res = adc(w, dst, src);
+            setRM(w, mod, rm, res);
+            break;
+        case 0b011: // SBB
+            res = sbb(w, dst, src);
+            setRM(w, mod, rm, res);
+            break;
+        case 0b100: // AND
+            if (op == 0x80 || op == 0x81) {
+                res = dst & src;
+                logic(w, res);
+                setRM(w, mod, rm, res);
+            }
+            break;
+        case 0b101: // SUB
+            res = sub(w, dst, src);
+            setRM(w, mod, rm, res);
+            break;
+        case 0b110: // XOR
+            if (op == 0x80 || op == 0x81) {
+                res = dst ^ src;
+                logic(w, res);
+                setRM(w, mod, rm, res);
+            }
+            break;
+        case 0b111: // CMP
+            sub(w, dst, src);
+            if (mod == 0b11)
+                clocks -= 7;
+            break;
+        }
+        clocks += mod == 0b11 ? 4 : 17;
+    }
+
+    /**
+     * GROUP 1A
+     */
+    private void group1a() {
+        int src;
+        decode();
+        switch (reg) {
+        case 0b000: // POP
+            src = pop();
+            setRM(w, mod, rm, src);
+            break;
+        }
+        clocks += mod == 0b11 ? 8 : 17;
+    }
+
+    /**
+     * GROUP 2
+     */
+    private void group2() {
+        decode();
+        int dst = getRM(w, mod, rm);
+        final int src = op == 0xd0 || op == 0xd1 ? 1 : cl;
+        boolean tempCF;
+        switch (reg) {
+        case 0b000: // ROL
+            for (int cnt = 0; cnt < src; ++cnt) {
+                tempCF = msb(w, dst);
+                dst <<= 1;
+                dst |= tempCF ? 0b1 : 0b0;
+                dst &= MASK[w];
+            }
+            setFlag(CF, (dst & 0b1) == 0b1);
+            if (src == 1)
+                setFlag(OF, msb(w, dst) ^ getFlag(CF));
+            break;
+        case 0b001: // ROR
+            for (int cnt = 0; cnt < src; ++cnt) {
+                tempCF = (dst & 0b1) == 0b1;
+                dst >>>= 1;
+                dst |= (tempCF ? 1 : 0) * SIGN[w];
+                dst &= MASK[w];
+            }
+            setFlag(CF, msb(w, dst));
+            if (src == 1)
+                setFlag(OF, msb(w, dst) ^ msb(w, dst << 1));
+            break;
+        case 0b010: // RCL
+            for (int cnt = 0; cnt < src; ++cnt) {
+                tempCF = msb(w, dst);
+                dst <<= 1;
+                dst |= getFlag(CF) ? 0b1 : 0b0;
+                dst &= MASK[w];
+                setFlag(CF, tempCF);
+            }
+            if (src == 1)
+                setFlag(OF, msb(w, dst) ^ getFlag(CF));
+            break;
+        case 0b011: // RCR
+            if (src == 1)
+                setFlag(OF, msb(w, dst) ^ getFlag(CF));
+            for (int cnt = 0; cnt < src; ++cnt) {
+                tempCF = (dst & 0b1) == 0b1;
+                dst >>>= 1;
+                dst |= (getFlag(CF) ? 1 : 0) * SIGN[w];
+                dst &= MASK[w];
+                setFlag(CF, tempCF);
+            }
+            break;
+        case 0b100: // SAL/SHL
+            for (int cnt = 0; cnt < src; ++cnt) {
+                setFlag(CF, (dst & SIGN[w]) == SIGN[w]);
+                dst <<= 1;
+                dst &= MASK[w];
+            }
+            // Determine overflow.
+            if (src == 1)
+                setFlag(OF, (dst & SIGN[w]) == SIGN[w] ^ getFlag(CF));
+            if (src > 0)
+                setFlags(w, dst);
+            break;
+        case 0b101: // SHR
+            // Determine overflow.
+            if (src == 1)
+                setFlag(OF, (dst & SIGN[w]) == SIGN[w]);
+            for (int cnt = 0; cnt < src; ++cnt) {
+                setFlag(CF, (dst & 0b1) == 0b1);
+                dst >>>= 1;
+                dst &= MASK[w];
+            }
+            if (src > 0)
+                setFlags(w, dst);
+            break;
+        case 0b111: // SAR
+            // Determine overflow.
+            if (src == 1)
+                setFlag(OF, false);
+            for (int cnt = 0; cnt < src; ++cnt) {
+                setFlag(CF, (dst & 0b1) == 0b1);
+                dst = signconv(w, dst);
+                dst >>= 1;
+                dst &= MASK[w];
+            }
+            if (src > 0)
+                setFlags(w, dst);
+            break;
+        }
+        setRM(w, mod, rm, dst);
+        if (op == 0xd0 || op == 0xd1)
+            clocks += mod == 0b11 ? 2 : 15;
+        else
+            clocks += mod == 0b11 ? 8 + 4 * src : 20 + 4 * src;
+    }
 
-            /*
-             * GROUP 3
-             */
-            case 0xf6:
-                // TEST REG8/MEM8,IMMED8
-                // NOT REG8/MEM8
-                // NEG REG8/MEM8
-                // MUL REG8/MEM8
-                // IMUL REG8/MEM8
-                // DIV REG8/MEM8
-                // IDIV REG8/MEM8
-            case 0xf7:
-                // TEST REG16/MEM16,IMMED16
-                // NOT REG16/MEM16
-                // NEG REG16/MEM16
-                // MUL REG16/MEM16
-                // IMUL REG16/MEM16
-                // DIV REG16/MEM16
-                // IDIV REG16/MEM16
-                decode();
-                src = getRM(w, mod, rm);
-                switch (reg) {
-                case 0b000: // TEST
-                    dst = getMem(w);
-                    logic(w, dst & src);
-                    clocks += mod == 0b11 ? 5 : 11;
-                    break;
-                case 0b010: // NOT
-                    setRM(w, mod, rm, ~src);
-                    clocks += mod == 0b11 ? 3 : 16;
-                    break;
-                case 0b011: // NEG
-                    dst = sub(w, 0, src);
-                    setFlag(CF, dst > 0);
-                    setRM(w, mod, rm, dst);
-                    clocks += mod == 0b11 ? 3 : 16;
-                    break;
-                case 0b100: // MUL
-                    if (w == B) {
-                        dst = al;
-                        res = dst * src & 0xffff;
-                        setReg(W, AX, res);
-                        if (ah > 0) {
-                            setFlag(CF, true);
-                            setFlag(OF, true);
-                        } else {
-                            setFlag(CF, false);
-                            setFlag(OF, false);
-                        }
-                        clocks += mod == 0b11 ? (77 - 70) / 2 : (83 - 76) / 2;
-                    } else {
-                        dst = getReg(W, AX);
-                        final long lres = (long) dst * (long) src & 0xffffffff;
-                        setReg(W, AX, (int) lres);
-                        setReg(W, DX, (int) (lres >>> 16));
-                        if (getReg(W, DX) > 0) {
-                            setFlag(CF, true);
-                            setFlag(OF, true);
-                        } else {
-                            setFlag(CF, false);
-                            setFlag(OF, false);
-                        }
-                        clocks += mod == 0b11 ? (133 - 118) / 2 : (139 - 124) / 2;
-                    }
-                    break;
-                case 0b101: // IMUL
-                    if (w == B) {
-                        src = signconv(B, src);
-                        dst = al;
-                        dst = signconv(B, dst);
-                        res = dst * src & 0xffff;
-                        setReg(W, AX, res);
-                        if (ah > 0x00 && ah < 0xff) {
-                            setFlag(CF, true);
-                            setFlag(OF, true);
-                        } else {
-                            setFlag(CF, false);
-                            setFlag(OF, false);
-                        }
-                        clocks += mod == 0b11 ? (98 - 80) / 2 : (154 - 128) / 2;
-                    } else {
-                        src = signconv(W, src);
-                        dst = ah << 8 | al;
-                        dst = signconv(W, dst);
-                        final long lres = (long) dst * (long) src & 0xffffffff;
-                        setReg(W, AX, (int) lres);
-                        setReg(W, DX, (int) (lres >>> 16));
-                        final int dx = getReg(W, DX);
-                        if (dx > 0x0000 && dx < 0xffff) {
-                            setFlag(CF, true);
-                            setFlag(OF, true);
-                        } else {
-                            setFlag(CF, false);
-                            setFlag(OF, false);
-                        }
-                        clocks += mod == 0b11 ? (104 - 86) / 2 : (160 - 134) / 2;
-                    }
-                    break;
-                case 0b110: // DIV
-                    if (src == 0)
-                        callInt(0);
-                    else if (w == B) {
-                        dst = ah << 8 | al;
-                        res = dst / src & 0xffff;
-                        if (res > 0xff)
-                            callInt(0);
-                        else {
-                            al = res & 0xff;
-                            ah = dst % src & 0xff;
-                        }
-                        clocks += mod == 0b11 ? (90 - 80) / 2 : (96 - 86) / 2;
-                    } else {
-                        final long ldst = (long) getReg(W, DX) << 16 | getReg(W, AX);
-                        long lres = ldst / src & 0xffffffff;
-                        if (lres > 0xffff)
-                            callInt(0);
-                        else {
-                            setReg(W, AX, (int) lres);
-                            lres = ldst % src & 0xffff;
-                            setReg(W, DX, (int) lres);
-                        }
-                        clocks += mod == 0b11 ? (162 - 144) / 2 : (168 - 150) / 2;
-                    }
-                    break;
-                case 0b111: // IDIV
-                    if (src == 0)
-                        callInt(0);
-                    else if (w == B) {
-                        src = signconv(B, src);
-                        dst = getReg(W, AX);
-                        dst = signconv(W, dst);
-                        res = dst / src & 0xffff;
-                        if (res > 0x007f && res < 0xff81)
-                            callInt(0);
-                        else {
-                            al = res & 0xff;
-                            ah = dst % src & 0xff;
-                        }
-                        clocks += mod == 0b11 ? (112 - 101) / 2 : (118 - 107) / 2;
-                    } else {
-                        src = signconv(W, src);
-                        long ldst = (long) getReg(W, DX) << 16 | getReg(W, AX);
-                        // Do sign conversion manually.
-                        ldst = ldst << 32 >> 32;
-                        long lres = ldst / src & 0xffffffff;
-                        if (lres > 0x00007fff || lres < 0xffff8000)
-                            callInt(0);
-                        else {
-                            setReg(W, AX, (int) lres);
-                            lres = ldst % src & 0xffff;
-                            setReg(W, DX, (int) lres);
-                        }
-                        clocks += mod == 0b11 ? (184 - 165) / 2 : (190 - 171) / 2;
-                    }
-                    break;
+    /**
+     * GROUP 3
+     */
+    private void group3() {
+        int dst, res;
+        decode();
+        int src = getRM(w, mod, rm);
+        switch (reg) {
+        case 0b000: // TEST
+            dst = getMem(w);
+            logic(w, dst & src);
+            clocks += mod == 0b11 ? 5 : 11;
+            break;
+        case 0b010: // NOT
+            setRM(w, mod, rm, ~src);
+            clocks += mod == 0b11 ? 3 : 16;
+            break;
+        case 0b011: // NEG
+            dst = sub(w, 0, src);
+            setFlag(CF, dst > 0);
+            setRM(w, mod, rm, dst);
+            clocks += mod == 0b11 ? 3 : 16;
+            break;
+        case 0b100: // MUL
+            if (w == B) {
+                dst = al;
+                res = dst * src & 0xffff;
+                setReg(W, AX, res);
+                if (ah > 0) {
+                    setFlag(CF, true);
+                    setFlag(OF, true);
+                } else {
+                    setFlag(CF, false);
+                    setFlag(OF, false);
                 }
-                break;
-
-            /*
-             * GROUP 4
-             */
-            case 0xfe:
-                // INC REG8/MEM8
-                // DEC REG8/MEM8
-                decode();
-                src = getRM(w, mod, rm);
-                switch (reg) {
-                case 0b000: // INC
-                    res = inc(w, src);
-                    setRM(w, mod, rm, res);
-                    break;
-                case 0b001: // DEC
-                    res = dec(w, src);
-                    setRM(w, mod, rm, res);
-                    break;
+                clocks += mod == 0b11 ? (77 - 70) / 2 : (83 - 76) / 2;
+            } else {
+                dst = getReg(W, AX);
+                final long lres = (long) dst * (long) src & 0xffffffff;
+                setReg(W, AX, (int) lres);
+                setReg(W, DX, (int) (lres >>> 16));
+                if (getReg(W, DX) > 0) {
+                    setFlag(CF, true);
+                    setFlag(OF, true);
+                } else {
+                    setFlag(CF, false);
+                    setFlag(OF, false);
                 }
-                clocks += mod == 0b11 ? 3 : 15;
-                break;
-
-            /*
-             * GROUP 5
-             */
-            case 0xff:
-                // INC REG16/MEM16
-                // DEC REG16/MEM16
-                // CALL REG16/MEM16 (intra)
-                // CALL MEM16 (intersegment)
-                // JMP REG16/MEM16 (intra)
-                // JMP MEM16 (intersegment)
-                // PUSH REG16/MEM16
-                decode();
-                src = getRM(w, mod, rm);
-                switch (reg) {
-                case 0b000: // INC
-                    res = inc(w, src);
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 15;
-                    break;
-                case 0b001: // DEC
-                    res = dec(w, src);
-                    setRM(w, mod, rm, res);
-                    clocks += mod == 0b11 ? 3 : 15;
-                    break;
-                case 0b010: // CALL
-                    push(ip);
-                    ip = src;
-                    clocks += mod == 0b11 ? 16 : 21;
-                    break;
-                case 0b011: // CALL
-                    push(cs);
-                    push(ip);
-                    dst = getEA(mod, rm);
-                    ip = getMem(W, dst);
-                    cs = getMem(W, dst + 2);
-                    clocks += 37;
-                    break;
-                case 0b100: // JMP
-                    ip = src;
-                    clocks += mod == 0b11 ? 11 : 18;
-                    break;
-                case 0b101: // JMP
-                    dst = getEA(mod, rm);
-                    ip = getMem(W, dst);
-                    cs = getMem(W, dst + 2);
-                    clocks += 24;
-                    break;
-                case 0b110: // PUSH
-                    push(src);
-                    clocks += mod == 0b11 ? 11 : 16;
-                    break;
+                clocks += mod == 0b11 ? (133 - 118) / 2 : (139 - 124) / 2;
+            }
+            break;
+        case 0b101: // IMUL
+            if (w == B) {
+                src = signconv(B, src);
+                dst = al;
+                dst = signconv(B, dst);
+                res = dst * src & 0xffff;
+                setReg(W, AX, res);
+                if (ah > 0x00 && ah < 0xff) {
+                    setFlag(CF, true);
+                    setFlag(OF, true);
+                } else {
+                    setFlag(CF, false);
+                    setFlag(OF, false);
                 }
-                break;
+                clocks += mod == 0b11 ? (98 - 80) / 2 : (154 - 128) / 2;
+            } else {
+                src = signconv(W, src);
+                dst = ah << 8 | al;
+                dst = signconv(W, dst);
+                final long lres = (long) dst * (long) src & 0xffffffff;
+                setReg(W, AX, (int) lres);
+                setReg(W, DX, (int) (lres >>> 16));
+                final int dx = getReg(W, DX);
+                if (dx > 0x0000 && dx < 0xffff) {
+                    setFlag(CF, true);
+                    setFlag(OF, true);
+                } else {
+                    setFlag(CF, false);
+                    setFlag(OF, false);
+                }
+                clocks += mod == 0b11 ? (104 - 86) / 2 : (160 - 134) / 2;
             }
-        } while (rep > 0);
-        return true;
+            break;
+        case 0b110: // DIV
+            if (src == 0)
+                callInt(0);
+            else if (w == B) {
+                dst = ah << 8 | al;
+                res = dst / src & 0xffff;
+                if (res > 0xff)
+                    callInt(0);
+                else {
+                    al = res & 0xff;
+                    ah = dst % src & 0xff;
+                }
+                clocks += mod == 0b11 ? (90 - 80) / 2 : (96 - 86) / 2;
+            } else {
+                final long ldst = (long) getReg(W, DX) << 16 | getReg(W, AX);
+                long lres = ldst / src & 0xffffffff;
+                if (lres > 0xffff)
+                    callInt(0);
+                else {
+                    setReg(W, AX, (int) lres);
+                    lres = ldst % src & 0xffff;
+                    setReg(W, DX, (int) lres);
+                }
+                clocks += mod == 0b11 ? (162 - 144) / 2 : (168 - 150) / 2;
+            }
+            break;
+        case 0b111: // IDIV
+            if (src == 0)
+                callInt(0);
+            else if (w == B) {
+                src = signconv(B, src);
+                dst = getReg(W, AX);
+                dst = signconv(W, dst);
+                res = dst / src & 0xffff;
+                if (res > 0x007f && res < 0xff81)
+                    callInt(0);
+                else {
+                    al = res & 0xff;
+                    ah = dst % src & 0xff;
+                }
+                clocks += mod == 0b11 ? (112 - 101) / 2 : (118 - 107) / 2;
+            } else {
+                src = signconv(W, src);
+                long ldst = (long) getReg(W, DX) << 16 | getReg(W, AX);
+                // Do sign conversion manually.
+                ldst = ldst << 32 >> 32;
+                long lres = ldst / src & 0xffffffff;
+                if (lres > 0x00007fff || lres < 0xffff8000)
+                    callInt(0);
+                else {
+                    setReg(W, AX, (int) lres);
+                    lres = ldst % src & 0xffff;
+                    setReg(W, DX, (int) lres);
+                }
+                clocks += mod == 0b11 ? (184 - 165) / 2 : (190 - 171) / 2;
+            }
+            break;
+        }
+    }
+
+    /**
+     * GROUP 4
+     */
+    private void group4() {
+        int res;
+        decode();
+        final int src = getRM(w, mod, rm);
+        switch (reg) {
+        case 0b000: // INC
+            res = inc(w, src);
+            setRM(w, mod, rm, res);
+            break;
+        case 0b001: // DEC
+            res = dec(w, src);
+            setRM(w, mod, rm, res);
+            break;
+        }
+        clocks += mod == 0b11 ? 3 : 15;
+    }
+
+    /**
+     * GROUP 5
+     */
+    private void group5() {
+        int dst, res;
+        decode();
+        final int src = getRM(w, mod, rm);
+        switch (reg) {
+        case 0b000: // INC
+            res = inc(w, src);
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 15;
+            break;
+        case 0b001: // DEC
+            res = dec(w, src);
+            setRM(w, mod, rm, res);
+            clocks += mod == 0b11 ? 3 : 15;
+            break;
+        case 0b010: // CALL
+            push(ip);
+            ip = src;
+            clocks += mod == 0b11 ? 16 : 21;
+            break;
+        case 0b011: // CALL
+            push(cs);
+            push(ip);
+            dst = getEA(mod, rm);
+            ip = getMem(W, dst);
+            cs = getMem(W, dst + 2);
+            clocks += 37;
+            break;
+        case 0b100: // JMP
+            ip = src;
+            clocks += mod == 0b11 ? 11 : 18;
+            break;
+        case 0b101: // JMP
+            dst = getEA(mod, rm);
+            ip = getMem(W, dst);
+            cs = getMem(W, dst + 2);
+            clocks += 24;
+            break;
+        case 0b110: // PUSH
+            push(src);
+            clocks += mod == 0b11 ? 11 : 16;
+            break;
+        }
     }
+    /**
+     * Undefined opcode. Nothing is executed.
+     */
+    private void unused() {}
 }
@@ -1,5 +1,9 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * The 8237 Multimode Direct Memory Access (DMA) Controller is a peripheral
  * interface circuit for microprocessor systems. It is designed to improve
@@ -19,9 +23,26 @@ package fr.neatmonster.ibmpc;
  *
  * Each channel has a full 64K address and word count capability.
  *
+ * On the PC, the upper 4 bits of the 20-bit address of each channel come from
+ * a page register, at ports 80h to 87h, and the address wraps around within
+ * its page of 64K. A device requests a transfer with all the bytes it has at
+ * once, and they are copied to or from memory in bulk: the CPU is held off
+ * the bus for as long as the 8237 would have taken, one DMA cycle a byte, and
+ * in single transfer mode one more bus hand-over a byte.
+ *
  * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
  */
 public class Intel8237 implements Peripheral {
+    /** The clock cycles of a DMA cycle: 4 states, and a wait state. */
+    private static final int   CYCLE    = 5;
+    /** The clock cycles for the CPU to give the bus over and take it back. */
+    private static final int   HANDOVER = 4;
+    /** The page register of each channel, from port 80h. */
+    private static final int[] PAGE     = { 7, 3, 1, 2 };
+
+    /** The CPU, whose memory the bytes are transferred to or from. */
+    private final Intel8086    cpu;
+
     /*
      * Each channel has a pair of Base Address and Base Word Count registers.
      * These 16-bit registers store the original value of their associated
@@ -32,11 +53,37 @@ public class Intel8237 implements Peripheral {
      * cannot be read by the microprocessor.
      */
     /** Base Address Register */
-    private final int[]     addr     = new int[4];
-    /** Word Count Register */
-    private final int[]     cnt      = new int[4];
-    /** The toggle for reading/writing. */
-    private final boolean[] flipflop = new boolean[4];
+    private final int[]        baseAddr = new int[4];
+    /** Base Word Count Register */
+    private final int[]        baseCnt  = new int[4];
+    /** Current Address Register */
+    private final int[]        addr     = new int[4];
+    /** Current Word Count Register */
+    private final int[]        cnt      = new int[4];
+    /** Mode Register */
+    private final int[]        mode     = new int[4];
+    /** Page Registers */
+    private final int[]        pages    = new int[8];
+    /** Command Register */
+    private int                command;
+    /** Mask Register, one bit a channel. */
+    private int                mask     = 0b1111;
+    /** Request Register, one bit a channel. */
+    private int                request;
+    /** Status Register, terminal counts in the low nibble. */
+    private int                status;
+    /** The byte pointer flip-flop, for reading/writing. */
+    private boolean            flipflop;
+
+    /**
+     * Instantiates a DMA controller.
+     *
+     * @param cpu
+     *            the CPU
+     */
+    public Intel8237(final Intel8086 cpu) {
+        this.cpu = cpu;
+    }
 
     /**
      * Returns if a peripheral is connected to the specified port.
@@ -47,7 +94,51 @@ public class Intel8237 implements Peripheral {
      */
     @Override
     public boolean isConnected(final int port) {
-        return port >= 0x00 && port < 0x20;
+        return port >= 0x00 && port < 0x20 || port >= 0x80 && port < 0x88;
+    }
+
+    /**
+     * Copies bytes between a device and memory, from the current address of
+     * a channel on, up or down, wrapping around within its page.
+     *
+     * @param chan
+     *            the channel
+     * @param bytes
+     *            the bytes of the device
+     * @param off
+     *            the index of the first byte
+     * @param len
+     *            the number of bytes
+     * @param write
+     *            true to write to memory, false to read from it
+     */
+    private void move(final int chan, final byte[] bytes, final int off, final int len, final boolean write) {
+        final boolean down = (mode[chan] & 0x20) > 0;
+        final int page = pages[PAGE[chan]] << 16 & Memory.SIZE - 1;
+        final byte[] reversed = down ? new byte[len] : null;
+        int a = addr[chan];
+        for (int done = 0; done < len;) {
+            final int n = Math.min(len - done, down ? a + 1 : 0x10000 - a);
+            final int start = page | (down ? a - n + 1 : a);
+            if (!down) {
+                if (write)
+                    cpu.memory.setBytes(start, bytes, off + done, n);
+                else
+                    cpu.memory.getBytes(start, bytes, off + done, n);
+            } else if (write) {
+                for (int i = 0; i < n; ++i)
+                    reversed[i] = bytes[off + done + n - 1 - i];
+                cpu.memory.setBytes(start, reversed, 0, n);
+            } else {
+                cpu.memory.getBytes(start, reversed, 0, n);
+                for (int i = 0; i < n; ++i)
+                    bytes[off + done + i] = reversed[n - 1 - i];
+            }
+            if (write)
+                cpu.getInstructionCache().invalidate(start, n);
+            a = (down ? a - n : a + n) & 0xffff;
+            done += n;
+        }
     }
 
     /**
@@ -61,32 +152,29 @@ public class Intel8237 implements Peripheral {
      */
     @Override
     public int portIn(final int w, final int port) {
-        int chan;
-        switch (port) {
+        if (port >= 0x80)
+            return pages[port - 0x80];
+        final int chan;
+        switch (port & 0x0f) {
         case 0x00: // ADDR0
         case 0x02: // ADDR1
         case 0x04: // ADDR2
         case 0x06: // ADDR3
-            chan = port / 2;
-            if (!flipflop[chan]) {
-                flipflop[chan] = true;
-                return addr[chan] & 0xff;
-            } else {
-                flipflop[chan] = false;
-                return addr[chan] >>> 8 & 0xff;
-            }
+            chan = (port & 0x0f) / 2;
+            flipflop = !flipflop;
+            return flipflop ? addr[chan] & 0xff : addr[chan] >>> 8 & 0xff;
         case 0x01: // CNT0
         case 0x03: // CNT1
         case 0x05: // CNT2
         case 0x07: // CNT3
-            chan = (port - 1) / 2;
-            if (!flipflop[chan]) {
-                flipflop[chan] = true;
-                return cnt[chan] & 0xff;
-            } else {
-                flipflop[chan] = false;
-                return cnt[chan] >>> 8 & 0xff;
-            }
+            chan = (port & 0x0f) / 2;
+            flipflop = !flipflop;
+            return flipflop ? cnt[chan] & 0xff : cnt[chan] >>> 8 & 0xff;
+        case 0x08: // STATUS
+            final int val = request << 4 | status;
+            // Terminal counts are cleared once read.
+            status = 0;
+            return val;
         }
         return 0;
     }
@@ -103,34 +191,168 @@ public class Intel8237 implements Peripheral {
      */
     @Override
     public void portOut(final int w, final int port, final int val) {
-        int chan;
-        switch (port) {
+        if (port >= 0x80) {
+            pages[port - 0x80] = val & 0x0f;
+            return;
+        }
+        final int chan;
+        switch (port & 0x0f) {
         case 0x00: // ADDR0
         case 0x02: // ADDR1
         case 0x04: // ADDR2
         case 0x06: // ADDR3
-            chan = port / 2;
-            if (!flipflop[chan]) {
-                flipflop[chan] = true;
-                addr[chan] = addr[chan] & 0xff00 | val;
-            } else {
-                flipflop[chan] = false;
-                addr[chan] = val << 8 | addr[chan] & 0xff;
-            }
+            chan = (port & 0x0f) / 2;
+            flipflop = !flipflop;
+            addr[chan] = flipflop ? addr[chan] & 0xff00 | val : val << 8 | addr[chan] & 0xff;
+            baseAddr[chan] = addr[chan];
             break;
         case 0x01: // CNT0
         case 0x03: // CNT1
         case 0x05: // CNT2
         case 0x07: // CNT3
-            chan = (port - 1) / 2;
-            if (!flipflop[chan]) {
-                flipflop[chan] = true;
-                cnt[chan] = cnt[chan] & 0xff00 | val;
-            } else {
-                flipflop[chan] = false;
-                cnt[chan] = val << 8 | cnt[chan] & 0xff;
-            }
+            chan = (port & 0x0f) / 2;
+            flipflop = !flipflop;
+            cnt[chan] = flipflop ? cnt[chan] & 0xff00 | val : val << 8 | cnt[chan] & 0xff;
+            baseCnt[chan] = cnt[chan];
+            break;
+        case 0x08: // COMMAND
+            command = val;
+            break;
+        case 0x09: // REQUEST
+            if ((val & 0x04) > 0)
+                request |= 1 << (val & 0b11);
+            else
+                request &= ~(1 << (val & 0b11));
+            break;
+        case 0x0a: // SINGLE MASK
+            if ((val & 0x04) > 0)
+                mask |= 1 << (val & 0b11);
+            else
+                mask &= ~(1 << (val & 0b11));
             break;
+        case 0x0b: // MODE
+            mode[val & 0b11] = val;
+            break;
+        case 0x0c: // CLEAR FLIP-FLOP
+            flipflop = false;
+            break;
+        case 0x0d: // MASTER CLEAR
+            command = 0;
+            status = 0;
+            request = 0;
+            flipflop = false;
+            mask = 0b1111;
+            break;
+        case 0x0e: // CLEAR MASK
+            mask = 0;
+            break;
+        case 0x0f: // ALL MASK
+            mask = val & 0b1111;
+            break;
+        }
+    }
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    @Override
+    public void restore(final DataInput in) throws IOException {
+        for (int chan = 0; chan < 4; ++chan) {
+            baseAddr[chan] = in.readUnsignedShort();
+            baseCnt[chan] = in.readUnsignedShort();
+            addr[chan] = in.readUnsignedShort();
+            cnt[chan] = in.readUnsignedShort();
+            mode[chan] = in.readUnsignedByte();
+        }
+        for (int i = 0; i < 8; ++i)
+            pages[i] = in.readUnsignedByte();
+        command = in.readUnsignedByte();
+        mask = in.readUnsignedByte();
+        request = in.readUnsignedByte();
+        status = in.readUnsignedByte();
+        flipflop = in.readBoolean();
+    }
+
+    /**
+     * Writes the state of the peripheral, to be restored later on.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    @Override
+    public void save(final DataOutput out) throws IOException {
+        for (int chan = 0; chan < 4; ++chan) {
+            out.writeShort(baseAddr[chan]);
+            out.writeShort(baseCnt[chan]);
+            out.writeShort(addr[chan]);
+            out.writeShort(cnt[chan]);
+            out.writeByte(mode[chan]);
+        }
+        for (int i = 0; i < 8; ++i)
+            out.writeByte(pages[i]);
+        out.writeByte(command);
+        out.writeByte(mask);
+        out.writeByte(request);
+        out.writeByte(status);
+        out.writeBoolean(flipflop);
+    }
+
+    /**
+     * Transfers bytes between a device and memory, on a DMA request of the
+     * device on a channel. The transfer type of the channel tells the way:
+     * write transfers copy the bytes of the device to memory, read transfers
+     * copy bytes from memory to the device, and verify transfers copy
+     * nothing. In all modes, the bytes are transferred at once, up to the
+     * terminal count. In block transfer mode, giving fewer bytes ends the
+     * transfer early, as the device would with /EOP.
+     *
+     * At the terminal count, or at /EOP, the bit of the channel is set in the
+     * status register, and the channel is either autoinitialized or masked.
+     *
+     * @param chan
+     *            the channel
+     * @param bytes
+     *            the bytes of the device
+     * @param off
+     *            the index of the first byte
+     * @param len
+     *            the number of bytes
+     * @return the number of bytes transferred, fewer than len if the terminal
+     *         count was reached, or 0 if the channel is masked, cascaded or
+     *         the controller disabled
+     */
+    public int transfer(final int chan, final byte[] bytes, final int off, final int len) {
+        if (len <= 0 || (mask >>> chan & 0b1) > 0 || (command & 0x04) > 0 || (mode[chan] & 0xc0) == 0xc0)
+            return 0;
+        final int n = Math.min(len, cnt[chan] + 1);
+        final boolean eop = (mode[chan] & 0xc0) == 0x80 && n < cnt[chan] + 1;
+        switch (mode[chan] >>> 2 & 0b11) {
+        case 0b01: // Write
+            move(chan, bytes, off, n, true);
+            break;
+        case 0b10: // Read
+            move(chan, bytes, off, n, false);
+            break;
+        }
+        // Single transfers give the bus back to the CPU after every byte.
+        cpu.hold((mode[chan] & 0xc0) == 0x40 ? n * (CYCLE + HANDOVER) : n * CYCLE + HANDOVER);
+        addr[chan] = ((mode[chan] & 0x20) > 0 ? addr[chan] - n : addr[chan] + n) & 0xffff;
+        cnt[chan] = cnt[chan] - n & 0xffff;
+        request &= ~(1 << chan);
+        // Terminal count: the word count rolled over from 0 to FFFFh.
+        if (cnt[chan] == 0xffff || eop) {
+            status |= 1 << chan;
+            if ((mode[chan] & 0x10) > 0) {
+                addr[chan] = baseAddr[chan];
+                cnt[chan] = baseCnt[chan];
+            } else
+                mask |= 1 << chan;
         }
+        return n;
     }
 }
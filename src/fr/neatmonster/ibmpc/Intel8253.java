@@ -1,5 +1,9 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * The Intel 8253 is a programmable counter/timer device designed for use as an
  * Intel microcomputer peripheral. It uses NMOS technology with a single +5V
@@ -33,9 +37,15 @@ package fr.neatmonster.ibmpc;
  * - Digital One-Shot
  * - Complex Motor Controller
  *
+ * The counters are not counted down as the CPU runs. Each of them keeps the
+ * clock cycle it was last counted down to, and is counted down at once, in
+ * closed form, only when it has to: when it is read, latched, loaded or
+ * programmed, and for counter 0, when its output goes high and calls an
+ * interrupt request.
+ *
  * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
  */
-public class Intel8253 implements Peripheral {
+public class Intel8253 implements Peripheral, Scheduler.Device {
     /**
      * Intel 8259 - Programmable Interrupt Controller
      *
@@ -43,6 +53,15 @@ public class Intel8253 implements Peripheral {
      */
     private final Intel8259 pic;
 
+    /** The number of CPU clock cycles per count (1.19 MHz on the IBM PC). */
+    private static final int  CLOCKS = 4;
+    /** The number of counts of an event that never comes. */
+    private static final long NEVER  = Long.MAX_VALUE;
+
+    /** The clock cycles spent by the CPU, as a whole number of counts. */
+    private long            clock;
+    /** The clock cycle each counter has been counted down to. */
+    private final long[]    start   = new long[3];
     /** The actual value of each counter. */
     private final int[]     count   = new int[3];
     /** The initial value of each counter. */
@@ -64,6 +83,23 @@ public class Intel8253 implements Peripheral {
         this.pic = pic;
     }
 
+    /**
+     * Returns the output of a counter at the specified clock cycle, which
+     * must not be earlier than the counter was last accessed at. Counts are
+     * not skipped: asking for clock cycles in order follows every edge of the
+     * output.
+     *
+     * @param sc
+     *            the counter
+     * @param at
+     *            the clock cycle
+     * @return the state of the output
+     */
+    public boolean getOutput(final int sc, final long at) {
+        sync(sc, at);
+        return output[sc];
+    }
+
     /**
      * Returns if a peripheral is connected to the specified port.
      *
@@ -76,25 +112,6 @@ public class Intel8253 implements Peripheral {
         return port >= 0x40 && port < 0x44;
     }
 
-    /**
-     * Sets the output state.
-     *
-     * @param sc
-     *            the timer
-     * @param high
-     *            the output state
-     */
-    private void output(final int sc, final boolean state) {
-        if (!output[sc] && state) {
-            switch (sc) {
-            case 0: // TIMER 0
-                pic.callIRQ(0);
-                break;
-            }
-        }
-        output[sc] = state;
-    }
-
     /**
      * Write output to the specified CPU port.
      *
@@ -114,6 +131,8 @@ public class Intel8253 implements Peripheral {
             // Read operation.
             final int rl = control[sc] >>> 4 & 0b11;
             // Use latch if set.
+            if (!latched[sc])
+                sync(sc, clock);
             int val = count[sc];
             if (latched[sc]) {
                 val = latch[sc];
@@ -156,6 +175,7 @@ public class Intel8253 implements Peripheral {
         case 0b01:
         case 0b10: {
             // Counter loading.
+            sync(sc, clock);
             final int m = control[sc] >>> 1 & 0b111;
             final int rl = control[sc] >>> 4 & 0b11;
             switch (rl) {
@@ -184,6 +204,7 @@ public class Intel8253 implements Peripheral {
         }
         case 0b11:
             sc = val >>> 6 & 0b11;
+            sync(sc, clock);
             if ((val >>> 4 & 0b11) == 0b00) {
                 // Counter latching.
                 latch[sc] = count[sc];
@@ -196,99 +217,250 @@ public class Intel8253 implements Peripheral {
     }
 
     /**
-     * Update all 3 counters.
+     * Returns the number of counts a counter in mode 2 takes to reach 1, and
+     * be reloaded.
+     *
+     * @param count
+     *            the count
+     * @return the number of counts
      */
-    public void tick() {
-        for (int sc = 0b00; sc < 0b11; ++sc)
-            if (enabled[sc])
-                switch (control[sc] >>> 1 & 0b111) {
-                case 0b00:
-                    /*
-                     * Mode 0: Interrupt on Terminal Count
-                     *
-                     * The output will be initially low after the mode set
-                     * operation. After the count is loaded into the selected
-                     * count register, the output will remain low and the
-                     * counter will count. When terminal count is reached, the
-                     * output will go high and remain high until the selected
-                     * count register is reloaded with the mode or a new count
-                     * is loaded. The counter continues to decrement after
-                     * terminal count has been reached.
-                     */
-                    // Decrement count.
-                    count[sc] = --count[sc] & 0xffff;
-                    if (count[sc] == 0)
-                        output(sc, true);
-                    break;
-                case 0b10:
-                    /*
-                     * Mode 2: Rate Generator
-                     *
-                     * Divide by N counter. The output will be low for one
-                     * period of the input clock. The period from one output
-                     * pulse to the next equals the number of input counter in
-                     * the count register. If the count register is reloaded
-                     * between pulses the present period will not be affected,
-                     * but the subsequent period will reflect the new value.
-                     *
-                     * The gate input, when low, will force the output high.
-                     * When the gate input goes high, the counter will start
-                     * from the initial count. This, the gate input can be used
-                     * to synchronize the counter.
-                     *
-                     * When this mode is set; the output will remain high until
-                     * after the count register is loaded. The output can also
-                     * be synchronized by software.
-                     */
-                    // Decrement count.
-                    count[sc] = --count[sc] & 0xffff;
+    private static long reload(final int count) {
+        return (count - 2 & 0xffff) + 1;
+    }
 
-                    // Reload count if necessary.
-                    if (count[sc] == 1) {
-                        count[sc] = value[sc];
-                        output(sc, false);
-                    } else
-                        output(sc, true);
-                    break;
-                case 0b11:
-                    /*
-                     * Mode 3: Square Wave Rate Generator
-                     *
-                     * Similar to Mode 2 except that the output will remain high
-                     * until one half of the count has been completed (or even
-                     * numbers) and go low for the other half of the count. This
-                     * is accomplished by decrementing the counter by two on the
-                     * falling edge of each clock pulse. When the counter
-                     * reaches terminal count, the state of the output is
-                     * changed and the counter is reloaded with the full count
-                     * and the whole process is repeated.
-                     *
-                     * If the count is odd and the output is high, the first
-                     * clock pulse (after the count is loaded) decrements the
-                     * count by 1. Subsequent clock pulses decrement the clock
-                     * by 2. After timeout, the output goes low and the full
-                     * count is reloaded. The first clock pulse (following) the
-                     * reload decrements the counter by 3. Subsequent clock
-                     * pulses decrements the count by 2 until timeout. Then the
-                     * while process is repeated. In this way, if the count is
-                     * odd, the output will be high for (N + 1)/2 counts and low
-                     * for (N - 1)/2 counts.
-                     */
-                    // Decrement count.
-                    if ((count[sc] & 0b1) == 0b1) {
-                        if (output[sc])
-                            count[sc] = count[sc] - 1 & 0xffff;
-                        else
-                            count[sc] = count[sc] - 3 & 0xffff;
-                    } else
-                        count[sc] = count[sc] - 2 & 0xffff;
+    /**
+     * Returns the number of counts a counter in mode 3 takes to reach
+     * terminal count, and toggle its output.
+     *
+     * @param count
+     *            the count
+     * @param high
+     *            the output state
+     * @return the number of counts
+     */
+    private static long half(final int count, final boolean high) {
+        if ((count & 0b1) == 0b0)
+            return count == 0 ? 0x8000 : count >>> 1;
+        final int rest = count - (high ? 1 : 3) & 0xffff;
+        return 1 + (rest >>> 1);
+    }
 
-                    // Reload count if necessary.
-                    if (count[sc] == 0) {
-                        count[sc] = value[sc];
-                        output(sc, !output[sc]);
-                    }
-                    break;
+    /**
+     * Counts down a counter by the specified number of counts, as if it had
+     * been decremented one count at a time.
+     *
+     * @param sc
+     *            the counter
+     * @param n
+     *            the number of counts
+     */
+    private void advance(final int sc, long n) {
+        switch (control[sc] >>> 1 & 0b111) {
+        case 0b00:
+            /*
+             * Mode 0: Interrupt on Terminal Count
+             *
+             * The output will be initially low after the mode set operation.
+             * After the count is loaded into the selected count register, the
+             * output will remain low and the counter will count. When
+             * terminal count is reached, the output will go high and remain
+             * high until the selected count register is reloaded with the
+             * mode or a new count is loaded. The counter continues to
+             * decrement after terminal count has been reached.
+             */
+            if (n >= (count[sc] == 0 ? 0x10000 : count[sc]))
+                output[sc] = true;
+            count[sc] = (int) (count[sc] - n & 0xffff);
+            break;
+        case 0b10:
+            /*
+             * Mode 2: Rate Generator
+             *
+             * Divide by N counter. The output will be low for one period of
+             * the input clock. The period from one output pulse to the next
+             * equals the number of input counter in the count register. If
+             * the count register is reloaded between pulses the present
+             * period will not be affected, but the subsequent period will
+             * reflect the new value.
+             *
+             * The gate input, when low, will force the output high. When the
+             * gate input goes high, the counter will start from the initial
+             * count. This, the gate input can be used to synchronize the
+             * counter.
+             *
+             * When this mode is set; the output will remain high until after
+             * the count register is loaded. The output can also be
+             * synchronized by software.
+             */
+            final long first = reload(count[sc]);
+            if (n < first) {
+                count[sc] = (int) (count[sc] - n & 0xffff);
+                output[sc] = true;
+            } else {
+                // Reloaded, then counted down for what is left of a period.
+                n = (n - first) % reload(value[sc]);
+                count[sc] = (int) (value[sc] - n & 0xffff);
+                output[sc] = n > 0;
+            }
+            break;
+        case 0b11:
+            /*
+             * Mode 3: Square Wave Rate Generator
+             *
+             * Similar to Mode 2 except that the output will remain high until
+             * one half of the count has been completed (or even numbers) and
+             * go low for the other half of the count. This is accomplished by
+             * decrementing the counter by two on the falling edge of each
+             * clock pulse. When the counter reaches terminal count, the state
+             * of the output is changed and the counter is reloaded with the
+             * full count and the whole process is repeated.
+             *
+             * If the count is odd and the output is high, the first clock
+             * pulse (after the count is loaded) decrements the count by 1.
+             * Subsequent clock pulses decrement the clock by 2. After
+             * timeout, the output goes low and the full count is reloaded.
+             * The first clock pulse (following) the reload decrements the
+             * counter by 3. Subsequent clock pulses decrements the count by 2
+             * until timeout. Then the while process is repeated. In this way,
+             * if the count is odd, the output will be high for (N + 1)/2
+             * counts and low for (N - 1)/2 counts.
+             */
+            long h = half(count[sc], output[sc]);
+            if (n >= h) {
+                // Skip the whole periods following the first toggle.
+                n -= h;
+                count[sc] = value[sc];
+                output[sc] = !output[sc];
+                n %= half(value[sc], true) + half(value[sc], false);
+                while (n >= (h = half(count[sc], output[sc]))) {
+                    n -= h;
+                    output[sc] = !output[sc];
+                }
+            }
+            if (n > 0) {
+                if ((count[sc] & 0b1) == 0b1) {
+                    count[sc] = count[sc] - (output[sc] ? 1 : 3) & 0xffff;
+                    --n;
                 }
+                count[sc] = (int) (count[sc] - 2 * n & 0xffff);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Returns the number of counts until the output of a counter goes high.
+     *
+     * @param sc
+     *            the counter
+     * @return the number of counts, or NEVER
+     */
+    private long edge(final int sc) {
+        if (!enabled[sc])
+            return NEVER;
+        switch (control[sc] >>> 1 & 0b111) {
+        case 0b00:
+            // Goes high once, at terminal count.
+            if (output[sc])
+                return NEVER;
+            return count[sc] == 0 ? 0x10000 : count[sc];
+        case 0b10: {
+            // Goes high on the count following a reload.
+            final long first = reload(count[sc]);
+            if (!output[sc] && first > 1)
+                return 1;
+            return reload(value[sc]) > 1 ? first + 1 : NEVER;
+        }
+        case 0b11:
+            // Goes high every other terminal count.
+            if (!output[sc])
+                return half(count[sc], false);
+            return half(count[sc], true) + half(value[sc], false);
+        }
+        return NEVER;
+    }
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    @Override
+    public void restore(final DataInput in) throws IOException {
+        clock = in.readLong();
+        for (int sc = 0b00; sc < 0b11; ++sc) {
+            start[sc] = in.readLong();
+            count[sc] = in.readUnsignedShort();
+            value[sc] = in.readUnsignedShort();
+            latch[sc] = in.readUnsignedShort();
+            control[sc] = in.readUnsignedByte();
+            enabled[sc] = in.readBoolean();
+            latched[sc] = in.readBoolean();
+            output[sc] = in.readBoolean();
+            toggle[sc] = in.readBoolean();
+        }
+    }
+
+    /**
+     * Writes the state of the peripheral, to be restored later on.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    @Override
+    public void save(final DataOutput out) throws IOException {
+        out.writeLong(clock);
+        for (int sc = 0b00; sc < 0b11; ++sc) {
+            out.writeLong(start[sc]);
+            out.writeShort(count[sc]);
+            out.writeShort(value[sc]);
+            out.writeShort(latch[sc]);
+            out.writeByte(control[sc]);
+            out.writeBoolean(enabled[sc]);
+            out.writeBoolean(latched[sc]);
+            out.writeBoolean(output[sc]);
+            out.writeBoolean(toggle[sc]);
+        }
+    }
+
+    /**
+     * Counts down a counter to the specified clock cycle, if it was not yet,
+     * and calls an interrupt request if the output of timer 0 went high
+     * meanwhile.
+     *
+     * @param sc
+     *            the counter
+     * @param at
+     *            the clock cycle
+     */
+    private void sync(final int sc, final long at) {
+        final long n = (at - start[sc]) / CLOCKS;
+        if (n <= 0)
+            return;
+        start[sc] += n * CLOCKS;
+        if (enabled[sc]) {
+            if (sc == 0 && edge(0) <= n) // TIMER 0
+                pic.callIRQ(0);
+            advance(sc, n);
+        }
+    }
+
+    /**
+     * Catches up with the clock cycles spent by the CPU. Only timer 0 is
+     * counted down, for its interrupt requests.
+     *
+     * @param now
+     *            the clock cycles spent by the CPU
+     * @return the clock cycle the output of timer 0 goes high at next
+     */
+    @Override
+    public long update(final long now) {
+        clock += (now - clock) / CLOCKS * CLOCKS;
+        sync(0, clock);
+        final long edge = edge(0);
+        return edge == NEVER ? Long.MAX_VALUE : clock + edge * CLOCKS;
     }
 }
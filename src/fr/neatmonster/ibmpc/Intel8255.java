@@ -1,5 +1,10 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * The Intel 8255 is a general purpose programmable I/O device designed for use
  * with Intel microprocessors. It has 24 I/O pins which may be individually
@@ -12,19 +17,64 @@ package fr.neatmonster.ibmpc;
  * bidirectional bus, and 5 lines, borrowing one from the other group, for
  * handshaking.
  *
+ * Scan codes come from the keyboard thread of the window through a ring, one
+ * producer and one consumer, without locks. The keyboard thread only
+ * publishes them to the ring and flags them as typed: they are pulled on the
+ * thread running the machine, which delivers them and calls the keyboard
+ * interrupt itself. Port A holds a single scan code, and the next one is only
+ * pulled from the ring once the guest acknowledged it, by pulsing bit 7 of
+ * port B as the BIOS does, and the time for the keyboard to send it went by.
+ * Nothing is lost however fast keys are typed, or pasted: the guest is never
+ * sent codes faster than a keyboard would, and the keyboard thread sleeps
+ * while the ring is full. The thread of the window events only queues the
+ * keys for the keyboard thread, and never waits.
+ *
  * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
  */
-public class Intel8255 implements Peripheral {
+public class Intel8255 implements Peripheral, Scheduler.Device {
+    /** The number of scan codes the ring holds, a power of 2. */
+    private static final int    RING  = 1024;
+    /**
+     * The clock cycles between two scan codes sent by the keyboard, about
+     * 4ms: the BIOS and BASIC keep up at that pace.
+     */
+    private static final long   PACE  = 19091;
+
     /**
      * Intel 8259 - Programmable Interrupt Controller
      *
      * @see fr.neatmonster.ibmpc.Intel8259
      */
-    private final Intel8259 pic;
+    private final Intel8259     pic;
     /**
      * 4 ports of the PIC (A, B, C and Control) as registers.
      */
-    private final int[]     ports = new int[4];
+    private final int[]         ports = new int[4];
+    /**
+     * The scan codes typed, not yet delivered.
+     */
+    private final int[]         ring  = new int[RING];
+    /**
+     * The number of scan codes typed so far, the head of the ring.
+     */
+    private volatile long       typed;
+    /**
+     * The number of scan codes delivered so far, the tail of the ring.
+     */
+    private volatile long       delivered;
+    /**
+     * Were scan codes typed since the 8255 was last updated? Set by the
+     * keyboard thread, cleared by the thread running the machine.
+     */
+    private volatile boolean    typing;
+    /** The thread parked until a key is typed, if any. */
+    private volatile Thread     sleeper;
+    /** Has the scan code in port A been acknowledged? */
+    private boolean             acknowledged = true;
+    /** The clock cycles spent by the CPU when last updated. */
+    private long                clock;
+    /** The clock cycle the next scan code is sent at, once acknowledged. */
+    private long                deadline     = Long.MAX_VALUE;
 
     /**
      * Instantiate a new Intel 8255.
@@ -37,6 +87,66 @@ public class Intel8255 implements Peripheral {
         ports[0] = 0x2c;
     }
 
+    /**
+     * Parks the thread running the machine until a key is typed, or for the
+     * specified time at most. It may return earlier, for no reason.
+     *
+     * @param typed
+     *            the number of keys typed before
+     * @param nanos
+     *            the most time to wait, in nanoseconds
+     * @return true if a key was typed since, false otherwise
+     */
+    public boolean awaitKey(final long typed, final long nanos) {
+        sleeper = Thread.currentThread();
+        // Typed before the sleeper was set, the key would not unpark it.
+        if (this.typed == typed)
+            LockSupport.parkNanos(this, nanos);
+        sleeper = null;
+        return this.typed != typed;
+    }
+
+    /**
+     * Delivers the next scan code of the ring to port A, and calls a keyboard
+     * interrupt.
+     */
+    private void deliver() {
+        acknowledged = false;
+        ports[0] = ring[(int) delivered & RING - 1];
+        delivered = delivered + 1;
+        pic.callIRQ(1);
+    }
+
+    /**
+     * Returns the value of a port, e.g. port B driving the speaker.
+     *
+     * @param index
+     *            the index of the port, 0 to 3 for A, B, C and Control
+     * @return the value
+     */
+    public int getPort(final int index) {
+        return ports[index];
+    }
+
+    /**
+     * Returns the number of keys typed so far.
+     *
+     * @return the number of keys
+     */
+    public long getTyped() {
+        return typed;
+    }
+
+    /**
+     * Returns if scan codes were typed since the 8255 was last updated, for
+     * the thread running the machine to update it.
+     *
+     * @return true if some were typed, false otherwise
+     */
+    public boolean isTyping() {
+        return typing;
+    }
+
     /**
      * Returns if a peripheral is connected to the specified port.
      *
@@ -50,14 +160,24 @@ public class Intel8255 implements Peripheral {
     }
 
     /**
-     * Calls a keyboard interrupt for the specified scan code.
+     * Types a scan code, from the keyboard thread. It is published to the
+     * ring, to be delivered by the thread running the machine once the guest
+     * acknowledged the last one. While the ring is full, it sleeps until the
+     * guest catches up: it must not be called from the thread of the window
+     * events.
      *
      * @param scanCode
      *            the scan code
      */
     public void keyTyped(final int scanCode) {
-        ports[0] = scanCode;
-        pic.callIRQ(1);
+        while (typed - delivered == RING)
+            LockSupport.parkNanos(1000000);
+        ring[(int) typed & RING - 1] = scanCode;
+        typed = typed + 1;
+        typing = true;
+        final Thread sleeper = this.sleeper;
+        if (sleeper != null)
+            LockSupport.unpark(sleeper);
     }
 
     /**
@@ -86,6 +206,64 @@ public class Intel8255 implements Peripheral {
      */
     @Override
     public void portOut(final int w, final int port, final int val) {
+        // Bit 7 of port B set then cleared acknowledges the scan code.
+        if ((port & 0b11) == 1 && (ports[1] & 0x80) > 0 && (val & 0x80) == 0 && !acknowledged)
+            deadline = clock + PACE;
         ports[port & 0b11] = val;
     }
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    @Override
+    public void restore(final DataInput in) throws IOException {
+        for (int i = 0; i < 4; ++i)
+            ports[i] = in.readUnsignedByte();
+        acknowledged = in.readBoolean();
+        deadline = Long.MAX_VALUE;
+        // The scan codes not delivered yet, before any typed since.
+        final int count = in.readUnsignedShort();
+        final long first = delivered - count;
+        for (long i = first; i < first + count; ++i)
+            ring[(int) i & RING - 1] = in.readUnsignedByte();
+        delivered = first;
+        if (count > 0)
+            typing = true;
+    }
+
+    /**
+     * Writes the state of the peripheral, to be restored later on.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    @Override
+    public void save(final DataOutput out) throws IOException {
+        for (int i = 0; i < 4; ++i)
+            out.writeByte(ports[i]);
+        out.writeBoolean(acknowledged || deadline != Long.MAX_VALUE);
+        final long typed = this.typed;
+        out.writeShort((int) (typed - delivered));
+        for (long i = delivered; i < typed; ++i)
+            out.writeByte(ring[(int) i & RING - 1]);
+    }
+
+    @Override
+    public long update(final long now) {
+        clock = now;
+        // Cleared before the ring is looked at, not to miss a key.
+        typing = false;
+        if (now >= deadline) {
+            deadline = Long.MAX_VALUE;
+            acknowledged = true;
+        }
+        if (acknowledged && delivered != typed)
+            deliver();
+        return deadline;
+    }
 }
@@ -1,5 +1,9 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * The Intel 8259 Programmable Interrupt Controller handles up to eight vectored
  * priority interrupts for the CPU. It is cascadable for up to 64 vectored
@@ -20,7 +24,7 @@ public class Intel8259 implements Peripheral {
      * 8-bit register which contains the interrupt request lines which are
      * masked.
      */
-    private int         imr;
+    private int          imr;
 
     /**
      * Interrupt Request Register (IRR)
@@ -29,7 +33,7 @@ public class Intel8259 implements Peripheral {
      * acknowledged. The highest request level is reset from the IRR when an
      * interrupt is acknowledged (not affected by IMR).
      */
-    private int         irr;
+    private int          irr;
 
     /**
      * In-Service Register (ISR)
@@ -37,7 +41,7 @@ public class Intel8259 implements Peripheral {
      * 8-bit register which contains the priority levels that are being
      * serviced. The ISR is updated when an End of Interrupt Command is issued.
      */
-    private int         isr;
+    private int          isr;
 
     /**
      * Initialization Command Words (ICWS)
@@ -55,18 +59,90 @@ public class Intel8259 implements Peripheral {
      * (e) Special Mask Mode is cleared and Status Read is set to IRR.
      * (f) If IC4 = 0, then all functions selected in ICW4 are set to zero.
      */
-    private final int[] icw     = new int[4];
+    private final int[]  icw     = new int[4];
     /** Keeps track of initialization progress. */
-    private int         icwStep = 0;
+    private int          icwStep = 0;
+
+    /**
+     * The level with the lowest priority, 7 unless rotated. Priorities follow
+     * from it in turn: the next level has the highest priority.
+     */
+    private int          lowest  = 7;
+    /** Does an automatic EOI rotate priorities? */
+    private boolean      rotateAeoi;
+    /** Is the ISR read instead of the IRR? */
+    private boolean      readIsr;
+    /** Is the next read a poll command? */
+    private boolean      poll;
+    /** Is the special mask mode set? */
+    private boolean      smm;
+
+    /**
+     * The level of the interrupt request to be serviced next, or -1 if none.
+     * It is worked out whenever the IRR, IMR, ISR or priorities change, so
+     * that the CPU only reads it before an instruction.
+     */
+    private int          pending = -1;
 
     /**
-     * Call an interruption request on the specified line.
+     * Rotates the bits of a register right, so that a given level is bit 0.
+     *
+     * @param bits
+     *            the register
+     * @param n
+     *            the level
+     * @return the rotated register
+     */
+    private static int rotate(final int bits, final int n) {
+        return (bits >>> n | bits << 8 - n) & 0xff;
+    }
+
+    /**
+     * Acknowledges an interrupt request, as an INTA pulse or a poll command
+     * would: it is reset from the IRR and set in the ISR, unless in automatic
+     * EOI mode.
+     *
+     * @param level
+     *            the level
+     */
+    private void acknowledge(final int level) {
+        irr &= ~(1 << level);
+        if ((icw[3] & 0x02) == 0)
+            isr |= 1 << level;
+        else if (rotateAeoi)
+            lowest = level;
+        update();
+    }
+
+    /**
+     * Call an interruption request on the specified line, from the thread
+     * running the machine. It takes no lock: peripherals fed by other threads
+     * raise their requests when the machine pulls their input.
      *
      * @param line
      *            the line
      */
     public void callIRQ(final int line) {
         irr |= 1 << line;
+        update();
+    }
+
+    /**
+     * Ends the interrupt being serviced, or the one at a given level.
+     *
+     * @param level
+     *            the level, or -1 for the one with the highest priority
+     * @return the level ended, or -1 if none was being serviced
+     */
+    private int endOfInterrupt(final int level) {
+        if (level >= 0) {
+            isr &= ~(1 << level);
+            return level;
+        }
+        if (isr == 0)
+            return -1;
+        final int shift = lowest + 1 & 7;
+        return endOfInterrupt(Integer.numberOfTrailingZeros(rotate(isr, shift)) + shift & 7);
     }
 
     /**
@@ -75,7 +151,17 @@ public class Intel8259 implements Peripheral {
      * @return true if there is one, false otherwise
      */
     public boolean hasInt() {
-        return (irr & ~imr) > 0;
+        return pending >= 0;
+    }
+
+    /**
+     * Returns if an interrupt is in service, i.e. if the CPU runs the handler
+     * of a hardware interrupt, until its EOI.
+     *
+     * @return true if there is one, false otherwise
+     */
+    public boolean isServicing() {
+        return isr != 0;
     }
 
     /**
@@ -91,20 +177,17 @@ public class Intel8259 implements Peripheral {
     }
 
     /**
-     * Returns the type of the interrupt request waiting to be serviced.
+     * Returns the type of the interrupt request waiting to be serviced, and
+     * acknowledges it. Without one, IR7 is returned, as the 8259 does.
      *
      * @return the interrupt-type
      */
     public int nextInt() {
-        final int bits = irr & ~imr;
-        for (int i = 0; i < 8; ++i) {
-            if ((bits >>> i & 0b1) > 0) {
-                irr ^= 1 << i;
-                isr |= 1 << i;
-                return icw[1] + i;
-            }
-        }
-        return 0;
+        final int level = pending;
+        if (level < 0)
+            return icw[1] & 0xf8 | 7;
+        acknowledge(level);
+        return icw[1] & 0xf8 | level;
     }
 
     /**
@@ -120,7 +203,15 @@ public class Intel8259 implements Peripheral {
     public int portIn(final int w, final int port) {
         switch (port) {
         case 0x20:
-            return irr;
+            if (poll) {
+                poll = false;
+                final int level = pending;
+                if (level < 0)
+                    return 0;
+                acknowledge(level);
+                return 0x80 | level;
+            }
+            return readIsr ? isr : irr;
         case 0x21:
             return imr;
         }
@@ -141,25 +232,117 @@ public class Intel8259 implements Peripheral {
     public void portOut(final int w, final int port, final int val) {
         switch (port) {
         case 0x20:
-            if ((val & 0x10) > 0) {
-                imr = 0;
+            if ((val & 0x10) > 0) { // ICW1
+                icwStep = 0;
                 icw[icwStep++] = val;
-            }
-            if ((val & 0x20) > 0) // EOI
-                for (int i = 0; i < 8; ++i)
-                    if ((isr >>> i & 0b1) > 0)
-                        isr ^= 1 << i;
+                icw[3] = 0;
+                imr = 0;
+                isr = 0;
+                lowest = 7;
+                readIsr = false;
+                smm = false;
+            } else if ((val & 0x08) > 0) { // OCW3
+                if ((val & 0x40) > 0)
+                    smm = (val & 0x20) > 0;
+                poll = (val & 0x04) > 0;
+                if ((val & 0x02) > 0)
+                    readIsr = (val & 0x01) > 0;
+            } else // OCW2
+                switch (val >>> 5) {
+                case 0b000: // Clear rotate in automatic EOI mode.
+                    rotateAeoi = false;
+                    break;
+                case 0b001: // Non-specific EOI.
+                    endOfInterrupt(-1);
+                    break;
+                case 0b011: // Specific EOI.
+                    endOfInterrupt(val & 0b111);
+                    break;
+                case 0b100: // Set rotate in automatic EOI mode.
+                    rotateAeoi = true;
+                    break;
+                case 0b101: { // Rotate on non-specific EOI.
+                    final int level = endOfInterrupt(-1);
+                    if (level >= 0)
+                        lowest = level;
+                    break;
+                }
+                case 0b110: // Set priority.
+                    lowest = val & 0b111;
+                    break;
+                case 0b111: // Rotate on specific EOI.
+                    lowest = endOfInterrupt(val & 0b111);
+                    break;
+                }
             break;
         case 0x21:
-            if (icwStep == 1) {
+            if (icwStep > 0 && icwStep < 4) {
                 icw[icwStep++] = val;
-                if ((icw[0] & 0x02) > 0)
+                // No ICW3 in single mode.
+                if (icwStep == 2 && (icw[0] & 0x02) > 0)
                     ++icwStep;
-            } else if (icwStep < 4)
-                icw[icwStep++] = val;
-            else
+                // No ICW4 unless IC4 is set.
+                if (icwStep == 3 && (icw[0] & 0x01) == 0)
+                    icwStep = 4;
+            } else
                 imr = val;
             break;
         }
+        update();
+    }
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    @Override
+    public void restore(final DataInput in) throws IOException {
+        imr = in.readUnsignedByte();
+        irr = in.readUnsignedByte();
+        isr = in.readUnsignedByte();
+        for (int i = 0; i < 4; ++i)
+            icw[i] = in.readUnsignedByte();
+        icwStep = in.readUnsignedByte();
+        lowest = in.readUnsignedByte();
+        final int modes = in.readUnsignedByte();
+        rotateAeoi = (modes & 0b0001) > 0;
+        readIsr = (modes & 0b0010) > 0;
+        poll = (modes & 0b0100) > 0;
+        smm = (modes & 0b1000) > 0;
+        update();
+    }
+
+    /**
+     * Writes the state of the peripheral, to be restored later on.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    @Override
+    public void save(final DataOutput out) throws IOException {
+        out.writeByte(imr);
+        out.writeByte(irr);
+        out.writeByte(isr);
+        for (int i = 0; i < 4; ++i)
+            out.writeByte(icw[i]);
+        out.writeByte(icwStep);
+        out.writeByte(lowest);
+        out.writeByte((rotateAeoi ? 0b0001 : 0) | (readIsr ? 0b0010 : 0) | (poll ? 0b0100 : 0) | (smm ? 0b1000 : 0));
+    }
+
+    /**
+     * Works out the interrupt request to be serviced next: the unmasked
+     * request with the highest priority, if it is higher than that of every
+     * level in service (fully nested mode), or of none in special mask mode.
+     */
+    private void update() {
+        final int shift = lowest + 1 & 7;
+        final int request = Integer.numberOfTrailingZeros(rotate(irr & ~imr, shift));
+        final int service = smm ? 32 : Integer.numberOfTrailingZeros(rotate(isr, shift));
+        pending = request < service ? request + shift & 7 : -1;
     }
 }
@@ -0,0 +1,345 @@
+package fr.neatmonster.ibmpc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LIM Expanded Memory Board
+ *
+ * The Lotus/Intel/Microsoft Expanded Memory Specification gives programs more
+ * memory than the 8086 can address, through a window of 64K in the upper
+ * memory: the page frame. The frame is made of four physical pages of 16K,
+ * each of them showing any of the logical pages of 16K held by the board. The
+ * EMS 3.2 and 4.0 services of interrupt 67h are left to the driver for the
+ * board, e.g. EMM.SYS, which maps logical pages by writing to the board.
+ *
+ * As on the simplest of these boards, there is one register per physical
+ * page, at four consecutive I/O ports: writing the number of a logical page
+ * to a register maps it to the physical page. Numbers beyond the logical
+ * pages unmap the physical page, which then reads as nothing.
+ *
+ * Logical pages are held in a single store, e.g. a direct buffer out of the
+ * heap, and a physical page is mapped by pointing the pages of memory of the
+ * frame at the logical page in the store: nothing is ever copied, and mapping
+ * a page costs the same whatever its size. The frame is mapped once the board
+ * is attached.
+ *
+ * A fork of the board shares the pages of the store, as a fork of memory
+ * shares its RAM: while shared, they are mapped to be written through the
+ * board, which copies a page on its first write and maps the copy instead.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class LIMEMS implements Peripheral, Memory.Handler {
+    /** The number of bytes of a logical or physical page. */
+    public static final int    PAGE_SIZE = 0x4000;
+    /** The number of pages of memory in a page. */
+    private static final int   PAGES     = PAGE_SIZE / Memory.PAGE_SIZE;
+
+    /** The CPU, whose memory holds the page frame. */
+    private final Intel8086    cpu;
+    /** The first I/O port of the registers. */
+    private final int          port;
+    /** The physical address of the page frame. */
+    private final int          frame;
+    /** The pages of memory of each logical page, slices of the store. */
+    private final ByteBuffer[] store;
+    /** Is each slice of the store shared with a fork of the board? */
+    private final boolean[]    shared;
+    /** The logical page mapped to each physical page. */
+    private final int[]        registers = { 0, 1, 2, 3 };
+
+    /**
+     * Instantiates a board of the specified number of logical pages, held out
+     * of the heap, at port 260h and with its page frame at D0000h.
+     *
+     * @param cpu
+     *            the CPU
+     * @param pages
+     *            the number of logical pages, up to 256
+     */
+    public LIMEMS(final Intel8086 cpu, final int pages) {
+        this(cpu, 0x260, 0xd0000, ByteBuffer.allocateDirect(pages * PAGE_SIZE));
+    }
+
+    /**
+     * Instantiates a board.
+     *
+     * @param cpu
+     *            the CPU
+     * @param port
+     *            the first I/O port of the registers
+     * @param frame
+     *            the physical address of the page frame, on a 16K boundary
+     * @param store
+     *            the store of the logical pages, up to 256 of them
+     */
+    public LIMEMS(final Intel8086 cpu, final int port, final int frame, final ByteBuffer store) {
+        if (store.capacity() > 0x100 * PAGE_SIZE)
+            throw new IllegalArgumentException("More than 256 logical pages.");
+        if ((frame & PAGE_SIZE - 1) != 0)
+            throw new IllegalArgumentException("Page frame not on a 16K boundary.");
+        this.cpu = cpu;
+        this.port = port;
+        this.frame = frame;
+        this.store = new ByteBuffer[store.capacity() / Memory.PAGE_SIZE];
+        for (int i = 0; i < this.store.length; ++i)
+            this.store[i] = store.slice(i * Memory.PAGE_SIZE, Memory.PAGE_SIZE);
+        shared = new boolean[this.store.length];
+    }
+
+    /**
+     * Instantiates a fork of the specified board.
+     *
+     * @param cpu
+     *            the fork of the CPU
+     * @param parent
+     *            the board to fork
+     */
+    private LIMEMS(final Intel8086 cpu, final LIMEMS parent) {
+        this.cpu = cpu;
+        port = parent.port;
+        frame = parent.frame;
+        store = parent.store.clone();
+        shared = parent.shared.clone();
+        System.arraycopy(parent.registers, 0, registers, 0, 4);
+    }
+
+    /**
+     * Maps the page frame, once attached.
+     */
+    @Override
+    public void attached() {
+        for (int i = 0; i < 4; ++i)
+            map(i, registers[i]);
+    }
+
+    /**
+     * Forks the board, for the fork of its CPU: the fork shares the logical
+     * pages until either board writes to them, and maps the same ones to its
+     * page frame once attached.
+     *
+     * @param fork
+     *            the fork of the CPU
+     * @return the fork of the board
+     */
+    public LIMEMS fork(final Intel8086 fork) {
+        Arrays.fill(shared, true);
+        // Writes to the frame now go through write(), to copy the pages.
+        for (int i = 0; i < 4; ++i)
+            map(i, registers[i]);
+        return new LIMEMS(fork, this);
+    }
+
+    /**
+     * Returns if a peripheral is connected to the specified port.
+     *
+     * @param port
+     *            the port
+     * @return true if connected, false else
+     */
+    @Override
+    public boolean isConnected(final int port) {
+        return port >= this.port && port < this.port + 4;
+    }
+
+    /**
+     * Maps a logical page to a physical page. The instructions cached from
+     * the physical page are thrown away.
+     *
+     * @param physical
+     *            the physical page
+     * @param logical
+     *            the logical page
+     */
+    private void map(final int physical, final int logical) {
+        registers[physical] = logical;
+        final int addr = frame + physical * PAGE_SIZE;
+        if ((logical + 1) * PAGES > store.length)
+            cpu.memory.unmap(addr, PAGE_SIZE);
+        else
+            for (int i = 0; i < PAGES; ++i)
+                mapSlice(addr + i * Memory.PAGE_SIZE, logical * PAGES + i);
+        cpu.getInstructionCache().invalidate(addr, PAGE_SIZE);
+    }
+
+    /**
+     * Maps a slice of the store to a page of memory of the frame, to be
+     * written through the board while shared.
+     *
+     * @param addr
+     *            the physical address of the page of memory
+     * @param slice
+     *            the slice
+     */
+    private void mapSlice(final int addr, final int slice) {
+        if (shared[slice])
+            cpu.memory.mapPage(addr, store[slice], this);
+        else
+            cpu.memory.mapPage(addr, store[slice]);
+    }
+
+    /**
+     * Write output to the specified CPU port.
+     *
+     * @param w
+     *            word/byte operation
+     * @param port
+     *            the port
+     * @return the value
+     */
+    @Override
+    public int portIn(final int w, final int port) {
+        return registers[port - this.port];
+    }
+
+    /**
+     * Reads input from the specified CPU port.
+     *
+     * @param w
+     *            word/byte operation
+     * @param port
+     *            the port
+     * @param val
+     *            the value
+     */
+    @Override
+    public void portOut(final int w, final int port, final int val) {
+        map(port - this.port, val & 0xff);
+    }
+
+    /**
+     * Reads the byte at the specified address of the frame, while its page is
+     * shared.
+     *
+     * @param addr
+     *            the physical address
+     * @return the value
+     */
+    @Override
+    public int read(final int addr) {
+        return store[slice(addr)].get(addr & Memory.PAGE_SIZE - 1) & 0xff;
+    }
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    @Override
+    public void restore(final DataInput in) throws IOException {
+        for (int i = 0; i < 4; ++i)
+            map(i, in.readUnsignedByte());
+    }
+
+    /**
+     * Restores the logical pages, as written by savePages(). Those not written
+     * are cleared.
+     *
+     * @param in
+     *            the input to read the logical pages from
+     * @throws IOException
+     */
+    public void restorePages(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[Memory.PAGE_SIZE];
+        int next = in.readUnsignedShort();
+        for (int slice = 0; slice < store.length; ++slice) {
+            if (slice == next) {
+                in.readFully(bytes);
+                next = in.readUnsignedShort();
+            } else
+                Arrays.fill(bytes, (byte) 0);
+            writable(slice).put(0, bytes);
+        }
+        if (next != store.length)
+            throw new IOException("Slice " + next + " is not on the board.");
+    }
+
+    /**
+     * Writes the state of the peripheral, to be restored later on. The
+     * logical pages are not written, as memory is not: see savePages().
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    @Override
+    public void save(final DataOutput out) throws IOException {
+        for (int i = 0; i < 4; ++i)
+            out.writeByte(registers[i]);
+    }
+
+    /**
+     * Writes the logical pages, to be restored later on. Only the slices of
+     * the store which are not all zeros are written.
+     *
+     * @param out
+     *            the output to write the logical pages to
+     * @throws IOException
+     */
+    public void savePages(final DataOutput out) throws IOException {
+        final byte[] bytes = new byte[Memory.PAGE_SIZE];
+        final ByteBuffer zero = ByteBuffer.wrap(new byte[Memory.PAGE_SIZE]);
+        for (int slice = 0; slice < store.length; ++slice)
+            if (store[slice].mismatch(zero) >= 0) {
+                out.writeShort(slice);
+                store[slice].get(0, bytes);
+                out.write(bytes);
+            }
+        out.writeShort(store.length);
+    }
+
+    /**
+     * Returns the slice of the store mapped at the specified address of the
+     * frame.
+     *
+     * @param addr
+     *            the physical address
+     * @return the slice
+     */
+    private int slice(final int addr) {
+        final int offset = addr - frame;
+        return registers[offset / PAGE_SIZE] * PAGES + (offset & PAGE_SIZE - 1) / Memory.PAGE_SIZE;
+    }
+
+    /**
+     * Returns a slice of the store to write to, after copying it if it was
+     * shared, in which case the copy is mapped wherever the slice was.
+     *
+     * @param slice
+     *            the slice
+     * @return the buffer
+     */
+    private ByteBuffer writable(final int slice) {
+        if (shared[slice]) {
+            final ByteBuffer copy = store[slice].isDirect() ? ByteBuffer.allocateDirect(Memory.PAGE_SIZE)
+                    : ByteBuffer.allocate(Memory.PAGE_SIZE);
+            copy.put(0, store[slice], 0, Memory.PAGE_SIZE);
+            store[slice] = copy;
+            shared[slice] = false;
+            for (int i = 0; i < 4; ++i)
+                if (registers[i] == slice / PAGES)
+                    mapSlice(frame + i * PAGE_SIZE + slice % PAGES * Memory.PAGE_SIZE, slice);
+        }
+        return store[slice];
+    }
+
+    /**
+     * Writes the byte at the specified address of the frame, while its page
+     * is shared: the page is copied, and mapped instead.
+     *
+     * @param addr
+     *            the physical address
+     * @param val
+     *            the value
+     */
+    @Override
+    public void write(final int addr, final int val) {
+        writable(slice(addr)).put(addr & Memory.PAGE_SIZE - 1, (byte) val);
+    }
+}
@@ -0,0 +1,819 @@
+package fr.neatmonster.ibmpc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Guest Memory
+ *
+ * The megabyte of memory the 8086 can address, one byte per byte. It used to
+ * be an array of ints holding a byte each, four times the size it needs and
+ * four times the cache lines to go through on every fetch.
+ *
+ * Memory is mapped in 4K pages, each of them being RAM, ROM, memory-mapped
+ * I/O, or nothing at all. Every page has a buffer to read from and a buffer
+ * to write to, so that reading or writing RAM and ROM is a single buffer
+ * access whatever the address:
+ * - RAM reads from and writes to the same buffer.
+ * - ROM reads from its image, shared by all memories it is mapped to, and
+ * writes to a page nobody reads.
+ * - Nothing reads as all ones, and writes to a page nobody reads.
+ * - Memory-mapped I/O has no buffer, and goes through its handler.
+ *
+ * RAM is either allocated on the heap a page at a time, or taken from a
+ * backing buffer holding the whole address space: a direct buffer, out of
+ * the heap, or a snapshot file mapped privately. A mapped snapshot is opened
+ * at once, its pages are only read from the file when first touched, and
+ * pages written to are copied by the operating system, never to the file.
+ *
+ * A page of heap RAM is only allocated when first written to. Until then, it
+ * reads from a page of zeros shared by all memories, the same way as a page
+ * shared with a fork: most of the RAM is never touched by the guest.
+ *
+ * Memories can also be deduplicated: the pages of RAM of the same content are
+ * merged into a single page, shared in the same way by all of them until they
+ * write to it. Machines idle at the same prompt have most of their RAM alike.
+ *
+ * A memory can be forked: the fork shares all the pages of its parent, and
+ * both of them copy a page of RAM when they first write to it. Shared pages
+ * have no buffer to write to, so that the first write goes out of the way
+ * of RAM to make the copy.
+ *
+ * The pages written to since the last checkpoint are kept track of in a
+ * bitmap, one bit a page. At a checkpoint, the pages of RAM lose their
+ * buffer to write to in the same way as shared pages: the first write to a
+ * page sets its bit and gives its buffer back, and writes to a page already
+ * written to cost nothing more.
+ *
+ * Words are stored low-order byte first, at any address, and are read and
+ * written at once through a little-endian view of the page, unless they
+ * straddle two pages.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class Memory {
+
+    /**
+     * A handler of memory-mapped I/O.
+     */
+    public interface Handler {
+
+        /**
+         * Reads the byte at the specified address.
+         *
+         * @param addr
+         *            the physical address
+         * @return the value
+         */
+        int read(int addr);
+
+        /**
+         * Writes the byte at the specified address.
+         *
+         * @param addr
+         *            the physical address
+         * @param val
+         *            the value
+         */
+        void write(int addr, int val);
+    }
+
+    /** The number of bytes of the address space. */
+    public static final int         SIZE      = 0x100000;
+
+    /** The number of bits of a page offset. */
+    public static final int         PAGE_BITS = 12;
+    /** The number of bytes of a page. */
+    public static final int         PAGE_SIZE = 1 << PAGE_BITS;
+    /** The number of pages in the address space. */
+    public static final int         PAGES     = SIZE >>> PAGE_BITS;
+    /** The mask of a page offset. */
+    private static final int        OFFSET    = PAGE_SIZE - 1;
+
+    /** Little-endian view of the bytes as words, aligned or not. */
+    private static final VarHandle  WORD      = MethodHandles.byteBufferViewVarHandle(short[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    /** Little-endian view of the bytes as longs, to hash pages. */
+    private static final VarHandle  LONG      = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    /** The bytes of a page where nothing is mapped. */
+    private static final byte[]     NOTHING   = new byte[PAGE_SIZE];
+    /** The page read where nothing is mapped. */
+    private static final ByteBuffer OPEN      = ByteBuffer.wrap(NOTHING);
+    /** The page written to where writes are ignored. */
+    private static final ByteBuffer DISCARD   = ByteBuffer.allocate(PAGE_SIZE);
+    /** The page read from RAM not written to yet. */
+    private static final ByteBuffer ZERO      = ByteBuffer.allocate(PAGE_SIZE).asReadOnlyBuffer();
+
+    static {
+        Arrays.fill(NOTHING, (byte) 0xff);
+    }
+
+    /**
+     * Merges the pages of RAM of the same content in the specified memories,
+     * which must not be accessed meanwhile. The merged pages are shared, and
+     * copied again when written to. Pages of zeros are merged with the page
+     * of zeros of unallocated RAM. Memories with a backing are left alone:
+     * their pages would not be freed.
+     *
+     * @param memories
+     *            the memories
+     * @return the number of pages reclaimed, i.e. which were not shared
+     *         before, and are not used anymore
+     */
+    public static int deduplicate(final Collection<Memory> memories) {
+        // The buffers of each hash of their content, the first buffer found
+        // of the same content as each buffer, and the number of pages of the
+        // same content as each first buffer.
+        final Map<Long, List<ByteBuffer>> hashes = new HashMap<>();
+        final Map<ByteBuffer, ByteBuffer> first = new IdentityHashMap<>();
+        final Map<ByteBuffer, Integer> count = new IdentityHashMap<>();
+        hashes.put(hash(ZERO), new ArrayList<>(Arrays.asList(ZERO)));
+        first.put(ZERO, ZERO);
+        count.put(ZERO, 1);
+        for (final Memory memory : memories)
+            if (memory.backing == null)
+                for (int page = 0; page < PAGES; ++page)
+                    if (memory.ram[page]) {
+                        final ByteBuffer buffer = memory.reads[page];
+                        if (!first.containsKey(buffer)) {
+                            final List<ByteBuffer> same = hashes.computeIfAbsent(hash(buffer),
+                                    hash -> new ArrayList<>());
+                            ByteBuffer found = buffer;
+                            for (final ByteBuffer other : same)
+                                if (other.mismatch(buffer) < 0)
+                                    found = other;
+                            if (found == buffer)
+                                same.add(buffer);
+                            first.put(buffer, found);
+                        }
+                        count.merge(first.get(buffer), 1, Integer::sum);
+                    }
+        int reclaimed = 0;
+        for (final Memory memory : memories)
+            if (memory.backing == null)
+                for (int page = 0; page < PAGES; ++page)
+                    if (memory.ram[page]) {
+                        final ByteBuffer buffer = first.get(memory.reads[page]);
+                        if (count.get(buffer) == 1)
+                            continue;
+                        if (buffer != memory.reads[page] && !memory.shared[page])
+                            ++reclaimed;
+                        memory.reads[page] = buffer;
+                        memory.writes[page] = null;
+                        memory.shared[page] = true;
+                    }
+        return reclaimed;
+    }
+
+    /**
+     * Hashes the content of a page, a long at a time.
+     *
+     * @param page
+     *            the page
+     * @return the hash
+     */
+    private static long hash(final ByteBuffer page) {
+        long hash = 0;
+        for (int i = 0; i < PAGE_SIZE; i += 8)
+            hash = 31 * hash + (long) LONG.get(page, i);
+        return hash;
+    }
+
+    /**
+     * Opens a snapshot of the address space as the backing of a memory. The
+     * file is mapped privately: nothing is read until a page is touched, and
+     * nothing is ever written back.
+     *
+     * @param path
+     *            the snapshot file
+     * @return the memory
+     * @throws IOException
+     */
+    public static Memory open(final Path path) throws IOException {
+        // Private mappings need a channel open for writing, though nothing is
+        // written to it.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < SIZE)
+                throw new IOException("Snapshot " + path + " is smaller than the address space.");
+            return new Memory(channel.map(FileChannel.MapMode.PRIVATE, 0, SIZE));
+        }
+    }
+
+    /** The buffer RAM is taken from, or null to allocate it on the heap. */
+    private final ByteBuffer        backing;
+    /** Are pages of RAM copied out of the heap? */
+    private final boolean           direct;
+
+    /** The buffer each page is read from, or null for memory-mapped I/O. */
+    private final ByteBuffer[]      reads     = new ByteBuffer[PAGES];
+    /** The buffer each page is written to, or null for memory-mapped I/O. */
+    private final ByteBuffer[]      writes    = new ByteBuffer[PAGES];
+    /** The handler of each page of memory-mapped I/O. */
+    private final Handler[]         handlers  = new Handler[PAGES];
+    /** Is each page RAM? */
+    private final boolean[]         ram       = new boolean[PAGES];
+    /** Is each page of RAM shared with another memory, or the page of zeros? */
+    private final boolean[]         shared    = new boolean[PAGES];
+    /** Is each page held by a device, mapped by mapPage()? */
+    private final boolean[]         device    = new boolean[PAGES];
+    /** Has each page been written to or mapped since the last checkpoint? */
+    private final long[]            dirty     = new long[PAGES / 64];
+
+    /**
+     * Instantiates a memory where nothing is mapped yet, and whose RAM is
+     * allocated on the heap.
+     */
+    public Memory() {
+        this((ByteBuffer) null);
+    }
+
+    /**
+     * Instantiates a memory where nothing is mapped yet, and whose RAM is
+     * taken from the specified buffer, at the same addresses.
+     *
+     * @param backing
+     *            a buffer the size of the address space, e.g. a direct buffer
+     *            to keep RAM out of the heap
+     */
+    public Memory(final ByteBuffer backing) {
+        if (backing != null && backing.capacity() < SIZE)
+            throw new IllegalArgumentException("The backing buffer is smaller than the address space.");
+        this.backing = backing;
+        direct = backing != null && backing.isDirect();
+        unmap(0, SIZE);
+    }
+
+    /**
+     * Instantiates a fork of the specified memory.
+     *
+     * @param parent
+     *            the memory to fork
+     */
+    private Memory(final Memory parent) {
+        backing = null;
+        direct = parent.direct;
+        for (int page = 0; page < PAGES; ++page) {
+            if (parent.ram[page]) {
+                parent.shared[page] = true;
+                parent.writes[page] = null;
+            }
+            reads[page] = parent.reads[page];
+            writes[page] = parent.writes[page];
+            handlers[page] = parent.handlers[page];
+            ram[page] = parent.ram[page];
+            shared[page] = parent.shared[page];
+        }
+        System.arraycopy(parent.dirty, 0, dirty, 0, dirty.length);
+        // Pages held by a device belong to the device of the parent.
+        for (int page = 0; page < PAGES; ++page)
+            if (parent.device[page])
+                unmap(page << PAGE_BITS, PAGE_SIZE);
+    }
+
+    /**
+     * Returns the pages written to or mapped since the last checkpoint, and
+     * starts a new one. Like any other access, it must be called between two
+     * instructions, so that no write falls in between.
+     *
+     * @return the bitmap of the pages, the bit (page & 63) of word (page >> 6)
+     *         being set for each of them
+     */
+    public long[] checkpoint() {
+        final long[] pages = dirty.clone();
+        for (int page = 0; page < PAGES; ++page)
+            if (ram[page] && !shared[page])
+                writes[page] = null;
+        Arrays.fill(dirty, 0);
+        return pages;
+    }
+
+    /**
+     * Clears the RAM: heap RAM goes back to the page of zeros, and its pages
+     * are freed; backed RAM is filled with zeros.
+     */
+    public void clear() {
+        for (int page = 0; page < PAGES; ++page)
+            if (ram[page]) {
+                if (backing == null) {
+                    reads[page] = ZERO;
+                    writes[page] = null;
+                    shared[page] = true;
+                } else
+                    fill(page << PAGE_BITS, PAGE_SIZE, 0);
+                dirty[page >>> 6] |= 1L << page;
+            }
+    }
+
+    /**
+     * Copies bytes from one address to another, as if through a temporary
+     * buffer. Both ranges must be RAM.
+     *
+     * @param src
+     *            the physical address to copy from
+     * @param dst
+     *            the physical address to copy to
+     * @param len
+     *            the number of bytes
+     */
+    public void copy(final int src, final int dst, final int len) {
+        if (dst > src)
+            // Copy from the end, not to overwrite what is left to copy.
+            for (int rest = len; rest > 0;) {
+                final int s = src + rest - 1;
+                final int d = dst + rest - 1;
+                final int n = Math.min(rest, Math.min(s & OFFSET, d & OFFSET) + 1);
+                writable(d >>> PAGE_BITS).put((d & OFFSET) - n + 1, reads[s >>> PAGE_BITS], (s & OFFSET) - n + 1, n);
+                rest -= n;
+            }
+        else
+            for (int done = 0; done < len;) {
+                final int s = src + done;
+                final int d = dst + done;
+                final int n = Math.min(len - done, PAGE_SIZE - Math.max(s & OFFSET, d & OFFSET));
+                writable(d >>> PAGE_BITS).put(d & OFFSET, reads[s >>> PAGE_BITS], s & OFFSET, n);
+                done += n;
+            }
+    }
+
+    /**
+     * Stores the same byte at all the specified addresses, which must be RAM.
+     *
+     * @param addr
+     *            the physical address
+     * @param len
+     *            the number of bytes
+     * @param val
+     *            the value
+     */
+    public void fill(final int addr, final int len, final int val) {
+        for (int done = 0; done < len;) {
+            final int a = addr + done;
+            final int n = Math.min(len - done, PAGE_SIZE - (a & OFFSET));
+            final ByteBuffer page = writable(a >>> PAGE_BITS);
+            if (page.hasArray())
+                Arrays.fill(page.array(), page.arrayOffset() + (a & OFFSET),
+                        page.arrayOffset() + (a & OFFSET) + n, (byte) val);
+            else
+                for (int i = a & OFFSET; i < (a & OFFSET) + n; ++i)
+                    page.put(i, (byte) val);
+            done += n;
+        }
+    }
+
+    /**
+     * Forks the memory. Until they write to it, the fork and this memory
+     * share every page; memory-mapped I/O goes to the same handlers. Pages
+     * held by a device are unmapped in the fork, for its own device to map.
+     *
+     * @return the fork
+     */
+    public Memory fork() {
+        return new Memory(this);
+    }
+
+    /**
+     * Gets the byte at the specified address.
+     *
+     * @param addr
+     *            the physical address
+     * @return the value
+     */
+    public int getByte(final int addr) {
+        final ByteBuffer page = reads[addr >>> PAGE_BITS];
+        if (page == null)
+            return handlers[addr >>> PAGE_BITS].read(addr) & 0xff;
+        return page.get(addr & OFFSET) & 0xff;
+    }
+
+    /**
+     * Gets the bytes at the specified addresses, page by page.
+     *
+     * @param addr
+     *            the physical address
+     * @param bytes
+     *            the array to store the bytes in
+     * @param off
+     *            the index of the first byte in the array
+     * @param len
+     *            the number of bytes
+     */
+    public void getBytes(final int addr, final byte[] bytes, final int off, final int len) {
+        for (int done = 0; done < len;) {
+            final int a = addr + done;
+            final int n = Math.min(len - done, PAGE_SIZE - (a & OFFSET));
+            final ByteBuffer page = reads[a >>> PAGE_BITS];
+            if (page == null)
+                for (int i = 0; i < n; ++i)
+                    bytes[off + done + i] = (byte) getByte(a + i);
+            else
+                page.get(a & OFFSET, bytes, off + done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Gets the word at the specified address. The high-order byte of a word
+     * at the last address is the first byte of memory.
+     *
+     * @param addr
+     *            the physical address
+     * @return the value
+     */
+    public int getWord(final int addr) {
+        final ByteBuffer page = reads[addr >>> PAGE_BITS];
+        if (page == null || (addr & OFFSET) == OFFSET)
+            return getByte(addr + 1 & SIZE - 1) << 8 | getByte(addr);
+        return (short) WORD.get(page, addr & OFFSET) & 0xffff;
+    }
+
+    /**
+     * Returns the pages written to or mapped since the last checkpoint,
+     * without starting a new one.
+     *
+     * @return the bitmap of the pages, the bit (page & 63) of word (page >> 6)
+     *         being set for each of them
+     */
+    public long[] getDirtyPages() {
+        return dirty.clone();
+    }
+
+    /**
+     * Returns the number of bytes of RAM this memory does not share with
+     * another one, i.e. what it costs on top of the memories it was forked
+     * from or to.
+     *
+     * @return the number of bytes
+     */
+    public int getPrivateSize() {
+        int pages = 0;
+        for (int page = 0; page < PAGES; ++page)
+            if (ram[page] && !shared[page])
+                ++pages;
+        return pages << PAGE_BITS;
+    }
+
+    /**
+     * Is the specified range RAM, which can be copied, filled and compared at
+     * once?
+     *
+     * @param addr
+     *            the physical address
+     * @param size
+     *            the number of bytes
+     * @return true if all of it is RAM
+     */
+    public boolean isRAM(final int addr, final int size) {
+        if (addr < 0 || addr + size > SIZE)
+            return false;
+        for (int page = addr >>> PAGE_BITS; page <= addr + size - 1 >>> PAGE_BITS; ++page)
+            if (!ram[page])
+                return false;
+        return true;
+    }
+
+    /**
+     * Maps memory-mapped I/O to the specified pages.
+     *
+     * @param addr
+     *            the physical address, at the start of a page
+     * @param size
+     *            the number of bytes, a multiple of the page size
+     * @param handler
+     *            the handler
+     */
+    public void mapIO(final int addr, final int size, final Handler handler) {
+        for (int page = addr >>> PAGE_BITS; page < addr + size >>> PAGE_BITS; ++page) {
+            reads[page] = null;
+            writes[page] = null;
+            handlers[page] = handler;
+            ram[page] = false;
+            shared[page] = false;
+            device[page] = false;
+            dirty[page >>> 6] |= 1L << page;
+        }
+    }
+
+    /**
+     * Maps a page held by a device, e.g. a bank of expanded memory, which is
+     * read and written in place. The page is not RAM of this memory: it is
+     * never shared, copied, cleared or saved, and writes to it are not kept
+     * track of. Mapping it costs the same whatever is in it.
+     *
+     * @param addr
+     *            the physical address, at the start of a page
+     * @param buffer
+     *            the buffer of the page, of the size of a page
+     */
+    public void mapPage(final int addr, final ByteBuffer buffer) {
+        final int page = addr >>> PAGE_BITS;
+        reads[page] = buffer;
+        writes[page] = buffer;
+        handlers[page] = null;
+        ram[page] = false;
+        shared[page] = false;
+        device[page] = true;
+        dirty[page >>> 6] |= 1L << page;
+    }
+
+    /**
+     * Maps a page held by a device, read in place but written through the
+     * handler, e.g. a bank of expanded memory shared with a fork: on the first
+     * write, the device copies the page and maps the copy by mapPage(), as
+     * RAM is copied when shared.
+     *
+     * @param addr
+     *            the physical address, at the start of a page
+     * @param buffer
+     *            the buffer of the page, of the size of a page
+     * @param handler
+     *            the handler of the writes
+     */
+    public void mapPage(final int addr, final ByteBuffer buffer, final Handler handler) {
+        final int page = addr >>> PAGE_BITS;
+        reads[page] = buffer;
+        writes[page] = null;
+        handlers[page] = handler;
+        ram[page] = false;
+        shared[page] = false;
+        device[page] = true;
+        dirty[page >>> 6] |= 1L << page;
+    }
+
+    /**
+     * Maps RAM to the specified pages. Heap RAM starts cleared, and is only
+     * allocated when written to; backed RAM holds what the backing holds at
+     * the same addresses.
+     *
+     * @param addr
+     *            the physical address, at the start of a page
+     * @param size
+     *            the number of bytes, a multiple of the page size
+     */
+    public void mapRAM(final int addr, final int size) {
+        for (int page = addr >>> PAGE_BITS; page < addr + size >>> PAGE_BITS; ++page) {
+            if (backing == null)
+                reads[page] = ZERO;
+            else
+                reads[page] = backing.slice(page << PAGE_BITS, PAGE_SIZE);
+            writes[page] = backing == null ? null : reads[page];
+            handlers[page] = null;
+            ram[page] = true;
+            shared[page] = backing == null;
+            device[page] = false;
+            dirty[page >>> 6] |= 1L << page;
+        }
+    }
+
+    /**
+     * Maps a ROM image to the pages it covers. The rest of its first and
+     * last pages reads as nothing.
+     *
+     * @param addr
+     *            the physical address
+     * @param image
+     *            the image
+     */
+    public void mapROM(final int addr, final byte[] image) {
+        mapROM(new ROM(addr, image));
+    }
+
+    /**
+     * Maps a ROM image to the pages it covers. The pages are not copied, and
+     * are shared with every memory the same image is mapped to.
+     *
+     * @param rom
+     *            the image
+     */
+    public void mapROM(final ROM rom) {
+        for (int i = 0; i < rom.getPages(); ++i) {
+            final int page = (rom.getAddress() >>> PAGE_BITS) + i;
+            reads[page] = rom.getPage(i);
+            writes[page] = DISCARD;
+            handlers[page] = null;
+            ram[page] = false;
+            shared[page] = false;
+            device[page] = false;
+            dirty[page >>> 6] |= 1L << page;
+        }
+    }
+
+    /**
+     * Returns the index of the first byte which differs between two runs of
+     * bytes.
+     *
+     * @param a
+     *            the physical address of the first run
+     * @param b
+     *            the physical address of the second run
+     * @param len
+     *            the number of bytes
+     * @return the index, or -1 if the runs are equal
+     */
+    public int mismatch(final int a, final int b, final int len) {
+        for (int done = 0; done < len;) {
+            final int x = a + done;
+            final int y = b + done;
+            final int n = Math.min(len - done, PAGE_SIZE - Math.max(x & OFFSET, y & OFFSET));
+            final ByteBuffer p = reads[x >>> PAGE_BITS];
+            final ByteBuffer q = reads[y >>> PAGE_BITS];
+            if (p == null || q == null) {
+                // Memory-mapped I/O is read byte by byte.
+                for (int i = 0; i < n; ++i)
+                    if (getByte(x + i) != getByte(y + i))
+                        return done + i;
+            } else {
+                final int i = p.slice(x & OFFSET, n).mismatch(q.slice(y & OFFSET, n));
+                if (i >= 0)
+                    return done + i;
+            }
+            done += n;
+        }
+        return -1;
+    }
+
+    /**
+     * Restores the RAM, as written by save(DataOutput). The RAM must be
+     * mapped as it was when saved.
+     *
+     * @param in
+     *            the input to read the RAM from
+     * @throws IOException
+     */
+    public void restore(final DataInput in) throws IOException {
+        clear();
+        final byte[] bytes = new byte[PAGE_SIZE];
+        for (int page = in.readUnsignedShort(); page < PAGES; page = in.readUnsignedShort()) {
+            if (!ram[page])
+                throw new IOException("Page " + Integer.toHexString(page) + " is not RAM.");
+            in.readFully(bytes);
+            writable(page).put(0, bytes);
+        }
+    }
+
+    /**
+     * Writes the RAM, to be restored later on. Only the pages which are not
+     * all zeros are written.
+     *
+     * @param out
+     *            the output to write the RAM to
+     * @throws IOException
+     */
+    public void save(final DataOutput out) throws IOException {
+        final byte[] bytes = new byte[PAGE_SIZE];
+        for (int page = 0; page < PAGES; ++page)
+            if (ram[page] && reads[page].mismatch(ZERO) >= 0) {
+                out.writeShort(page);
+                reads[page].get(0, bytes);
+                out.write(bytes);
+            }
+        out.writeShort(PAGES);
+    }
+
+    /**
+     * Writes the whole address space, as read, to a snapshot file which can
+     * be opened later on.
+     *
+     * @param path
+     *            the snapshot file
+     * @throws IOException
+     */
+    public void save(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final byte[] bytes = new byte[PAGE_SIZE];
+            for (int page = 0; page < PAGES; ++page) {
+                for (int i = 0; i < PAGE_SIZE; ++i)
+                    bytes[i] = (byte) getByte(page << PAGE_BITS | i);
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Sets the byte at the specified address.
+     *
+     * @param addr
+     *            the physical address
+     * @param val
+     *            the new value
+     */
+    public void setByte(final int addr, final int val) {
+        final ByteBuffer page = writes[addr >>> PAGE_BITS];
+        if (page == null) {
+            if (ram[addr >>> PAGE_BITS])
+                writable(addr >>> PAGE_BITS).put(addr & OFFSET, (byte) val);
+            else
+                handlers[addr >>> PAGE_BITS].write(addr, val & 0xff);
+        } else
+            page.put(addr & OFFSET, (byte) val);
+    }
+
+    /**
+     * Sets the bytes at the specified addresses, page by page.
+     *
+     * @param addr
+     *            the physical address
+     * @param bytes
+     *            the array holding the bytes
+     * @param off
+     *            the index of the first byte in the array
+     * @param len
+     *            the number of bytes
+     */
+    public void setBytes(final int addr, final byte[] bytes, final int off, final int len) {
+        for (int done = 0; done < len;) {
+            final int a = addr + done;
+            final int n = Math.min(len - done, PAGE_SIZE - (a & OFFSET));
+            ByteBuffer page = writes[a >>> PAGE_BITS];
+            if (page == null && ram[a >>> PAGE_BITS])
+                page = writable(a >>> PAGE_BITS);
+            if (page == null)
+                for (int i = 0; i < n; ++i)
+                    handlers[a >>> PAGE_BITS].write(a + i, bytes[off + done + i] & 0xff);
+            else
+                page.put(a & OFFSET, bytes, off + done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Sets the word at the specified address. The high-order byte of a word
+     * at the last address goes to the first byte of memory.
+     *
+     * @param addr
+     *            the physical address
+     * @param val
+     *            the new value
+     */
+    public void setWord(final int addr, final int val) {
+        final ByteBuffer page = writes[addr >>> PAGE_BITS];
+        if (page == null || (addr & OFFSET) == OFFSET) {
+            setByte(addr, val);
+            setByte(addr + 1 & SIZE - 1, val >>> 8);
+        } else
+            WORD.set(page, addr & OFFSET, (short) val);
+    }
+
+    /**
+     * Unmaps the specified pages, which then read as all ones and ignore
+     * writes.
+     *
+     * @param addr
+     *            the physical address, at the start of a page
+     * @param size
+     *            the number of bytes, a multiple of the page size
+     */
+    public void unmap(final int addr, final int size) {
+        for (int page = addr >>> PAGE_BITS; page < addr + size >>> PAGE_BITS; ++page) {
+            reads[page] = OPEN;
+            writes[page] = DISCARD;
+            handlers[page] = null;
+            ram[page] = false;
+            shared[page] = false;
+            device[page] = false;
+            dirty[page >>> 6] |= 1L << page;
+        }
+    }
+
+    /**
+     * Returns the buffer a page of RAM is written to, after copying it if it
+     * was shared or allocating it if it was never written to, and marks it as
+     * written to.
+     *
+     * @param page
+     *            the page
+     * @return the buffer
+     */
+    private ByteBuffer writable(final int page) {
+        if (shared[page]) {
+            final ByteBuffer copy = direct ? ByteBuffer.allocateDirect(PAGE_SIZE) : ByteBuffer.allocate(PAGE_SIZE);
+            if (reads[page] != ZERO)
+                copy.put(0, reads[page], 0, PAGE_SIZE);
+            reads[page] = copy;
+            writes[page] = copy;
+            shared[page] = false;
+        } else if (writes[page] == null)
+            writes[page] = reads[page];
+        dirty[page >>> 6] |= 1L << page;
+        return writes[page];
+    }
+}
@@ -1,5 +1,9 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Motorola 6845 - Motorola 6845 - Cathode Ray Tube Controller
  *
@@ -96,4 +100,34 @@ public class Motorola6845 implements Peripheral {
             break;
         }
     }
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    @Override
+    public void restore(final DataInput in) throws IOException {
+        index = in.readUnsignedByte();
+        for (int i = 0; i < 0x10; ++i)
+            registers[i] = in.readUnsignedByte();
+        retrace = in.readUnsignedByte();
+    }
+
+    /**
+     * Writes the state of the peripheral, to be restored later on.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    @Override
+    public void save(final DataOutput out) throws IOException {
+        out.writeByte(index);
+        for (int i = 0; i < 0x10; ++i)
+            out.writeByte(registers[i]);
+        out.writeByte(retrace);
+    }
 }
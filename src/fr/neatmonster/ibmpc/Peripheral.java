@@ -1,7 +1,18 @@
 package fr.neatmonster.ibmpc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public interface Peripheral {
 
+    /**
+     * Called once the peripheral is attached to the CPU, e.g. to map its
+     * memory. Does nothing by default.
+     */
+    public default void attached() {
+    }
+
     /**
      * Returns if a peripheral is connected to the specified port.
      *
@@ -33,4 +44,22 @@ public interface Peripheral {
      *            the value
      */
     public void portOut(final int w, final int port, final int val);
+
+    /**
+     * Restores the state of the peripheral, as written by save().
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     */
+    public void restore(final DataInput in) throws IOException;
+
+    /**
+     * Writes the state of the peripheral, to be restored later on.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     */
+    public void save(final DataOutput out) throws IOException;
 }
@@ -0,0 +1,253 @@
+package fr.neatmonster.ibmpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * ROM Image
+ *
+ * The pages of a ROM image at the address it is mapped to. Every machine used
+ * to load the BIOS and BASIC into its own memory, 40K more of the same bytes
+ * for each of them. A ROM can't be written to, so its pages are built once,
+ * read only, and mapped as they are into the memory of every machine.
+ *
+ * Images loaded are kept for the life of the JVM: loading the same image at
+ * the same address again returns the same pages, and costs nothing. An image
+ * is read either from a file or from the class path, as the caller chooses,
+ * in a single read. Either way, the whole image is read or nothing is: it
+ * used to be sized by the bytes available from the stream, which may be
+ * fewer than there are.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public final class ROM {
+
+    /** The images loaded so far, by file or resource, and address. */
+    private static final Map<List<Object>, ROM> LOADED = new HashMap<>();
+
+    /**
+     * Checks the CRC-32 of a ROM image.
+     *
+     * @param rom
+     *            the image
+     * @param name
+     *            the file or resource path of the image
+     * @param crc
+     *            the CRC-32 of the image, or -1 not to check it
+     * @return the image
+     * @throws IOException
+     */
+    private static ROM check(final ROM rom, final String name, final long crc) throws IOException {
+        if (crc != -1 && rom.getChecksum() != crc)
+            throw new IOException("ROM image " + name + " has CRC-32 " + Long.toHexString(rom.getChecksum())
+                    + " instead of " + Long.toHexString(crc) + ".");
+        return rom;
+    }
+
+    /**
+     * Instantiates a ROM image just read, once checked that it fits.
+     *
+     * @param addr
+     *            the physical address
+     * @param name
+     *            the file or resource path of the image
+     * @param image
+     *            the bytes of the image
+     * @return the image
+     * @throws IOException
+     */
+    private static ROM fit(final int addr, final String name, final byte[] image) throws IOException {
+        if (image.length == 0 || addr < 0 || addr + image.length > Memory.SIZE)
+            throw new IOException("ROM image " + name + " does not fit at " + Integer.toHexString(addr) + ".");
+        return new ROM(addr, image);
+    }
+
+    /**
+     * Loads a ROM image from a file, or returns the one loaded before at the
+     * same address.
+     *
+     * @param addr
+     *            the physical address
+     * @param file
+     *            the file path
+     * @return the image
+     * @throws IOException
+     */
+    public static ROM load(final int addr, final Path file) throws IOException {
+        return load(addr, file, -1);
+    }
+
+    /**
+     * Loads a ROM image from a file, or returns the one loaded before at the
+     * same address, and checks its CRC-32.
+     *
+     * @param addr
+     *            the physical address
+     * @param file
+     *            the file path
+     * @param crc
+     *            the CRC-32 of the image, or -1 not to check it
+     * @return the image
+     * @throws IOException
+     */
+    public static synchronized ROM load(final int addr, final Path file, final long crc) throws IOException {
+        final Path path = file.toAbsolutePath().normalize();
+        ROM rom = LOADED.get(List.of(path, addr));
+        if (rom == null) {
+            rom = fit(addr, file.toString(), read(file));
+            LOADED.put(List.of(path, addr), rom);
+        }
+        return check(rom, file.toString(), crc);
+    }
+
+    /**
+     * Loads a ROM image from the class path, or returns the one loaded before
+     * at the same address.
+     *
+     * @param addr
+     *            the physical address
+     * @param resource
+     *            the resource path
+     * @return the image
+     * @throws IOException
+     */
+    public static ROM load(final int addr, final String resource) throws IOException {
+        return load(addr, resource, -1);
+    }
+
+    /**
+     * Loads a ROM image from the class path, or returns the one loaded before
+     * at the same address, and checks its CRC-32.
+     *
+     * @param addr
+     *            the physical address
+     * @param resource
+     *            the resource path
+     * @param crc
+     *            the CRC-32 of the image, or -1 not to check it
+     * @return the image
+     * @throws IOException
+     */
+    public static synchronized ROM load(final int addr, final String resource, final long crc) throws IOException {
+        ROM rom = LOADED.get(List.of(resource, addr));
+        if (rom == null) {
+            rom = fit(addr, resource, readResource(resource));
+            LOADED.put(List.of(resource, addr), rom);
+        }
+        return check(rom, resource, crc);
+    }
+
+    /**
+     * Reads a ROM image from a file.
+     *
+     * @param file
+     *            the file path
+     * @return the bytes of the image
+     * @throws IOException
+     */
+    private static byte[] read(final Path file) throws IOException {
+        if (Files.size(file) > Memory.SIZE)
+            throw new IOException("ROM image " + file + " is larger than the address space.");
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * Reads a ROM image from the class path.
+     *
+     * @param resource
+     *            the resource path
+     * @return the bytes of the image
+     * @throws IOException
+     */
+    private static byte[] readResource(final String resource) throws IOException {
+        try (InputStream is = ROM.class.getClassLoader().getResourceAsStream(resource)) {
+            if (is == null)
+                throw new IOException("ROM image " + resource + " not found.");
+            final byte[] bin = is.readNBytes(Memory.SIZE + 1);
+            if (bin.length > Memory.SIZE)
+                throw new IOException("ROM image " + resource + " is larger than the address space.");
+            return bin;
+        }
+    }
+
+    /** The physical address of the image. */
+    private final int          addr;
+    /** The pages the image covers, read only. */
+    private final ByteBuffer[] pages;
+    /** The CRC-32 of the image. */
+    private final long         crc;
+
+    /**
+     * Instantiates a ROM image at the specified address. The rest of its first
+     * and last pages reads as nothing, all ones.
+     *
+     * @param addr
+     *            the physical address
+     * @param image
+     *            the bytes of the image, copied
+     */
+    public ROM(final int addr, final byte[] image) {
+        if (image.length == 0 || addr < 0 || addr + image.length > Memory.SIZE)
+            throw new IllegalArgumentException("ROM image does not fit at " + Integer.toHexString(addr) + ".");
+        this.addr = addr;
+        final int first = addr >>> Memory.PAGE_BITS;
+        pages = new ByteBuffer[(addr + image.length - 1 >>> Memory.PAGE_BITS) - first + 1];
+        for (int i = 0; i < pages.length; ++i) {
+            final byte[] rom = new byte[Memory.PAGE_SIZE];
+            Arrays.fill(rom, (byte) 0xff);
+            final int start = Math.max(addr, first + i << Memory.PAGE_BITS);
+            final int end = Math.min(addr + image.length, first + i + 1 << Memory.PAGE_BITS);
+            System.arraycopy(image, start - addr, rom, start & Memory.PAGE_SIZE - 1, end - start);
+            pages[i] = ByteBuffer.wrap(rom).asReadOnlyBuffer();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(image);
+        this.crc = crc.getValue();
+    }
+
+    /**
+     * Returns the physical address of the first page of the image.
+     *
+     * @return the address, at the start of a page
+     */
+    public int getAddress() {
+        return addr & -Memory.PAGE_SIZE;
+    }
+
+    /**
+     * Returns the CRC-32 of the image.
+     *
+     * @return the CRC-32
+     */
+    public long getChecksum() {
+        return crc;
+    }
+
+    /**
+     * Returns a page of the image.
+     *
+     * @param i
+     *            the index of the page, from the first one
+     * @return the page, read only
+     */
+    public ByteBuffer getPage(final int i) {
+        return pages[i];
+    }
+
+    /**
+     * Returns the number of pages of the image.
+     *
+     * @return the number of pages
+     */
+    public int getPages() {
+        return pages.length;
+    }
+}
@@ -0,0 +1,1639 @@
+package fr.neatmonster.ibmpc;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dynamic Recompiler
+ *
+ * Even with the instruction cache, every instruction goes through the
+ * interpreter: the handler is called, the operands are fetched from the
+ * fields of the CPU and written back to them. The BIOS and BASIC spend most
+ * of their time in a few short loops (waiting for a key, clearing or
+ * scrolling the screen, timer interrupt), so those loops are worth
+ * translating into JVM bytecode, which the JIT compiler of the JVM turns into
+ * native code.
+ *
+ * Once an instruction has been executed often enough, the straight-line run
+ * of code starting at it is translated into a block: a hidden class, nestmate
+ * of the CPU, whose only method executes the whole run. The general registers
+ * are kept in local variables for the length of the block and written back
+ * when it exits. A block ends at the first unconditional jump, or before the
+ * first instruction it can't translate. A jump to an instruction of the block
+ * stays in the block, so loops run without going back to the interpreter;
+ * any other jump taken exits the block.
+ *
+ * Between two instructions, a block behaves exactly like the interpreter:
+ * the devices are synchronized with the clock cycles spent, and the block
+ * exits if an interrupt is pending or if it wrote to memory holding code.
+ * The interpreter then resumes at the next instruction. Instructions using a
+ * prefix, touching the segment registers, the I/O ports or the trap flag,
+ * calls, returns and interrupts are never translated.
+ *
+ * Blocks are kept in the instruction cache, so they are thrown away with
+ * the pages of memory they were translated from.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class Recompiler {
+
+    /**
+     * A translated block of code.
+     */
+    interface Block {
+
+        /**
+         * Executes the block until it exits.
+         *
+         * @param cpu
+         *            the CPU
+         * @return the number of instructions executed
+         */
+        int execute(Intel8086 cpu);
+    }
+
+    /**
+     * A decoded instruction of a block.
+     */
+    private static final class Op {
+        /** Offset from the start of the block. */
+        int offset;
+        /** Operation (Instruction) code */
+        int op;
+        /** Word/byte operation */
+        int w;
+        /** Register/memory is destination (0) or source (1) */
+        int d;
+        /** Register mode/Memory mode with displacement length */
+        int mod;
+        /** Register operand/Extension of opcode */
+        int reg;
+        /** Register operand/Registers to use in EA calculation */
+        int rm;
+        /** Displacement, or direct address, of the memory operand */
+        int disp;
+        /** Immediate operand, or signed displacement of a jump */
+        int imm;
+        /** Length of the instruction. */
+        int length;
+        /** Clock cycles charged before the devices are synchronized. */
+        int clocks;
+    }
+
+    /**
+     * Number of times an instruction has to be executed before the code
+     * starting at it is translated.
+     */
+    static final int             THRESHOLD    = 1000;
+    /** Maximum number of instructions in a block. */
+    private static final int     INSTRUCTIONS = 64;
+    /** Number of instructions after which a looping block exits. */
+    private static final int     LIMIT      = 4096;
+
+    private static final int     CF         = 1 << 0;
+    private static final int     PF         = 1 << 2;
+    private static final int     ZF         = 1 << 6;
+    private static final int     SF         = 1 << 7;
+    private static final int     IF         = 1 << 9;
+    private static final int     DF         = 1 << 10;
+    private static final int     OF         = 1 << 11;
+
+    private static final int     B          = 0b0;
+    private static final int     W          = 0b1;
+    private static final int     AX         = 0b000;
+    private static final int     CX         = 0b001;
+
+    /** Internal names of the classes used by blocks. */
+    private static final String  CPU        = "fr/neatmonster/ibmpc/Intel8086";
+    private static final String  CACHE      = "fr/neatmonster/ibmpc/InstructionCache";
+
+    /*
+     * Local variables of the block method. The general registers are kept
+     * in the same halves as in the CPU.
+     */
+    /** The CPU, argument of the block method (0 is the block itself) */
+    private static final int     ARG        = 1;
+    private static final int     AL = 2, AH = 3, CL = 4, CH = 5;
+    private static final int     DL = 6, DH = 7, BL = 8, BH = 9;
+    private static final int     SP = 10, BP = 11, SI = 12, DI = 13;
+    /** IP when the block was entered */
+    private static final int     IP         = 14;
+    /** Number of instructions executed */
+    private static final int     COUNT      = 15;
+    /** IP to resume at when the block exits */
+    private static final int     NEXT       = 16;
+    /** Temporary values */
+    private static final int     TMP = 17, TMP2 = 18;
+    /** Number of cache invalidations when the block was entered (long) */
+    private static final int     INV        = 19;
+    private static final int     LOCALS     = 21;
+
+    /** Field names of the registers held in local variables. */
+    private static final String[] REGISTERS = {
+            "al", "ah", "cl", "ch", "dl", "dh", "bl", "bh", "sp", "bp", "si", "di" };
+    /** Local variables of the byte registers, by REG field. */
+    private static final int[]   BYTES      = { AL, CL, DL, BL, AH, CH, DH, BH };
+    /** Local variables of the word registers SP, BP, SI and DI. */
+    private static final int[]   WORDS      = { SP, BP, SI, DI };
+
+    /** Full privilege lookup in the CPU, used to define blocks as nestmates. */
+    private final MethodHandles.Lookup lookup;
+    /** Memory the code is read from. */
+    private final Memory         memory;
+    /** Instruction cache the blocks are attached to. */
+    private final InstructionCache cache;
+
+    /** Number of blocks translated. */
+    private long                 blocks;
+    /** Number of times a block was executed. */
+    private long                 executions;
+    /** Number of instructions executed by blocks. */
+    private long                 instructions;
+    /** Number of blocks the JVM failed to define. */
+    private long                 failures;
+
+    /**
+     * Instantiates a new recompiler.
+     *
+     * @param lookup
+     *            a full privilege lookup in the CPU class
+     * @param memory
+     *            the memory of the CPU
+     * @param cache
+     *            the instruction cache of the CPU
+     */
+    Recompiler(final MethodHandles.Lookup lookup, final Memory memory, final InstructionCache cache) {
+        this.lookup = lookup;
+        this.memory = memory;
+        this.cache = cache;
+    }
+
+    /**
+     * Executes a block and accounts for it.
+     *
+     * @param cpu
+     *            the CPU
+     * @param block
+     *            the block
+     */
+    void execute(final Intel8086 cpu, final Block block) {
+        instructions += block.execute(cpu);
+        ++executions;
+    }
+
+    /**
+     * Returns the number of blocks translated.
+     *
+     * @return the number of blocks
+     */
+    public long getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns the number of times a block was executed.
+     *
+     * @return the number of executions
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * Returns the number of blocks the JVM failed to define.
+     *
+     * @return the number of failures
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of instructions executed by blocks.
+     *
+     * @return the number of instructions
+     */
+    public long getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Translates the code starting at an instruction and attaches the
+     * resulting block to it. Nothing is attached if the code can't be
+     * translated, or if the JVM fails to define the block: the instruction
+     * stays interpreted, as its count went past the threshold, until it is
+     * thrown away from the cache.
+     *
+     * @param entry
+     *            the cached instruction
+     * @param addr
+     *            the physical address of the instruction
+     * @param ip
+     *            the instruction pointer of the instruction
+     */
+    void translate(final InstructionCache.Entry entry, final int addr, final int ip) {
+        final List<Op> ops = new ArrayList<>();
+        int off = 0;
+        while (ops.size() < INSTRUCTIONS) {
+            final Op op = decode(addr + off);
+            // Stop before anything the interpreter has to handle.
+            if (op == null || ip + off + op.length > 0x10000 || addr + off + op.length > 0x100000)
+                break;
+            op.offset = off;
+            off += op.length;
+            ops.add(op);
+            // Conditional jumps leave the block only when taken.
+            if (op.op == 0xe9 || op.op == 0xeb)
+                break;
+        }
+        // A single instruction is not worth a block, unless it loops.
+        if (ops.size() < 2 && (ops.isEmpty() || target(ops.get(0)) != 0))
+            return;
+
+        final byte[] bytes = assemble(ops, off);
+        try {
+            final Class<?> block = lookup.defineHiddenClass(bytes, true, ClassOption.NESTMATE).lookupClass();
+            entry.block = block.asSubclass(Block.class).getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            // E.g. a VerifyError, should the class file be rejected.
+            ++failures;
+            return;
+        }
+        entry.span = off;
+        cache.extend(addr, off);
+        ++blocks;
+    }
+
+    /**
+     * Decodes the instruction at the specified address.
+     *
+     * @param addr
+     *            the physical address
+     * @return the instruction, or null if it can't be translated
+     */
+    private Op decode(final int addr) {
+        final Op op = new Op();
+        op.op = getByte(addr);
+        op.w = op.op & 0b1;
+        op.d = op.op >>> 1 & 0b1;
+        op.mod = getByte(addr + 1) >>> 6 & 0b11;
+        op.reg = getByte(addr + 1) >>> 3 & 0b111;
+        op.rm = getByte(addr + 1) & 0b111;
+        int length = 1;
+        if (op.mod == 0b01) {
+            op.disp = getByte(addr + 2);
+            length = 2;
+        } else if (op.mod == 0b00 && op.rm == 0b110 || op.mod == 0b10) {
+            op.disp = getWord(addr + 2);
+            length = 3;
+        }
+
+        switch (op.op) {
+        case 0x00: case 0x01: case 0x02: case 0x03: // ADD
+        case 0x08: case 0x09: case 0x0a: case 0x0b: // OR
+        case 0x10: case 0x11: case 0x12: case 0x13: // ADC
+        case 0x18: case 0x19: case 0x1a: case 0x1b: // SBB
+        case 0x20: case 0x21: case 0x22: case 0x23: // AND
+        case 0x28: case 0x29: case 0x2a: case 0x2b: // SUB
+        case 0x30: case 0x31: case 0x32: case 0x33: // XOR
+        case 0x38: case 0x39: case 0x3a: case 0x3b: // CMP
+        case 0x84: case 0x85:                       // TEST
+        case 0x86: case 0x87:                       // XCHG
+        case 0x88: case 0x89: case 0x8a: case 0x8b: // MOV
+            op.length = 1 + length;
+            break;
+        case 0x04: case 0x05: case 0x0c: case 0x0d: // ALU AL/AX,IMMED
+        case 0x14: case 0x15: case 0x1c: case 0x1d:
+        case 0x24: case 0x25: case 0x2c: case 0x2d:
+        case 0x34: case 0x35: case 0x3c: case 0x3d:
+        case 0xa8: case 0xa9:
+            op.imm = op.w == W ? getWord(addr + 1) : getByte(addr + 1);
+            op.length = 2 + op.w;
+            break;
+        case 0x40: case 0x41: case 0x42: case 0x43: // INC
+        case 0x44: case 0x45: case 0x46: case 0x47:
+        case 0x48: case 0x49: case 0x4a: case 0x4b: // DEC
+        case 0x4c: case 0x4d: case 0x4e: case 0x4f:
+        case 0x50: case 0x51: case 0x52: case 0x53: // PUSH
+        case 0x54: case 0x55: case 0x56: case 0x57:
+        case 0x58: case 0x59: case 0x5a: case 0x5b: // POP
+        case 0x5c: case 0x5d: case 0x5e: case 0x5f:
+        case 0x90: case 0x91: case 0x92: case 0x93: // XCHG AX
+        case 0x94: case 0x95: case 0x96: case 0x97:
+        case 0x98: case 0x99:                       // CBW, CWD
+        case 0x9e: case 0x9f:                       // SAHF, LAHF
+        case 0xf5: case 0xf8: case 0xf9:            // CMC, CLC, STC
+        case 0xfa: case 0xfb:                       // CLI, STI
+        case 0xfc: case 0xfd:                       // CLD, STD
+            op.length = 1;
+            break;
+        case 0xa4: case 0xa5:                       // MOVS
+        case 0xaa: case 0xab:                       // STOS
+            op.clocks = 1;
+            op.length = 1;
+            break;
+        case 0xac: case 0xad:                       // LODS
+            op.clocks = -1;
+            op.length = 1;
+            break;
+        case 0x70: case 0x71: case 0x72: case 0x73: // Jcc
+        case 0x74: case 0x75: case 0x76: case 0x77:
+        case 0x78: case 0x79: case 0x7a: case 0x7b:
+        case 0x7c: case 0x7d: case 0x7e: case 0x7f:
+        case 0xe0: case 0xe1: case 0xe2: case 0xe3: // LOOPNE, LOOPE, LOOP, JCXZ
+        case 0xeb:                                  // JMP SHORT
+            op.imm = (byte) getByte(addr + 1);
+            op.length = 2;
+            break;
+        case 0xe9:                                  // JMP NEAR
+            op.imm = (short) getWord(addr + 1);
+            op.length = 3;
+            break;
+        case 0x80: case 0x81: case 0x82: case 0x83: // Group 1
+            op.imm = getByte(addr + 1 + length);
+            if (op.op == 0x81)
+                op.imm |= getByte(addr + 2 + length) << 8;
+            else if (op.op == 0x83 && (op.imm & 0x80) > 0)
+                op.imm |= 0xff00;
+            op.length = 1 + length + (op.op == 0x81 ? 2 : 1);
+            break;
+        case 0xa0: case 0xa1: case 0xa2: case 0xa3: // MOV AL/AX,MEM
+            op.imm = getWord(addr + 1);
+            op.length = 3;
+            break;
+        case 0xb0: case 0xb1: case 0xb2: case 0xb3: // MOV REG,IMMED
+        case 0xb4: case 0xb5: case 0xb6: case 0xb7:
+        case 0xb8: case 0xb9: case 0xba: case 0xbb:
+        case 0xbc: case 0xbd: case 0xbe: case 0xbf:
+            op.w = op.op >>> 3 & 0b1;
+            op.imm = op.w == W ? getWord(addr + 1) : getByte(addr + 1);
+            op.length = 2 + op.w;
+            break;
+        case 0xf6: case 0xf7:                       // Group 3
+            op.length = 1 + length;
+            switch (op.reg) {
+            case 0b000: // TEST
+                op.imm = op.w == W ? getWord(addr + op.length) : getByte(addr + op.length);
+                op.length += 1 + op.w;
+                break;
+            case 0b010: // NOT
+            case 0b011: // NEG
+                break;
+            default:
+                return null;
+            }
+            break;
+        case 0xc6: case 0xc7:                       // MOV REG/MEM,IMMED
+            // The immediate is only fetched for a valid REG field.
+            op.length = 1 + length;
+            if (op.reg == 0b000) {
+                op.imm = op.w == W ? getWord(addr + op.length) : getByte(addr + op.length);
+                op.length += 1 + op.w;
+            }
+            break;
+        default:
+            return null;
+        }
+        return op;
+    }
+
+    /**
+     * Gets the byte at the specified address, or 0 past the end of memory.
+     *
+     * @param addr
+     *            the physical address
+     * @return the value
+     */
+    private int getByte(final int addr) {
+        return addr < Memory.SIZE ? memory.getByte(addr) : 0;
+    }
+
+    /**
+     * Gets the word at the specified address, or 0 past the end of memory.
+     *
+     * @param addr
+     *            the physical address
+     * @return the value
+     */
+    private int getWord(final int addr) {
+        return getByte(addr + 1) << 8 | getByte(addr);
+    }
+
+    /**
+     * Is the instruction a jump?
+     *
+     * @param op
+     *            the operation code
+     * @return true if a jump
+     */
+    private static boolean isJump(final int op) {
+        return op >= 0x70 && op <= 0x7f || op >= 0xe0 && op <= 0xe3 || op == 0xe9 || op == 0xeb;
+    }
+
+    /**
+     * Returns the target of a jump, as an offset from the start of the block.
+     *
+     * @param op
+     *            the instruction
+     * @return the offset, or -1 if not a jump
+     */
+    private static int target(final Op op) {
+        return isJump(op.op) ? op.offset + op.length + op.imm : -1;
+    }
+
+    /*
+     * Code Generation
+     */
+
+    /**
+     * Assembles the hidden class of a block.
+     *
+     * @param ops
+     *            the instructions
+     * @param end
+     *            the offset following the last instruction
+     * @return the class file
+     */
+    private byte[] assemble(final List<Op> ops, final int end) {
+        final Assembler a = new Assembler();
+
+        // Load the registers.
+        for (final int local : new int[] { COUNT, NEXT, TMP, TMP2 }) {
+            a.iconst(0);
+            a.store(local);
+        }
+        a.aload(ARG);
+        a.getField("ip", "I");
+        a.store(IP);
+        for (int i = 0; i < REGISTERS.length; ++i) {
+            a.aload(ARG);
+            a.getField(REGISTERS[i], "I");
+            a.store(AL + i);
+        }
+        a.aload(ARG);
+        a.getField("cache", "L" + CACHE + ";");
+        a.invoke(CACHE, "getInvalidations", "()J");
+        a.op(0x37, INV); // lstore
+
+        final int exit = a.label();
+        final int[] starts = new int[ops.size()];
+        final int[] stubs = new int[ops.size()];
+        for (int i = 0; i < ops.size(); ++i) {
+            starts[i] = a.label();
+            stubs[i] = a.label();
+        }
+
+        boolean wrote = false;
+        for (int i = 0; i < ops.size(); ++i) {
+            final Op op = ops.get(i);
+            if (i > 0) {
+                // Stop if the previous instruction wrote to code...
+                if (wrote) {
+                    a.aload(ARG);
+                    a.getField("cache", "L" + CACHE + ";");
+                    a.invoke(CACHE, "getInvalidations", "()J");
+                    a.op(0x16, INV); // lload
+                    a.op(0x94);      // lcmp
+                    a.jump(0x9a, stubs[i]); // ifne
+                }
+                // ...or if an interrupt has to be serviced.
+                a.aload(ARG);
+                a.invoke(CPU, "interruptPending", "()Z");
+                a.jump(0x9a, stubs[i]); // ifne
+            }
+            a.mark(starts[i]);
+            addClocks(a, op.clocks);
+            a.aload(ARG);
+            a.invoke(CPU, "synchronize", "()V");
+
+            boolean next = true;
+            if (isJump(op.op)) {
+                next = emitJump(a, ops, i, starts, stubs, exit);
+                wrote = false;
+            } else {
+                wrote = emit(a, op);
+                a.iinc(COUNT, 1);
+            }
+            if (next && i == ops.size() - 1) {
+                setNext(a, end);
+                a.jump(0xa7, exit); // goto
+            }
+        }
+
+        // Write back the registers.
+        a.mark(exit);
+        for (int i = 0; i < REGISTERS.length; ++i) {
+            a.aload(ARG);
+            a.load(AL + i);
+            a.putField(REGISTERS[i], "I");
+        }
+        a.aload(ARG);
+        a.load(NEXT);
+        a.putField("ip", "I");
+        a.load(COUNT);
+        a.op(0xac); // ireturn
+
+        // Exits before each instruction.
+        for (int i = 0; i < ops.size(); ++i) {
+            a.mark(stubs[i]);
+            setNext(a, ops.get(i).offset);
+            a.jump(0xa7, exit); // goto
+        }
+        return a.toClass();
+    }
+
+    /**
+     * Emits an instruction other than a jump.
+     *
+     * @param a
+     *            the assembler
+     * @param op
+     *            the instruction
+     * @return true if the instruction may have written to memory
+     */
+    private boolean emit(final Assembler a, final Op op) {
+        final boolean reg = op.mod == 0b11;
+        int clocks = 0;
+        boolean wrote = false;
+        switch (op.op) {
+        case 0x00: case 0x01: case 0x02: case 0x03: // ADD
+        case 0x08: case 0x09: case 0x0a: case 0x0b: // OR
+        case 0x10: case 0x11: case 0x12: case 0x13: // ADC
+        case 0x18: case 0x19: case 0x1a: case 0x1b: // SBB
+        case 0x20: case 0x21: case 0x22: case 0x23: // AND
+        case 0x28: case 0x29: case 0x2a: case 0x2b: // SUB
+        case 0x30: case 0x31: case 0x32: case 0x33: // XOR
+        case 0x38: case 0x39: case 0x3a: case 0x3b: // CMP
+        {
+            final int alu = op.op >>> 3;
+            beginALU(a, alu, op.w);
+            if (op.d == 0b0) {
+                clocks += loadRM(a, op);
+                loadReg(a, op.w, op.reg);
+            } else {
+                loadReg(a, op.w, op.reg);
+                clocks += loadRM(a, op);
+            }
+            endALU(a, alu, op.w);
+            if (alu == 0b111) {
+                a.op(0x57); // pop
+                clocks += reg ? 3 : 9;
+            } else if (op.d == 0b0) {
+                clocks += storeRM(a, op);
+                clocks += reg ? 3 : 16;
+                wrote = !reg;
+            } else {
+                storeReg(a, op.w, op.reg);
+                clocks += reg ? 3 : 9;
+            }
+            break;
+        }
+        case 0x04: case 0x05: case 0x0c: case 0x0d: // ALU AL/AX,IMMED
+        case 0x14: case 0x15: case 0x1c: case 0x1d:
+        case 0x24: case 0x25: case 0x2c: case 0x2d:
+        case 0x34: case 0x35: case 0x3c: case 0x3d:
+        {
+            final int alu = op.op >>> 3;
+            beginALU(a, alu, op.w);
+            loadReg(a, op.w, AX);
+            a.iconst(op.imm);
+            endALU(a, alu, op.w);
+            if (alu == 0b111)
+                a.op(0x57); // pop
+            else
+                storeReg(a, op.w, AX);
+            clocks += 4;
+            break;
+        }
+        case 0x40: case 0x41: case 0x42: case 0x43: // INC
+        case 0x44: case 0x45: case 0x46: case 0x47:
+        case 0x48: case 0x49: case 0x4a: case 0x4b: // DEC
+        case 0x4c: case 0x4d: case 0x4e: case 0x4f:
+            a.aload(ARG);
+            a.iconst(W);
+            loadReg(a, W, op.op & 0b111);
+            a.invoke(CPU, op.op < 0x48 ? "inc" : "dec", "(II)I");
+            storeReg(a, W, op.op & 0b111);
+            clocks += 2;
+            break;
+        case 0x50: case 0x51: case 0x52: case 0x53: // PUSH
+        case 0x54: case 0x55: case 0x56: case 0x57:
+            loadReg(a, W, op.op & 0b111);
+            a.store(TMP2);
+            a.load(SP);
+            a.iconst(2);
+            a.op(0x64); // isub
+            a.iconst(0xffff);
+            a.op(0x7e); // iand
+            a.store(SP);
+            a.aload(ARG);
+            a.iconst(W);
+            stackAddress(a);
+            a.load(TMP2);
+            a.invoke(CPU, "setMem", "(III)V");
+            clocks += 11;
+            wrote = true;
+            break;
+        case 0x58: case 0x59: case 0x5a: case 0x5b: // POP
+        case 0x5c: case 0x5d: case 0x5e: case 0x5f:
+            a.aload(ARG);
+            a.iconst(W);
+            stackAddress(a);
+            a.invoke(CPU, "getMem", "(II)I");
+            a.store(TMP2);
+            a.load(SP);
+            a.iconst(2);
+            a.op(0x60); // iadd
+            a.iconst(0xffff);
+            a.op(0x7e); // iand
+            a.store(SP);
+            a.load(TMP2);
+            storeReg(a, W, op.op & 0b111);
+            clocks += 8;
+            break;
+        case 0x80: case 0x81: case 0x82: case 0x83: // Group 1
+        {
+            final int alu = op.reg;
+            final boolean logic = alu == 0b001 || alu == 0b100 || alu == 0b110;
+            if (logic && op.op >= 0x82) {
+                // Not an instruction: only the operand is read.
+                clocks += loadRM(a, op);
+                a.op(0x57); // pop
+            } else {
+                beginALU(a, alu, op.w);
+                clocks += loadRM(a, op);
+                a.iconst(op.imm);
+                endALU(a, alu, op.w);
+                if (alu == 0b111) {
+                    a.op(0x57); // pop
+                    if (reg)
+                        clocks -= 7;
+                } else {
+                    clocks += storeRM(a, op);
+                    wrote = !reg;
+                }
+            }
+            clocks += reg ? 4 : 17;
+            break;
+        }
+        case 0x84: case 0x85:                       // TEST
+            clocks += loadRM(a, op);
+            loadReg(a, op.w, op.reg);
+            a.op(0x7e); // iand
+            logic(a, op.w);
+            a.op(0x57); // pop
+            clocks += reg ? 3 : 9;
+            break;
+        case 0x86: case 0x87:                       // XCHG
+            loadReg(a, op.w, op.reg);
+            a.store(TMP2);
+            clocks += loadRM(a, op);
+            storeReg(a, op.w, op.reg);
+            a.load(TMP2);
+            clocks += storeRM(a, op);
+            clocks += reg ? 3 : 17;
+            wrote = !reg;
+            break;
+        case 0x88: case 0x89: case 0x8a: case 0x8b: // MOV
+            if (op.d == 0b0) {
+                loadReg(a, op.w, op.reg);
+                clocks += storeRM(a, op);
+                clocks += reg ? 2 : 9;
+                wrote = !reg;
+            } else {
+                clocks += loadRM(a, op);
+                storeReg(a, op.w, op.reg);
+                clocks += reg ? 2 : 8;
+            }
+            break;
+        case 0x90:                                  // NOP
+            clocks += 3;
+            break;
+        case 0x91: case 0x92: case 0x93:            // XCHG AX
+        case 0x94: case 0x95: case 0x96: case 0x97:
+            loadReg(a, W, AX);
+            a.store(TMP2);
+            loadReg(a, W, op.op & 0b111);
+            storeReg(a, W, AX);
+            a.load(TMP2);
+            storeReg(a, W, op.op & 0b111);
+            clocks += 3;
+            break;
+        case 0x98:                                  // CBW
+            signOf(a, AL);
+            a.store(AH);
+            clocks += 2;
+            break;
+        case 0x99:                                  // CWD
+            signOf(a, AH);
+            a.op(0x59); // dup
+            a.store(DL);
+            a.store(DH);
+            clocks += 5;
+            break;
+        case 0x9e:                                  // SAHF
+            // Working out the flags also clears the lazy ones.
+            a.aload(ARG);
+            a.aload(ARG);
+            a.invoke(CPU, "getFlags", "()I");
+            a.iconst(0xff00);
+            a.op(0x7e); // iand
+            a.load(AH);
+            a.op(0x80); // ior
+            a.putField("flags", "I");
+            clocks += 4;
+            break;
+        case 0x9f:                                  // LAHF
+            a.aload(ARG);
+            a.invoke(CPU, "getFlags", "()I");
+            a.iconst(0xff);
+            a.op(0x7e); // iand
+            a.store(AH);
+            clocks += 4;
+            break;
+        case 0xa0: case 0xa1: case 0xa2: case 0xa3: // MOV AL/AX,MEM
+            a.aload(ARG);
+            a.iconst(op.w);
+            a.aload(ARG);
+            a.getField("ds", "I");
+            a.iconst(4);
+            a.op(0x78); // ishl
+            a.iconst(op.imm);
+            a.op(0x60); // iadd
+            if (op.d == 0b0) {
+                a.invoke(CPU, "getMem", "(II)I");
+                storeReg(a, op.w, AX);
+            } else {
+                loadReg(a, op.w, AX);
+                a.invoke(CPU, "setMem", "(III)V");
+                wrote = true;
+            }
+            clocks += 10;
+            break;
+        case 0xa4: case 0xa5:                       // MOVS
+            a.aload(ARG);
+            a.iconst(op.w);
+            a.aload(ARG);
+            a.iconst(op.w);
+            stringAddress(a, "ds", SI);
+            a.invoke(CPU, "getMem", "(II)I");
+            a.store(TMP);
+            stringAddress(a, "es", DI);
+            a.load(TMP);
+            a.invoke(CPU, "setMem", "(III)V");
+            step(a, op.w, SI);
+            step(a, op.w, DI);
+            clocks += 17;
+            wrote = true;
+            break;
+        case 0xaa: case 0xab:                       // STOS
+            a.aload(ARG);
+            a.iconst(op.w);
+            stringAddress(a, "es", DI);
+            loadReg(a, op.w, AX);
+            a.invoke(CPU, "setMem", "(III)V");
+            step(a, op.w, DI);
+            clocks += 10;
+            wrote = true;
+            break;
+        case 0xac: case 0xad:                       // LODS
+            a.aload(ARG);
+            a.iconst(op.w);
+            stringAddress(a, "ds", SI);
+            a.invoke(CPU, "getMem", "(II)I");
+            storeReg(a, op.w, AX);
+            step(a, op.w, SI);
+            clocks += 13;
+            break;
+        case 0xa8: case 0xa9:                       // TEST AL/AX,IMMED
+            loadReg(a, op.w, AX);
+            a.iconst(op.imm);
+            a.op(0x7e); // iand
+            logic(a, op.w);
+            a.op(0x57); // pop
+            clocks += 4;
+            break;
+        case 0xb0: case 0xb1: case 0xb2: case 0xb3: // MOV REG,IMMED
+        case 0xb4: case 0xb5: case 0xb6: case 0xb7:
+        case 0xb8: case 0xb9: case 0xba: case 0xbb:
+        case 0xbc: case 0xbd: case 0xbe: case 0xbf:
+            a.iconst(op.imm);
+            storeReg(a, op.w, op.op & 0b111);
+            clocks += 4;
+            break;
+        case 0xc6: case 0xc7:                       // MOV REG/MEM,IMMED
+            if (op.reg == 0b000) {
+                a.iconst(op.imm);
+                clocks += storeRM(a, op);
+                wrote = !reg;
+            }
+            clocks += reg ? 4 : 10;
+            break;
+        case 0xf5:                                  // CMC
+            a.aload(ARG);
+            a.iconst(CF);
+            getFlag(a, CF);
+            a.iconst(1);
+            a.op(0x82); // ixor
+            a.invoke(CPU, "setFlag", "(IZ)V");
+            clocks += 2;
+            break;
+        case 0xf6: case 0xf7:                       // Group 3
+            switch (op.reg) {
+            case 0b000: // TEST
+                clocks += loadRM(a, op);
+                a.iconst(op.imm);
+                a.op(0x7e); // iand
+                logic(a, op.w);
+                a.op(0x57); // pop
+                clocks += reg ? 5 : 11;
+                break;
+            case 0b010: // NOT
+                clocks += loadRM(a, op);
+                a.iconst(-1);
+                a.op(0x82); // ixor
+                clocks += storeRM(a, op);
+                clocks += reg ? 3 : 16;
+                wrote = !reg;
+                break;
+            case 0b011: // NEG
+                a.aload(ARG);
+                a.iconst(op.w);
+                a.iconst(0);
+                clocks += loadRM(a, op);
+                a.invoke(CPU, "sub", "(III)I");
+                a.op(0x59); // dup
+                a.store(TMP2);
+                // CF is set unless the result is 0.
+                a.aload(ARG);
+                a.iconst(CF);
+                a.load(TMP2);
+                a.op(0x59); // dup
+                a.op(0x74); // ineg
+                a.op(0x80); // ior
+                a.iconst(31);
+                a.op(0x7c); // iushr
+                a.invoke(CPU, "setFlag", "(IZ)V");
+                clocks += storeRM(a, op);
+                clocks += reg ? 3 : 16;
+                wrote = !reg;
+                break;
+            }
+            break;
+        case 0xf8: case 0xf9:                       // CLC, STC
+        case 0xfa: case 0xfb:                       // CLI, STI
+        case 0xfc: case 0xfd:                       // CLD, STD
+            a.aload(ARG);
+            a.iconst(op.op < 0xfa ? CF : op.op < 0xfc ? IF : DF);
+            a.iconst(op.op & 0b1);
+            a.invoke(CPU, "setFlag", "(IZ)V");
+            clocks += 2;
+            break;
+        }
+        addClocks(a, clocks);
+        return wrote;
+    }
+
+    /**
+     * Emits a jump. A jump to an instruction of the block stays in the block,
+     * any other exits it.
+     *
+     * @param a
+     *            the assembler
+     * @param ops
+     *            the instructions
+     * @param i
+     *            the index of the jump
+     * @param starts
+     *            the start of each instruction
+     * @param stubs
+     *            the exit before each instruction
+     * @param exit
+     *            the exit of the block
+     * @return false if the jump is always taken
+     */
+    private boolean emitJump(final Assembler a, final List<Op> ops, final int i, final int[] starts,
+            final int[] stubs, final int exit) {
+        final Op op = ops.get(i);
+        final int skip = a.label();
+        final int taken, notTaken;
+        switch (op.op) {
+        case 0xe0: // LOOPNE
+        case 0xe1: // LOOPE
+        case 0xe2: // LOOP
+            loadReg(a, W, CX);
+            a.iconst(1);
+            a.op(0x64); // isub
+            a.iconst(0xffff);
+            a.op(0x7e); // iand
+            a.op(0x59); // dup
+            storeReg(a, W, CX);
+            a.jump(0x99, skip); // ifeq
+            if (op.op != 0xe2) {
+                getFlag(a, ZF);
+                a.jump(op.op == 0xe1 ? 0x99 : 0x9a, skip); // ifeq/ifne
+            }
+            taken = op.op == 0xe2 ? 17 : op.op == 0xe1 ? 18 : 19;
+            notTaken = op.op == 0xe1 ? 6 : 5;
+            break;
+        case 0xe3: // JCXZ
+            loadReg(a, W, CX);
+            a.jump(0x9a, skip); // ifne
+            taken = 18;
+            notTaken = 6;
+            break;
+        case 0xe9: // JMP NEAR
+        case 0xeb: // JMP SHORT
+            taken = 15;
+            notTaken = 0;
+            break;
+        default:   // Jcc
+            switch (op.op >>> 1 & 0b111) {
+            case 0b000: // JO
+                getFlag(a, OF);
+                break;
+            case 0b001: // JB
+                getFlag(a, CF);
+                break;
+            case 0b010: // JE
+                getFlag(a, ZF);
+                break;
+            case 0b011: // JBE
+                getFlag(a, CF);
+                getFlag(a, ZF);
+                a.op(0x80); // ior
+                break;
+            case 0b100: // JS
+                getFlag(a, SF);
+                break;
+            case 0b101: // JP
+                getFlag(a, PF);
+                break;
+            case 0b110: // JL
+                getFlag(a, SF);
+                getFlag(a, OF);
+                a.op(0x82); // ixor
+                break;
+            case 0b111: // JLE
+                getFlag(a, SF);
+                getFlag(a, OF);
+                a.op(0x82); // ixor
+                getFlag(a, ZF);
+                a.op(0x80); // ior
+                break;
+            }
+            // Odd operation codes negate the condition.
+            a.jump((op.op & 0b1) == 0 ? 0x99 : 0x9a, skip); // ifeq/ifne
+            taken = 16;
+            notTaken = 4;
+            break;
+        }
+
+        addClocks(a, taken);
+        a.iinc(COUNT, 1);
+        int j = 0;
+        while (j < ops.size() && ops.get(j).offset != target(op))
+            ++j;
+        if (j < ops.size()) {
+            // Same checks as between two instructions, and stop looping
+            // now and then.
+            a.aload(ARG);
+            a.invoke(CPU, "interruptPending", "()Z");
+            a.jump(0x9a, stubs[j]); // ifne
+            a.load(COUNT);
+            a.iconst(LIMIT);
+            a.jump(0xa2, stubs[j]); // if_icmpge
+            a.jump(0xa7, starts[j]); // goto
+        } else {
+            setNext(a, target(op));
+            a.jump(0xa7, exit); // goto
+        }
+
+        // Not taken, go on with the next instruction.
+        if (op.op == 0xe9 || op.op == 0xeb)
+            return false;
+        a.mark(skip);
+        addClocks(a, notTaken);
+        a.iinc(COUNT, 1);
+        return true;
+    }
+
+    /**
+     * Pushes what an ALU operation needs before its operands.
+     *
+     * @param a
+     *            the assembler
+     * @param alu
+     *            the operation (ADD, OR, ADC, SBB, AND, SUB, XOR, CMP)
+     * @param w
+     *            word/byte operation
+     */
+    private void beginALU(final Assembler a, final int alu, final int w) {
+        switch (alu) {
+        case 0b001: // OR
+        case 0b100: // AND
+        case 0b110: // XOR
+            break;
+        default:
+            a.aload(ARG);
+            a.iconst(w);
+            break;
+        }
+    }
+
+    /**
+     * Performs an ALU operation on the two operands on the stack, leaving
+     * the result.
+     *
+     * @param a
+     *            the assembler
+     * @param alu
+     *            the operation (ADD, OR, ADC, SBB, AND, SUB, XOR, CMP)
+     * @param w
+     *            word/byte operation
+     */
+    private void endALU(final Assembler a, final int alu, final int w) {
+        switch (alu) {
+        case 0b000: // ADD
+            a.invoke(CPU, "add", "(III)I");
+            break;
+        case 0b001: // OR
+            a.op(0x80); // ior
+            logic(a, w);
+            break;
+        case 0b010: // ADC
+            a.invoke(CPU, "adc", "(III)I");
+            break;
+        case 0b011: // SBB
+            a.invoke(CPU, "sbb", "(III)I");
+            break;
+        case 0b100: // AND
+            a.op(0x7e); // iand
+            logic(a, w);
+            break;
+        case 0b101: // SUB
+        case 0b111: // CMP
+            a.invoke(CPU, "sub", "(III)I");
+            break;
+        case 0b110: // XOR
+            a.op(0x82); // ixor
+            logic(a, w);
+            break;
+        }
+    }
+
+    /**
+     * Sets the flags according to the result of a logical operation, which
+     * is left on the stack.
+     *
+     * @param a
+     *            the assembler
+     * @param w
+     *            word/byte operation
+     */
+    private void logic(final Assembler a, final int w) {
+        a.op(0x59); // dup
+        a.store(TMP);
+        a.aload(ARG);
+        a.iconst(w);
+        a.load(TMP);
+        a.invoke(CPU, "logic", "(II)V");
+    }
+
+    /**
+     * Pushes the state of a flag (0 or 1).
+     *
+     * @param a
+     *            the assembler
+     * @param flag
+     *            the flag
+     */
+    private void getFlag(final Assembler a, final int flag) {
+        a.aload(ARG);
+        a.iconst(flag);
+        a.invoke(CPU, "getFlag", "(I)Z");
+    }
+
+    /**
+     * Pushes 0xff if the sign bit of a byte register is set, 0 otherwise.
+     *
+     * @param a
+     *            the assembler
+     * @param local
+     *            the register
+     */
+    private void signOf(final Assembler a, final int local) {
+        a.load(local);
+        a.iconst(24);
+        a.op(0x78); // ishl
+        a.iconst(31);
+        a.op(0x7a); // ishr
+        a.iconst(0xff);
+        a.op(0x7e); // iand
+    }
+
+    /**
+     * Pushes the value of a register.
+     *
+     * @param a
+     *            the assembler
+     * @param w
+     *            word/byte operation
+     * @param reg
+     *            the register field
+     */
+    private void loadReg(final Assembler a, final int w, final int reg) {
+        if (w == B)
+            a.load(BYTES[reg]);
+        else if (reg < 4) {
+            a.load(BYTES[reg + 4]);
+            a.iconst(8);
+            a.op(0x78); // ishl
+            a.load(BYTES[reg]);
+            a.op(0x80); // ior
+        } else
+            a.load(WORDS[reg - 4]);
+    }
+
+    /**
+     * Pops a value into a register.
+     *
+     * @param a
+     *            the assembler
+     * @param w
+     *            word/byte operation
+     * @param reg
+     *            the register field
+     */
+    private void storeReg(final Assembler a, final int w, final int reg) {
+        if (w == B) {
+            a.iconst(0xff);
+            a.op(0x7e); // iand
+            a.store(BYTES[reg]);
+        } else if (reg < 4) {
+            a.op(0x59); // dup
+            a.iconst(0xff);
+            a.op(0x7e); // iand
+            a.store(BYTES[reg]);
+            a.iconst(8);
+            a.op(0x7c); // iushr
+            a.iconst(0xff);
+            a.op(0x7e); // iand
+            a.store(BYTES[reg + 4]);
+        } else {
+            a.iconst(0xffff);
+            a.op(0x7e); // iand
+            a.store(WORDS[reg - 4]);
+        }
+    }
+
+    /**
+     * Pushes the value of the register/memory operand.
+     *
+     * @param a
+     *            the assembler
+     * @param op
+     *            the instruction
+     * @return the clock cycles of the effective address calculation
+     */
+    private int loadRM(final Assembler a, final Op op) {
+        if (op.mod == 0b11) {
+            loadReg(a, op.w, op.rm);
+            return 0;
+        }
+        a.aload(ARG);
+        a.iconst(op.w);
+        final int clocks = address(a, op);
+        a.invoke(CPU, "getMem", "(II)I");
+        return clocks;
+    }
+
+    /**
+     * Pops a value into the register/memory operand.
+     *
+     * @param a
+     *            the assembler
+     * @param op
+     *            the instruction
+     * @return the clock cycles of the effective address calculation
+     */
+    private int storeRM(final Assembler a, final Op op) {
+        if (op.mod == 0b11) {
+            storeReg(a, op.w, op.rm);
+            return 0;
+        }
+        a.store(TMP);
+        a.aload(ARG);
+        a.iconst(op.w);
+        final int clocks = address(a, op);
+        a.load(TMP);
+        a.invoke(CPU, "setMem", "(III)V");
+        return clocks;
+    }
+
+    /**
+     * Pushes the physical address of the memory operand, computed the same
+     * way as Intel8086.getEA().
+     *
+     * @param a
+     *            the assembler
+     * @param op
+     *            the instruction
+     * @return the clock cycles of the effective address calculation
+     */
+    private int address(final Assembler a, final Op op) {
+        a.aload(ARG);
+        a.getField("ds", "I");
+        a.iconst(4);
+        a.op(0x78); // ishl
+
+        int clocks = op.mod == 0b01 || op.mod == 0b10 ? 4 : 0;
+        switch (op.rm) {
+        case 0b000: // EA = (BX) + (SI) + DISP
+        case 0b001: // EA = (BX) + (DI) + DISP
+            clocks += op.rm == 0b000 ? 7 : 8;
+            a.load(BH);
+            a.iconst(8);
+            a.op(0x78); // ishl
+            a.load(BL);
+            a.load(op.rm == 0b000 ? SI : DI);
+            a.op(0x60); // iadd
+            a.iconst(op.disp);
+            a.op(0x60); // iadd
+            a.op(0x80); // ior
+            break;
+        case 0b010: // EA = (BP) + (SI) + DISP
+        case 0b011: // EA = (BP) + (DI) + DISP
+            clocks += op.rm == 0b010 ? 8 : 7;
+            a.load(BP);
+            a.load(op.rm == 0b010 ? SI : DI);
+            a.op(0x60); // iadd
+            a.iconst(op.disp);
+            a.op(0x60); // iadd
+            break;
+        case 0b100: // EA = (SI) + DISP
+        case 0b101: // EA = (DI) + DISP
+            clocks += 5;
+            a.load(op.rm == 0b100 ? SI : DI);
+            a.iconst(op.disp);
+            a.op(0x60); // iadd
+            break;
+        case 0b110:
+            if (op.mod == 0b00) {
+                // Direct address
+                clocks += 6;
+                a.iconst(op.disp);
+            } else {
+                // EA = (BP) + DISP
+                clocks += 5;
+                a.load(BP);
+                a.iconst(op.disp);
+                a.op(0x60); // iadd
+            }
+            break;
+        case 0b111: // EA = (BX) + DISP
+            clocks += 5;
+            a.load(BH);
+            a.iconst(8);
+            a.op(0x78); // ishl
+            a.load(BL);
+            a.iconst(op.disp);
+            a.op(0x60); // iadd
+            a.op(0x80); // ior
+            break;
+        }
+
+        a.iconst(0xffff);
+        a.op(0x7e); // iand
+        a.op(0x60); // iadd
+        return clocks;
+    }
+
+    /**
+     * Pushes the physical address of the top of the stack.
+     *
+     * @param a
+     *            the assembler
+     */
+    private void stackAddress(final Assembler a) {
+        a.aload(ARG);
+        a.getField("ss", "I");
+        a.iconst(4);
+        a.op(0x78); // ishl
+        a.load(SP);
+        a.op(0x60); // iadd
+    }
+
+    /**
+     * Pushes the physical address of a string operand.
+     *
+     * @param a
+     *            the assembler
+     * @param seg
+     *            the segment register
+     * @param local
+     *            the index register (SI or DI)
+     */
+    private void stringAddress(final Assembler a, final String seg, final int local) {
+        a.aload(ARG);
+        a.getField(seg, "I");
+        a.iconst(4);
+        a.op(0x78); // ishl
+        a.load(local);
+        a.op(0x60); // iadd
+    }
+
+    /**
+     * Steps an index register according to the direction flag.
+     *
+     * @param a
+     *            the assembler
+     * @param w
+     *            word/byte operation
+     * @param local
+     *            the index register (SI or DI)
+     */
+    private void step(final Assembler a, final int w, final int local) {
+        // SI/DI += DF ? -(1 + w) : 1 + w
+        a.load(local);
+        a.iconst(1 + w);
+        a.op(0x60); // iadd
+        getFlag(a, DF);
+        a.iconst(2 * (1 + w));
+        a.op(0x68); // imul
+        a.op(0x64); // isub
+        a.iconst(0xffff);
+        a.op(0x7e); // iand
+        a.store(local);
+    }
+
+    /**
+     * Adds clock cycles to the CPU.
+     *
+     * @param a
+     *            the assembler
+     * @param clocks
+     *            the clock cycles
+     */
+    private void addClocks(final Assembler a, final int clocks) {
+        if (clocks == 0)
+            return;
+        a.aload(ARG);
+        a.op(0x59); // dup
+        a.getField("clocks", "J");
+        a.iconst(clocks);
+        a.op(0x85); // i2l
+        a.op(0x61); // ladd
+        a.putField("clocks", "J");
+    }
+
+    /**
+     * Sets the IP the block exits at, relative to the IP it was entered at.
+     *
+     * @param a
+     *            the assembler
+     * @param offset
+     *            the offset from the start of the block
+     */
+    private void setNext(final Assembler a, final int offset) {
+        a.load(IP);
+        a.iconst(offset);
+        a.op(0x60); // iadd
+        a.iconst(0xffff);
+        a.op(0x7e); // iand
+        a.store(NEXT);
+    }
+
+    /**
+     * A minimal class file writer, just enough for blocks.
+     *
+     * Classes are written in version 49 so that the bytecode is verified by
+     * type inference and needs no stack map frames.
+     */
+    private static final class Assembler {
+        /** Constant pool entries. */
+        private final ByteArrayOutputStream pool      = new ByteArrayOutputStream();
+        /** Indices of the constant pool entries. */
+        private final Map<String, Integer>  constants = new HashMap<>();
+        /** Next constant pool index. */
+        private int                         index     = 1;
+
+        /** Bytecode of the block method. */
+        private final ByteArrayOutputStream code      = new ByteArrayOutputStream();
+        /** Positions of the labels, -1 until marked. */
+        private final List<Integer>         labels    = new ArrayList<>();
+        /** Pairs of jump position and label. */
+        private final List<int[]>           jumps     = new ArrayList<>();
+
+        /**
+         * Writes an unsigned short.
+         */
+        private static void u2(final ByteArrayOutputStream out, final int val) {
+            out.write(val >>> 8);
+            out.write(val);
+        }
+
+        /**
+         * Writes an unsigned int.
+         */
+        private static void u4(final ByteArrayOutputStream out, final int val) {
+            u2(out, val >>> 16);
+            u2(out, val);
+        }
+
+        /**
+         * Returns the index of a constant, adding it if needed.
+         */
+        private int constant(final String key, final byte[] bytes) {
+            Integer i = constants.get(key);
+            if (i == null) {
+                pool.write(bytes, 0, bytes.length);
+                constants.put(key, i = index++);
+            }
+            return i;
+        }
+
+        private int utf8(final String s) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(1);
+            u2(out, s.length());
+            for (int i = 0; i < s.length(); ++i)
+                out.write(s.charAt(i));
+            return constant("U" + s, out.toByteArray());
+        }
+
+        private int type(final String name) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(7);
+            u2(out, utf8(name));
+            return constant("C" + name, out.toByteArray());
+        }
+
+        private int member(final int tag, final String owner, final String name, final String desc) {
+            final ByteArrayOutputStream nat = new ByteArrayOutputStream();
+            nat.write(12);
+            u2(nat, utf8(name));
+            u2(nat, utf8(desc));
+            final int n = constant("N" + name + ":" + desc, nat.toByteArray());
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(tag);
+            u2(out, type(owner));
+            u2(out, n);
+            return constant(tag + owner + "." + name + ":" + desc, out.toByteArray());
+        }
+
+        private int integer(final int val) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(3);
+            u4(out, val);
+            return constant("I" + val, out.toByteArray());
+        }
+
+        void op(final int opcode) {
+            code.write(opcode);
+        }
+
+        void op(final int opcode, final int u1) {
+            code.write(opcode);
+            code.write(u1);
+        }
+
+        void iconst(final int val) {
+            if (val >= -1 && val <= 5)
+                op(0x03 + val); // iconst_<i>
+            else if (val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE)
+                op(0x10, val); // bipush
+            else if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) {
+                op(0x11); // sipush
+                u2(code, val);
+            } else {
+                op(0x13); // ldc_w
+                u2(code, integer(val));
+            }
+        }
+
+        void iinc(final int local, final int val) {
+            op(0x84, local);
+            code.write(val);
+        }
+
+        void aload(final int local) {
+            op(0x19, local);
+        }
+
+        void load(final int local) {
+            op(0x15, local); // iload
+        }
+
+        void store(final int local) {
+            op(0x36, local); // istore
+        }
+
+        void getField(final String name, final String desc) {
+            op(0xb4);
+            u2(code, member(9, CPU, name, desc));
+        }
+
+        void putField(final String name, final String desc) {
+            op(0xb5);
+            u2(code, member(9, CPU, name, desc));
+        }
+
+        void invoke(final String owner, final String name, final String desc) {
+            op(0xb6); // invokevirtual
+            u2(code, member(10, owner, name, desc));
+        }
+
+        int label() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        void mark(final int label) {
+            labels.set(label, code.size());
+        }
+
+        void jump(final int opcode, final int label) {
+            jumps.add(new int[] { code.size(), label });
+            op(opcode);
+            u2(code, 0);
+        }
+
+        /**
+         * Writes the class file of the block.
+         *
+         * @return the class file
+         */
+        byte[] toClass() {
+            final byte[] bytecode = code.toByteArray();
+            for (final int[] jump : jumps) {
+                final int offset = labels.get(jump[1]) - jump[0];
+                bytecode[jump[0] + 1] = (byte) (offset >>> 8);
+                bytecode[jump[0] + 2] = (byte) offset;
+            }
+
+            final int name = type("fr/neatmonster/ibmpc/Block");
+            final int object = type("java/lang/Object");
+            final int block = type("fr/neatmonster/ibmpc/Recompiler$Block");
+            final int init = member(10, "java/lang/Object", "<init>", "()V");
+            final int attribute = utf8("Code");
+            final int[] methods = {
+                    utf8("<init>"), utf8("()V"),
+                    utf8("execute"), utf8("(L" + CPU + ";)I") };
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            u4(out, 0xcafebabe);
+            u2(out, 0);
+            u2(out, 49);
+            u2(out, index);
+            final byte[] constants = pool.toByteArray();
+            out.write(constants, 0, constants.length);
+            u2(out, 0x0030); // ACC_FINAL | ACC_SUPER
+            u2(out, name);
+            u2(out, object);
+            u2(out, 1);
+            u2(out, block);
+            u2(out, 0);      // Fields
+            u2(out, 2);      // Methods
+
+            // Constructor
+            u2(out, 0x0001); // ACC_PUBLIC
+            u2(out, methods[0]);
+            u2(out, methods[1]);
+            u2(out, 1);
+            u2(out, attribute);
+            u4(out, 12 + 5);
+            u2(out, 1);
+            u2(out, 1);
+            u4(out, 5);
+            out.write(0x2a); // aload_0
+            out.write(0xb7); // invokespecial
+            u2(out, init);
+            out.write(0xb1); // return
+            u2(out, 0);
+            u2(out, 0);
+
+            // Block
+            u2(out, 0x0001); // ACC_PUBLIC
+            u2(out, methods[2]);
+            u2(out, methods[3]);
+            u2(out, 1);
+            u2(out, attribute);
+            u4(out, 12 + bytecode.length);
+            u2(out, 16);     // Max stack
+            u2(out, LOCALS);
+            u4(out, bytecode.length);
+            out.write(bytecode, 0, bytecode.length);
+            u2(out, 0);
+            u2(out, 0);
+
+            u2(out, 0);      // Attributes
+            return out.toByteArray();
+        }
+    }
+}
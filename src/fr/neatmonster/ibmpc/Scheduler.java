@@ -0,0 +1,117 @@
+package fr.neatmonster.ibmpc;
+
+import java.util.Arrays;
+
+/**
+ * Device Scheduler
+ *
+ * The devices used to be caught up with the CPU after every instruction: the
+ * timer was ticked once every 4 clock cycles spent, whether or not anything
+ * came out of it. Most of the time nothing does, until a counter reaches its
+ * terminal count and its output raises an interrupt request.
+ *
+ * Instead, each device tells the scheduler the clock cycle of its next event,
+ * its deadline, and works out by itself what happened in between. The CPU
+ * only compares its clock cycles with the earliest deadline between two
+ * instructions, and calls into a device when its deadline is reached or when
+ * the I/O ports of the device are accessed.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class Scheduler {
+
+    /**
+     * A device with events to come at given clock cycles.
+     */
+    public interface Device {
+
+        /**
+         * Catches up with the clock cycles spent by the CPU.
+         *
+         * @param now
+         *            the clock cycles spent by the CPU
+         * @return the clock cycle of the next event, or Long.MAX_VALUE if none
+         */
+        long update(long now);
+
+        /**
+         * Does the device depend on the state of a peripheral, so that it
+         * must be caught up before and after its I/O ports are accessed?
+         *
+         * @param peripheral
+         *            the peripheral
+         * @return true if it depends on it, by default if it is the device
+         */
+        default boolean depends(final Peripheral peripheral) {
+            return this == peripheral;
+        }
+    }
+
+    /** The devices to be scheduled. */
+    private Device[] devices   = new Device[0];
+    /** The clock cycle of the next event of each device. */
+    private long[]   deadlines = new long[0];
+    /** The earliest deadline of all devices. */
+    private long     next      = Long.MAX_VALUE;
+
+    /**
+     * Adds a device to be scheduled.
+     *
+     * @param device
+     *            the device
+     * @param now
+     *            the clock cycles spent by the CPU
+     */
+    public void add(final Device device, final long now) {
+        final int i = devices.length;
+        devices = Arrays.copyOf(devices, i + 1);
+        deadlines = Arrays.copyOf(deadlines, i + 1);
+        devices[i] = device;
+        deadlines[i] = device.update(now);
+        next = Math.min(next, deadlines[i]);
+    }
+
+    /**
+     * Returns the clock cycle of the next event of all devices.
+     *
+     * @return the earliest deadline, or Long.MAX_VALUE if none
+     */
+    public long getNext() {
+        return next;
+    }
+
+    /**
+     * Catches up the devices whose deadline has been reached.
+     *
+     * @param now
+     *            the clock cycles spent by the CPU
+     */
+    public void run(final long now) {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < devices.length; ++i) {
+            if (deadlines[i] <= now)
+                deadlines[i] = devices[i].update(now);
+            next = Math.min(next, deadlines[i]);
+        }
+        this.next = next;
+    }
+
+    /**
+     * Catches up the devices depending on a peripheral, before or after its
+     * I/O ports are accessed.
+     *
+     * @param peripheral
+     *            the peripheral
+     * @param now
+     *            the clock cycles spent by the CPU
+     */
+    public void update(final Peripheral peripheral, final long now) {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < devices.length; ++i) {
+            if (devices[i].depends(peripheral))
+                deadlines[i] = devices[i].update(now);
+            next = Math.min(next, deadlines[i]);
+        }
+        this.next = next;
+    }
+}
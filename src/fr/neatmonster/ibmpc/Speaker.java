@@ -0,0 +1,290 @@
+package fr.neatmonster.ibmpc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * PC Speaker
+ *
+ * The speaker is driven by the output of timer 2, gated by port B of the
+ * 8255: bit 0 is the gate of the timer, bit 1 lets its output through to the
+ * speaker. Programs beep by loading timer 2 with a square wave and setting
+ * both bits, or click the speaker by toggling bit 1 by themselves.
+ *
+ * The speaker is scheduled as a device. Its samples are synthesized in
+ * blocks, once per quantum of clock cycles, and whenever the I/O ports of the
+ * timer or of the 8255 are accessed, so that every change to the gate or to
+ * the counter is heard when it happened. Each sample reads the output of
+ * timer 2 at its own clock cycle. Blocks are then handed over to a sink: an
+ * audio line, or a WAV file on a machine without one.
+ *
+ * While the gate of timer 2 is low, its output is heard as high, as it is in
+ * the modes of a square wave and of a rate generator: the counter itself is
+ * not stopped.
+ *
+ * @author Alexandre ADAMSKI <alexandre.adamski@etu.enseeiht.fr>
+ */
+public class Speaker implements Scheduler.Device {
+
+    /**
+     * An audio line, whose latency is adapted to the pace of the CPU.
+     *
+     * The line is only fed as long as the speaker sounds: silence is not
+     * played while nothing is queued, and the CPU runs at its own pace. Once
+     * it sounds, the CPU waits for the line to play what is queued beyond the
+     * latency, which paces it to the time of the guest. If the line ever runs
+     * out of samples, the CPU is slower than the guest and the latency is
+     * doubled, up to the size of the line.
+     */
+    public static class Line implements Sink, Closeable {
+        /** The least latency, in samples: 50ms. */
+        private static final int     MIN_LATENCY = RATE / 20;
+        /** The most latency, in samples: 500ms. */
+        private static final int     MAX_LATENCY = RATE / 2;
+
+        /** The audio line. */
+        private final SourceDataLine line;
+        /** The bytes of a block. */
+        private byte[]               bytes       = new byte[0];
+        /** The latency, in samples. */
+        private int                  latency     = MIN_LATENCY;
+        /** Is the line playing? */
+        private boolean              playing;
+
+        /**
+         * Opens the default audio line.
+         *
+         * @throws LineUnavailableException
+         */
+        public Line() throws LineUnavailableException {
+            final AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, MAX_LATENCY * 2);
+            line.start();
+        }
+
+        @Override
+        public void close() {
+            line.close();
+        }
+
+        /**
+         * Returns the number of samples queued on the line.
+         *
+         * @return the number of samples
+         */
+        private int getQueued() {
+            return (line.getBufferSize() - line.available()) / 2;
+        }
+
+        @Override
+        public void write(final short[] samples, final int count) {
+            boolean silent = true;
+            for (int i = 0; i < count && silent; ++i)
+                silent = samples[i] == 0;
+            if (getQueued() == 0) {
+                if (silent) {
+                    playing = false;
+                    return;
+                }
+                // Ran out of samples while playing.
+                if (playing)
+                    latency = Math.min(latency * 2, MAX_LATENCY);
+                playing = true;
+                line.write(new byte[latency * 2], 0, latency * 2);
+            }
+            try {
+                while (getQueued() > latency)
+                    Thread.sleep(1);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (bytes.length < count * 2)
+                bytes = new byte[count * 2];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(samples, 0, count);
+            line.write(bytes, 0, count * 2);
+        }
+    }
+
+    /**
+     * A sink of samples.
+     */
+    public interface Sink {
+
+        /**
+         * Writes a block of samples, 16-bit signed and mono at RATE Hz.
+         *
+         * @param samples
+         *            the samples, reused afterwards
+         * @param count
+         *            the number of samples
+         */
+        void write(short[] samples, int count);
+    }
+
+    /**
+     * A WAV file, for machines without an audio line. Silence is written as
+     * well, so that the file lasts as long as the guest ran.
+     */
+    public static class Wave implements Sink, Closeable {
+        /** The number of bytes of the header. */
+        private static final int  HEADER = 44;
+
+        /** The file. */
+        private final FileChannel channel;
+        /** The bytes of a block. */
+        private ByteBuffer        bytes  = ByteBuffer.allocate(0);
+        /** The number of bytes of samples written. */
+        private long              length;
+
+        /**
+         * Creates a WAV file, or truncates it.
+         *
+         * @param file
+         *            the file
+         * @throws IOException
+         */
+        public Wave(final Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.write(header());
+        }
+
+        /**
+         * Writes the sizes in the header, and closes the file.
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.write(header(), 0);
+            } finally {
+                channel.close();
+            }
+        }
+
+        /**
+         * Returns the header of the file, for the samples written so far.
+         *
+         * @return the header
+         */
+        private ByteBuffer header() {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0x46464952).putInt((int) (HEADER - 8 + length)).putInt(0x45564157); // RIFF, WAVE
+            header.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) 1); // fmt, PCM, mono
+            header.putInt(RATE).putInt(RATE * 2).putShort((short) 2).putShort((short) 16);
+            header.putInt(0x61746164).putInt((int) length); // data
+            return header.flip();
+        }
+
+        @Override
+        public void write(final short[] samples, final int count) {
+            if (bytes.capacity() < count * 2)
+                bytes = ByteBuffer.allocate(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.clear();
+            bytes.asShortBuffer().put(samples, 0, count);
+            bytes.limit(count * 2);
+            try {
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            length += count * 2;
+        }
+    }
+
+    /** The sample rate, in Hz. */
+    public static final int    RATE      = 44100;
+    /** The clock cycles of the CPU per second. */
+    private static final long  FREQUENCY = Intel8086.FREQUENCY;
+    /** The clock cycles between two blocks: 10ms. */
+    private static final long  QUANTUM   = FREQUENCY / 100;
+    /** The amplitude of a sample while the speaker is pushed out. */
+    private static final short AMPLITUDE = 0x2000;
+
+    /** The timer, whose counter 2 drives the speaker. */
+    private final Intel8253    pit;
+    /** The 8255, whose port B gates the speaker. */
+    private final Intel8255    ppi;
+    /** The sink of the samples. */
+    private final Sink         sink;
+    /** The samples of the current block, 100ms at most. */
+    private final short[]      block     = new short[RATE / 10];
+    /** The number of samples of the current block. */
+    private int                length;
+    /** The clock cycle of the first sample, or -1 before the first update. */
+    private long               start     = -1;
+    /** The number of samples synthesized so far. */
+    private long               samples;
+    /** The clock cycle of the end of the current block. */
+    private long               deadline;
+
+    /**
+     * Instantiates a speaker, to be scheduled on the CPU.
+     *
+     * @param pit
+     *            the timer
+     * @param ppi
+     *            the 8255
+     * @param sink
+     *            the sink of the samples
+     */
+    public Speaker(final Intel8253 pit, final Intel8255 ppi, final Sink sink) {
+        this.pit = pit;
+        this.ppi = ppi;
+        this.sink = sink;
+    }
+
+    @Override
+    public boolean depends(final Peripheral peripheral) {
+        return peripheral == pit || peripheral == ppi;
+    }
+
+    /**
+     * Synthesizes the samples up to the specified clock cycle.
+     *
+     * @param now
+     *            the clock cycles spent by the CPU
+     */
+    private void synthesize(final long now) {
+        final int gates = ppi.getPort(1) & 0b11;
+        long at;
+        while ((at = start + samples * FREQUENCY / RATE) < now) {
+            if (length == block.length) {
+                sink.write(block, length);
+                length = 0;
+            }
+            final boolean high = gates == 0b11 ? pit.getOutput(2, at) : gates == 0b10;
+            block[length++] = high ? AMPLITUDE : 0;
+            ++samples;
+        }
+    }
+
+    @Override
+    public long update(final long now) {
+        if (start < 0) {
+            start = now;
+            deadline = now + QUANTUM;
+        }
+        synthesize(now);
+        if (now >= deadline) {
+            sink.write(block, length);
+            length = 0;
+            deadline = now + QUANTUM;
+        }
+        return deadline;
+    }
+}